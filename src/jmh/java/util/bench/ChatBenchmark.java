@@ -0,0 +1,207 @@
+package util.bench;
+
+import face.FaceManager;
+import gui.ChatPane;
+import gui.forms.GUIMain;
+import irc.message.EmoteRanges;
+import irc.message.Message;
+import irc.message.MessageHandler;
+import irc.message.MessageWrapper;
+import lib.pircbot.ChannelManager;
+import lib.pircbot.IRCLine;
+import lib.pircbot.PircBot;
+import lib.pircbot.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import util.Utils;
+
+import javax.swing.*;
+import javax.swing.text.SimpleAttributeSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the parts of the chat path that run for every line of chat, fed from
+ * a recording of the TrafficRecorder. Nothing connects to Twitch and no window is shown.
+ * <p>
+ * Every call handles the next line (or chat message) of the recording, going round
+ * when it's done. Run with -prof gc to see what each allocates per line:
+ * <pre>    mvn -Pjmh verify -Djmh.args="ChatBenchmark -prof gc [-p corpus=recording|newest]"</pre>
+ * Without a corpus, the sample recording in src/jmh/resources is used, with "newest" the
+ * newest recording in Botnak's Traffic folder.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Djava.awt.headless=true")
+public class ChatBenchmark {
+
+    @Param("")
+    public String corpus;
+
+    private String[] lines;
+    private ChatLine[] chat, commands;
+    private BenchBot bot;
+    private HashMap<String, BenchPane> panes;
+    private ChannelManager manager;
+    private final IRCLine line = new IRCLine();
+    private int next = 0;
+
+    @Setup
+    public void setUp() throws Exception {
+        List<String> raw = Headless.loadRecording(corpus);
+        Headless.setUp();
+        Headless.addChannels(raw);
+        //played through the bot once, so the users, channels and emotes are known
+        bot = new BenchBot();
+        for (String l : raw) {
+            bot.feed(l);
+        }
+        lines = raw.toArray(new String[0]);
+
+        ArrayList<ChatLine> chatLines = new ArrayList<>();
+        ArrayList<ChatLine> commandLines = new ArrayList<>();
+        IRCLine parsed = new IRCLine();
+        for (String l : raw) {
+            if (!parsed.parse(l) || !parsed.isCommand("PRIVMSG") || !parsed.hasUserPrefix()) continue;
+            String channel = parsed.getParam(0);
+            if (channel == null || !channel.startsWith("#") || parsed.getTrailing() == null) continue;
+            ChatLine c = new ChatLine(channel, parsed.getNick(), parsed.getTrailing(), parsed.getTag("emotes"));
+            chatLines.add(c);
+            if (c.content.startsWith("!")) commandLines.add(c);
+        }
+        if (chatLines.isEmpty()) throw new IllegalStateException("The recording has no chat in it");
+        chat = chatLines.toArray(new ChatLine[0]);
+        commands = commandLines.isEmpty() ? chat : commandLines.toArray(new ChatLine[0]);
+        panes = new HashMap<>();
+        for (ChatLine l : chat) {
+            if (!panes.containsKey(l.channel)) panes.put(l.channel, new BenchPane(l.channel));
+        }
+        manager = GUIMain.currentSettings.channelManager;
+    }
+
+    private String nextLine() {
+        if (next >= lines.length) next = 0;
+        return lines[next++];
+    }
+
+    private ChatLine nextChat() {
+        if (next >= chat.length) next = 0;
+        return chat[next++];
+    }
+
+    @Benchmark
+    public boolean ircLineParse() {
+        return line.parse(nextLine());
+    }
+
+    @Benchmark
+    public void handleLine() {
+        bot.feed(nextLine());
+    }
+
+    @Benchmark
+    public TreeMap<Integer, Integer> handleFaces() {
+        ChatLine l = nextChat();
+        TreeMap<Integer, Integer> ranges = new TreeMap<>();
+        HashMap<Integer, SimpleAttributeSet> styles = new HashMap<>();
+        FaceManager.handleFaces(ranges, styles, l.content, FaceManager.FACE_TYPE.NORMAL_FACE, null, null);
+        if (l.emotes != null) FaceManager.handleEmotes(ranges, styles, l.content, l.emotes);
+        return ranges;
+    }
+
+    @Benchmark
+    public EmoteRanges emoteRangesParse() {
+        ChatLine l = nextChat();
+        return EmoteRanges.parse(l.emotesTag, l.content);
+    }
+
+    @Benchmark
+    public Object getSetForKeyword() {
+        return Utils.getSetForKeyword(nextChat().content);
+    }
+
+    @Benchmark
+    public boolean mentionsKeyword() {
+        return Utils.mentionsKeyword(nextChat().content);
+    }
+
+    @Benchmark
+    public User getUser() {
+        return manager.getUser(nextChat().nick, true);
+    }
+
+    @Benchmark
+    public Object getConsoleCommand() {
+        if (next >= commands.length) next = 0;
+        ChatLine l = commands[next++];
+        return Utils.getConsoleCommand(l.content.split(" ")[0].substring(1), l.channel, manager.getUser(l.nick, true));
+    }
+
+    @Benchmark
+    public Object compareStrings() {
+        return Utils.compareStrings(nextChat().content, "any% no wrong warp");
+    }
+
+    @Benchmark
+    public MessageWrapper printMessage() {
+        ChatLine l = nextChat();
+        MessageWrapper wrap = new MessageWrapper(new Message(l.channel, l.nick, l.content, false).setEmotes(l.emotes));
+        panes.get(l.channel).style(wrap, l.content, manager.getUser(l.nick, true));
+        return wrap;
+    }
+
+    private static class ChatLine {
+        final String channel, nick, content, emotesTag;
+        final EmoteRanges emotes;
+
+        ChatLine(String channel, String nick, String content, String emotesTag) {
+            this.channel = channel;
+            this.nick = nick;
+            this.content = content;
+            this.emotesTag = emotesTag;
+            emotes = EmoteRanges.parse(emotesTag, content);
+        }
+    }
+
+    /**
+     * A bot that is never connected, lines are handed to it directly.
+     */
+    private static class BenchBot extends PircBot {
+        BenchBot() {
+            super(new MessageHandler() {
+            }, Headless.USER);
+        }
+
+        void feed(String raw) {
+            handleLine(raw);
+        }
+    }
+
+    /**
+     * A chat pane that is not in any window.
+     */
+    private static class BenchPane extends ChatPane {
+        BenchPane(String channel) {
+            super(channel, new JScrollPane(), new JTextPane(), 0);
+        }
+
+        void style(MessageWrapper m, String text, User u) {
+            printMessage(m, text, GUIMain.norm, u);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package util.bench;
+
+import gui.ChatDocument;
+import gui.ChatList;
+import gui.WrapEditorKit;
+import gui.forms.GUIMain;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.swing.*;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fills a text pane (without chat cleanup) or a ChatList with the given amount of chat, and
+ * times adding a batch of messages and painting the visible part, to show how each grows with
+ * the chat. The heap the filled view takes up is printed once it's filled.
+ * <pre>    mvn -Pjmh verify -Djmh.args="ChatViewBenchmark -prof gc [-p filled=..]"</pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Djava.awt.headless=true")
+public class ChatViewBenchmark {
+
+    private static final int BATCH = 20;
+    private static final int WIDTH = 800, HEIGHT = 600;
+
+    private interface View {
+        void append(String text, SimpleAttributeSet set, long time) throws Exception;
+
+        void flush() throws Exception;
+
+        JComponent getComponent();
+    }
+
+    @Param({"ChatList", "JTextPane"})
+    public String view;
+
+    @Param({"10000", "100000"})
+    public int filled;
+
+    private View chat;
+    private JViewport viewport;
+    private SimpleAttributeSet user;
+    private BufferedImage image;
+    private int added = 0;
+
+    @Setup
+    public void setUp() throws Exception {
+        Headless.setUp();
+        SwingUtilities.invokeAndWait(() -> {
+            StyleConstants.setForeground(GUIMain.norm, Color.white);
+            StyleConstants.setFontFamily(GUIMain.norm, GUIMain.currentSettings.font.getFamily());
+            StyleConstants.setFontSize(GUIMain.norm, GUIMain.currentSettings.font.getSize());
+            chat = "ChatList".equals(view) ? chatList() : textPane();
+            viewport = new JViewport();
+            viewport.setView(chat.getComponent());
+            viewport.setSize(WIDTH, HEIGHT);
+            viewport.doLayout();
+        });
+        user = new SimpleAttributeSet(GUIMain.norm);
+        StyleConstants.setForeground(user, Color.orange);
+        image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        long heapBefore = usedHeap();
+        while (added < filled) {
+            appendBatch();
+        }
+        System.out.println(String.format(Locale.US, "%s with %,d messages: %.2f MB heap",
+                view, filled, (usedHeap() - heapBefore) / 1e6));
+    }
+
+    private static View chatList() {
+        ChatList list = new ChatList(null, ChatList.DEFAULT_ROWS);
+        return new View() {
+            public void append(String text, SimpleAttributeSet set, long time) {
+                list.append(text, set, time);
+            }
+
+            public void flush() {
+                list.flush();
+            }
+
+            public JComponent getComponent() {
+                return list;
+            }
+        };
+    }
+
+    private static View textPane() {
+        JTextPane pane = new JTextPane();
+        pane.setEditorKit(new WrapEditorKit());
+        ChatDocument doc = new ChatDocument();
+        pane.setStyledDocument(doc);
+        pane.setBackground(Color.black);
+        return new View() {
+            public void append(String text, SimpleAttributeSet set, long time) {
+                doc.appendBatch(text, set);
+            }
+
+            public void flush() throws Exception {
+                doc.flushBatch();
+            }
+
+            public JComponent getComponent() {
+                return pane;
+            }
+        };
+    }
+
+    /**
+     * Adds BATCH messages and flushes them, like one frame of the MessageQueue.
+     */
+    @Benchmark
+    public void appendBatch() throws Exception {
+        final int first = added;
+        SwingUtilities.invokeAndWait(() -> {
+            try {
+                for (int i = first; i < first + BATCH; i++) {
+                    long time = System.currentTimeMillis();
+                    chat.append("\n[4:20 PM] ", GUIMain.norm, time);
+                    chat.append("user" + (i % 500), user, time);
+                    chat.append(": message number " + i + " with a few more words in it, like Kappa and PogChamp",
+                            GUIMain.norm, time);
+                }
+                chat.flush();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        added += BATCH;
+    }
+
+    /**
+     * Paints the bottom of the chat, what the user sees.
+     */
+    @Benchmark
+    public void paint() throws Exception {
+        SwingUtilities.invokeAndWait(() -> {
+            JComponent c = chat.getComponent();
+            viewport.doLayout();
+            c.setSize(WIDTH, c.getPreferredSize().height);
+            Rectangle bottom = new Rectangle(0, Math.max(c.getHeight() - HEIGHT, 0), WIDTH, HEIGHT);
+            Graphics2D g = image.createGraphics();
+            g.translate(0, -bottom.y);
+            g.setClip(bottom);
+            c.paint(g);
+            g.dispose();
+        });
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) System.gc();
+        Runtime r = Runtime.getRuntime();
+        return r.totalMemory() - r.freeMemory();
+    }
+}
@@ -0,0 +1,180 @@
+package util.bench;
+
+import face.Face;
+import face.FaceManager;
+import face.SubscriberIcon;
+import face.TwitchFace;
+import gui.DraggableTabbedPane;
+import gui.forms.GUIMain;
+import irc.account.Account;
+import irc.account.AccountManager;
+import lib.pircbot.Channel;
+import lib.pircbot.ChannelManager;
+import lib.pircbot.IRCLine;
+import lib.pircbot.TrafficRecorder;
+import thread.heartbeat.BanQueue;
+import util.settings.DonationManager;
+import util.settings.Settings;
+import util.settings.SubscriberManager;
+
+import javax.imageio.ImageIO;
+import javax.swing.text.StyleConstants;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Sets up what the GUI would have loaded, without the GUI, for the benchmarks.
+ * All of the settings and files live in a temporary folder, and every face or
+ * badge points to the same small image so nothing is downloaded.
+ */
+final class Headless {
+
+    static final String USER = "palehorsbot";
+
+    private static final String[] TWITCH_FACES = {"Kappa:25", "PogChamp:88", "Kreygasm:41", "4Head:354",
+            "BibleThump:86", "SMOrc:52", "ResidentSleeper:245", "DansGame:33", "FailFish:360", "Keepo:1902"};
+
+    //where Botnak keeps the recordings of the TrafficRecorder, before setUp moves the settings away
+    private static final File RECORDINGS = new File(Settings.defaultDir, "Traffic");
+
+    //a few minutes of chat in three channels, with made up names and ids
+    private static final String SAMPLE = "chat-sample.txt";
+
+    private static File image;
+
+    private Headless() {
+    }
+
+    static Settings setUp() throws Exception {
+        File dir = Files.createTempDirectory("botnak-bench").toFile();
+        dir.deleteOnExit();
+        Settings.defaultDir = dir;
+        GUIMain.conCommands = new CopyOnWriteArraySet<>();
+        GUIMain.keywordMap = new ConcurrentHashMap<>();
+        GUIMain.combinedChatPanes = new CopyOnWriteArraySet<>();
+        GUIMain.userColMap = new ConcurrentHashMap<>();
+        GUIMain.channelSet = new CopyOnWriteArraySet<>();
+        GUIMain.channelPane = new DraggableTabbedPane();//needed by the Constants
+        StyleConstants.setForeground(GUIMain.norm, Color.white);
+        FaceManager.init();
+
+        Settings s = new Settings();
+        GUIMain.currentSettings = s;
+        s.botReplyType = 2;
+        s.autoReconnectAccounts = false;
+        s.accountManager = new AccountManager();
+        s.accountManager.setUserAccount(new Account(USER, null));
+        s.channelManager = new ChannelManager();
+        s.donationManager = new DonationManager();
+        s.subscriberManager = new SubscriberManager();
+        s.loadConsoleCommands();
+        GUIMain.keywordMap.put(USER, Color.orange);
+        GUIMain.keywordMap.put("pb", Color.green);
+        GUIMain.keywordMap.put("wr", Color.red);
+
+        image = new File(s.twitchFaceDir, "face.png");
+        ImageIO.write(new BufferedImage(28, 28, BufferedImage.TYPE_INT_ARGB), "png", image);
+        for (String face : TWITCH_FACES) {
+            String[] split = face.split(":");
+            FaceManager.twitchFaceMap.put(Integer.parseInt(split[1]),
+                    new TwitchFace(split[0], image.getAbsolutePath(), true, 0));
+        }
+        FaceManager.faceMap.put("smile", new Face(":\\)", image.getAbsolutePath()));
+        FaceManager.faceMap.put("gg", new Face("(?i)\\bgg\\b", image.getAbsolutePath()));
+        FaceManager.doneWithFaces = true;
+        FaceManager.doneWithTwitchFaces = true;
+        URL url = image.toURI().toURL();
+        if (s.modIcon == null) s.modIcon = url;
+        if (s.broadIcon == null) s.broadIcon = url;
+        if (s.adminIcon == null) s.adminIcon = url;
+        if (s.staffIcon == null) s.staffIcon = url;
+        if (s.turboIcon == null) s.turboIcon = url;
+        if (s.primeIcon == null) s.primeIcon = url;
+        new BanQueue();//sets up the ban map
+        return s;
+    }
+
+    /**
+     * Reads the raw lines of a recording of the TrafficRecorder, without the PINGs.
+     *
+     * @param path The recording, "newest" for the newest one Botnak recorded (RecordTraffic=true
+     *             in the settings makes one), or empty for the anonymised sample next to the
+     *             benchmarks (SAMPLE, in src/jmh/resources).
+     * @return The raw lines.
+     */
+    static List<String> loadRecording(String path) throws Exception {
+        InputStream in;
+        if (path == null || path.isEmpty()) {
+            in = Headless.class.getResourceAsStream(SAMPLE);
+            if (in == null) throw new IllegalStateException("The sample recording " + SAMPLE + " is missing");
+        } else {
+            File file = "newest".equals(path) ? newestRecording() : new File(path);
+            if (file == null || !file.isFile()) {
+                throw new IllegalStateException("No recording at " + (file == null ? RECORDINGS : file)
+                        + ", record some chat first or pass one with -p corpus=[file]");
+            }
+            in = new FileInputStream(file);
+        }
+        ArrayList<String> toReturn = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            for (TrafficRecorder.Entry e : TrafficRecorder.read(br)) {
+                if (!e.getLine().startsWith("PING ")) toReturn.add(e.getLine());
+            }
+        }
+        return toReturn;
+    }
+
+    private static File newestRecording() {
+        File[] files = RECORDINGS.listFiles(File::isFile);
+        File toReturn = null;
+        if (files != null) {
+            for (File f : files) {
+                if (toReturn == null || f.lastModified() > toReturn.lastModified()) toReturn = f;
+            }
+        }
+        return toReturn;
+    }
+
+    /**
+     * Adds every channel the given lines are for, like joining them in the GUI would.
+     *
+     * @param lines The raw lines.
+     * @return The channels, with the hashtag.
+     */
+    static Set<String> addChannels(List<String> lines) {
+        LinkedHashSet<String> toReturn = new LinkedHashSet<>();
+        IRCLine parsed = new IRCLine();
+        for (String raw : lines) {
+            if (!parsed.parse(raw)) continue;
+            String channel = parsed.getParam(0);
+            if (channel != null && channel.length() > 1 && channel.startsWith("#")
+                    && toReturn.add(channel.toLowerCase())) {
+                addChannel(channel.toLowerCase());
+            }
+        }
+        return toReturn;
+    }
+
+    static void addChannel(String channel) {
+        if (!channel.startsWith("#")) channel = "#" + channel;
+        ChannelManager manager = GUIMain.currentSettings.channelManager;
+        if (manager.getChannel(channel) != null) return;
+        manager.addChannel(new Channel(channel));
+        GUIMain.channelSet.add(channel);
+        FaceManager.subIconSet.add(new SubscriberIcon(channel, image.getAbsolutePath()));
+    }
+}
@@ -0,0 +1,106 @@
+package util.bench;
+
+import gui.forms.GUIMain;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import util.history.ChatHistory;
+
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fills a channel's chat history with a few months of made up chat, and times the lookups
+ * the history is for: the last messages of a user, and the messages in a window of time,
+ * as well as adding a message.
+ * <pre>    mvn -Pjmh verify -Djmh.args="HistoryBenchmark [-p messages=..] [-p days=..]"</pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistoryBenchmark {
+
+    private static final String CHANNEL = "#benchmark", WRITES = "#benchmark-writes";
+    private static final int USERS = 20_000;
+
+    @Param("3000000")
+    public int messages;
+
+    @Param("90")
+    public int days;
+
+    private long middle;
+    private int written = 0;
+
+    @Setup
+    public void setUp() throws Exception {
+        Headless.setUp();
+        GUIMain.currentSettings.logDir = Files.createTempDirectory("botnak-history").toFile();
+        long end = System.currentTimeMillis(), start = end - days * 86_400_000L;
+        long step = (end - start) / messages;
+        for (int i = 0; i < messages; i++) {
+            ChatHistory.record(CHANNEL, start + i * step, getUser(i), "",
+                    "message number " + i + " with some more words in it, like Kappa");
+        }
+        //written out and closed, so the lookups read the segments back like after a restart
+        ChatHistory.shutdown();
+        middle = start + (end - start) / 2;
+    }
+
+    @TearDown
+    public void tearDown() {
+        ChatHistory.shutdown();
+    }
+
+    /**
+     * A few users talk a lot, most hardly ever, like real chat.
+     */
+    private static String getUser(int message) {
+        return "user" + (int) (USERS * Math.pow((message * 7919L % 10_007) / 10_007.0, 3));
+    }
+
+    @Benchmark
+    public List<ChatHistory.Record> lastFromRegular() {
+        return ChatHistory.getLastFrom(CHANNEL, "user0", 50);
+    }
+
+    @Benchmark
+    public List<ChatHistory.Record> lastFromRareUser() {
+        return ChatHistory.getLastFrom(CHANNEL, getUser(10_000), 50);
+    }
+
+    @Benchmark
+    public List<ChatHistory.Record> last100() {
+        return ChatHistory.getLast(CHANNEL, 100);
+    }
+
+    @Benchmark
+    public List<ChatHistory.Record> oneMinute45DaysAgo() {
+        return ChatHistory.getBetween(CHANNEL, middle, middle + 60_000);
+    }
+
+    @Benchmark
+    public List<ChatHistory.Record> oneHour45DaysAgo() {
+        return ChatHistory.getBetween(CHANNEL, middle, middle + 3_600_000);
+    }
+
+    @Benchmark
+    public void record() {
+        int i = written++;
+        ChatHistory.record(WRITES, System.currentTimeMillis(), getUser(i), "",
+                "message number " + i + " with some more words in it, like Kappa");
+    }
+}
@@ -0,0 +1,205 @@
+package util.bench;
+
+import lib.JSON.JSONArray;
+import lib.JSON.JSONObject;
+import lib.JSON.JSONStreamReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading the big API payloads into a String and a JSONObject with streaming them
+ * through a JSONStreamReader, on made up bodies the size of the real ones: the list of every
+ * Twitch emote and the chatters of a big channel.
+ * <p>
+ * With -prof gc the bytes allocated per parse show how much garbage the JSONObject way
+ * makes. Once the runs are done, the heap the JSONObject way holds on to while the fields
+ * are picked out of it is printed too, which the streaming way never needs:
+ * <pre>    mvn -Pjmh verify -Djmh.args="JsonBenchmark -prof gc"</pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+
+    @Param("50000")
+    public int emotes;
+
+    @Param("30000")
+    public int chatters;
+
+    private byte[] emoteBody, chatterBody;
+
+    @Setup
+    public void setUp() {
+        emoteBody = emoteList(emotes);
+        chatterBody = chatterList(chatters);
+    }
+
+    @TearDown
+    public void printRetained() {
+        System.out.println(String.format(Locale.US, "emotes, JSONObject holds %,d bytes while it's read",
+                retained(emoteBody)));
+        System.out.println(String.format(Locale.US, "chatters, JSONObject holds %,d bytes while it's read",
+                retained(chatterBody)));
+    }
+
+    @Benchmark
+    public long emotesJSONObject() {
+        return emotesTree(emoteBody);
+    }
+
+    @Benchmark
+    public long emotesJSONStreamReader() {
+        return emotesStream(emoteBody);
+    }
+
+    @Benchmark
+    public int chattersJSONObject() {
+        return chattersTree(chatterBody);
+    }
+
+    @Benchmark
+    public int chattersJSONStreamReader() {
+        return chattersStream(chatterBody);
+    }
+
+    private static long emotesTree(byte[] body) {
+        JSONArray array = new JSONObject(new String(body, StandardCharsets.UTF_8)).getJSONArray("emoticons");
+        long sum = 0;
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject emote = array.getJSONObject(i);
+            sum += emote.getInt("id") + emote.getString("code").length() + emote.optInt("emoticon_set");
+        }
+        return sum;
+    }
+
+    private static long emotesStream(byte[] body) {
+        JSONStreamReader reader = new JSONStreamReader(new ByteArrayInputStream(body));
+        long sum = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals("emoticons")) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            while (reader.hasNext()) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case "id":
+                        case "emoticon_set":
+                            sum += reader.nextInt();
+                            break;
+                        case "code":
+                            sum += reader.nextString().length();
+                            break;
+                        default:
+                            reader.skipValue();
+                            break;
+                    }
+                }
+                reader.endObject();
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+        return sum;
+    }
+
+    private static int chattersTree(byte[] body) {
+        JSONObject chatters = new JSONObject(new String(body, StandardCharsets.UTF_8)).getJSONObject("chatters");
+        HashSet<String> names = new HashSet<>();
+        for (String category : JSONObject.getNames(chatters)) {
+            JSONArray array = chatters.getJSONArray(category);
+            for (int i = 0; i < array.length(); i++) {
+                names.add(array.getString(i));
+            }
+        }
+        return names.size();
+    }
+
+    private static int chattersStream(byte[] body) {
+        JSONStreamReader reader = new JSONStreamReader(new ByteArrayInputStream(body));
+        HashSet<String> names = new HashSet<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals("chatters")) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                reader.nextName();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    names.add(reader.nextString());
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+        }
+        reader.endObject();
+        return names.size();
+    }
+
+    /**
+     * @return How much heap the body's String and JSONObject take up.
+     */
+    private static long retained(byte[] body) {
+        long before = usedHeap();
+        String text = new String(body, StandardCharsets.UTF_8);
+        JSONObject tree = new JSONObject(text);
+        long after = usedHeap();
+        if (tree.length() + text.length() == 0) System.out.println();//keeps both alive until here
+        return after - before;
+    }
+
+    private static long usedHeap() {
+        Runtime r = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return r.totalMemory() - r.freeMemory();
+    }
+
+    private static byte[] emoteList(int count) {
+        StringBuilder sb = new StringBuilder("{\"_links\":{\"self\":\"https://api.twitch.tv/kraken/chat/emoticon_images\"},\"emoticons\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) sb.append(',');
+            sb.append("{\"id\":").append(i + 1)
+                    .append(",\"code\":\"emote").append(Integer.toString(i * 7919, 36)).append("Hype\"")
+                    .append(",\"emoticon_set\":").append(i % 4000).append('}');
+        }
+        return sb.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] chatterList(int count) {
+        StringBuilder sb = new StringBuilder("{\"_links\":{},\"chatter_count\":").append(count)
+                .append(",\"chatters\":{\"moderators\":[\"nightbot\",\"moobot\"],\"staff\":[],\"admins\":[],\"global_mods\":[],\"viewers\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) sb.append(',');
+            sb.append("\"viewer_").append(Integer.toString(i * 104729, 36)).append('"');
+        }
+        return sb.append("]}}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
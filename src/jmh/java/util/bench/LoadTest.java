@@ -0,0 +1,260 @@
+package util.bench;
+
+import gui.ChatPane;
+import gui.forms.GUIMain;
+import irc.IRCViewer;
+import irc.message.MessageHandler;
+import irc.message.MessageQueue;
+import lib.pircbot.IRCLine;
+import lib.pircbot.PircBot;
+import lib.pircbot.TrafficRecorder;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Replays a recording (see TrafficRecorder) through a local ReplayServer into a real
+ * PircBotConnection, and measures how long every chat message takes to come out the other end.
+ * <p>
+ * Usage: mvn -Pjmh verify -Djmh.main=util.bench.LoadTest -Djmh.args="[recording] [speed] [--no-gui] [--nio]"
+ * <p>
+ * The speed is how many times faster than recorded to play the chat (1, 10...), or "max".
+ * By default messages go the whole way: PircBot.handleLine, IRCViewer, the MessageQueue and
+ * into the document of their ChatPane, which is where they are timed. With --no-gui they are
+ * timed as soon as the MessageHandler gets them instead. With --nio the connection is run by
+ * the NioTransport instead of its own threads.
+ * Nothing is shown on screen either way, and nothing connects to Twitch.
+ */
+public class LoadTest {
+
+    //how long to wait for the last messages to come through before giving up on them
+    private static final long SETTLE_TIME = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.out.println("Usage: LoadTest [recording] [speed|max] [--no-gui] [--nio]");
+            return;
+        }
+        List<TrafficRecorder.Entry> entries;
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(args[0]), StandardCharsets.UTF_8))) {
+            entries = TrafficRecorder.read(br);
+        }
+        double speed = (args.length > 1 && !"max".equalsIgnoreCase(args[1])) ? Double.parseDouble(args[1]) : 0;
+        boolean gui = !Arrays.asList(args).contains("--no-gui");
+        ArrayList<String> lines = new ArrayList<>();
+        for (TrafficRecorder.Entry e : entries) {
+            lines.add(e.getLine());
+        }
+
+        Headless.setUp();
+        GUIMain.currentSettings.nioTransport = Arrays.asList(args).contains("--nio");
+        Tracker tracker = new Tracker();
+        MessageHandler handler;
+        if (gui) {
+            new MessageQueue().start();
+            GUIMain.chatPanes = new ConcurrentHashMap<>();
+            GUIMain.chatPanes.put("System Logs", new ChatPane("System Logs", new JScrollPane(), new JTextPane(), 0));
+            for (String channel : Headless.addChannels(lines)) {
+                ChatPane pane = new ChatPane(channel, new JScrollPane(), new JTextPane(), 0);
+                pane.getTextPane().getDocument().addDocumentListener(tracker.listen(channel));
+                GUIMain.chatPanes.put(channel.substring(1), pane);
+            }
+            handler = new IRCViewer();
+        } else {
+            Headless.addChannels(lines);
+            handler = new MessageHandler() {
+                @Override
+                public void onMessage(String channel, String sender, String message) {
+                    tracker.done(channel, message);
+                }
+
+                @Override
+                public void onAction(String sender, String channel, String action) {
+                    tracker.done(channel, action);
+                }
+            };
+        }
+        PircBot bot = new PircBot(handler, Headless.USER);
+        GUIMain.currentSettings.accountManager.setViewer(bot);
+        GUIMain.currentSettings.accountManager.setBot(bot);
+
+        ReplayServer server = new ReplayServer(entries, speed, tracker::sent);
+        server.start();
+        bot.getConnection().setServer("127.0.0.1", server.getPort());
+        System.out.println("Replaying " + entries.size() + " lines at " + (speed > 0 ? speed + "x" : "max speed")
+                + (gui ? " into the chat panes" : " into the message handler"));
+        long start = System.nanoTime();
+        if (!bot.getConnection().connect()) {
+            System.out.println("Could not connect to the replay server!");
+            System.exit(1);
+        }
+
+        //wait for the server to finish, and then for the chat to catch up
+        long lastProgress = System.currentTimeMillis();
+        long lastDone = 0;
+        while (!server.isDone() || tracker.getPending() > 0) {
+            Thread.sleep(50);
+            long done = tracker.getDone() + tracker.getMissed();
+            if (done != lastDone) {
+                lastDone = done;
+                lastProgress = System.currentTimeMillis();
+            } else if (server.isDone() && System.currentTimeMillis() - lastProgress > SETTLE_TIME) {
+                break;
+            }
+        }
+        double seconds = Math.max(tracker.getLastDone() - start, 1) / 1_000_000_000.0;
+        System.out.println(tracker.report(server.getSent(), seconds));
+        if (gui) System.out.println("Dropped by the message queue: " + MessageQueue.getDroppedMessages());
+        System.exit(0);
+    }
+
+    /**
+     * Matches the chat messages sent by the server with the ones that came out, per channel.
+     * Messages of a channel come out in the order they went in, so a message that is never
+     * found before a later one came out was dropped along the way.
+     */
+    private static class Tracker {
+
+        private static class Sent {
+            final String content;
+            final long nanoTime;
+
+            Sent(String content, long nanoTime) {
+                this.content = content;
+                this.nanoTime = nanoTime;
+            }
+        }
+
+        private final IRCLine parsed = new IRCLine();//only used by the server thread
+        private final ConcurrentHashMap<String, ConcurrentLinkedQueue<Sent>> pending = new ConcurrentHashMap<>();
+        private long[] latencies = new long[1024];
+        private volatile int done = 0;
+        private volatile long missed = 0, lastDone = 0;
+
+        void sent(String line, long nanoTime) {
+            if (!parsed.parse(line) || !parsed.isCommand("PRIVMSG") || !parsed.hasUserPrefix()) return;
+            String channel = parsed.getParam(0);
+            String content = parsed.getTrailing();
+            if (channel == null || !channel.startsWith("#") || content == null) return;
+            if ("twitchnotify".equalsIgnoreCase(parsed.getNick())) return;
+            if (content.startsWith("\u0001ACTION ") && content.endsWith("\u0001")) {
+                content = content.substring(8, content.length() - 1);
+            }
+            ConcurrentLinkedQueue<Sent> queue = pending.get(getKey(channel));
+            if (queue == null) {
+                pending.putIfAbsent(getKey(channel), new ConcurrentLinkedQueue<>());
+                queue = pending.get(getKey(channel));
+            }
+            queue.add(new Sent(content, nanoTime));
+        }
+
+        /**
+         * Called with whatever came out for a channel, on one thread at a time.
+         */
+        synchronized void done(String channel, String text) {
+            long now = System.nanoTime();
+            ConcurrentLinkedQueue<Sent> queue = pending.get(getKey(channel));
+            if (queue == null) return;
+            int skip = 0;
+            Sent match = null;
+            for (Sent s : queue) {
+                if (text.endsWith(s.content)) {
+                    match = s;
+                    break;
+                }
+                skip++;
+            }
+            if (match == null) return;//not a chat message
+            Iterator<Sent> it = queue.iterator();
+            for (int i = 0; i <= skip; i++) {
+                it.next();
+                it.remove();
+            }
+            missed += skip;
+            if (done == latencies.length) latencies = Arrays.copyOf(latencies, done * 2);
+            latencies[done] = now - match.nanoTime;
+            done++;
+            lastDone = now;
+        }
+
+        DocumentListener listen(String channel) {
+            return new DocumentListener() {
+                @Override
+                public void insertUpdate(DocumentEvent e) {
+                    try {
+                        //every message starts on a new line
+                        for (String text : e.getDocument().getText(e.getOffset(), e.getLength()).split("\n")) {
+                            if (!text.isEmpty()) done(channel, text);
+                        }
+                    } catch (Exception ignored) {
+                    }
+                }
+
+                @Override
+                public void removeUpdate(DocumentEvent e) {
+                }
+
+                @Override
+                public void changedUpdate(DocumentEvent e) {
+                }
+            };
+        }
+
+        private static String getKey(String channel) {
+            return channel.replaceAll("#", "").toLowerCase();
+        }
+
+        int getPending() {
+            int total = 0;
+            for (ConcurrentLinkedQueue<Sent> queue : pending.values()) {
+                total += queue.size();
+            }
+            return total;
+        }
+
+        long getDone() {
+            return done;
+        }
+
+        long getMissed() {
+            return missed;
+        }
+
+        long getLastDone() {
+            return lastDone;
+        }
+
+        synchronized String report(long lines, double seconds) {
+            long[] sorted = Arrays.copyOf(latencies, done);
+            Arrays.sort(sorted);
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.US, "%d lines in %.2f s: %.0f lines/s, %.0f messages/s%n",
+                    lines, seconds, lines / seconds, done / seconds));
+            sb.append(String.format(Locale.US, "%d messages shown, %d dropped, %d never came through%n",
+                    done, missed, getPending()));
+            if (sorted.length > 0) {
+                sb.append(String.format(Locale.US, "latency (ms): p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f",
+                        percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99),
+                        percentile(sorted, 99.9), sorted[sorted.length - 1] / 1_000_000.0));
+            }
+            return sb.toString();
+        }
+
+        private static double percentile(long[] sorted, double p) {
+            int index = (int) Math.ceil(p / 100 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1_000_000.0;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package util.bench;
+
+import lib.pircbot.Queue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares lib.pircbot.Queue with the synchronized Vector it used to be, both on one
+ * thread and with several threads adding while one takes, like the OutputThread and
+ * the MessageQueue see it.
+ * <pre>    mvn -Pjmh verify -Djmh.args="QueueBenchmark -prof gc"</pre>
+ */
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueueBenchmark {
+
+    /**
+     * A queue that adds and takes on one thread.
+     */
+    @State(Scope.Thread)
+    public static class Single {
+
+        @Param({"VECTOR", "RING"})
+        public Kind kind;
+
+        //how many messages sit in the queue while adding and taking, like chat piling up,
+        //more than the ring holds puts them in the Queue's overflow
+        @Param({"0", "512", "4096"})
+        public int backlog;
+
+        private TestQueue<String> queue;
+        private final String[] inputs = new String[1024];
+        private int next = 0;
+
+        @Setup
+        public void setUp() {
+            for (int i = 0; i < inputs.length; i++) {
+                inputs[i] = "PRIVMSG #channel :message " + i;
+            }
+            queue = kind.create();
+            for (int i = 0; i < backlog; i++) {
+                queue.add(inputs[i % inputs.length]);
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public String addNext(Single s) {
+        s.queue.add(s.inputs[s.next++ & (s.inputs.length - 1)]);
+        return s.queue.next();
+    }
+
+    /**
+     * A number of threads each add the given amount of messages at once, while this one
+     * takes them all.
+     */
+    @State(Scope.Thread)
+    public static class Contended {
+
+        @Param({"VECTOR", "RING"})
+        public Kind kind;
+
+        @Param({"1", "2", "4", "8"})
+        public int producers;
+
+        @Param("200000")
+        public int messages;
+
+        private TestQueue<String> queue;
+        private CountDownLatch start;
+        private ArrayList<Thread> threads;
+
+        @Setup(Level.Invocation)
+        public void setUp() {
+            queue = kind.create();
+            start = new CountDownLatch(1);
+            threads = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                Thread t = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < messages; i++) {
+                        queue.add("PRIVMSG #channel :message");
+                    }
+                });
+                t.start();
+                threads.add(t);
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 10, batchSize = 1)
+    @Measurement(iterations = 20, batchSize = 1)
+    public long contended(Contended c) throws InterruptedException {
+        long total = (long) c.producers * c.messages;
+        c.start.countDown();
+        for (long i = 0; i < total; i++) {
+            if (c.queue.next() == null) throw new IllegalStateException("Lost a message");
+        }
+        for (Thread t : c.threads) {
+            t.join();
+        }
+        return total;
+    }
+
+    public enum Kind {
+        VECTOR, RING;
+
+        TestQueue<String> create() {
+            if (this == VECTOR) {
+                VectorQueue<String> q = new VectorQueue<>();
+                return new TestQueue<String>() {
+                    public void add(String o) {
+                        q.add(o);
+                    }
+
+                    public String next() {
+                        return q.next();
+                    }
+                };
+            }
+            Queue<String> q = new Queue<>();
+            return new TestQueue<String>() {
+                public void add(String o) {
+                    q.add(o);
+                }
+
+                public String next() {
+                    return q.next();
+                }
+            };
+        }
+    }
+
+    private interface TestQueue<T> {
+        void add(T o);
+
+        T next();
+    }
+
+    /**
+     * lib.pircbot.Queue as it was before it became a ring buffer.
+     */
+    private static class VectorQueue<T> {
+        private final Vector<T> _queue = new Vector<>();
+
+        void add(T o) {
+            synchronized (_queue) {
+                _queue.addElement(o);
+                _queue.notify();
+            }
+        }
+
+        T next() {
+            synchronized (_queue) {
+                while (_queue.size() == 0) {
+                    try {
+                        _queue.wait();
+                    } catch (InterruptedException e) {
+                        return null;
+                    }
+                }
+                T o = _queue.firstElement();
+                _queue.removeElementAt(0);
+                return o;
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package util.bench;
+
+import lib.pircbot.TrafficRecorder;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A loopback IRC server that plays a recording to the first client that connects,
+ * and then stays connected until the client hangs up.
+ * <p>
+ * The client is welcomed like Twitch does (001 to 004) once it sends its NICK, and then
+ * gets the recorded lines with their recorded delays divided by the speed. A speed of 0
+ * sends everything as fast as the client reads it. Whatever the client sends is read
+ * and ignored, except for PINGs which are answered.
+ */
+public class ReplayServer extends Thread {
+
+    /**
+     * Told about every line right as it is sent to the client.
+     */
+    public interface Listener {
+        void onSent(String line, long nanoTime);
+    }
+
+    //lines written between flushes when replaying as fast as possible
+    private static final int MAX_SPEED_BATCH = 64;
+
+    private final ServerSocket server;
+    private final List<TrafficRecorder.Entry> entries;
+    private final double speed;
+    private final Listener listener;
+    private volatile boolean done = false;
+    private volatile long sent = 0;
+
+    /**
+     * @param entries  The recording to play.
+     * @param speed    How many times faster than recorded to play it, 0 for as fast as possible.
+     * @param listener Told about every line sent, may be null.
+     * @throws IOException If no local port could be opened.
+     */
+    public ReplayServer(List<TrafficRecorder.Entry> entries, double speed, Listener listener) throws IOException {
+        this.entries = entries;
+        this.speed = speed;
+        this.listener = listener;
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        setName("ReplayServer");
+        setDaemon(true);
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * @return True once every line was sent (or the client went away).
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * @return The amount of lines sent so far.
+     */
+    public long getSent() {
+        return sent;
+    }
+
+    @Override
+    public void run() {
+        try (Socket socket = server.accept();
+             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+             BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            String nick = null;
+            String line;
+            while (nick == null && (line = reader.readLine()) != null) {
+                if (line.startsWith("NICK ")) nick = line.substring(5).trim();
+            }
+            if (nick == null) return;
+            synchronized (writer) {
+                writer.write(":tmi.twitch.tv 001 " + nick + " :Welcome, GLHF!\r\n");
+                writer.write(":tmi.twitch.tv 002 " + nick + " :Your host is tmi.twitch.tv\r\n");
+                writer.write(":tmi.twitch.tv 003 " + nick + " :This server is rather new\r\n");
+                writer.write(":tmi.twitch.tv 004 " + nick + " :-\r\n");
+                writer.flush();
+            }
+            Thread drain = startDraining(reader, writer);
+            replay(writer);
+            done = true;
+            //stay connected until the client hangs up, like the real server would
+            drain.join();
+        } catch (IOException | InterruptedException ignored) {
+            //the client hung up
+        } finally {
+            done = true;
+            try {
+                server.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void replay(BufferedWriter writer) throws IOException {
+        ArrayList<String> unflushed = new ArrayList<>();
+        long start = System.nanoTime();
+        long recorded = 0;//milliseconds into the recording
+        for (TrafficRecorder.Entry e : entries) {
+            recorded += e.getDelay();
+            if (speed > 0) {
+                long wait = (start + (long) (recorded * 1_000_000 / speed) - System.nanoTime()) / 1_000_000;
+                if (wait > 0) {
+                    flush(writer, unflushed);
+                    try {
+                        Thread.sleep(wait);
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+            }
+            synchronized (writer) {
+                writer.write(e.getLine());
+                writer.write("\r\n");
+            }
+            unflushed.add(e.getLine());
+            if (speed > 0 || unflushed.size() >= MAX_SPEED_BATCH) flush(writer, unflushed);
+        }
+        flush(writer, unflushed);
+    }
+
+    private void flush(BufferedWriter writer, List<String> unflushed) throws IOException {
+        if (unflushed.isEmpty()) return;
+        //the listener hears first, so the client can't be done with a line before it was sent
+        long now = System.nanoTime();
+        for (String line : unflushed) {
+            if (listener != null) listener.onSent(line, now);
+        }
+        synchronized (writer) {
+            writer.flush();
+        }
+        sent += unflushed.size();
+        unflushed.clear();
+    }
+
+    /**
+     * Reads whatever the client sends so it never blocks on a full socket.
+     */
+    private Thread startDraining(BufferedReader reader, BufferedWriter writer) {
+        Thread t = new Thread(() -> {
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("PING ")) {
+                        synchronized (writer) {
+                            writer.write("PONG " + line.substring(5) + "\r\n");
+                            writer.flush();
+                        }
+                    }
+                }
+            } catch (IOException ignored) {
+            }
+        }, "ReplayServer-Reader");
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+}
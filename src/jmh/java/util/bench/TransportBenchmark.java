@@ -0,0 +1,214 @@
+package util.bench;
+
+import gui.forms.GUIMain;
+import irc.message.MessageHandler;
+import lib.pircbot.PircBot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connects a number of bots to a local fake IRC server, with a thread pair per connection
+ * or over the NioTransport, and times how long the server takes to get the same chat to
+ * each of them. Every run checks that every line came through whole (the chat has emoji and
+ * accents in it, so characters get split between reads) and that a line sent by every bot
+ * reached the server, and prints how many threads the connections needed.
+ * <pre>    mvn -Pjmh verify -Djmh.args="TransportBenchmark [-p connections=..] [-p lines=..]"</pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Djava.awt.headless=true")
+public class TransportBenchmark {
+
+    private static final String TAGS = "@badges=subscriber/12,premium/1;color=#1E90FF;display-name=Viewer;emotes=;"
+            + "id=5e4a2c1f-9b7e-4a5b-8c1d-2f3e4a5b6c7d;mod=0;room-id=12345;subscriber=1;tmi-sent-ts=";
+
+    @Param({"Threads", "NIO"})
+    public String transport;
+
+    @Param("50")
+    public int connections;
+
+    @Param("20000")
+    public int lines;
+
+    private Server server;
+    private final ArrayList<PircBot> bots = new ArrayList<>();
+    private final AtomicLong received = new AtomicLong(), broken = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Headless.setUp();
+        GUIMain.currentSettings.autoReconnectAccounts = false;
+        GUIMain.currentSettings.nioTransport = "NIO".equals(transport);
+    }
+
+    /**
+     * The chat message with the given number, some of them long enough to span reads.
+     */
+    private static String message(int i) {
+        StringBuilder sb = new StringBuilder("message ").append(i).append(" caf\u00e9 \ud83d\ude00 \u2713 ");
+        for (int j = 0; j < i % 7; j++) sb.append("Kappa PogChamp \u00fcber ");
+        return sb.toString();
+    }
+
+    @Setup(Level.Iteration)
+    public void connect() throws Exception {
+        server = new Server(lines);
+        server.start();
+        received.set(0);
+        broken.set(0);
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+        for (int i = 0; i < connections; i++) {
+            PircBot bot = new PircBot(new MessageHandler() {
+                @Override
+                public void onMessage(String channel, String sender, String message) {
+                    int number = Integer.parseInt(message.substring(8, message.indexOf(' ', 8)));
+                    if (!message.equals(message(number))) broken.incrementAndGet();
+                    received.incrementAndGet();
+                }
+            }, "bot" + i);
+            bot.setPassword("oauth:benchmark");
+            bot.getConnection().setServer("127.0.0.1", server.getPort());
+            if (!bot.connect()) throw new IllegalStateException("Could not connect " + bot.getNick());
+            bots.add(bot);
+        }
+        //without the server's thread for each of them
+        System.out.println(transport + ": " + (ManagementFactory.getThreadMXBean().getThreadCount()
+                - threadsBefore - connections) + " client threads for " + connections + " connections");
+    }
+
+    @Benchmark
+    public long receive() throws Exception {
+        long begin = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            bots.get(i).joinChannel("#channel" + i);
+        }
+        long expected = (long) connections * lines;
+        while (received.get() < expected) {
+            Thread.sleep(1);
+            if (System.nanoTime() - begin > 120_000_000_000L) {
+                throw new IllegalStateException("Only " + received.get() + " of " + expected + " lines arrived");
+            }
+        }
+        if (broken.get() > 0) throw new IllegalStateException(broken.get() + " lines arrived broken");
+        return received.get();
+    }
+
+    @TearDown(Level.Iteration)
+    public void disconnect() throws Exception {
+        for (int i = 0; i < bots.size(); i++) {
+            bots.get(i).sendRawMessage("#channel" + i, "done");
+        }
+        long wait = System.currentTimeMillis() + 5000;
+        while (server.chat.get() < bots.size() && System.currentTimeMillis() < wait) {
+            Thread.sleep(10);
+        }
+        if (server.chat.get() < bots.size()) {
+            throw new IllegalStateException("Only " + server.chat.get() + " of " + bots.size() + " sent lines arrived");
+        }
+        for (PircBot bot : bots) {
+            bot.disconnect();
+            bot.dispose();
+        }
+        bots.clear();
+        server.close();
+    }
+
+    /**
+     * Welcomes every client like Twitch, and sends each the chat once it joins a channel.
+     */
+    private static class Server extends Thread {
+
+        private final ServerSocket socket;
+        private final int lines;
+        final AtomicLong chat = new AtomicLong();
+
+        Server(int lines) throws IOException {
+            this.lines = lines;
+            socket = new ServerSocket(0, 1000, InetAddress.getLoopbackAddress());
+            setDaemon(true);
+        }
+
+        int getPort() {
+            return socket.getLocalPort();
+        }
+
+        void close() throws IOException {
+            socket.close();
+        }
+
+        @Override
+        public void run() {
+            while (!socket.isClosed()) {
+                try {
+                    Socket client = socket.accept();
+                    Thread t = new Thread(() -> serve(client));
+                    t.setDaemon(true);
+                    t.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket client) {
+            try (Socket s = client) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+                BufferedWriter out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8), 64 * 1024);
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.startsWith("NICK ")) {
+                        String nick = line.substring(5);
+                        for (int i = 1; i <= 4; i++) {
+                            out.write(":tmi.twitch.tv 00" + i + " " + nick + " :-\r\n");
+                        }
+                        out.flush();
+                    } else if (line.startsWith("JOIN ")) {
+                        String channel = line.substring(5);
+                        for (int i = 0; i < lines; i++) {
+                            out.write(TAGS);
+                            out.write(String.valueOf(System.currentTimeMillis()));
+                            out.write(" :viewer!viewer@viewer.tmi.twitch.tv PRIVMSG ");
+                            out.write(channel);
+                            out.write(" :");
+                            out.write(message(i));
+                            out.write("\r\n");
+                        }
+                        out.flush();
+                    } else if (line.startsWith("PRIVMSG ")) {
+                        chat.incrementAndGet();
+                    }
+                }
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -1,5 +1,9 @@
 package face;
 
+import util.Utils;
+
+import java.util.regex.Pattern;
+
 /**
  * Created with IntelliJ IDEA.
  * User: Nick
@@ -9,8 +13,18 @@ package face;
  */
 public class Face {
 
+    //how long a picture that was missing or blank is trusted to still be, before it's checked again
+    private static final long FILE_RECHECK = 10_000;
+
     private final String regex, filePath;
 
+    //compiled once, the first time this face is checked against a message; the styling
+    //workers read these at the same time, so the pattern is always written before the flag
+    private volatile Pattern pattern = null;
+    private volatile boolean compiled = false;
+    private volatile boolean fileGood = false;
+    private volatile long fileCheckedAt = 0;
+
     public Face() {
         regex = "";
         filePath = "";
@@ -35,6 +49,57 @@ public class Face {
         return filePath;
     }
 
+    /**
+     * Faces never change their regex; changing a face creates a new one. This means
+     * the pattern can be compiled the first time it is needed and kept from then on.
+     *
+     * @return The compiled pattern of this face, or null if the regex does not compile.
+     */
+    public Pattern getPattern() {
+        if (!compiled) {
+            Pattern p;
+            try {
+                p = Pattern.compile(buildRegex());
+            } catch (Exception e) {
+                p = null;
+            }
+            pattern = p;
+            compiled = true;
+        }
+        return pattern;
+    }
+
+    /**
+     * @return The regex that is actually matched against messages.
+     */
+    protected String buildRegex() {
+        return regex;
+    }
+
+    /**
+     * Checks the picture of this face once it's found good, instead of on every message.
+     * A picture that isn't there (yet) is checked again every FILE_RECHECK, so a face whose
+     * download finishes later still shows up.
+     *
+     * @return True if the picture of this face exists and is not blank.
+     */
+    public boolean isFileGood() {
+        if (fileGood) return true;
+        long now = System.currentTimeMillis();
+        if (fileCheckedAt != 0 && now - fileCheckedAt < FILE_RECHECK) return false;
+        fileCheckedAt = now;
+        fileGood = Utils.areFilesGood(filePath);
+        return fileGood;
+    }
+
+    /**
+     * Forgets the last check of the picture, for when its file was replaced.
+     */
+    public void recheckFile() {
+        fileGood = false;
+        fileCheckedAt = 0;
+    }
+
     @Override
     public boolean equals(Object another) {
         return (another instanceof Face) && ((Face) another).getRegex().equals(getRegex())
@@ -0,0 +1,166 @@
+package face;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the faces in a form that can be checked against a message in one pass.
+ * <p>
+ * Faces that are plain words (almost every Twitch and FrankerFaceZ face) are put
+ * in a hash map, and a message is split into its words once, so finding them
+ * costs the length of the message instead of the amount of faces times the length.
+ * Anything else falls back to the (cached) compiled pattern of the face.
+ */
+public class FaceIndex {
+
+    /**
+     * Called for every word of a message that is a face.
+     */
+    public interface WordHandler<T extends Face> {
+        void onWord(int start, int end, String word, T face);
+    }
+
+    //how often the face files of a lookup are checked for being replaced
+    private static final long FILE_CHECK_INTERVAL = 10_000;
+
+    //channel -> the FFZ list it was built from, and its word lookup
+    private static final ConcurrentHashMap<String, FFZEntry> ffzIndex = new ConcurrentHashMap<>();
+
+    private static class FFZEntry {
+        final List<FrankerFaceZ> source;
+        final int size;
+        final long lastModified;//of all of the face files, added up so any of them changing shows
+        final Map<String, FrankerFaceZ> words;
+        final List<FrankerFaceZ> patterns;
+        volatile long checkedAt = System.currentTimeMillis();
+
+        FFZEntry(List<FrankerFaceZ> source, int size, long lastModified, Map<String, FrankerFaceZ> words,
+                 List<FrankerFaceZ> patterns) {
+            this.source = source;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.words = words;
+            this.patterns = patterns;
+        }
+    }
+
+    /**
+     * @param regex The regex of a face.
+     * @return True if the regex only consists of word characters, so it
+     * can be looked up directly instead of matched.
+     */
+    public static boolean isWord(String regex) {
+        if (regex == null || regex.isEmpty()) return false;
+        for (int i = 0; i < regex.length(); i++) {
+            if (!isWordChar(regex.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    /**
+     * Walks the words (runs of word characters, same as the regex \w) in the message
+     * and hands every one that is in the given map to the handler. This is the same
+     * as matching \bword\b for every face in the map, in one pass.
+     *
+     * @param text    The message.
+     * @param words   The faces, keyed by their word.
+     * @param handler What to do with a found face.
+     */
+    public static <T extends Face> void findWords(String text, Map<String, T> words, WordHandler<T> handler) {
+        if (words.isEmpty()) return;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            if (!isWordChar(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < length && isWordChar(text.charAt(i))) i++;
+            String word = text.substring(start, i);
+            T face = words.get(word);
+            if (face != null) {
+                handler.onWord(start, i - 1, word, face);
+            }
+        }
+    }
+
+    /**
+     * Gets the word lookup for the FrankerFaceZ faces of a channel. The lookup is rebuilt
+     * only when the list of faces for the channel was replaced or had faces added to it, or
+     * (checked every FILE_CHECK_INTERVAL) one of their files was replaced.
+     *
+     * @param channel The channel (or "global").
+     * @return The faces of the channel keyed by their word, never null.
+     */
+    public static Map<String, FrankerFaceZ> getFFZWords(String channel) {
+        FFZEntry entry = getFFZEntry(channel);
+        return entry == null ? Collections.emptyMap() : entry.words;
+    }
+
+    /**
+     * @param channel The channel (or "global").
+     * @return The FrankerFaceZ faces of the channel that are not plain words, never null.
+     */
+    public static List<FrankerFaceZ> getFFZPatterns(String channel) {
+        FFZEntry entry = getFFZEntry(channel);
+        return entry == null ? Collections.emptyList() : entry.patterns;
+    }
+
+    private static FFZEntry getFFZEntry(String channel) {
+        if (channel == null) return null;
+        ArrayList<FrankerFaceZ> faces = FaceManager.ffzFaceMap.get(channel);
+        if (faces == null) {
+            ffzIndex.remove(channel);
+            return null;
+        }
+        FFZEntry entry = ffzIndex.get(channel);
+        if (entry == null || entry.source != faces || entry.size != faces.size()) {
+            entry = buildFFZEntry(faces);
+            ffzIndex.put(channel, entry);
+        } else if (System.currentTimeMillis() - entry.checkedAt >= FILE_CHECK_INTERVAL) {
+            entry.checkedAt = System.currentTimeMillis();
+            FrankerFaceZ[] copy = faces.toArray(new FrankerFaceZ[faces.size()]);
+            if (getLastModified(copy) != entry.lastModified) {
+                for (FrankerFaceZ f : copy) {
+                    f.recheckFile();
+                }
+                entry = buildFFZEntry(faces);
+                ffzIndex.put(channel, entry);
+            }
+        }
+        return entry;
+    }
+
+    private static long getLastModified(FrankerFaceZ[] faces) {
+        long toReturn = 0;
+        for (FrankerFaceZ f : faces) {
+            toReturn += new File(f.getFilePath()).lastModified();
+        }
+        return toReturn;
+    }
+
+    private static FFZEntry buildFFZEntry(ArrayList<FrankerFaceZ> faces) {
+        HashMap<String, FrankerFaceZ> words = new HashMap<>();
+        ArrayList<FrankerFaceZ> patterns = new ArrayList<>();
+        FrankerFaceZ[] copy = faces.toArray(new FrankerFaceZ[faces.size()]);
+        for (FrankerFaceZ f : copy) {
+            String word = f.getWord();
+            if (word != null) {
+                if (!words.containsKey(word)) words.put(word, f);
+            } else if (f.getPattern() != null) {
+                patterns.add(f);
+            }
+        }
+        return new FFZEntry(faces, copy.length, getLastModified(copy), words, patterns);
+    }
+}
@@ -1,8 +1,10 @@
 package face;
 
 import gui.forms.GUIMain;
+import irc.message.EmoteRanges;
 import lib.JSON.JSONArray;
 import lib.JSON.JSONObject;
+import lib.JSON.JSONStreamReader;
 import lib.pircbot.User;
 import lib.JSON.JSONException;
 import lib.scalr.Scalr;
@@ -10,6 +12,7 @@ import thread.ThreadEngine;
 import util.Response;
 import util.APIRequests;
 import util.Utils;
+import util.log.Log;
 
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
@@ -23,6 +26,7 @@ import java.awt.image.RescaleOp;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.URL;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
@@ -119,7 +123,7 @@ public class FaceManager {
 			}
 			return exSubscriberIcon.toURI().toURL();
 		} catch (Exception e) {
-			GUIMain.log(e);
+			GUIMain.log(Log.Category.FACES, e);
 		}
 		return null;
 	}
@@ -155,7 +159,7 @@ public class FaceManager {
 							break;
 						}
 					} catch (Exception e) {
-						GUIMain.log(e);
+						GUIMain.log(Log.Category.FACES, e);
 					}
 				}
 			}
@@ -176,39 +180,71 @@ public class FaceManager {
 	public static void buildMap() {
 		try {
 			// Load twitch faces
-			int q = 0;
-			while (GUIMain.currentSettings.twitchClientID == null) { System.out.println(++q);}
+			while (GUIMain.currentSettings.twitchClientID == null) {
+				Thread.sleep(100);
+			}
 			//            URL url = new URL("https://api.twitch.tv/kraken/chat/emoticon_images?client_id=" + GUIMain.currentSettings.twitchClientID);
 			//            BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream()));
 			//            String line = reader.readLine();
 			//            reader.close();
-			String line = APIRequests.Twitch.getAllEmotes();
-			if (line != null) {
-				try {
-					JSONObject init = new JSONObject(line);
-					JSONArray emotes = init.getJSONArray("emoticons");
-					for (int i = 0; i < emotes.length(); i++) {
-						JSONObject emote = emotes.getJSONObject(i);
-						int ID = emote.getInt("id");
-						if (twitchFaceMap.get(ID) != null) continue;
-						String regex = emote.getString("code").replaceAll("\\\\&lt\\\\;", "\\<").replaceAll("\\\\&gt\\\\;", "\\>");
-						String URL = "http://static-cdn.jtvnw.net/emoticons/v1/" + ID + "/1.0";
-						//                        onlineTwitchFaces.put(ID, new TwitchFace(regex, URL, true));
-						Integer emoticonSet = 0;
-						try{
-							emoticonSet = new Integer(emote.getInt("emoticon_set"));
-						} catch (JSONException e) {
-							downloadEmote(ID);
-						}
-						onlineTwitchFaces.put(ID, new TwitchFace(regex, URL, true, emoticonSet.intValue() * -1));
+			try {
+				APIRequests.Twitch.getAllEmotes(FaceManager::readEmotes);
+			} catch (Exception e) {
+				GUIMain.log(Log.Category.FACES, "Failed to load online Twitch faces, is the API endpoint down?");
+			}
+		} catch (Exception e) {
+			GUIMain.log(Log.Category.FACES, e);
+		}
+	}
+
+	/**
+	 * Reads the "emoticons" array of the emote list as it downloads, keeping only the
+	 * id, code and emoticon_set of each emote.
+	 */
+	private static Void readEmotes(Reader in) {
+		JSONStreamReader reader = new JSONStreamReader(in);
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (!reader.nextName().equals("emoticons")) {
+				reader.skipValue();
+				continue;
+			}
+			reader.beginArray();
+			while (reader.hasNext()) {
+				int ID = -1, emoticonSet = -1;
+				String code = null;
+				reader.beginObject();
+				while (reader.hasNext()) {
+					switch (reader.nextName()) {
+						case "id":
+							ID = reader.nextInt();
+							break;
+						case "code":
+							code = reader.nextString();
+							break;
+						case "emoticon_set":
+							if (reader.peek() == JSONStreamReader.Token.NUMBER) emoticonSet = reader.nextInt();
+							else reader.skipValue();
+							break;
+						default:
+							reader.skipValue();
+							break;
 					}
-				} catch (Exception e) {
-					GUIMain.log("Failed to load online Twitch faces, is the API endpoint down?");
 				}
+				reader.endObject();
+				if (ID == -1 || code == null || twitchFaceMap.get(ID) != null) continue;
+				String regex = code.replaceAll("\\\\&lt\\\\;", "\\<").replaceAll("\\\\&gt\\\\;", "\\>");
+				String URL = "http://static-cdn.jtvnw.net/emoticons/v1/" + ID + "/1.0";
+				if (emoticonSet == -1) {
+					downloadEmote(ID);
+					emoticonSet = 0;
+				}
+				onlineTwitchFaces.put(ID, new TwitchFace(regex, URL, true, emoticonSet * -1));
 			}
-		} catch (Exception e) {
-			GUIMain.log(e);
+			reader.endArray();
 		}
+		reader.endObject();
+		return null;
 	}
 
 	/**
@@ -223,7 +259,7 @@ public class FaceManager {
 	public static void loadDefaultFaces() {
 		ThreadEngine.submit(() -> {
 			buildMap();
-			GUIMain.log("Loaded Twitch faces!");
+			GUIMain.log(Log.Category.FACES, "Loaded Twitch faces!");
 			GUIMain.currentSettings.saveTwitchFaces();
 			doneWithTwitchFaces = true;
 
@@ -231,7 +267,7 @@ public class FaceManager {
 			handleFFZChannel("global");//this corrects the global emotes and downloads them if we don't have them
 			GUIMain.channelSet.stream().forEach(s -> handleFFZChannel(s.replaceAll("#", "")));
 			doneWithFrankerFaces = true;
-			GUIMain.log("Loaded FrankerFaceZ faces!");
+			GUIMain.log(Log.Category.FACES, "Loaded FrankerFaceZ faces!");
 			// END TODO
 		});
 	}
@@ -255,9 +291,8 @@ public class FaceManager {
 		Set<Integer> set = twitchFaceMap.keySet();
 		for (int es : set) {
 			TwitchFace fa = twitchFaceMap.get(es);
-			String regex = fa.getRegex();
-			Pattern p = Pattern.compile(regex);
-			Matcher m = p.matcher(faceName);
+			if (fa.getPattern() == null) continue;
+			Matcher m = fa.getPattern().matcher(faceName);
 			if (m.find()) {
 				boolean newStatus = !fa.isEnabled();
 				fa.setEnabled(newStatus);
@@ -358,66 +393,69 @@ public class FaceManager {
 					}
 				}
 			} catch (Exception e) {
-				GUIMain.log("FaceManager: Failed to download EmoteSets!");
+				GUIMain.log(Log.Category.FACES, "FaceManager: Failed to download EmoteSets!");
 				checkedEmoteSets = false;
 			}
 		});
 	}
 
+	/**
+	 * Marks the Twitch emotes of a message where its tags say they are, without matching any pattern.
+	 *
+	 * @param object The message.
+	 * @param emotes Where its emotes are.
+	 */
+	public static void handleEmotes(Map<Integer, Integer> ranges, Map<Integer, SimpleAttributeSet> rangeStyles,
+			String object, EmoteRanges emotes) {
+		if (!doneWithTwitchFaces) return;
+		for (int i = 0; i < emotes.size(); i++) {
+			int id = emotes.getId(i);
+			TwitchFace f = twitchFaceMap.get(id);
+			if (f == null) {
+				f = downloadEmote(id);
+			}
+			if (f == null || !f.isEnabled() || !f.isFileGood()) continue;
+			int start = emotes.getStart(i), end = emotes.getEnd(i);
+			if (end >= object.length()) continue;
+			addFace(ranges, rangeStyles, start, end, f, "regex", object.substring(start, end + 1));
+		}
+	}
+
 	public static void handleFaces(Map<Integer, Integer> ranges, Map<Integer, SimpleAttributeSet> rangeStyles,
 			String object, FACE_TYPE type, String channel, Collection<Integer> emotes) {
 		switch (type) {
 		case TWITCH_FACE:
 			if (doneWithTwitchFaces) {
+				//plain word emotes are looked up per word, the rest use their compiled pattern
+				HashMap<String, TwitchFace> words = new HashMap<>();
 				for (int i : emotes) {
 					TwitchFace f = twitchFaceMap.get(i);
 					if (f == null) {
 						f = downloadEmote(i);
 					}
-					if (f == null || !f.isEnabled() || !Utils.areFilesGood(f.getFilePath())) continue;
-					String regex = f.getRegex();
-					if (!regex.matches("^\\W.*|.*\\W$")) {
-						//boundary checks are only necessary for emotes that start and end with a word character.
-						regex = "\\b" + regex + "\\b";
+					if (f == null || !f.isEnabled() || !f.isFileGood()) continue;
+					String word = f.getWord();
+					if (word != null) {
+						words.put(word, f);
+						continue;
 					}
-					Pattern p = Pattern.compile(regex);
-					Matcher m = p.matcher(object);
+					if (f.getPattern() == null) continue;
+					Matcher m = f.getPattern().matcher(object);
 					while (m.find() && !GUIMain.shutDown) {
-						int start = m.start();
-						int end = m.end() - 1;
-						if (!Utils.inRanges(start, ranges) && !Utils.inRanges(end, ranges)) {
-							ranges.put(start, end);
-							SimpleAttributeSet attrs = new SimpleAttributeSet();
-							attrs.addAttribute("faceinfo", f);
-							attrs.addAttribute("regex", m.group());
-							insertFace(attrs, f.getFilePath());
-							attrs.addAttribute("start", start);
-							rangeStyles.put(start, attrs);
-						}
+						addFace(ranges, rangeStyles, m.start(), m.end() - 1, f, "regex", m.group());
 					}
 				}
+				FaceIndex.findWords(object, words, (start, end, word, f) ->
+						addFace(ranges, rangeStyles, start, end, f, "regex", word));
 			}
 			break;
 		case NORMAL_FACE:
 			if (doneWithFaces) {
-				Set<String> keys = faceMap.keySet();
-				for (String key : keys) {
-					Face f = faceMap.get(key);
-					if (!Utils.checkRegex(f.getRegex()) || !Utils.areFilesGood(f.getFilePath())) continue;
-					Pattern p = Pattern.compile(f.getRegex());
-					Matcher m = p.matcher(object);
+				for (Face f : faceMap.values()) {
+					if (f.getPattern() == null || !f.isFileGood()) continue;
+					Matcher m = f.getPattern().matcher(object);
 					while (m.find() && !GUIMain.shutDown) {
-						int start = m.start();
-						int end = m.end() - 1;
-						if (!Utils.inRanges(start, ranges) && !Utils.inRanges(end, ranges)) {
-							ranges.put(start, end);
-							SimpleAttributeSet attrs = new SimpleAttributeSet();
-							attrs.addAttribute("faceinfo", f);
-							attrs.addAttribute("regex", m.group());
-							insertFace(attrs, f.getFilePath());
-							attrs.addAttribute("start", start);
-							rangeStyles.put(start, attrs);
-						}
+						addFace(ranges, rangeStyles, m.start(), m.end() - 1, f, "regex", m.group());
 					}
 				}
 			}
@@ -428,24 +466,14 @@ public class FaceManager {
 				//right now we just do loaded specific channel (if existing) & global
 				String[] channels = {"global", channel};
 				for (String currentChannel : channels) {
-					ArrayList<FrankerFaceZ> faces = ffzFaceMap.get(currentChannel);
-					if (faces != null) {
-						for (FrankerFaceZ f : faces) {
-							Pattern p = Pattern.compile(f.getRegex());
-							Matcher m = p.matcher(object);
-							while (m.find() && !GUIMain.shutDown) {
-								int start = m.start();
-								int end = m.end() - 1;
-								if (!Utils.inRanges(start, ranges) && !Utils.inRanges(end, ranges)) {
-									ranges.put(start, end);
-									SimpleAttributeSet attrs = new SimpleAttributeSet();
-									attrs.addAttribute("faceinfo", f);
-									attrs.addAttribute("channel", currentChannel);
-									insertFace(attrs, f.getFilePath());
-									attrs.addAttribute("start", start);
-									rangeStyles.put(start, attrs);
-								}
-							}
+					FaceIndex.findWords(object, FaceIndex.getFFZWords(currentChannel), (start, end, word, f) -> {
+						if (f.isEnabled()) addFace(ranges, rangeStyles, start, end, f, "channel", currentChannel);
+					});
+					for (FrankerFaceZ f : FaceIndex.getFFZPatterns(currentChannel)) {
+						if (!f.isEnabled()) continue;
+						Matcher m = f.getPattern().matcher(object);
+						while (m.find() && !GUIMain.shutDown) {
+							addFace(ranges, rangeStyles, m.start(), m.end() - 1, f, "channel", currentChannel);
 						}
 					}
 				}
@@ -456,11 +484,27 @@ public class FaceManager {
 		}
 	}
 
+	/**
+	 * Marks the given range of the message as a face, unless something else is already there.
+	 */
+	private static void addFace(Map<Integer, Integer> ranges, Map<Integer, SimpleAttributeSet> rangeStyles,
+			int start, int end, Face f, String infoKey, String infoValue) {
+		if (!Utils.inRanges(start, ranges) && !Utils.inRanges(end, ranges)) {
+			ranges.put(start, end);
+			SimpleAttributeSet attrs = new SimpleAttributeSet();
+			attrs.addAttribute("faceinfo", f);
+			attrs.addAttribute(infoKey, infoValue);
+			insertFace(attrs, f.getFilePath());
+			attrs.addAttribute("start", start);
+			rangeStyles.put(start, attrs);
+		}
+	}
+
 	private static void insertFace(SimpleAttributeSet set, String face) {
 		try {
 			StyleConstants.setIcon(set, sizeIcon(new File(face).toURI().toURL()));
 		} catch (Exception e) {
-			GUIMain.log(e);
+			GUIMain.log(Log.Category.FACES, e);
 		}
 	}
 
@@ -510,8 +554,8 @@ public class FaceManager {
 				return newFace;
 			}
 		} catch (Exception e) {
-			GUIMain.log("Failed to download emote ID " + emote + " due to exception: ");
-			GUIMain.log(e);
+			GUIMain.log(Log.Category.FACES, "Failed to download emote ID " + emote + " due to exception: ");
+			GUIMain.log(Log.Category.FACES, e);
 		}
 		return null;
 	}
@@ -529,8 +573,8 @@ public class FaceManager {
 				toReturn = new FrankerFaceZ(Utils.removeExt(fileName), toSave.getAbsolutePath(), true);
 			}
 		} catch (Exception e) {
-			GUIMain.log("Failed to download FFZ Faces due to Exception: ");
-			GUIMain.log(e);
+			GUIMain.log(Log.Category.FACES, "Failed to download FFZ Faces due to Exception: ");
+			GUIMain.log(Log.Category.FACES, e);
 		}
 		return toReturn;
 	}
@@ -605,7 +649,7 @@ public class FaceManager {
 				return ImageIO.write(image, "PNG", toSave);//save it
 			}
 		} catch (Exception e) {
-			GUIMain.log(e);
+			GUIMain.log(Log.Category.FACES, e);
 		}
 		return false;
 	}
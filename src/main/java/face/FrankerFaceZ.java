@@ -4,6 +4,7 @@ import gui.forms.GUIMain;
 import lib.JSON.JSONArray;
 import lib.JSON.JSONObject;
 import util.Utils;
+import util.log.Log;
 
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
@@ -50,8 +51,8 @@ public class FrankerFaceZ extends ToggleableFace {
                     }
                 }
             } catch (Exception e) {
-                GUIMain.log("Failed to parse FFZ Channel due to Exception: ");
-                GUIMain.log(e);
+                GUIMain.log(Log.Category.FACES, "Failed to parse FFZ Channel due to Exception: ");
+                GUIMain.log(Log.Category.FACES, e);
             }
         }
 
@@ -8,6 +8,9 @@ import javax.imageio.ImageIO;
 import javax.swing.*;
 import java.awt.image.BufferedImage;
 import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A class which specifies special chat icons, or 'badges'.
@@ -21,6 +24,24 @@ import java.net.URL;
 
 public class Icons {
 
+    /**
+     * The maximum amount of sized icons kept in memory. Badges, donor levels,
+     * sub icons and the emote window all go through here, so this is generous.
+     */
+    public static final int ICON_CACHE_SIZE = 256;
+
+    //keyed by "size|url", least recently used entries are dropped first
+    private static final Map<String, ImageIcon> iconCache =
+            new LinkedHashMap<String, ImageIcon>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ImageIcon> eldest) {
+                    return size() > ICON_CACHE_SIZE;
+                }
+            };
+
+    private static final AtomicLong cacheHits = new AtomicLong(0);
+    private static final AtomicLong cacheMisses = new AtomicLong(0);
+
     /**
      * For a specified icon, returns the file containing the
      * image, resized to fit into the chat window.
@@ -85,24 +106,83 @@ public class Icons {
     /**
      * Resize an icon to match the chat font size. This has the
      * effect of allowing users to submit images of any size.
+     * <p>
+     * Sized icons are cached per font size, so after the first
+     * message the badges never touch ImageIO again.
      *
      * @param image the image URL
      * @return ImageIcon the resized image
      */
 
     public static ImageIcon sizeIcon(URL image) {
+        int size = GUIMain.currentSettings.font.getSize();
+        String key = size + "|" + image.toString();
         ImageIcon icon;
+        synchronized (iconCache) {
+            icon = iconCache.get(key);
+        }
+        if (icon != null) {
+            cacheHits.incrementAndGet();
+            return icon;
+        }
+        cacheMisses.incrementAndGet();
+        icon = loadIcon(image, size);
+        if (icon == null) {
+            //not cached, so the next message tries to read it again
+            return new ImageIcon(image);
+        }
+        synchronized (iconCache) {
+            iconCache.put(key, icon);
+        }
+        return icon;
+    }
+
+    /**
+     * @return The image resized to the given size, or null if it could not be read.
+     */
+    private static ImageIcon loadIcon(URL image, int size) {
         try {
             BufferedImage img = ImageIO.read(image);
-            int size = GUIMain.currentSettings.font.getSize();
             img = Scalr.resize(img, Scalr.Method.ULTRA_QUALITY, size, size);
-            icon = new ImageIcon(img);
+            ImageIcon icon = new ImageIcon(img);
             icon.getImage().flush();
             return icon;
         } catch (Exception e) {
-            icon = new ImageIcon(image);
+            return null;
+        }
+    }
+
+    /**
+     * Clears every sized icon. This needs to be called whenever the chat font
+     * or one of the custom icon URLs changes, so the next message re-reads them.
+     */
+    public static void invalidateCache() {
+        synchronized (iconCache) {
+            iconCache.clear();
+        }
+    }
+
+    /**
+     * @return How many icons were served from the cache.
+     */
+    public static long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    /**
+     * @return How many icons had to be read and resized.
+     */
+    public static long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    /**
+     * @return How many sized icons are currently held.
+     */
+    public static int getCacheSize() {
+        synchronized (iconCache) {
+            return iconCache.size();
         }
-        return icon;
     }
 
     //Wrapper class for logging purposes
@@ -25,6 +25,16 @@ public class ToggleableFace extends Face {
         isEnabled = newBool;
     }
 
+    /**
+     * Twitch and FrankerFaceZ faces are almost always plain words, which FaceIndex
+     * can find with a single hash lookup per word instead of running every regex.
+     *
+     * @return The regex if it is a plain word (ex: "Kappa"), else null.
+     */
+    public String getWord() {
+        return FaceIndex.isWord(getRegex()) ? getRegex() : null;
+    }
+
     @Override
     public boolean equals(Object another) {
         return super.equals(another) && ((ToggleableFace) another).isEnabled() == this.isEnabled();
@@ -19,4 +19,14 @@ public class TwitchFace extends ToggleableFace {
     public int getEmoticonSet() {
     	return emoticonSet;
     }
+
+    @Override
+    protected String buildRegex() {
+        String regex = getRegex();
+        if (!regex.matches("^\\W.*|.*\\W$")) {
+            //boundary checks are only necessary for emotes that start and end with a word character.
+            regex = "\\b" + regex + "\\b";
+        }
+        return regex;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,144 @@
+package gui;
+
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.SimpleAttributeSet;
+import java.util.ArrayList;
+
+/**
+ * The document behind every chat pane.
+ * <p>
+ * Text is collected with #appendBatch and inserted all at once with #flushBatch,
+ * which is a single edit to the document. That means one DocumentEvent, one
+ * re-layout and one scroll per batch of messages, instead of one for every
+ * piece (time stamp, badge, name, emote...) of every message.
+ */
+public class ChatDocument extends DefaultStyledDocument {
+
+    private static final long serialVersionUID = 1L;
+
+    //the text waiting for #flushBatch, and where each appended piece of it ends and its style
+    private final StringBuilder batch = new StringBuilder();
+    private final ArrayList<Integer> batchEnds = new ArrayList<>();
+    private final ArrayList<AttributeSet> batchSets = new ArrayList<>();
+
+    /**
+     * Queues text to be appended to the end of the document on the next #flushBatch.
+     * This must be called on the Event Dispatch Thread.
+     *
+     * @param text The text to append.
+     * @param set  The style of the text, may be null.
+     */
+    public void appendBatch(String text, AttributeSet set) {
+        if (text.isEmpty()) return;
+        batch.append(text);
+        batchEnds.add(batch.length());
+        batchSets.add((set == null) ? SimpleAttributeSet.EMPTY : set.copyAttributes());
+    }
+
+    /**
+     * @return True if there is text waiting for #flushBatch.
+     */
+    public boolean hasBatch() {
+        return batch.length() > 0;
+    }
+
+    /**
+     * Inserts everything queued by #appendBatch as one edit.
+     * This must be called on the Event Dispatch Thread.
+     *
+     * @throws BadLocationException If the document could not be appended to.
+     */
+    public void flushBatch() throws BadLocationException {
+        if (batch.length() == 0) return;
+        char[] chars = new char[batch.length()];
+        batch.getChars(0, chars.length, chars, 0);
+        int offset = getLength();
+        ElementSpec[] specs = buildSpecs(chars, offset);
+        batch.setLength(0);
+        batchEnds.clear();
+        batchSets.clear();
+        insert(offset, specs);
+    }
+
+    /**
+     * Builds the elements of the batch the way DefaultStyledDocument#insertUpdate would if every
+     * piece was inserted with insertString, so the paragraphs and runs come out the same: a
+     * paragraph per line with its newline at the end, pieces of the same style next to each
+     * other in one run, and the last line joined with the rest of the last paragraph (the
+     * document's own newline) instead of leaving that in a paragraph of its own.
+     */
+    private ElementSpec[] buildSpecs(char[] chars, int offset) throws BadLocationException {
+        ArrayList<ElementSpec> specs = new ArrayList<>();
+        AttributeSet pattr = getParagraphElement(offset).getAttributes();
+        AttributeSet cattr = getCharacterElement(Math.max(0, offset - 1)).getAttributes();
+        boolean afterNewLine = offset > 0 && getText(offset - 1, 1).charAt(0) == '\n';
+        ElementSpec lastStart = null;
+        if (afterNewLine) {
+            //the paragraph the document ends with is closed, the batch starts a new one
+            specs.add(new ElementSpec(pattr, ElementSpec.EndTagType));
+            lastStart = new ElementSpec(pattr, ElementSpec.StartTagType);
+            specs.add(lastStart);
+        }
+        //the run the next piece goes after (null at the start of a line), and whether that run
+        //goes on past the end of the text, holding the newline the document always ends with
+        ElementSpec run = null;
+        AttributeSet runAttrs = afterNewLine ? null : cattr;
+        boolean runHasEnd = !afterNewLine && getCharacterElement(Math.max(0, offset - 1)).getEndOffset() > offset;
+        int from = 0;
+        for (int i = 0; i < batchEnds.size(); i++) {
+            AttributeSet attrs = batchSets.get(i);
+            int end = batchEnds.get(i);
+            boolean joinsRun = runAttrs != null && runAttrs.isEqual(attrs);
+            boolean hasNewLine = false;
+            while (from < end) {
+                int to = from;
+                while (to < end && chars[to] != '\n') to++;
+                boolean newLine = to < end;
+                if (newLine) to++;
+                if (run != null && run.getAttributes().isEqual(attrs)) {
+                    //like insertString joining it to the run before it
+                    ElementSpec joined = new ElementSpec(run.getAttributes(), ElementSpec.ContentType,
+                            chars, run.getOffset(), to - run.getOffset());
+                    joined.setDirection(run.getDirection());
+                    specs.set(specs.size() - 1, joined);
+                    run = joined;
+                } else {
+                    run = new ElementSpec(attrs, ElementSpec.ContentType, chars, from, to - from);
+                    specs.add(run);
+                }
+                if (newLine) {
+                    specs.add(new ElementSpec(null, ElementSpec.EndTagType));
+                    lastStart = new ElementSpec(pattr, ElementSpec.StartTagType);
+                    specs.add(lastStart);
+                    run = null;
+                    hasNewLine = true;
+                }
+                from = to;
+            }
+            //insertString only keeps the document's newline in the run before it if that's where
+            //the piece went, and the line the piece ends with has the same style
+            if (run == null || runAttrs == null) {
+                runHasEnd = false;
+            } else if (hasNewLine || !joinsRun) {
+                runHasEnd = runHasEnd && hasNewLine && joinsRun;
+            }
+            runAttrs = (run == null) ? null : attrs;
+        }
+        ElementSpec first = specs.get(0);
+        if (first.getType() == ElementSpec.ContentType && cattr.isEqual(first.getAttributes())) {
+            first.setDirection(ElementSpec.JoinPreviousDirection);
+        }
+        if (lastStart != null) {
+            //after a newline the old last paragraph is next, otherwise it's split where the batch goes
+            lastStart.setDirection(afterNewLine ? ElementSpec.JoinNextDirection : ElementSpec.JoinFractureDirection);
+            ElementSpec last = specs.get(specs.size() - 1);
+            if (runHasEnd && !afterNewLine && last.getType() == ElementSpec.ContentType
+                    && last.getDirection() != ElementSpec.JoinPreviousDirection) {
+                last.setDirection(ElementSpec.JoinNextDirection);
+            }
+        }
+        return specs.toArray(new ElementSpec[specs.size()]);
+    }
+}
@@ -0,0 +1,637 @@
+package gui;
+
+import gui.forms.GUIMain;
+import gui.listeners.ListenerFace;
+import gui.listeners.ListenerName;
+import thread.ThreadEngine;
+import util.Utils;
+import util.history.ChatHistory;
+
+import javax.swing.*;
+import javax.swing.event.ChangeListener;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.html.HTML;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A chat view that paints its messages itself instead of keeping them in a StyledDocument,
+ * used instead of the text pane of a channel when the VirtualChat setting is on.
+ * <p>
+ * Every line of chat is a row in a ring of fixed size. A row is its pieces of text and icons,
+ * laid out once for the width of the view (and again only when the width changes), and knows
+ * its own y, so painting finds the first visible row with a binary search and paints just the
+ * rows on screen. Once the ring is full every new row drops the oldest one, so neither the
+ * memory nor the cost of a repaint grow the longer the bot runs.
+ * <p>
+ * While the view is scrolled up the ring holds up to twice as many rows, so what is being read
+ * isn't dropped right away, and scrolling to the top loads the messages from before the oldest
+ * row out of the {@link ChatHistory}, if chat logging is on.
+ * <p>
+ * Everything but the loading of the history must be done on the Event Dispatch Thread.
+ */
+public class ChatList extends JComponent implements Scrollable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * How many rows are kept when chat cleanup is off.
+     */
+    public static final int DEFAULT_ROWS = 1000;
+
+    private static final int HISTORY_PAGE = 50;
+
+    private final String channel;
+    private final int capacity;
+    private final Row[] rows;
+    private int head = 0, count = 0;
+    //the first row that was changed since the last flush, rows after it aren't laid out yet
+    private int dirty = Integer.MAX_VALUE;
+    private int layoutWidth = 400;//until the view is shown
+    //how far the dropped rows moved the others up since the last flush
+    private int dropped = 0, droppedHeight = 0;
+
+    private final HashMap<AttributeSet, Style> styles = new HashMap<>();
+    private boolean loadingHistory = false, historyDone = false;
+    private ChangeListener viewportListener = null;
+
+    /**
+     * @param channel  The channel of the view, for the history and name popups, or null.
+     * @param capacity How many rows to keep.
+     */
+    public ChatList(String channel, int capacity) {
+        this.channel = channel;
+        this.capacity = Math.max(capacity, 1);
+        rows = new Row[this.capacity * 2];
+        setOpaque(true);
+        setBackground(Color.black);
+        setFont(GUIMain.currentSettings.font);
+        addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                onClick(e);
+            }
+        });
+    }
+
+    /**
+     * Appends text to the view, it's shown once #flush is called.
+     *
+     * @param text The text, new lines start a new row.
+     * @param set  The style of the text, may be null.
+     * @param time When the text was printed, in epoch milliseconds.
+     */
+    public void append(String text, AttributeSet set, long time) {
+        Style style = getStyle(set);
+        int start = 0, newLine;
+        while ((newLine = text.indexOf('\n', start)) != -1) {
+            if (newLine > start) last(time).add(style, text, start, newLine);
+            addRow(new Row(time));
+            start = newLine + 1;
+        }
+        if (start < text.length()) last(time).add(style, text, start, text.length());
+    }
+
+    /**
+     * Lays out the rows that were appended to, drops the oldest rows if there are too many,
+     * and repaints once.
+     */
+    public void flush() {
+        if (dirty == Integer.MAX_VALUE && dropped == 0) return;
+        boolean following = isFollowing();
+        if (following) {
+            while (count > capacity) dropFirst();
+        }
+        layoutFrom(Math.min(dirty, count));
+        //dropped rows move everything up, keep what is being read where it was
+        int shift = droppedHeight;
+        dirty = Integer.MAX_VALUE;
+        dropped = droppedHeight = 0;
+        resize(following ? 0 : -shift);
+    }
+
+    /**
+     * Removes every row.
+     */
+    public void clear() {
+        for (int i = 0; i < rows.length; i++) rows[i] = null;
+        head = count = 0;
+        dirty = Integer.MAX_VALUE;
+        dropped = droppedHeight = 0;
+        historyDone = false;
+        resize(0);
+    }
+
+    /**
+     * @return The text of every row, each one starting with a new line like in the text pane.
+     */
+    public String getText() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            Row r = get(i);
+            if (i > 0) sb.append('\n');
+            for (Run run : r.runs) {
+                if (run.chars != null) sb.append(run.chars);
+            }
+        }
+        return sb.toString();
+    }
+
+    public int getRowCount() {
+        return count;
+    }
+
+    private Row last(long time) {
+        if (count == 0) addRow(new Row(time));
+        Row r = get(count - 1);
+        dirty = Math.min(dirty, count - 1);
+        return r;
+    }
+
+    private Row get(int i) {
+        return rows[(head + i) % rows.length];
+    }
+
+    private void addRow(Row r) {
+        if (count == rows.length) dropFirst();
+        rows[(head + count) % rows.length] = r;
+        count++;
+        dirty = Math.min(dirty, count - 1);
+    }
+
+    private void dropFirst() {
+        droppedHeight += rows[head].height;
+        rows[head] = null;
+        head = (head + 1) % rows.length;
+        count--;
+        dropped++;
+        historyDone = false;
+        if (dirty != Integer.MAX_VALUE) dirty = Math.max(dirty - 1, 0);
+    }
+
+    /**
+     * Lays out the rows from the given one on, and places every one under the one before it.
+     */
+    private void layoutFrom(int from) {
+        for (int i = from; i < count; i++) {
+            Row r = get(i);
+            r.layout(this, layoutWidth);
+            if (i > 0) r.top = get(i - 1).top + get(i - 1).height;
+        }
+    }
+
+    private int getTotalHeight() {
+        if (count == 0) return 0;
+        Row last = get(count - 1);
+        return (int) (last.top + last.height - get(0).top);
+    }
+
+    /**
+     * Resizes the view to its rows and scrolls the viewport by the given amount.
+     */
+    private void resize(int scroll) {
+        int height = getTotalHeight();
+        if (getParent() instanceof JViewport) {
+            JViewport viewport = (JViewport) getParent();
+            setSize(getWidth(), Math.max(height, viewport.getHeight()));
+            if (scroll != 0) {
+                Point p = viewport.getViewPosition();
+                int max = Math.max(getHeight() - viewport.getHeight(), 0);
+                p.y = Math.max(0, Math.min(p.y + scroll, max));
+                viewport.setViewPosition(p);
+            }
+        }
+        revalidate();
+        repaint();
+    }
+
+    /**
+     * @return True if the view is scrolled all the way down, or isn't in a viewport.
+     */
+    public boolean isFollowing() {
+        if (!(getParent() instanceof JViewport)) return true;
+        Rectangle view = ((JViewport) getParent()).getViewRect();
+        return view.y + view.height >= getHeight() - 1;
+    }
+
+    @Override
+    public void setBounds(int x, int y, int width, int height) {
+        boolean relayout = width > 0 && width != layoutWidth;
+        super.setBounds(x, y, width, height);
+        if (relayout) {
+            layoutWidth = width;
+            layoutFrom(0);
+            revalidate();
+        }
+    }
+
+    /**
+     * Styles are made with the font they were first used with, so a new font means new
+     * styles for the rows there are, and laying them all out again.
+     */
+    @Override
+    public void setFont(Font font) {
+        Font old = getFont();
+        super.setFont(font);
+        //called by JComponent before the fields are set
+        if (styles == null) return;
+        styles.clear();
+        if (font == null || font.equals(old)) return;
+        for (int i = 0; i < count; i++) {
+            for (Run run : get(i).runs) {
+                run.style = getStyle(run.style.attrs);
+            }
+        }
+        layoutFrom(0);
+        resize(0);
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        return new Dimension(layoutWidth, getTotalHeight());
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        if (getParent() instanceof JViewport && channel != null) {
+            viewportListener = e -> {
+                JViewport viewport = (JViewport) e.getSource();
+                if (viewport.getViewPosition().y == 0 && getHeight() > viewport.getHeight()) loadHistory();
+            };
+            ((JViewport) getParent()).addChangeListener(viewportListener);
+        }
+    }
+
+    @Override
+    public void removeNotify() {
+        if (viewportListener != null && getParent() instanceof JViewport) {
+            ((JViewport) getParent()).removeChangeListener(viewportListener);
+        }
+        viewportListener = null;
+        super.removeNotify();
+    }
+
+    /**
+     * Loads the messages from before the oldest row from the history, off the EDT, and puts
+     * them on top if there is still room for them.
+     */
+    private void loadHistory() {
+        if (loadingHistory || historyDone || count == 0 || !GUIMain.currentSettings.logChat) return;
+        int room = Math.min(HISTORY_PAGE, rows.length - count);
+        if (room <= 0) return;
+        loadingHistory = true;
+        long before = get(0).time;
+        ThreadEngine.submit(() -> {
+            List<ChatHistory.Record> records = ChatHistory.getBefore(channel, before, room);
+            EventQueue.invokeLater(() -> {
+                loadingHistory = false;
+                //the rows changed while loading, it's asked for again on the next scroll
+                if (count == 0 || get(0).time != before) return;
+                if (records.isEmpty()) {
+                    historyDone = true;
+                    return;
+                }
+                prepend(records);
+            });
+        });
+    }
+
+    private void prepend(List<ChatHistory.Record> records) {
+        int added = 0;
+        for (int i = records.size() - 1; i >= 0 && count < rows.length; i--) {
+            Row r = toRow(records.get(i));
+            r.layout(this, layoutWidth);
+            r.top = get(0).top - r.height;
+            head = (head - 1 + rows.length) % rows.length;
+            rows[head] = r;
+            count++;
+            if (dirty != Integer.MAX_VALUE) dirty++;
+            added += r.height;
+        }
+        resize(added);
+    }
+
+    private static final SimpleDateFormat TIME_FORMAT = new SimpleDateFormat("[h:mm a]", Locale.getDefault());
+
+    private Row toRow(ChatHistory.Record record) {
+        Row r = new Row(record.getTime());
+        SimpleAttributeSet user = new SimpleAttributeSet(GUIMain.norm);
+        StyleConstants.setForeground(user, Utils.getColorFromHashcode(record.getSender().hashCode()));
+        user.addAttribute(HTML.Attribute.NAME, record.getSender());
+        String time = TIME_FORMAT.format(new Date(record.getTime())) + " ";
+        String content = record.getContent();
+        boolean isMe = content.startsWith("/me ");
+        r.add(getStyle(GUIMain.norm), time, 0, time.length());
+        r.add(getStyle(user), record.getSender(), 0, record.getSender().length());
+        if (isMe) {
+            content = " " + content.substring(4);
+            r.add(getStyle(user), content, 0, content.length());
+        } else {
+            content = ": " + content;
+            r.add(getStyle(GUIMain.norm), content, 0, content.length());
+        }
+        return r;
+    }
+
+    private Style getStyle(AttributeSet set) {
+        if (set == null) set = SimpleAttributeSet.EMPTY;
+        //styles are shared until a changed set is used, which only costs a new entry
+        Style style = styles.get(set);
+        if (style == null) {
+            if (styles.size() > 1024) styles.clear();
+            AttributeSet copy = set.copyAttributes();
+            style = new Style(copy, getFont());
+            styles.put(copy, style);
+        }
+        return style;
+    }
+
+    private void onClick(MouseEvent e) {
+        Run run = getRunAt(e.getX(), e.getY());
+        if (run == null) return;
+        String href = (String) run.style.attrs.getAttribute(HTML.Attribute.HREF);
+        if (href != null) {
+            Utils.openWebPage(href);
+            return;
+        }
+        String name = (String) run.style.attrs.getAttribute(HTML.Attribute.NAME);
+        if (name != null && channel != null) {
+            ListenerName.createUserPopup(channel, name, this, e.getX(), e.getY());
+            return;
+        }
+        ListenerFace.createFacePopup(run.style.attrs, this, e.getX(), e.getY());
+    }
+
+    private Run getRunAt(int x, int y) {
+        if (count == 0) return null;
+        int i = indexAt(y);
+        Row r = get(i);
+        if (y < r.top - get(0).top || y >= r.top - get(0).top + r.height) return null;
+        int rowY = (int) (y - (r.top - get(0).top));
+        for (int p = 0; p < r.pieceCount; p++) {
+            Piece piece = r.pieces[p];
+            int lineTop = piece.line == 0 ? 0 : r.lineBottoms[piece.line - 1];
+            if (rowY >= lineTop && rowY < r.lineBottoms[piece.line] && x >= piece.x && x < piece.x + piece.width) {
+                return piece.run;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The index of the last row that starts at or above the given y of the view.
+     */
+    private int indexAt(int y) {
+        long top = get(0).top + y;
+        int lo = 0, hi = count - 1, found = 0;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (get(mid).top <= top) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) clip = new Rectangle(0, 0, getWidth(), getHeight());
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        if (count == 0) return;
+        if (g instanceof Graphics2D) {
+            ((Graphics2D) g).setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                    RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        }
+        long base = get(0).top;
+        for (int i = indexAt(clip.y); i < count; i++) {
+            Row r = get(i);
+            int y = (int) (r.top - base);
+            if (y > clip.y + clip.height) break;
+            r.paint(this, g, y);
+        }
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return getPreferredSize();
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return getFontMetrics(getFont()).getHeight();
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return (orientation == SwingConstants.VERTICAL) ? visibleRect.height : visibleRect.width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        return true;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        //fill the viewport until there are enough rows to scroll
+        return getParent() instanceof JViewport && getParent().getHeight() > getTotalHeight();
+    }
+
+    /**
+     * The font, colors and attributes of a run of text.
+     */
+    private static class Style {
+        final AttributeSet attrs;
+        final Font font;
+        final Color foreground, background;
+        final boolean underline;
+        final Icon icon;
+
+        Style(AttributeSet attrs, Font base) {
+            this.attrs = attrs;
+            String family = attrs.isDefined(StyleConstants.FontFamily) ? StyleConstants.getFontFamily(attrs) : base.getFamily();
+            int size = attrs.isDefined(StyleConstants.FontSize) ? StyleConstants.getFontSize(attrs) : base.getSize();
+            int style = (StyleConstants.isBold(attrs) ? Font.BOLD : 0) | (StyleConstants.isItalic(attrs) ? Font.ITALIC : 0);
+            font = new Font(family, style, size);
+            foreground = attrs.isDefined(StyleConstants.Foreground) ? StyleConstants.getForeground(attrs) : Color.white;
+            background = attrs.isDefined(StyleConstants.Background) ? StyleConstants.getBackground(attrs) : null;
+            underline = StyleConstants.isUnderline(attrs);
+            icon = StyleConstants.getIcon(attrs);
+        }
+    }
+
+    /**
+     * A piece of a row in one style: text, or an icon in place of its text.
+     */
+    private static class Run {
+        //replaced when the font changes
+        Style style;
+        final char[] chars;
+
+        Run(Style style, char[] chars) {
+            this.style = style;
+            this.chars = chars;
+        }
+    }
+
+    /**
+     * The part of a run that is on one line of a row.
+     */
+    private static class Piece {
+        final Run run;
+        final int start, line, x;
+        int end, width;
+
+        Piece(Run run, int start, int end, int line, int x, int width) {
+            this.run = run;
+            this.start = start;
+            this.end = end;
+            this.line = line;
+            this.x = x;
+            this.width = width;
+        }
+    }
+
+    /**
+     * One line of chat, wrapped to as many lines of the view as it needs.
+     */
+    private static class Row {
+        final long time;
+        final ArrayList<Run> runs = new ArrayList<>(8);
+        long top = 0;
+        int height = 0;
+
+        Piece[] pieces = new Piece[0];
+        int pieceCount = 0;
+        //the bottom of every line and its baseline, relative to the top of the row
+        int[] lineBottoms = new int[1], baselines = new int[1];
+
+        Row(long time) {
+            this.time = time;
+        }
+
+        void add(Style style, String text, int start, int end) {
+            if (style.icon != null) {
+                runs.add(new Run(style, text.substring(start, end).toCharArray()));
+            } else if (end > start) {
+                char[] chars = new char[end - start];
+                text.getChars(start, end, chars, 0);
+                runs.add(new Run(style, chars));
+            }
+        }
+
+        void layout(JComponent c, int width) {
+            ArrayList<Piece> laid = new ArrayList<>(runs.size() + 2);
+            ArrayList<int[]> lines = new ArrayList<>(2);//ascent, descent
+            int[] metrics = {0, 0};
+            lines.add(metrics);
+            int x = 0, line = 0;
+            for (Run run : runs) {
+                Style s = run.style;
+                if (s.icon != null) {
+                    int w = s.icon.getIconWidth();
+                    if (x > 0 && x + w > width) {
+                        metrics = new int[]{0, 0};
+                        lines.add(metrics);
+                        line++;
+                        x = 0;
+                    }
+                    laid.add(new Piece(run, 0, run.chars.length, line, x, w));
+                    metrics[0] = Math.max(metrics[0], s.icon.getIconHeight());
+                    x += w;
+                    continue;
+                }
+                FontMetrics fm = c.getFontMetrics(s.font);
+                char[] chars = run.chars;
+                Piece last = null;
+                int pos = 0;
+                while (pos < chars.length) {
+                    //a word and the spaces after it
+                    int wordEnd = pos;
+                    while (wordEnd < chars.length && chars[wordEnd] != ' ') wordEnd++;
+                    int end = wordEnd;
+                    while (end < chars.length && chars[end] == ' ') end++;
+                    int wordWidth = fm.charsWidth(chars, pos, wordEnd - pos);
+                    if (x > 0 && x + wordWidth > width && wordEnd > pos) {
+                        metrics = new int[]{0, 0};
+                        lines.add(metrics);
+                        line++;
+                        x = 0;
+                        last = null;
+                    }
+                    if (x == 0 && wordWidth > width) {
+                        //longer than a line, break it wherever it doesn't fit
+                        end = pos + 1;
+                        while (end < wordEnd && fm.charsWidth(chars, pos, end + 1 - pos) <= width) end++;
+                    }
+                    int w = fm.charsWidth(chars, pos, end - pos);
+                    if (last != null && last.line == line && last.end == pos) {
+                        last.end = end;
+                        last.width += w;
+                    } else {
+                        last = new Piece(run, pos, end, line, x, w);
+                        laid.add(last);
+                    }
+                    metrics[0] = Math.max(metrics[0], fm.getAscent());
+                    metrics[1] = Math.max(metrics[1], fm.getDescent() + fm.getLeading());
+                    x += w;
+                    pos = end;
+                }
+            }
+            pieces = laid.toArray(new Piece[laid.size()]);
+            pieceCount = pieces.length;
+            lineBottoms = new int[lines.size()];
+            baselines = new int[lines.size()];
+            int y = 0;
+            for (int i = 0; i < lines.size(); i++) {
+                int[] m = lines.get(i);
+                if (m[0] == 0 && m[1] == 0) {
+                    //an empty line is as high as the default font
+                    FontMetrics fm = c.getFontMetrics(c.getFont());
+                    m[0] = fm.getAscent();
+                    m[1] = fm.getDescent() + fm.getLeading();
+                }
+                baselines[i] = y + m[0];
+                y += m[0] + m[1];
+                lineBottoms[i] = y;
+            }
+            height = y;
+        }
+
+        void paint(JComponent c, Graphics g, int y) {
+            for (int i = 0; i < pieceCount; i++) {
+                Piece p = pieces[i];
+                Style s = p.run.style;
+                int baseline = y + baselines[p.line];
+                if (s.icon != null) {
+                    s.icon.paintIcon(c, g, p.x, baseline - s.icon.getIconHeight());
+                    continue;
+                }
+                if (s.background != null) {
+                    int top = y + (p.line == 0 ? 0 : lineBottoms[p.line - 1]);
+                    g.setColor(s.background);
+                    g.fillRect(p.x, top, p.width, y + lineBottoms[p.line] - top);
+                }
+                g.setFont(s.font);
+                g.setColor(s.foreground);
+                g.drawChars(p.run.chars, p.start, p.end - p.start, p.x, baseline);
+                if (s.underline) g.drawLine(p.x, baseline + 1, p.x + p.width - 1, baseline + 1);
+            }
+        }
+    }
+}
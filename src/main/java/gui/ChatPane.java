@@ -13,6 +13,7 @@ import irc.message.MessageQueue;
 import irc.message.MessageWrapper;
 import lib.pircbot.Channel;
 import lib.pircbot.User;
+import util.ChatLog;
 import util.Constants;
 import util.Utils;
 import util.misc.Donation;
@@ -21,6 +22,7 @@ import util.settings.Settings;
 import javax.swing.*;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
+import javax.swing.text.AttributeSet;
 import javax.swing.text.DefaultCaret;
 import javax.swing.text.SimpleAttributeSet;
 import javax.swing.text.StyleConstants;
@@ -58,14 +60,14 @@ public class ChatPane implements DocumentListener {
             frame.addWindowListener(new WindowAdapter() {
                 @Override
                 public void windowClosed(WindowEvent e) {
-                    getScrollPane().setViewportView(getTextPane());
+                    getScrollPane().setViewportView(getChatView());
                     scrollToBottom();
                     setPoppedOutPane(null);
                 }
             });
             JScrollPane pane = new JScrollPane();
             frame.setIconImage(new ImageIcon(getClass().getResource("/image/icon.png")).getImage());
-            pane.setViewportView(getTextPane());
+            pane.setViewportView(getChatView());
             pane.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
             pane.getVerticalScrollBar().setPreferredSize(new Dimension(0, 0));
             frame.add(pane);
@@ -200,7 +202,9 @@ public class ChatPane implements DocumentListener {
     }
 
     public void doScrollToBottom() {
-        if (textPane.isVisible()) {
+        if (chatList != null) {
+            chatList.scrollRectToVisible(new Rectangle(0, chatList.getHeight() - 1, 1, 1));
+        } else if (textPane.isVisible()) {
             Rectangle visibleRect = textPane.getVisibleRect();
             visibleRect.y = textPane.getHeight() - visibleRect.height;
             textPane.scrollRectToVisible(visibleRect);
@@ -216,7 +220,9 @@ public class ChatPane implements DocumentListener {
         maybeScrollToBottom();
         if (GUIMain.currentSettings.cleanupChat) {
             try {
-                if (e.getDocument().getText(e.getOffset(), e.getLength()).contains("\n")) {
+                //a batch can hold many lines, count every one of them
+                String inserted = e.getDocument().getText(e.getOffset(), e.getLength());
+                for (int i = inserted.indexOf('\n'); i != -1; i = inserted.indexOf('\n', i + 1)) {
                     cleanupCounter++;
                 }
             } catch (Exception ignored) {
@@ -247,8 +253,10 @@ public class ChatPane implements DocumentListener {
      * It's been more than 10 seconds since we've been scrolled up and have been receiving messages
      */
     private void maybeScrollToBottom() {
-        JScrollBar scrollBar = scrollPane.getVerticalScrollBar();
-        boolean scrollBarAtBottom = isScrollBarFullyExtended(scrollBar);
+        maybeScrollToBottom(isScrollBarFullyExtended(scrollPane.getVerticalScrollBar()));
+    }
+
+    private void maybeScrollToBottom(boolean scrollBarAtBottom) {
         if (scrollBarAtBottom) {
             // We're back at the bottom, reset timer
             scrollbarTimestamp = -1;
@@ -297,6 +305,30 @@ public class ChatPane implements DocumentListener {
         return textPane;
     }
 
+    private ChatList chatList = null;
+
+    /**
+     * @return The list this pane paints its chat with, or null if it uses its text pane.
+     */
+    public ChatList getChatList() {
+        return chatList;
+    }
+
+    /**
+     * Shows the chat of this pane with the given list instead of the text pane.
+     */
+    public void setChatList(ChatList list) {
+        chatList = list;
+        if (scrollPane != null) scrollPane.setViewportView(getChatView());
+    }
+
+    /**
+     * @return The component that shows the chat, the list if there is one, else the text pane.
+     */
+    public JComponent getChatView() {
+        return (chatList != null) ? chatList : textPane;
+    }
+
     private JScrollPane scrollPane;
 
     public JScrollPane getScrollPane() {
@@ -341,6 +373,7 @@ public class ChatPane implements DocumentListener {
     public ChatPane(String channel, JScrollPane scrollPane, JTextPane pane, int index) {
         chan = channel;
         textPane = pane;
+        textPane.setStyledDocument(new ChatDocument());
         ((DefaultCaret) textPane.getCaret()).setUpdatePolicy(DefaultCaret.NEVER_UPDATE);
         this.index = index;
         this.scrollPane = scrollPane;
@@ -463,7 +496,7 @@ public class ChatPane implements DocumentListener {
         HashMap<Integer, SimpleAttributeSet> rangesStyle = new HashMap<>();
 
         findLinks(text, ranges, rangesStyle);
-        findEmoticons(text, ranges, rangesStyle, u, m.getLocal().getChannel());
+        findEmoticons(text, ranges, rangesStyle, u, m.getLocal());
 
         // Actually print everything
         int lastPrintedPos = 0;
@@ -501,9 +534,13 @@ public class ChatPane implements DocumentListener {
     }
 
 
-    private void findEmoticons(String text, Map<Integer, Integer> ranges, Map<Integer, SimpleAttributeSet> rangesStyle, User u, String channel) {
+    private void findEmoticons(String text, Map<Integer, Integer> ranges, Map<Integer, SimpleAttributeSet> rangesStyle, User u, Message message) {
+        String channel = message.getChannel();
         FaceManager.handleFaces(ranges, rangesStyle, text, FaceManager.FACE_TYPE.NORMAL_FACE, null, null);
-        if (u != null && u.getEmotes() != null) {
+        if (message.getEmotes() != null) {
+            FaceManager.handleEmotes(ranges, rangesStyle, text, message.getEmotes());
+        } else if (u != null && u.getEmotes() != null) {
+            //our own lines have no tags, they're matched against the emotes of our emote sets
             FaceManager.handleFaces(ranges, rangesStyle, text, FaceManager.FACE_TYPE.TWITCH_FACE, null, u.getEmotes());
         }
         //TODO if (currentSettings.FFZFaceEnabled)
@@ -515,14 +552,65 @@ public class ChatPane implements DocumentListener {
 
     protected void print(MessageWrapper wrapper, String string, SimpleAttributeSet set) {
         if (textPane == null) return;
-        Runnable r = () -> {
+        //logged once the whole message is built, on this thread rather than the EDT
+        if (GUIMain.currentSettings.logChat && chan != null) wrapper.addLog(chan, string);
+        long time = System.currentTimeMillis();
+        wrapper.addPrint(() -> append(string, set, time));
+    }
+
+    //panes with text waiting in their ChatDocument, only used on the EDT
+    private static final LinkedHashSet<ChatPane> pendingAppends = new LinkedHashSet<>();
+
+    /**
+     * Queues the text onto the document of this pane, it shows up once
+     * #flushPendingAppends is called at the end of the batch.
+     */
+    private void append(String string, AttributeSet set, long time) {
+        if (chatList != null) {
+            chatList.append(string, set, time);
+            pendingAppends.add(this);
+            return;
+        }
+        try {
+            StyledDocument doc = textPane.getStyledDocument();
+            if (doc instanceof ChatDocument) {
+                ((ChatDocument) doc).appendBatch(string, set);
+                pendingAppends.add(this);
+            } else {
+                doc.insertString(doc.getLength(), string, set);
+            }
+        } catch (Exception e) {
+            GUIMain.log(e);
+        }
+    }
+
+    private void flushAppends() {
+        if (chatList != null) {
+            boolean atBottom = chatList.isFollowing();
+            chatList.flush();
+            maybeScrollToBottom(atBottom);
+            return;
+        }
+        if (textPane == null) return;
+        StyledDocument doc = textPane.getStyledDocument();
+        if (doc instanceof ChatDocument) {
             try {
-                textPane.getStyledDocument().insertString(textPane.getStyledDocument().getLength(), string, set);
+                ((ChatDocument) doc).flushBatch();
             } catch (Exception e) {
                 GUIMain.log(e);
             }
-        };
-        wrapper.addPrint(r);
+        }
+    }
+
+    /**
+     * Inserts the queued text of every pane, one document edit per pane.
+     * This must be called on the EDT, after a batch of messages was printed.
+     */
+    public static void flushPendingAppends() {
+        for (ChatPane cp : pendingAppends) {
+            cp.flushAppends();
+        }
+        pendingAppends.clear();
     }
 
     /**
@@ -573,13 +661,28 @@ public class ChatPane implements DocumentListener {
     }
 
     public String getText() {
+        if (chatList != null) return chatList.getText();
         return (textPane != null && textPane.getText() != null) ? textPane.getText() : "";
     }
 
+    /**
+     * Removes all of the chat from this pane.
+     */
+    public void clear() {
+        resetCleanupCounter();
+        if (chatList != null) {
+            chatList.clear();
+        } else if (textPane != null) {
+            textPane.setText(null);
+        }
+    }
+
     // Source: http://stackoverflow.com/a/4628879
     // by http://stackoverflow.com/users/131872/camickr & Community
     public void cleanupChat() {
-        if (textPane == null || textPane.getParent() == null) return;
+        //the list keeps itself bounded
+        if (chatList != null || textPane == null || textPane.getParent() == null) return;
+        flushAppends();
         if (!(textPane.getParent() instanceof JViewport)) {
             return;
         }
@@ -593,10 +696,6 @@ public class ChatPane implements DocumentListener {
         {
             final StyledDocument doc = textPane.getStyledDocument();
             try {
-                if (GUIMain.currentSettings.logChat && chan != null) {
-                    String[] toRemove = doc.getText(0, start).split("\\n");
-                    Utils.logChat(toRemove, chan, 1);
-                }
                 doc.remove(0, start);
                 resetCleanupCounter();
             } catch (Exception e) {
@@ -627,7 +726,12 @@ public class ChatPane implements DocumentListener {
         pane.addMouseListener(new ListenerName());
         pane.addMouseListener(new ListenerFace());
         scrollPane.setViewportView(pane);
-        return new ChatPane(channel, scrollPane, pane, GUIMain.channelPane.getTabCount() - 1);
+        ChatPane cp = new ChatPane(channel, scrollPane, pane, GUIMain.channelPane.getTabCount() - 1);
+        if (GUIMain.currentSettings.virtualChat) {
+            cp.setChatList(new ChatList(channel, GUIMain.currentSettings.cleanupChat ?
+                    GUIMain.currentSettings.chatMax : ChatList.DEFAULT_ROWS));
+        }
+        return cp;
     }
 
     /**
@@ -635,8 +739,9 @@ public class ChatPane implements DocumentListener {
      */
     public void deletePane() {
         if (GUIMain.currentSettings.logChat) {
-            Utils.logChat(getText().split("\\n"), chan, 2);
+            ChatLog.close(chan);
         }
+        MessageQueue.removeLane(chan);
         //TODO ensure the viewer list & other popped out GUIs are deleted
         if (getPoppedOutPane() != null) {
             getPoppedOutPane().dispose();
@@ -18,10 +18,13 @@ import sound.SoundEngine;
 import thread.TabPulse;
 import thread.ThreadEngine;
 import thread.heartbeat.*;
+import util.ChatLog;
 import util.Constants;
 import util.Utils;
 import util.comm.Command;
 import util.comm.ConsoleCommand;
+import util.history.ChatHistory;
+import util.log.Log;
 import util.settings.Settings;
 import face.TwitchFace;
 
@@ -32,8 +35,6 @@ import javax.swing.text.StyleConstants;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.File;
-import java.io.PrintWriter;
-import java.io.StringWriter;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
@@ -222,6 +223,7 @@ public class GUIMain extends JFrame {
      * @return The System Logs chat pane.
      */
     public static ChatPane getSystemLogsPane() {
+        if (systemLogsPane == null && chatPanes != null) return chatPanes.get("System Logs");
         return systemLogsPane;
     }
 
@@ -245,20 +247,18 @@ public class GUIMain extends JFrame {
      * @param message The message to log.
      */
     public static void log(Object message) {
-        String toPrint;
-        Message.MessageType type = Message.MessageType.LOG_MESSAGE; // Moved here to allow for changing message type to something like error for throwables
-        if (message instanceof Throwable) {
-            Throwable t = (Throwable) message;
-            StringWriter sw = new StringWriter();
-            PrintWriter pw = new PrintWriter(sw);
-            t.printStackTrace(pw);
-            toPrint = sw.toString(); // stack trace as a string
-        } else {
-            // Not a throwable.. Darn strings
-            toPrint = message.toString();
-        }
-        if (toPrint != null && GUIMain.chatPanes != null && !GUIMain.chatPanes.isEmpty())
-            MessageQueue.addMessage(new Message(toPrint, type));
+        log(Log.Category.GENERAL, message);
+    }
+
+    /**
+     * Logs a message to the chat console like #log(Object), under the given category of the log,
+     * see {@link Log}. This returns right away, the message is written out in the background.
+     *
+     * @param category What the message is about.
+     * @param message  The message to log, a Throwable is logged with its stack trace.
+     */
+    public static void log(Log.Category category, Object message) {
+        Log.logToPane(category, message);
     }
 
     public static void updateTitle(String viewerCount) {
@@ -304,14 +304,10 @@ public class GUIMain extends JFrame {
         SoundEngine.getEngine().close();
         
         currentSettings.save();
-        heartbeat.interrupt();
-        if (currentSettings.logChat) {
-            String[] keys = chatPanes.keySet().toArray(new String[chatPanes.keySet().size()]);
-            for (String s : keys) {
-                ChatPane cp = chatPanes.get(s);
-                Utils.logChat(cp.getText().split("\\n"), s, 2);
-            }
-        }
+        heartbeat.shutdown();
+        ChatLog.shutdown();
+        ChatHistory.shutdown();
+        Log.shutdown();
         
         
         dispose();
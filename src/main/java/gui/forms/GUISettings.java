@@ -1,5 +1,7 @@
 package gui.forms;
 
+import face.Icons;
+import gui.ChatPane;
 import gui.JFontChooser;
 import irc.account.Account;
 import irc.account.OAuth;
@@ -128,6 +130,7 @@ public class GUISettings extends JFrame {
         } catch (Exception e) {
             GUIMain.log(e);
         }
+        Icons.invalidateCache();
 
         //sounds
         DefaultMutableTreeNode root = (DefaultMutableTreeNode) soundTree.getModel().getRoot();
@@ -163,6 +166,7 @@ public class GUISettings extends JFrame {
         GUIMain.currentSettings.logChat = logChatCheck.isSelected();
         GUIMain.currentSettings.chatMax = (int) clearChatSpinner.getValue();
         GUIMain.currentSettings.cleanupChat = clearChatCheck.isSelected();
+        GUIMain.currentSettings.virtualChat = virtualChatCheck.isSelected();
         String comm = buttonGroup.getSelection().getActionCommand();
         if (comm != null) {
             if (comm.equals("HiFi")) {
@@ -369,12 +373,16 @@ public class GUISettings extends JFrame {
             Font f = jfc.getSelectedFont();
             if (f != null) {
                 GUIMain.currentSettings.font = f;
+                Icons.invalidateCache();
                 StyleConstants.setFontFamily(GUIMain.norm, GUIMain.currentSettings.font.getFamily());
                 StyleConstants.setFontSize(GUIMain.norm, GUIMain.currentSettings.font.getSize());
                 StyleConstants.setBold(GUIMain.norm, GUIMain.currentSettings.font.isBold());
                 StyleConstants.setItalic(GUIMain.norm, GUIMain.currentSettings.font.isItalic());
                 currentFontLabel.setText(Utils.fontToString(GUIMain.currentSettings.font));
                 currentFontLabel.setFont(GUIMain.currentSettings.font);
+                for (ChatPane cp : GUIMain.chatPanes.values()) {
+                    if (cp.getChatList() != null) cp.getChatList().setFont(GUIMain.currentSettings.font);
+                }
             }
         }
     }
@@ -478,6 +486,7 @@ public class GUISettings extends JFrame {
         label5 = new JLabel();
         label20 = new JLabel();
         clearChatSpinner = new JSpinner();
+        virtualChatCheck = new JCheckBox();
         logChatCheck = new JCheckBox();
         label26 = new JLabel();
         label27 = new JLabel();
@@ -1171,6 +1180,12 @@ public class GUISettings extends JFrame {
                 clearChatSpinner.setFocusable(false);
                 clearChatSpinner.setEnabled(GUIMain.currentSettings.cleanupChat);
 
+                //---- virtualChatCheck ----
+                virtualChatCheck.setText("Virtual Chat View");
+                virtualChatCheck.setToolTipText("Paints chat without a text pane, lighter on long sessions. Used by tabs opened after this.");
+                virtualChatCheck.setFocusable(false);
+                virtualChatCheck.setSelected(GUIMain.currentSettings.virtualChat);
+
                 //---- logChatCheck ----
                 logChatCheck.setText("Log The Chat To File");
                 logChatCheck.setFocusable(false);
@@ -1238,7 +1253,8 @@ public class GUISettings extends JFrame {
                                                                         .addPreferredGap(LayoutStyle.ComponentPlacement.RELATED)
                                                                         .addComponent(clearChatSpinner, GroupLayout.PREFERRED_SIZE, 62, GroupLayout.PREFERRED_SIZE)
                                                                         .addPreferredGap(LayoutStyle.ComponentPlacement.RELATED)
-                                                                        .addComponent(label20))))
+                                                                        .addComponent(label20))
+                                                                .addComponent(virtualChatCheck)))
                                                 .addGroup(chatSettingsPanelLayout.createSequentialGroup()
                                                         .addGap(19, 19, 19)
                                                         .addComponent(label27))
@@ -1299,6 +1315,8 @@ public class GUISettings extends JFrame {
                                                                 .addComponent(label20)
                                                                 .addComponent(clearChatSpinner, GroupLayout.PREFERRED_SIZE, GroupLayout.DEFAULT_SIZE, GroupLayout.PREFERRED_SIZE)
                                                                 .addComponent(label5))
+                                                        .addPreferredGap(LayoutStyle.ComponentPlacement.RELATED)
+                                                        .addComponent(virtualChatCheck)
                                                         .addGap(18, 18, 18)
                                                         .addComponent(logChatCheck)
                                                         .addGap(18, 18, 18)
@@ -1526,6 +1544,7 @@ public class GUISettings extends JFrame {
     public static JLabel label5;
     public static JLabel label20;
     public static JSpinner clearChatSpinner;
+    public static JCheckBox virtualChatCheck;
     public static JCheckBox logChatCheck;
     public static JLabel label26;
     public static JLabel label27;
@@ -2,6 +2,7 @@ package gui.forms;
 
 import gui.ChatPane;
 import gui.CombinedChatPane;
+import thread.heartbeat.ViewerCount;
 
 import javax.swing.*;
 import java.awt.*;
@@ -65,6 +66,7 @@ public class GUIStreams extends JFrame {
         }
         GUIMain.channelPane.updateIndexes();
         newChannel.setText("");
+        ViewerCount.update();
     }
 
     private void initComponents() {
@@ -1,7 +1,6 @@
 package gui.forms;
 
 import gui.listeners.ListenerName;
-import thread.heartbeat.UserManager;
 
 import javax.swing.*;
 import javax.swing.tree.DefaultMutableTreeNode;
@@ -10,8 +9,11 @@ import javax.swing.tree.TreePath;
 import java.awt.*;
 import java.awt.event.*;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * @author Nick K
@@ -22,11 +24,17 @@ public class GUIViewerList extends JFrame {
 
     private DefaultTreeModel defaultModel;
 
+    //the names in every category, as of the last update (the tree catches up on the EDT)
+    private final EnumMap<ViewerType, Set<String>> shown = new EnumMap<>(ViewerType.class);
+    private volatile long contentHash = 0;
+
     public DefaultMutableTreeNode staff, admins, global_mods, mods, viewers, default_root, filtered_root;
 
     public GUIViewerList(String channel) {
+        for (ViewerType type : ViewerType.values()) {
+            shown.put(type, new HashSet<>());
+        }
         initComponents(channel);
-        UserManager.toUpdate.setEndIn(0L);//force an update
     }
 
     public enum ViewerType {
@@ -41,55 +49,110 @@ public class GUIViewerList extends JFrame {
         return viewerTree.getExpandedDescendants(viewerTree.getPathForRow(0));
     }
 
-    public synchronized void updateCategory(ViewerType type, HashSet<String> names) {
-        final DefaultMutableTreeNode node;
-        Enumeration<TreePath> userPath = getExpandedDescendants();
+    /**
+     * @return The hash of the chatters list this was last updated from, so UserManager
+     * can skip lists that didn't change.
+     */
+    public long getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(long contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    private DefaultMutableTreeNode getNode(ViewerType type) {
         switch (type) {
             case STAFF:
-                staff.removeAllChildren();
-                node = staff;
-                break;
+                return staff;
             case ADMIN:
-                admins.removeAllChildren();
-                node = admins;
-                break;
+                return admins;
+            case GLOBAL_MOD:
+                return global_mods;
             case MOD:
-                mods.removeAllChildren();
-                node = mods;
-                break;
+                return mods;
             case VIEWER:
-                viewers.removeAllChildren();
-                node = viewers;
-                break;
-            case GLOBAL_MOD:
-                global_mods.removeAllChildren();
-                node = global_mods;
-                break;
+                return viewers;
             default:
-                node = null;
-                break;
+                return null;
         }
-        if (node != null) {
-            if (!names.isEmpty()) {
-                names.stream().sorted().forEach(s -> node.add(new DefaultMutableTreeNode(s)));
+    }
+
+    /**
+     * Updates a category to the given names. Only the names that joined or parted since the
+     * last update are touched, and the tree is told about them with insert and remove events
+     * instead of being reloaded, so it keeps its scrolling and expanded rows.
+     * The differences are worked out on the calling thread, the tree is changed on the EDT.
+     *
+     * @param type  The category.
+     * @param names Everyone in the category now.
+     */
+    public void updateCategory(ViewerType type, Set<String> names) {
+        DefaultMutableTreeNode node = getNode(type);
+        if (node == null) return;
+        Set<String> current = shown.get(type);
+        TreeSet<String> parted = new TreeSet<>();
+        for (String name : current) {
+            if (!names.contains(name)) parted.add(name);
+        }
+        TreeSet<String> joined = new TreeSet<>();
+        for (String name : names) {
+            if (!current.contains(name)) joined.add(name);
+        }
+        if (parted.isEmpty() && joined.isEmpty()) return;
+        current.removeAll(parted);
+        current.addAll(joined);
+        SwingUtilities.invokeLater(() -> applyDelta(type, node, parted, joined));
+    }
+
+    private synchronized void applyDelta(ViewerType type, DefaultMutableTreeNode node, TreeSet<String> parted, TreeSet<String> joined) {
+        if (!parted.isEmpty()) {
+            ArrayList<Integer> indices = new ArrayList<>();
+            for (int i = 0; i < node.getChildCount(); i++) {
+                if (parted.contains(getName(node, i))) indices.add(i);
+            }
+            int[] removed = new int[indices.size()];
+            Object[] children = new Object[indices.size()];
+            for (int i = indices.size() - 1; i >= 0; i--) {
+                removed[i] = indices.get(i);
+                children[i] = node.getChildAt(removed[i]);
+                node.remove(removed[i]);
             }
-            updateRoot(userPath);
+            if (removed.length > 0 && node.getParent() != null) defaultModel.nodesWereRemoved(node, removed, children);
         }
+        if (!joined.isEmpty()) {
+            int[] inserted = new int[joined.size()];
+            int count = 0, index = 0;
+            //both are sorted, so the insertion points only move forward
+            for (String name : joined) {
+                while (index < node.getChildCount() && getName(node, index).compareTo(name) < 0) index++;
+                node.insert(new DefaultMutableTreeNode(name), index);
+                inserted[count++] = index++;
+            }
+            if (node.getParent() != null) defaultModel.nodesWereInserted(node, inserted);
+        }
+        updateRoot(type, node);
+    }
+
+    private static String getName(DefaultMutableTreeNode node, int index) {
+        return (String) ((DefaultMutableTreeNode) node.getChildAt(index)).getUserObject();
     }
 
-    private synchronized void updateRoot(Enumeration<TreePath> userPath) {
-        DefaultMutableTreeNode root = default_root;
-        root.removeAllChildren();
-        if (staff.getChildCount() > 0) root.add(staff);
-        if (admins.getChildCount() > 0) root.add(admins);
-        if (global_mods.getChildCount() > 0) root.add(global_mods);
-        if (mods.getChildCount() > 0) root.add(mods);
-        root.add(viewers);
-        if (!isFiltering) defaultModel.reload(root);
-        if (userPath != null) {
-            while (userPath.hasMoreElements()) {
-                viewerTree.expandPath(userPath.nextElement());
+    /**
+     * Shows the category in the tree if it has anyone in it, the viewers are always shown.
+     */
+    private void updateRoot(ViewerType type, DefaultMutableTreeNode node) {
+        boolean show = type == ViewerType.VIEWER || node.getChildCount() > 0;
+        boolean showing = node.getParent() == default_root;
+        if (show && !showing) {
+            int index = 0;
+            for (ViewerType t : ViewerType.values()) {
+                if (t == type) break;
+                if (getNode(t).getParent() == default_root) index++;
             }
+            defaultModel.insertNodeInto(node, default_root, index);
+        } else if (!show && showing) {
+            defaultModel.removeNodeFromParent(node);
         }
     }
 
@@ -206,6 +269,7 @@ public class GUIViewerList extends JFrame {
             global_mods = new DefaultMutableTreeNode("Global Moderators");
             mods = new DefaultMutableTreeNode("Moderators");
             viewers = new DefaultMutableTreeNode("Viewers");
+            default_root.add(viewers);
             setViewerTreeModel(defaultModel);
             viewerTree.addMouseListener(new MouseAdapter() {
                 @Override
@@ -32,41 +32,51 @@ public class ListenerFace extends MouseAdapter {
                 DefaultStyledDocument hdoc = (DefaultStyledDocument) doc;
                 Element el = hdoc.getCharacterElement(pos);
                 AttributeSet a = el.getAttributes();
-                Face f = (Face) a.getAttribute("faceinfo");
-                if (f != null) {
-                    JPopupMenu popupMenu = new JPopupMenu();
-                    popupMenu.setEnabled(false);
-                    if (f instanceof FrankerFaceZ) {
-                        String channel = (String) a.getAttribute("channel");
-                        JMenuItem item = new JMenuItem("FrankerFaceZ Face");
-                        item.setEnabled(false);
-                        popupMenu.add(item);
-                        item = new JMenuItem(f.getRegex());
-                        item.setEnabled(false);
-                        popupMenu.add(item);
-                        item = new JMenuItem(channel);
-                        item.setEnabled(false);
-                        popupMenu.add(item);
-                    } else if (f instanceof TwitchFace) {
-                        String regex = (String) a.getAttribute("regex");
-                        JMenuItem item = new JMenuItem("Twitch Face");
-                        item.setEnabled(false);
-                        popupMenu.add(item);
-                        item = new JMenuItem(regex);
-                        item.setEnabled(false);
-                        popupMenu.add(item);
-                    } else {//normal face
-                        String regex = (String) a.getAttribute("regex");
-                        JMenuItem item = new JMenuItem("Normal Face");
-                        item.setEnabled(false);
-                        popupMenu.add(item);
-                        item = new JMenuItem(regex);
-                        item.setEnabled(false);
-                        popupMenu.add(item);
-                    }
-                    popupMenu.show(editor, pt.x, pt.y);
-                }
+                createFacePopup(a, editor, pt.x, pt.y);
             }
         }
     }
+
+    /**
+     * Shows what face the clicked text is, if it is one.
+     *
+     * @param a The attributes of the clicked text.
+     * @return True if the text was a face and the popup was shown.
+     */
+    public static boolean createFacePopup(AttributeSet a, Component parent, int x, int y) {
+        Face f = (Face) a.getAttribute("faceinfo");
+        if (f == null) return false;
+        JPopupMenu popupMenu = new JPopupMenu();
+        popupMenu.setEnabled(false);
+        if (f instanceof FrankerFaceZ) {
+            String channel = (String) a.getAttribute("channel");
+            JMenuItem item = new JMenuItem("FrankerFaceZ Face");
+            item.setEnabled(false);
+            popupMenu.add(item);
+            item = new JMenuItem(f.getRegex());
+            item.setEnabled(false);
+            popupMenu.add(item);
+            item = new JMenuItem(channel);
+            item.setEnabled(false);
+            popupMenu.add(item);
+        } else if (f instanceof TwitchFace) {
+            String regex = (String) a.getAttribute("regex");
+            JMenuItem item = new JMenuItem("Twitch Face");
+            item.setEnabled(false);
+            popupMenu.add(item);
+            item = new JMenuItem(regex);
+            item.setEnabled(false);
+            popupMenu.add(item);
+        } else {//normal face
+            String regex = (String) a.getAttribute("regex");
+            JMenuItem item = new JMenuItem("Normal Face");
+            item.setEnabled(false);
+            popupMenu.add(item);
+            item = new JMenuItem(regex);
+            item.setEnabled(false);
+            popupMenu.add(item);
+        }
+        popupMenu.show(parent, x, y);
+        return true;
+    }
 }
\ No newline at end of file
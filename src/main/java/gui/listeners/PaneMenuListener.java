@@ -6,6 +6,8 @@ import gui.forms.GUIMain;
 import gui.forms.GUIViewerList;
 import util.Utils;
 import irc.account.Task;
+import thread.heartbeat.UserManager;
+import thread.heartbeat.ViewerCount;
 
 import javax.swing.*;
 
@@ -42,6 +44,7 @@ public class PaneMenuListener implements ActionListener {
 					GUIViewerList newVL = new GUIViewerList(pane.getChannel());
 					newVL.setVisible(true);
 					GUIMain.viewerLists.put(pane.getChannel(), newVL);
+					UserManager.update();//force an update
 				}
 			} else if (text.startsWith("Remove ")) {
 				if (pane != null) {
@@ -55,6 +58,7 @@ public class PaneMenuListener implements ActionListener {
 					GUIMain.chatPanes.remove(pane.getChannel());
 					pane.deletePane();
 					GUIMain.channelPane.updateIndexes();
+					ViewerCount.update();
 				}
 			} else if (text.startsWith("Disband")) {
 				CombinedChatPane ccp = Utils.getCombinedChatPane(GUIMain.channelPane.getSelectedIndex());
@@ -70,14 +74,9 @@ public class PaneMenuListener implements ActionListener {
 				if (pane == null) pane = Utils.getCombinedChatPane(GUIMain.channelPane.getSelectedIndex());
 				if (pane != null) { //The combined could return null, still have to check
 					if (pane instanceof CombinedChatPane) pane = ((CombinedChatPane) pane).getActiveChatPane();
-					pane.resetCleanupCounter();
 					final ChatPane pane1 = pane;
 					EventQueue.invokeLater(() -> {//this should be fine, no need for message queue since clearing would be situational anyways
-						if (GUIMain.currentSettings.logChat) {
-							String[] toPrint = pane1.getText().split("\\n");
-							Utils.logChat(toPrint, pane1.getChannel(), 1);
-						}
-						pane1.getTextPane().setText(null);
+						pane1.clear();
 					});
 				}
 			} else if (text.startsWith("Reconnect ")){
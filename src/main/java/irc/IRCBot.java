@@ -112,6 +112,7 @@ public class IRCBot extends MessageHandler {
                 GUIMain.currentSettings.accountManager.createReconnectThread(getBot().getConnection());
             else {
             	GUIMain.logCurrent("Auto-reconnects disabled, please check Preferences -> Auto-Reconnect!");
+            	getBot().getConnection().giveUp();
             }
         }
     }
@@ -495,8 +496,7 @@ public class IRCBot extends MessageHandler {
                             Raffle toRemove = null;
                             for (Raffle r : ch.getRaffles()) {
                                 if (r.getKeyword().equalsIgnoreCase(first)) {
-                                    r.setDone(true);
-                                    r.interrupt();
+                                    r.cancel();
                                     toRemove = r;
 //                                    getBot().sendMessage(channel, "The raffle with key " + first + " has been stopped!");
                                     commandResponse = new Response("The raffle with key " + first + " has been stopped!",true);
@@ -562,7 +562,7 @@ public class IRCBot extends MessageHandler {
 //                                    getBot().sendMessage(channel, "The poll is already finished!");
                                     commandResponse = new Response("The poll is already finished!", true);
                                 } else {
-                                	ch.getPoll().interrupt();
+                                	ch.getPoll().cancel();
 //                                    getBot().sendMessage(channel, "The poll has been stopped.");
                                     commandResponse = new Response("The poll has been stopped.", true);
                                 }
@@ -609,7 +609,7 @@ public class IRCBot extends MessageHandler {
 	                        				commandResponse.setResponseText("You must enter the final race time. Ex: !judgerace 47");
 	                        				break;
 	                        			}
-	                        			ch.getRace().interrupt();
+	                        			ch.getRace().cancel();
 	                        			ch.getRace().judgeRace(first);
 //	                        			race = null;
 	                        		} else {
@@ -3,12 +3,14 @@ package irc;
 import face.FaceManager;
 import gui.forms.GUIMain;
 import irc.account.Task;
+import irc.message.EmoteRanges;
 import irc.message.Message;
 import irc.message.MessageHandler;
 import irc.message.MessageQueue;
 import lib.pircbot.PircBot;
 import lib.pircbot.User;
 import thread.heartbeat.BanQueue;
+import util.ChatLog;
 import util.Utils;
 import util.settings.Settings;
 
@@ -34,7 +36,7 @@ public class IRCViewer extends MessageHandler {
     	getViewer().log("Trying to connect to " + channel);
         channel = channel.startsWith("#") ? channel : "#" + channel;
         GUIMain.currentSettings.accountManager.addTask(new Task(getViewer(), Task.Type.JOIN_CHANNEL, channel));
-        if (GUIMain.currentSettings.logChat) Utils.logChat(null, channel, 0);
+        if (GUIMain.currentSettings.logChat) ChatLog.open(channel);
         if (!GUIMain.channelSet.contains(channel)) GUIMain.channelSet.add(channel);
         //TODO if currentSettings.FFZFacesEnable
         if (FaceManager.doneWithFrankerFaces)
@@ -82,6 +84,11 @@ public class IRCViewer extends MessageHandler {
 
     @Override
     public void onMessage(final String channel, final String sender, final String message) {
+        onMessage(channel, sender, message, null);
+    }
+
+    @Override
+    public void onMessage(final String channel, final String sender, final String message, final EmoteRanges emotes) {
     	if (message.startsWith("!asbot ")){
     		if (message.length() > 7) GUIMain.bot.getBot().sendMessage(channel, message.substring("!asbot ".length()));
     	} else if (sender.equalsIgnoreCase(GUIMain.currentSettings.accountManager.getViewer().getNick()) && message.equalsIgnoreCase("!recon")) {
@@ -97,13 +104,18 @@ public class IRCViewer extends MessageHandler {
 					new Task(GUIMain.currentSettings.accountManager.getViewer(), Task.Type.JOIN_CHANNEL, channel));
 			return;
     	} else {
-    		MessageQueue.addMessage(new Message(channel, sender, message, false));
+    		MessageQueue.addMessage(new Message(channel, sender, message, false).setEmotes(emotes));
     	}
     }
 
     @Override
     public void onAction(final String sender, final String channel, final String action) {
-        MessageQueue.addMessage(new Message(channel, sender, action, true));
+        onAction(sender, channel, action, null);
+    }
+
+    @Override
+    public void onAction(final String sender, final String channel, final String action, final EmoteRanges emotes) {
+        MessageQueue.addMessage(new Message(channel, sender, action, true).setEmotes(emotes));
     }
 
     @Override
@@ -133,8 +145,13 @@ public class IRCViewer extends MessageHandler {
     
     @Override
     public void onWhisper(String user, String receiver, String contents) {
+        onWhisper(user, receiver, contents, null);
+    }
+
+    @Override
+    public void onWhisper(String user, String receiver, String contents, EmoteRanges emotes) {
         MessageQueue.addMessage(new Message().setType(Message.MessageType.WHISPER_MESSAGE).setSender(user).setContent(contents)
-                .setExtra(receiver));
+                .setExtra(receiver).setEmotes(emotes));
     }
 
     @Override
@@ -194,6 +211,7 @@ public class IRCViewer extends MessageHandler {
             else {
 //                if (!whisper) GUIMain.logCurrent("Auto-reconnects disabled, please check Preferences -> Auto-Reconnect!");
             	GUIMain.logCurrent("Auto-reconnects disabled, please check Preferences -> Auto-Reconnect!");
+            	getViewer().getConnection().giveUp();
             }
         }
     }
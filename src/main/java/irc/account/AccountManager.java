@@ -13,6 +13,7 @@ import util.settings.Settings;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.TimerTask;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Created by Nick on 6/12/2014.
@@ -113,12 +114,9 @@ public class AccountManager extends Thread {
                         break;
                     case DISCONNECT:
                         if (t.doer != null) {
-                        	if (t.doer.getConnection() != null){
-	                            ReconnectThread potential = reconnectThreads.get(t.doer.getConnection().getName());
-	                            if (potential != null) {
-	                                potential.t.cancel();
-	                                reconnectThreads.remove(t.doer.getNick());
-	                            }
+                        	for (PircBotConnection c : t.doer.getConnectionPool().getConnections()) {
+	                            ReconnectThread potential = reconnectThreads.remove(c.getName());
+	                            if (potential != null) potential.cancel();
                         	}
                             t.doer.disconnect();
                             t.doer.dispose();
@@ -167,6 +165,7 @@ public class AccountManager extends Thread {
     public void createReconnectThread(PircBotConnection connection) {
     	if (!GUIMain.currentSettings.autoReconnectAccounts) {
     		GUIMain.log("Auto-reconnect is disabled, please check Preferences -> Auto-Reconnect!");
+    		connection.giveUp();
     		return;
     	}
 //    	if (reconnectThreads.get(connection.getName()) != null) return;
@@ -177,11 +176,20 @@ public class AccountManager extends Thread {
             GUIMain.logCurrent("Attempting to reconnect the account: " + connection.getBot().getNick() + " ...");
        }
 
+    /**
+     * Tries to connect again soon after the connection dropped, then waits twice as long after
+     * every failed try (up to MAX_DELAY), a random part of it, so that the connections of an
+     * account (and every bot that dropped with it) don't all hit the server at the same time.
+     */
     private class ReconnectThread {
 
+        private static final long FIRST_DELAY = 1000, MAX_DELAY = 60_000;
+
         private PircBotConnection connection;
         private ArrayList<Task> cachedTasks;
         private Timer t;
+        private int attempts = 0;
+        private volatile boolean cancelled = false;
 
         ReconnectThread(PircBotConnection toReconnect) {
             connection = toReconnect;
@@ -190,19 +198,39 @@ public class AccountManager extends Thread {
         }
 
         public void start() {
+            schedule();
+        }
+
+        private void schedule() {
+            long delay = Math.min(MAX_DELAY, FIRST_DELAY << Math.min(attempts, 6));
+            delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+            attempts++;
             TimerTask task = new TimerTask() {
                 @Override
                 public void run() {
+                    if (cancelled) return;
                     if (connection.connect()) {
                         reconnectThreads.remove(connection.getName());
                         cachedTasks.forEach(GUIMain.currentSettings.accountManager::addTask);
 //                        if (!connection.isWhisper())
                             GUIMain.logCurrent("Successfully reconnected the account: " + connection.getBot().getNick() + " !");
                         t.cancel();
+                    } else {
+                        schedule();
                     }
                 }
             };
-            t.scheduleAtFixedRate(task, 10000L, 10000L);
+            try {
+                t.schedule(task, delay);
+            } catch (IllegalStateException ignored) {
+                //cancelled meanwhile
+            }
+        }
+
+        public void cancel() {
+            cancelled = true;
+            t.cancel();
+            connection.giveUp();
         }
 
         public void addTask(Task t) {
@@ -0,0 +1,180 @@
+package irc.message;
+
+/**
+ * The Twitch emotes of one message, as the "emotes" IRCv3 tag of its line gives them:
+ * "25:0-4,12-16/1902:6-10", every emote ID with the first and last character of each
+ * place it's at, counted in Unicode code points of the message.
+ * <p>
+ * The places are turned into indexes of the message String once, when the tag is parsed,
+ * so an emoji before an emote (two chars, one code point) doesn't shift it. They are
+ * sorted by where they start; places that are outside of the message, overlap an earlier
+ * one or can't be parsed are dropped.
+ */
+public final class EmoteRanges {
+
+    /**
+     * The emotes of a message whose tag says it has none.
+     */
+    public static final EmoteRanges EMPTY = new EmoteRanges("", new int[0], 0);
+
+    private final String tag;
+    //the ID, first and last char of every place, one after another
+    private final int[] ranges;
+    private final int size;
+
+    private EmoteRanges(String tag, int[] ranges, int size) {
+        this.tag = tag;
+        this.ranges = ranges;
+        this.size = size;
+    }
+
+    /**
+     * Parses the emotes tag of a message.
+     *
+     * @param tag     The value of the emotes tag, may be null.
+     * @param message The message the tag is for.
+     * @return The emotes of the message, or null if there was no tag.
+     */
+    public static EmoteRanges parse(String tag, String message) {
+        if (tag == null) return null;
+        if (tag.isEmpty() || message == null || message.isEmpty()) return EMPTY;
+        int[] found = new int[12];
+        int count = 0;
+        int length = tag.length();
+        for (int emote = 0; emote < length; ) {
+            int emoteEnd = tag.indexOf('/', emote);
+            if (emoteEnd == -1) emoteEnd = length;
+            int colon = tag.indexOf(':', emote);
+            int id = (colon == -1 || colon > emoteEnd) ? -1 : parseInt(tag, emote, colon);
+            //IDs that aren't numbers can't be looked up, so they're skipped like broken ones
+            if (id != -1) {
+                for (int range = colon + 1; range < emoteEnd; ) {
+                    int rangeEnd = tag.indexOf(',', range);
+                    if (rangeEnd == -1 || rangeEnd > emoteEnd) rangeEnd = emoteEnd;
+                    int dash = tag.indexOf('-', range);
+                    if (dash != -1 && dash < rangeEnd) {
+                        int first = parseInt(tag, range, dash), last = parseInt(tag, dash + 1, rangeEnd);
+                        if (first != -1 && last >= first) {
+                            if (count + 3 > found.length) {
+                                int[] bigger = new int[found.length * 2];
+                                System.arraycopy(found, 0, bigger, 0, count);
+                                found = bigger;
+                            }
+                            found[count++] = id;
+                            found[count++] = first;
+                            found[count++] = last;
+                        }
+                    }
+                    range = rangeEnd + 1;
+                }
+            }
+            emote = emoteEnd + 1;
+        }
+        sort(found, count);
+        return new EmoteRanges(tag, found, toChars(found, count, message));
+    }
+
+    /**
+     * @return The number in the given part of the String, or -1 if it isn't one.
+     */
+    private static int parseInt(String s, int start, int end) {
+        if (start >= end || end - start > 9) return -1;
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Sorts the places by their first character, there are only ever a few of them.
+     */
+    private static void sort(int[] r, int count) {
+        for (int i = 3; i < count; i += 3) {
+            int id = r[i], first = r[i + 1], last = r[i + 2];
+            int j = i - 3;
+            while (j >= 0 && r[j + 1] > first) {
+                r[j + 3] = r[j];
+                r[j + 4] = r[j + 1];
+                r[j + 5] = r[j + 2];
+                j -= 3;
+            }
+            r[j + 3] = id;
+            r[j + 4] = first;
+            r[j + 5] = last;
+        }
+    }
+
+    /**
+     * Turns the code point places into char places in one walk over the message, dropping
+     * the ones that overlap or don't fit.
+     *
+     * @return How many of the ints are kept.
+     */
+    private static int toChars(int[] r, int count, String message) {
+        int kept = 0;
+        int codePoint = 0, index = 0, length = message.length();
+        int lastEnd = -1;//the last code point of the place before
+        for (int i = 0; i < count; i += 3) {
+            int first = r[i + 1], last = r[i + 2];
+            if (first <= lastEnd) continue;
+            while (codePoint < first && index < length) {
+                index += Character.charCount(message.codePointAt(index));
+                codePoint++;
+            }
+            int start = index;
+            while (codePoint < last && index < length) {
+                index += Character.charCount(message.codePointAt(index));
+                codePoint++;
+            }
+            if (index >= length) break;//this and every place after it are past the end
+            r[kept++] = r[i];
+            r[kept++] = start;
+            r[kept++] = index + Character.charCount(message.codePointAt(index)) - 1;
+            lastEnd = last;
+        }
+        return kept;
+    }
+
+    /**
+     * @return How many places there are.
+     */
+    public int size() {
+        return size / 3;
+    }
+
+    /**
+     * @return The ID of the emote at the given place.
+     */
+    public int getId(int i) {
+        return ranges[i * 3];
+    }
+
+    /**
+     * @return The index of the first char of the given place.
+     */
+    public int getStart(int i) {
+        return ranges[i * 3 + 1];
+    }
+
+    /**
+     * @return The index of the last char of the given place.
+     */
+    public int getEnd(int i) {
+        return ranges[i * 3 + 2];
+    }
+
+    /**
+     * @return The tag these were parsed from.
+     */
+    public String getTag() {
+        return tag;
+    }
+
+    @Override
+    public String toString() {
+        return tag;
+    }
+}
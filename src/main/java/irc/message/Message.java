@@ -10,6 +10,7 @@ public class Message {
     private String channel = null;
     private String sender = null;
     private Object extra = null;
+    private EmoteRanges emotes = null;
 
     /**
      * Constructs a default, blank message.
@@ -88,6 +89,18 @@ public class Message {
         return this;
     }
 
+    /**
+     * @return Where the Twitch emotes of the message are, or null if its line didn't say.
+     */
+    public EmoteRanges getEmotes() {
+        return emotes;
+    }
+
+    public Message setEmotes(EmoteRanges emotes) {
+        this.emotes = emotes;
+        return this;
+    }
+
     public MessageType getType() {
         return type;
     }
@@ -17,6 +17,16 @@ public abstract class MessageHandler {
     public void onMessage(String channel, String sender, String message) {
     }
 
+    /**
+     * Same as #onMessage(String, String, String), with the Twitch emotes of the message.
+     * This is the one the PircBot calls, and calls the other unless it's overridden.
+     *
+     * @param emotes Where the Twitch emotes are in the message, null if the line didn't say.
+     */
+    public void onMessage(String channel, String sender, String message, EmoteRanges emotes) {
+        onMessage(channel, sender, message);
+    }
+
 
     /**
      * This method catches the new subscriber for a certain channel
@@ -73,6 +83,16 @@ public abstract class MessageHandler {
     public void onAction(String sender, String target, String action) {
     }
 
+    /**
+     * Same as #onAction(String, String, String), with the Twitch emotes of the action.
+     * This is the one the PircBot calls, and calls the other unless it's overridden.
+     *
+     * @param emotes Where the Twitch emotes are in the action, null if the line didn't say.
+     */
+    public void onAction(String sender, String target, String action, EmoteRanges emotes) {
+        onAction(sender, target, action);
+    }
+
 
     /**
      * This method carries out the actions to be performed when the PircBot
@@ -150,4 +170,14 @@ public abstract class MessageHandler {
      */
     public void onWhisper(String sender, String receiver, String contents) {
     }
+
+    /**
+     * Same as #onWhisper(String, String, String), with the Twitch emotes of the whisper.
+     * This is the one the PircBot calls, and calls the other unless it's overridden.
+     *
+     * @param emotes Where the Twitch emotes are in the whisper, null if the line didn't say.
+     */
+    public void onWhisper(String sender, String receiver, String contents, EmoteRanges emotes) {
+        onWhisper(sender, receiver, contents);
+    }
 }
\ No newline at end of file
@@ -5,136 +5,327 @@ import gui.CombinedChatPane;
 import gui.forms.GUIMain;
 import lib.pircbot.Queue;
 import sound.SoundEngine;
+import util.history.ChatHistory;
 import util.settings.Settings;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by Nick on 1/14/2015.
  * <p>
  * Created to aid in the faster response time of the GUI while large
  * quantities of messages come in, using the Pircbot Queue.
+ * <p>
+ * Messages go through three stages: they are parsed on the connection thread,
+ * styled (built into a MessageWrapper) by a fixed amount of workers, and then
+ * flushed onto the GUI by this thread, one batch per frame. Every channel has its
+ * own lane which only one worker drains at a time, so lines of one channel always
+ * show up in the order they came in. When a lane is full, the OverflowPolicy in the Settings decides
+ * what happens to chat lines; logs and notifications are never dropped.
  */
 public class MessageQueue extends Thread {
 
+    /**
+     * What to do with chat lines when a channel's lane is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Drop the incoming line.
+         */
+        DROP_NEWEST,
+        /**
+         * Drop the oldest chat line waiting in the lane.
+         */
+        DROP_OLDEST,
+        /**
+         * Drop the incoming line, and print how many were skipped once the lane caught up.
+         */
+        COALESCE
+    }
+
+    public static final int DEFAULT_LANE_SIZE = 500;
+    public static final OverflowPolicy DEFAULT_OVERFLOW_POLICY = OverflowPolicy.COALESCE;
+
+    //milliseconds between GUI flushes, about 40 per second
+    private static final long FLUSH_INTERVAL = 25;
+
+    //how many messages a worker builds from one lane before giving other channels a turn
+    private static final int LANE_BATCH = 32;
+
     private static ExecutorService pool;
     private static Queue<MessageWrapper> queue;
+    private static ConcurrentHashMap<String, Lane> lanes;
+    private static final AtomicLong droppedMessages = new AtomicLong(0);
 
     public MessageQueue() {
-        queue = new Queue<>(100);
-        pool = Executors.newCachedThreadPool();
+        queue = new Queue<>();
+        lanes = new ConcurrentHashMap<>();
+        pool = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
     }
 
     @Override
     public synchronized void run() {
+        long lastFlush = 0;
         while (!GUIMain.shutDown) {
-            MessageWrapper mess = queue.next();//locks for a new message, no need for Thread#sleep
-            if (mess != null && mess.getLocal() != null) {
-                mess.print();
+            MessageWrapper first = queue.next();//locks for a new message, no need for Thread#sleep
+            if (first == null) continue;
+            //wait out the rest of the frame so everything that comes in meanwhile goes in the same batch
+            long wait = lastFlush + FLUSH_INTERVAL - System.currentTimeMillis();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException e) {
+                    break;
+                }
             }
+            ArrayList<MessageWrapper> batch = new ArrayList<>();
+            if (first.getLocal() != null) batch.add(first);
+            queue.drainTo(batch, Integer.MAX_VALUE);
+            batch.removeIf(mess -> mess.getLocal() == null);
+            lastFlush = System.currentTimeMillis();
+            MessageWrapper.print(batch);
         }
     }
 
-    private static synchronized void addToQueue(MessageWrapper mw) {
+    private static void addToQueue(MessageWrapper mw) {
         queue.add(mw);
     }
 
     public static void addMessage(Message mess) {
         if (mess != null && mess.getType() != null) {
-            pool.execute(() -> {
-                MessageWrapper wrap = new MessageWrapper(mess);
-                try {//try catch for security, if one message fails, we still want to receive messages
-                    switch (mess.getType()) {
-                        case LOG_MESSAGE:
-                            if (mess.getChannel() != null) {
-                                GUIMain.getChatPane(mess.getChannel()).log(wrap, true);
-                            } else if (mess.getExtra() != null) {
-                                ((ChatPane) mess.getExtra()).log(wrap, true);
-                            } else {
-                                GUIMain.getSystemLogsPane().log(wrap, true);
-                            }
-                            break;
-                        case NORMAL_MESSAGE:
-                        case ACTION_MESSAGE:
-                            if (!GUIMain.combinedChatPanes.isEmpty()) {
-                                for (CombinedChatPane cc : GUIMain.combinedChatPanes) {
-                                    for (String chan : cc.getChannels()) {
-                                        if (mess.getChannel().substring(1).equalsIgnoreCase(chan)) {
-                                            cc.onMessage(wrap, true);
-                                            break;
-                                        }
-                                    }
+            String key = getLaneKey(mess);
+            //a lane that retired in the meantime is already out of the map, the next one takes it
+            Lane lane;
+            do {
+                lane = lanes.computeIfAbsent(key, Lane::new);
+            } while (!lane.offer(mess));
+        }
+    }
+
+    /**
+     * Forgets the lane of a channel whose pane was closed, once the messages still in it are
+     * styled. A message that comes in before that goes in the same lane, which then stays, so
+     * the channel's messages can never be on two lanes (and two workers) at once.
+     *
+     * @param channel The channel, with or without the hashtag.
+     */
+    public static void removeLane(String channel) {
+        if (channel == null || lanes == null) return;
+        Lane lane = lanes.get(channel.replaceAll("#", "").toLowerCase());
+        if (lane != null) lane.close();
+    }
+
+    /**
+     * @return The amount of chat lines dropped because their channel could not keep up.
+     */
+    public static long getDroppedMessages() {
+        return droppedMessages.get();
+    }
+
+    /**
+     * @return The amount of messages waiting to be styled, over all channels.
+     */
+    public static int getPendingMessages() {
+        int total = 0;
+        for (Lane l : lanes.values()) {
+            total += l.size();
+        }
+        return total;
+    }
+
+    /**
+     * Messages are ordered per pane they end up in, so the lane is picked by the channel
+     * the message is for, or the pane it was handed.
+     */
+    private static String getLaneKey(Message mess) {
+        String channel = mess.getChannel();
+        if (channel == null && mess.getExtra() instanceof ChatPane) {
+            channel = ((ChatPane) mess.getExtra()).getChannel();
+        }
+        if (channel == null) {
+            channel = (mess.getType() == Message.MessageType.WHISPER_MESSAGE) ? "whispers" : "system logs";
+        }
+        return channel.replaceAll("#", "").toLowerCase();
+    }
+
+    private static boolean isDroppable(Message mess) {
+        return mess.getType() == Message.MessageType.NORMAL_MESSAGE
+                || mess.getType() == Message.MessageType.ACTION_MESSAGE;
+    }
+
+    private static int getLaneSize() {
+        Settings s = GUIMain.currentSettings;
+        return (s == null || s.messageLaneSize < 1) ? DEFAULT_LANE_SIZE : s.messageLaneSize;
+    }
+
+    private static OverflowPolicy getOverflowPolicy() {
+        Settings s = GUIMain.currentSettings;
+        return (s == null || s.messageOverflow == null) ? DEFAULT_OVERFLOW_POLICY : s.messageOverflow;
+    }
+
+    /**
+     * The messages of one channel, in order. A lane is only ever on one worker at a time.
+     */
+    private static class Lane implements Runnable {
+        private final String channel;
+        private final ArrayDeque<Message> pending = new ArrayDeque<>();
+        private boolean scheduled = false;
+        private int skipped = 0;
+        //the pane was closed, and the lane leaves the map when it's empty, after which it's dead
+        private boolean closing = false, dead = false;
+
+        Lane(String channel) {
+            this.channel = channel;
+        }
+
+        synchronized int size() {
+            return pending.size();
+        }
+
+        synchronized void close() {
+            closing = true;
+            if (!scheduled) retire();
+        }
+
+        /**
+         * Takes the lane out of the map, with its lock held and nothing left in it.
+         */
+        private void retire() {
+            dead = true;
+            lanes.remove(channel, this);
+        }
+
+        /**
+         * @return False if the lane is dead, and the message has to go in the channel's next one.
+         */
+        boolean offer(Message mess) {
+            synchronized (this) {
+                if (dead) return false;
+                closing = false;
+                if (pending.size() >= getLaneSize() && isDroppable(mess)) {
+                    switch (getOverflowPolicy()) {
+                        case DROP_OLDEST:
+                            Iterator<Message> it = pending.iterator();
+                            boolean removed = false;
+                            while (it.hasNext()) {
+                                if (isDroppable(it.next())) {
+                                    it.remove();
+                                    removed = true;
+                                    break;
                                 }
                             }
-                            GUIMain.getChatPane(mess.getChannel()).onMessage(wrap, false);
-                            break;
-                        case SUB_NOTIFY:
-                            GUIMain.getChatPane(mess.getChannel()).onSub(wrap);
-                            break;
-                        case BAN_NOTIFY:
-                        case HOSTED_NOTIFY:
-                        case HOSTING_NOTIFY:
-                        case JTV_NOTIFY:
-                            GUIMain.getChatPane(mess.getChannel()).log(wrap, false);
-                            break;
-                        case DONATION_NOTIFY:
-                            GUIMain.getChatPane(mess.getChannel()).onDonation(wrap);
-                            if (GUIMain.currentSettings.loadedDonationSounds) {
-                                SoundEngine.getEngine().playSpecialSound(false);
-                            }
-                            break;
-                        case CLEAR_TEXT:
-                            wrap.addPrint(((ChatPane) mess.getExtra())::cleanupChat);
-                            break;
-                        case WHISPER_MESSAGE:
-                            GUIMain.getCurrentPane().onWhisper(wrap);
+                            droppedMessages.incrementAndGet();
+                            if (!removed) return true;
                             break;
+                        case COALESCE:
+                            skipped++;
+                            droppedMessages.incrementAndGet();
+                            return true;
+                        case DROP_NEWEST:
                         default:
-                            break;
+                            droppedMessages.incrementAndGet();
+                            return true;
                     }
-                    addToQueue(wrap);
-                } catch (Exception e) {
-                    GUIMain.log(e);
                 }
-//                try {//try catch for security, if one message fails, we still want to receive messages
-//                    if (mess.getType() == Message.MessageType.LOG_MESSAGE) {
-//                        if (mess.getChannel() != null)
-//                            GUIMain.getChatPane(mess.getChannel()).log(wrap, true);
-//                        else GUIMain.getSystemLogsPane().log(wrap, true);
-//                    } else if (mess.getType() == Message.MessageType.NORMAL_MESSAGE ||
-//                            mess.getType() == Message.MessageType.ACTION_MESSAGE) {
-//                        if (!GUIMain.combinedChatPanes.isEmpty()) {
-//                            for (CombinedChatPane cc : GUIMain.combinedChatPanes) {
-//                                for (String chan : cc.getChannels()) {
-//                                    if (mess.getChannel().substring(1).equalsIgnoreCase(chan)) {
-//                                        cc.onMessage(wrap, true);
-//                                        break;
-//                                    }
-//                                }
-//                            }
-//                        }
-//                        GUIMain.getChatPane(mess.getChannel()).onMessage(wrap, false);
-//                    } else if (mess.getType() == Message.MessageType.SUB_NOTIFY) {
-//                        GUIMain.getChatPane(mess.getChannel()).onSub(wrap);
-//                    } else if (mess.getType() == Message.MessageType.BAN_NOTIFY ||
-//                            mess.getType() == Message.MessageType.HOSTED_NOTIFY ||
-//                            mess.getType() == Message.MessageType.HOSTING_NOTIFY ||
-//                            mess.getType() == Message.MessageType.JTV_NOTIFY) {
-//                        GUIMain.getChatPane(mess.getChannel()).log(wrap, false);
-//                    } else if (mess.getType() == Message.MessageType.DONATION_NOTIFY) {
-//                        GUIMain.getChatPane(mess.getChannel()).onDonation(wrap);
-//                        if (GUIMain.currentSettings.loadedDonationSounds) {
-//                            SoundEngine.getEngine().playSpecialSound(false);
-//                        }
-//                    } else if (mess.getType() == Message.MessageType.CLEAR_TEXT) {
-//                        wrap.addPrint(((ChatPane) mess.getExtra())::cleanupChat);
-//                    }
-//                    addToQueue(wrap);
-//                } catch (Exception e) {
-//                    GUIMain.log(e);
-//                }
-            });
+                pending.add(mess);
+                if (scheduled) return true;
+                scheduled = true;
+            }
+            pool.execute(this);
+            return true;
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < LANE_BATCH; i++) {
+                Message mess;
+                synchronized (this) {
+                    mess = pending.poll();
+                    if (mess == null) {
+                        if (skipped > 0) {
+                            //caught up, let the user know what they missed
+                            mess = new Message(channel.equals("system logs") ? null : "#" + channel,
+                                    "Skipped " + skipped + " messages to keep up with chat.",
+                                    Message.MessageType.LOG_MESSAGE);
+                            skipped = 0;
+                        } else {
+                            scheduled = false;
+                            if (closing) retire();
+                            return;
+                        }
+                    }
+                }
+                build(mess);
+            }
+            pool.execute(this);
+        }
+    }
+
+    /**
+     * Styles the message into a wrapper and hands it to the GUI thread.
+     */
+    private static void build(Message mess) {
+        MessageWrapper wrap = new MessageWrapper(mess);
+        try {//try catch for security, if one message fails, we still want to receive messages
+            switch (mess.getType()) {
+                case LOG_MESSAGE:
+                    if (mess.getChannel() != null) {
+                        GUIMain.getChatPane(mess.getChannel()).log(wrap, true);
+                    } else if (mess.getExtra() != null) {
+                        ((ChatPane) mess.getExtra()).log(wrap, true);
+                    } else {
+                        GUIMain.getSystemLogsPane().log(wrap, true);
+                    }
+                    break;
+                case NORMAL_MESSAGE:
+                case ACTION_MESSAGE:
+                    if (!GUIMain.combinedChatPanes.isEmpty()) {
+                        for (CombinedChatPane cc : GUIMain.combinedChatPanes) {
+                            for (String chan : cc.getChannels()) {
+                                if (mess.getChannel().substring(1).equalsIgnoreCase(chan)) {
+                                    cc.onMessage(wrap, true);
+                                    break;
+                                }
+                            }
+                        }
+                    }
+                    GUIMain.getChatPane(mess.getChannel()).onMessage(wrap, false);
+                    ChatHistory.record(mess);
+                    break;
+                case SUB_NOTIFY:
+                    GUIMain.getChatPane(mess.getChannel()).onSub(wrap);
+                    break;
+                case BAN_NOTIFY:
+                case HOSTED_NOTIFY:
+                case HOSTING_NOTIFY:
+                case JTV_NOTIFY:
+                    GUIMain.getChatPane(mess.getChannel()).log(wrap, false);
+                    break;
+                case DONATION_NOTIFY:
+                    GUIMain.getChatPane(mess.getChannel()).onDonation(wrap);
+                    if (GUIMain.currentSettings.loadedDonationSounds) {
+                        SoundEngine.getEngine().playSpecialSound(false);
+                    }
+                    break;
+                case CLEAR_TEXT:
+                    wrap.addPrint(((ChatPane) mess.getExtra())::cleanupChat);
+                    break;
+                case WHISPER_MESSAGE:
+                    GUIMain.getCurrentPane().onWhisper(wrap);
+                    break;
+                default:
+                    break;
+            }
+            wrap.log();
+            addToQueue(wrap);
+        } catch (Exception e) {
+            GUIMain.log(e);
         }
     }
-}
\ No newline at end of file
+}
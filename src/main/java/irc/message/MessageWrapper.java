@@ -1,9 +1,15 @@
 package irc.message;
 
+import gui.ChatPane;
 import gui.forms.GUIMain;
+import util.ChatLog;
 
 import java.awt.*;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Created by Nick on 1/14/2015.
@@ -14,6 +20,8 @@ import java.util.ArrayList;
 public class MessageWrapper {
     private Message local;
     private ArrayList<Runnable> prints;
+    //the text printed to each channel's pane, logged in one piece once the message is built
+    private LinkedHashMap<String, StringBuilder> logs = null;
 
     public Message getLocal() {
         return local;
@@ -28,24 +36,62 @@ public class MessageWrapper {
         prints.add(r);
     }
 
+    /**
+     * Adds a piece of the text printed to the given channel's pane to its chat log.
+     */
+    public void addLog(String channel, String text) {
+        if (logs == null) logs = new LinkedHashMap<>();
+        StringBuilder sb = logs.get(channel);
+        if (sb == null) {
+            sb = new StringBuilder();
+            logs.put(channel, sb);
+        }
+        sb.append(text);
+    }
+
+    /**
+     * Hands the text of this message to the ChatLog, one entry per channel, so lines
+     * printed to the same pane from other lanes can't end up in the middle of it.
+     */
+    public void log() {
+        if (logs == null) return;
+        for (Map.Entry<String, StringBuilder> e : logs.entrySet()) {
+            ChatLog.append(e.getKey(), e.getValue().toString());
+        }
+        logs = null;
+    }
+
     public void print() {
-        if (!prints.isEmpty()) {
-            Runnable handler = () -> {
-                try {
-                    prints.forEach(java.lang.Runnable::run);
-                } catch (Exception e) {
-                    GUIMain.log(e);
-                }
-            };
-            if (EventQueue.isDispatchThread()) {
-                handler.run();
-            } else {
+        print(Collections.singletonList(this));
+    }
+
+    /**
+     * Prints a whole batch of messages in one go on the EDT. The text of every
+     * message is queued onto its pane first, and then each pane gets a single
+     * document edit (and a single scroll) for the entire batch.
+     *
+     * @param batch The messages to print, in order.
+     */
+    public static void print(List<MessageWrapper> batch) {
+        if (batch.isEmpty()) return;
+        Runnable handler = () -> {
+            for (MessageWrapper mw : batch) {
                 try {
-                    EventQueue.invokeLater(handler);
+                    mw.prints.forEach(java.lang.Runnable::run);
                 } catch (Exception e) {
                     GUIMain.log(e);
                 }
             }
+            ChatPane.flushPendingAppends();
+        };
+        if (EventQueue.isDispatchThread()) {
+            handler.run();
+        } else {
+            try {
+                EventQueue.invokeLater(handler);
+            } catch (Exception e) {
+                GUIMain.log(e);
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,409 @@
+package lib.JSON;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A JSONStreamReader reads JSON one token at a time straight from a Reader, without
+ * building a JSONObject tree or holding the whole text in memory. It is meant for the
+ * large API payloads (every Twitch emote, every chatter of a channel) where only a few
+ * fields are needed:
+ * <pre>
+ * reader.beginObject();
+ * while (reader.hasNext()) {
+ *     if (reader.nextName().equals("viewers")) {
+ *         reader.beginArray();
+ *         while (reader.hasNext()) names.add(reader.nextString());
+ *         reader.endArray();
+ *     } else {
+ *         reader.skipValue();
+ *     }
+ * }
+ * reader.endObject();</pre>
+ * Like the JSONTokener, problems with the text or the Reader are thrown as JSONExceptions.
+ */
+public class JSONStreamReader implements AutoCloseable {
+
+    /**
+     * What the next token is, see {@link #peek()}.
+     */
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    //what is expected next in the object or array being read
+    private static final int EMPTY_ARRAY = 1, NONEMPTY_ARRAY = 2, EMPTY_OBJECT = 3, DANGLING_NAME = 4,
+            NONEMPTY_OBJECT = 5, EMPTY_DOCUMENT = 6, NONEMPTY_DOCUMENT = 7;
+
+    private final Reader reader;
+    private final char[] buffer = new char[8192];
+    private int pos = 0, limit = 0;
+    private long position = 0;//characters read before the buffer
+
+    private int[] stack = new int[32];
+    private int stackSize = 0;
+
+    private Token peeked = null;
+    private String peekedLiteral = null;//true, false, null or a number
+    private final StringBuilder sb = new StringBuilder();
+
+    public JSONStreamReader(Reader reader) {
+        this.reader = reader;
+        push(EMPTY_DOCUMENT);
+    }
+
+    /**
+     * @param in The JSON, in UTF-8.
+     */
+    public JSONStreamReader(InputStream in) {
+        this(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return What the next token is, without reading it.
+     */
+    public Token peek() {
+        if (peeked == null) peeked = doPeek();
+        return peeked;
+    }
+
+    public void beginObject() {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() {
+        expect(Token.END_OBJECT);
+        stackSize--;
+    }
+
+    public void beginArray() {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() {
+        expect(Token.END_ARRAY);
+        stackSize--;
+    }
+
+    /**
+     * @return True if the object or array being read has another element.
+     */
+    public boolean hasNext() {
+        Token t = peek();
+        return t != Token.END_OBJECT && t != Token.END_ARRAY && t != Token.END_DOCUMENT;
+    }
+
+    public String nextName() {
+        expect(Token.NAME);
+        return readString();
+    }
+
+    /**
+     * @return The next string, or the next number as it was written.
+     */
+    public String nextString() {
+        Token t = peek();
+        if (t == Token.STRING) {
+            peeked = null;
+            return readString();
+        }
+        if (t == Token.NUMBER) {
+            peeked = null;
+            return peekedLiteral;
+        }
+        throw syntaxError("Expected a string but was " + t);
+    }
+
+    /**
+     * @return The next number, which may also be written as a string.
+     */
+    public long nextLong() {
+        String s = nextString();
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            double d = parseDouble(s);
+            if (d != (long) d) throw syntaxError("Expected a long but was " + s);
+            return (long) d;
+        }
+    }
+
+    public int nextInt() {
+        long l = nextLong();
+        if (l != (int) l) throw syntaxError("Expected an int but was " + l);
+        return (int) l;
+    }
+
+    public double nextDouble() {
+        return parseDouble(nextString());
+    }
+
+    public boolean nextBoolean() {
+        expect(Token.BOOLEAN);
+        return "true".equals(peekedLiteral);
+    }
+
+    public void nextNull() {
+        expect(Token.NULL);
+    }
+
+    /**
+     * Skips the next value, with everything in it if it is an object or an array.
+     * Called on a name, skips the name and its value.
+     */
+    public void skipValue() {
+        if (peek() == Token.NAME) {
+            peeked = null;
+            skipString();
+        }
+        int depth = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    depth++;
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    depth++;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    depth--;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    depth--;
+                    break;
+                case NAME:
+                case STRING:
+                    peeked = null;
+                    skipString();
+                    break;
+                case END_DOCUMENT:
+                    throw syntaxError("Nothing left to skip");
+                default:
+                    peeked = null;
+                    break;
+            }
+        } while (depth > 0);
+    }
+
+    @Override
+    public void close() {
+        try {
+            reader.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void expect(Token token) {
+        Token t = peek();
+        if (t != token) throw syntaxError("Expected " + token + " but was " + t);
+        peeked = null;
+    }
+
+    private void push(int scope) {
+        if (stackSize == stack.length) {
+            int[] bigger = new int[stackSize * 2];
+            System.arraycopy(stack, 0, bigger, 0, stackSize);
+            stack = bigger;
+        }
+        stack[stackSize++] = scope;
+    }
+
+    private Token doPeek() {
+        int scope = stack[stackSize - 1];
+        int c;
+        switch (scope) {
+            case EMPTY_ARRAY:
+                stack[stackSize - 1] = NONEMPTY_ARRAY;
+                c = nextNonWhitespace(true);
+                if (c == ']') return Token.END_ARRAY;
+                return readValue(c);
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace(true);
+                if (c == ']') return Token.END_ARRAY;
+                if (c != ',') throw syntaxError("Expected ',' or ']' but was '" + (char) c + "'");
+                return readValue(nextNonWhitespace(true));
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                stack[stackSize - 1] = DANGLING_NAME;
+                c = nextNonWhitespace(true);
+                if (c == '}') return Token.END_OBJECT;
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c != ',') throw syntaxError("Expected ',' or '}' but was '" + (char) c + "'");
+                    c = nextNonWhitespace(true);
+                }
+                if (c != '"') throw syntaxError("Expected a name but was '" + (char) c + "'");
+                return Token.NAME;
+            case DANGLING_NAME:
+                stack[stackSize - 1] = NONEMPTY_OBJECT;
+                c = nextNonWhitespace(true);
+                if (c != ':') throw syntaxError("Expected ':' but was '" + (char) c + "'");
+                return readValue(nextNonWhitespace(true));
+            case EMPTY_DOCUMENT:
+                stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+                return readValue(nextNonWhitespace(true));
+            default:
+                c = nextNonWhitespace(false);
+                if (c == -1) return Token.END_DOCUMENT;
+                throw syntaxError("Expected the end of the document but was '" + (char) c + "'");
+        }
+    }
+
+    /**
+     * @param c The first character of the value, which was already read.
+     */
+    private Token readValue(int c) {
+        switch (c) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '"':
+                return Token.STRING;
+            default:
+                sb.setLength(0);
+                sb.append((char) c);
+                while (fill() && !isDelimiter(buffer[pos])) {
+                    sb.append(buffer[pos++]);
+                }
+                peekedLiteral = sb.toString();
+                switch (peekedLiteral) {
+                    case "true":
+                    case "false":
+                        return Token.BOOLEAN;
+                    case "null":
+                        return Token.NULL;
+                    default:
+                        char first = peekedLiteral.charAt(0);
+                        if (first == '-' || (first >= '0' && first <= '9')) return Token.NUMBER;
+                        throw syntaxError("Unexpected value " + peekedLiteral);
+                }
+        }
+    }
+
+    private static boolean isDelimiter(char c) {
+        switch (c) {
+            case ',':
+            case ':':
+            case ']':
+            case '}':
+            case ' ':
+            case '\t':
+            case '\r':
+            case '\n':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Reads the rest of a string whose opening quote was read.
+     */
+    private String readString() {
+        sb.setLength(0);
+        while (true) {
+            int start = pos;
+            while (pos < limit) {
+                char c = buffer[pos];
+                if (c == '"' || c == '\\') break;
+                pos++;
+            }
+            sb.append(buffer, start, pos - start);
+            if (!fill()) throw syntaxError("Unterminated string");
+            char c = buffer[pos++];
+            if (c == '"') return sb.toString();
+            if (c == '\\') sb.append(readEscape());
+        }
+    }
+
+    private void skipString() {
+        while (true) {
+            if (!fill()) throw syntaxError("Unterminated string");
+            char c = buffer[pos++];
+            if (c == '"') return;
+            if (c == '\\') readEscape();
+        }
+    }
+
+    private char readEscape() {
+        if (!fill()) throw syntaxError("Unterminated escape sequence");
+        char c = buffer[pos++];
+        switch (c) {
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int code = 0;
+                for (int i = 0; i < 4; i++) {
+                    if (!fill()) throw syntaxError("Unterminated escape sequence");
+                    int digit = Character.digit(buffer[pos++], 16);
+                    if (digit == -1) throw syntaxError("Bad unicode escape");
+                    code = (code << 4) | digit;
+                }
+                return (char) code;
+            default:
+                return c;//quotes, slashes and backslashes
+        }
+    }
+
+    /**
+     * @param required If the end of the text is an error here.
+     * @return The next character that isn't whitespace, or -1 at the end of the text.
+     */
+    private int nextNonWhitespace(boolean required) {
+        while (fill()) {
+            char c = buffer[pos++];
+            if (c != ' ' && c != '\t' && c != '\r' && c != '\n') return c;
+        }
+        if (required) throw syntaxError("Unexpected end of the text");
+        return -1;
+    }
+
+    /**
+     * @return True if there is at least one character in the buffer.
+     */
+    private boolean fill() {
+        if (pos < limit) return true;
+        try {
+            position += limit;
+            pos = limit = 0;
+            int read;
+            while ((read = reader.read(buffer)) == 0) {
+                //a Reader may return nothing without being done
+            }
+            if (read == -1) return false;
+            limit = read;
+            return true;
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+    }
+
+    private double parseDouble(String s) {
+        try {
+            return Double.parseDouble(s);
+        } catch (NumberFormatException e) {
+            throw syntaxError("Expected a number but was " + s);
+        }
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " at character " + (position + pos));
+    }
+}
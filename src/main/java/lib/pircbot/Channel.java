@@ -160,7 +160,8 @@ public class Channel {
      */
     public void addMods(String... mods) {
         Collections.addAll(this.mods, mods);
-        if (isMod(GUIMain.bot.getBot().getNick())) setMessageDelay(100);
+        if (GUIMain.bot != null && GUIMain.bot.getBot() != null && isMod(GUIMain.bot.getBot().getNick()))
+            setMessageDelay(100);
     }
 
     /**
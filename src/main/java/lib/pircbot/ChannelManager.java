@@ -1,17 +1,31 @@
 package lib.pircbot;
 
+import gui.forms.GUIMain;
+import irc.account.Account;
+
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 
-import util.APIRequests;
-
 /**
  * Created by Nick on 12/22/13.
  */
 public class ChannelManager {
 
     private CopyOnWriteArraySet<Channel> channels = new CopyOnWriteArraySet<>();
-    private CopyOnWriteArraySet<User> users = new CopyOnWriteArraySet<>();
+
+    //users keyed by their lowercase nick, and the same users sorted for the name suggestions
+    private ConcurrentHashMap<String, User> users = new ConcurrentHashMap<>();
+    private ConcurrentSkipListMap<String, User> sortedUsers = new ConcurrentSkipListMap<>();
+
+    /**
+     * Users that have not been seen (chatted, or looked up) for this long are dropped.
+     */
+    public static final long USER_IDLE_TIME = 2 * 60 * 60 * 1000L;
+    private static final long USER_SWEEP_INTERVAL = 10 * 60 * 1000L;
+    private volatile long lastSweep = System.currentTimeMillis();
 
     /**
      * Creates a blank ChannelManager.
@@ -76,17 +90,45 @@ public class ChannelManager {
      * @return The user that either exists, was created if create is true, or null.
      */
     public User getUser(String name, boolean create) {
-        for (User u : users) {
-            if (u.getNick().equalsIgnoreCase(name)) {
-                return u;
+        if (name == null) return null;
+        String key = name.toLowerCase();
+        User u = users.get(key);
+        if (u == null && create) {
+            User created = new User(name);
+            u = users.putIfAbsent(key, created);
+            if (u == null) {
+                u = created;
+                sortedUsers.put(key, created);
             }
         }
-        if (create) {
-            User u = new User(name);
-            addUser(u);
-            return u;
-        } else {
-            return null;
+        if (u != null) u.setLastSeen(System.currentTimeMillis());
+        evictIdleUsers();
+        return u;
+    }
+
+    /**
+     * Drops every user that has not been seen in USER_IDLE_TIME, so a long session in a
+     * big channel does not hold on to everyone who ever chatted. The accounts logged in
+     * are always kept. This only sweeps once every few minutes, however often it is called.
+     */
+    public void evictIdleUsers() {
+        long now = System.currentTimeMillis();
+        if (now - lastSweep < USER_SWEEP_INTERVAL) return;
+        lastSweep = now;
+        String userName = null, botName = null;
+        if (GUIMain.currentSettings != null && GUIMain.currentSettings.accountManager != null) {
+            Account user = GUIMain.currentSettings.accountManager.getUserAccount();
+            Account bot = GUIMain.currentSettings.accountManager.getBotAccount();
+            if (user != null) userName = user.getName().toLowerCase();
+            if (bot != null) botName = bot.getName().toLowerCase();
+        }
+        Iterator<User> it = users.values().iterator();
+        while (it.hasNext()) {
+            User u = it.next();
+            if (now - u.getLastSeen() < USER_IDLE_TIME) continue;
+            if (u.getLowerNick().equals(userName) || u.getLowerNick().equals(botName)) continue;
+            it.remove();
+            sortedUsers.remove(u.getLowerNick(), u);
         }
     }
 
@@ -107,7 +149,10 @@ public class ChannelManager {
      * @param user The user to add.
      */
     public void addUser(User user) {
-        users.add(user);
+        user.setLastSeen(System.currentTimeMillis());
+        if (users.putIfAbsent(user.getLowerNick(), user) == null) {
+            sortedUsers.put(user.getLowerNick(), user);
+        }
     }
 
     /**
@@ -116,7 +161,9 @@ public class ChannelManager {
      * @param u The user to remove.
      */
     public void removeUser(User u) {
-        users.remove(u);
+        if (u != null && users.remove(u.getLowerNick(), u)) {
+            sortedUsers.remove(u.getLowerNick(), u);
+        }
     }
 
     /**
@@ -125,11 +172,20 @@ public class ChannelManager {
      * @return an array of users.
      */
     public User[] getUsers() {
-        return users.stream().sorted().toArray(User[]::new);
+        //User#compareTo sorts backwards
+        return sortedUsers.descendingMap().values().toArray(new User[0]);
     }
 
+    /**
+     * Gets every user whose nick starts with the given (lowercase) word, without
+     * going over the entire user list.
+     *
+     * @param subWord The start of the nick.
+     * @return The matching users, sorted the same way as #getUsers().
+     */
     public User[] getUsers(String subWord) {
-        return users.stream().sorted().filter(s -> s.getLowerNick().startsWith(subWord)).toArray(User[]::new);
+        return sortedUsers.subMap(subWord, true, subWord + Character.MAX_VALUE, true)
+                .descendingMap().values().toArray(new User[0]);
     }
 
     /**
@@ -149,5 +205,6 @@ public class ChannelManager {
     public void dispose() {
         channels.clear();
         users.clear();
+        sortedUsers.clear();
     }
 }
\ No newline at end of file
@@ -0,0 +1,381 @@
+package lib.pircbot;
+
+import gui.forms.GUIMain;
+import util.log.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+
+/**
+ * The connections of one PircBot. Twitch limits how much one connection gets through, and one
+ * socket reading 50+ channels falls behind, so the channels are spread over as many
+ * connections as it takes to keep each one to channelsPerConnection (see Settings) channels.
+ * <p>
+ * The first connection, the primary, is the one the bot sends chat and whispers over, so the
+ * chat limits of its OutputThread hold for the whole account. The others only read their
+ * channels. They are opened when a channel needs them and closed when their last channel is
+ * left.
+ * <p>
+ * JOINs are sent by the thread of the pool, several channels a line, within one JOIN limit
+ * for every connection (Twitch counts JOINs per account). A connection that drops is
+ * reconnected on its own (see AccountManager#createReconnectThread), and joins its channels
+ * again once it's back; the others keep reading meanwhile.
+ * <p>
+ * The thread also keeps an eye on every connection: one that read nothing for PING_INTERVAL
+ * is sent a PING, and if nothing comes back within PONG_TIMEOUT its socket is closed, so a
+ * connection that died without the socket noticing is reconnected in well under a minute,
+ * instead of after minutes of silence (or never).
+ */
+public class ConnectionPool {
+
+    public static final int DEFAULT_CHANNELS_PER_CONNECTION = 25;
+    private static final long STATS_INTERVAL = 60_000;
+    private static final long PING_INTERVAL = 30_000, PONG_TIMEOUT = 10_000;
+    private static final long CHECK_INTERVAL = 2_000;
+
+    /**
+     * A connection with the channels it reads.
+     */
+    private static class Shard {
+        final PircBotConnection connection;
+        final LinkedHashSet<String> channels = new LinkedHashSet<>();
+        final ArrayDeque<String> toJoin = new ArrayDeque<>();
+        boolean toConnect = false;
+        //the last sample of its throughput, in lines per second
+        long lastRead, lastSent;
+        double readRate, sentRate;
+
+        Shard(PircBotConnection connection) {
+            this.connection = connection;
+        }
+    }
+
+    private final PircBot bot;
+    private final ArrayList<Shard> shards = new ArrayList<>();
+    private final HashMap<String, Shard> channels = new HashMap<>();//lowercase channel to its shard
+    private final TokenBucket joinBucket = new TokenBucket(OutputThread.JOIN_LIMIT / 2, OutputThread.JOIN_PERIOD);
+    private Thread joiner = null;
+    private boolean disposed = false;
+    private long lastSample = System.currentTimeMillis();
+
+    ConnectionPool(PircBot bot) {
+        this.bot = bot;
+        shards.add(new Shard(new PircBotConnection(bot, PircBotConnection.ConnectionType.NORMAL, 1)));
+    }
+
+    /**
+     * @return The first connection of the bot, which sends its chat.
+     */
+    public PircBotConnection getPrimary() {
+        return shards.get(0).connection;
+    }
+
+    /**
+     * @return Every connection of the bot, the primary first.
+     */
+    public synchronized ArrayList<PircBotConnection> getConnections() {
+        ArrayList<PircBotConnection> toReturn = new ArrayList<>(shards.size());
+        for (Shard s : shards) toReturn.add(s.connection);
+        return toReturn;
+    }
+
+    /**
+     * @return The connection that reads the given channel, or null if it isn't joined.
+     */
+    public synchronized PircBotConnection getConnection(String channel) {
+        Shard s = channels.get(channel.toLowerCase(Locale.US));
+        return s == null ? null : s.connection;
+    }
+
+    private static int getChannelsPerConnection() {
+        return GUIMain.currentSettings != null ? GUIMain.currentSettings.channelsPerConnection
+                : DEFAULT_CHANNELS_PER_CONNECTION;
+    }
+
+    /**
+     * Gives the channel to the first connection with room for it, opening a new one if they're
+     * all full, and queues its JOIN.
+     *
+     * @param channel The channel to join, like "#cs".
+     */
+    synchronized void join(String channel) {
+        String key = channel.toLowerCase(Locale.US);
+        if (disposed || channels.containsKey(key)) return;
+        int max = getChannelsPerConnection();
+        Shard shard = null;
+        for (Shard s : shards) {
+            if (max <= 0 || s.channels.size() < max) {
+                shard = s;
+                break;
+            }
+        }
+        if (shard == null) {
+            int number = 1;
+            for (Shard s : shards) number = Math.max(number, s.connection.getNumber() + 1);
+            PircBotConnection primary = getPrimary();
+            PircBotConnection connection = new PircBotConnection(bot, primary.getType(), number);
+            connection.setServer(primary.getServerOverride(), primary.getPortOverride());
+            shard = new Shard(connection);
+            shard.toConnect = true;
+            shards.add(shard);
+        }
+        shard.channels.add(key);
+        shard.toJoin.add(key);
+        channels.put(key, shard);
+        wake();
+    }
+
+    /**
+     * Leaves the channel on the connection that reads it, closing that connection if
+     * it was its last channel (and it isn't the primary).
+     *
+     * @param channel The channel to leave.
+     */
+    void part(String channel) {
+        PircBotConnection toClose = null, toPart = null;
+        synchronized (this) {
+            String key = channel.toLowerCase(Locale.US);
+            Shard shard = channels.remove(key);
+            if (shard == null) return;
+            shard.channels.remove(key);
+            //the JOIN of a channel that's still waiting for it is just never sent
+            if (!shard.toJoin.remove(key)) toPart = shard.connection;
+            if (shard.channels.isEmpty() && shard != shards.get(0)) {
+                shards.remove(shard);
+                toClose = shard.connection;
+            }
+        }
+        if (toClose != null) {
+            toClose.dispose();
+        } else if (toPart != null) {
+            toPart.sendRawLine("PART " + channel);
+        }
+    }
+
+    /**
+     * Sends a line to every connection, like QUIT.
+     */
+    void sendToAll(String line) {
+        for (PircBotConnection c : getConnections()) c.sendRawLine(line);
+    }
+
+    /**
+     * Called by a connection when it's connected (again): its channels are joined again.
+     */
+    void connected(PircBotConnection connection) {
+        boolean unknown;
+        synchronized (this) {
+            Shard shard = getShard(connection);
+            //closed, or left all its channels while it was reconnecting
+            unknown = disposed || shard == null;
+            if (!unknown) {
+                shard.toConnect = false;
+                shard.toJoin.clear();
+                shard.toJoin.addAll(shard.channels);
+                wake();
+            }
+        }
+        if (unknown) {
+            connection.dispose();
+            return;
+        }
+        long gone = connection.recovered();
+        if (gone >= 0) {
+            Log.info(Log.Category.IRC, String.format(Locale.US, "%s is back %.1fs after it dropped (noticed %.1fs after its last line)",
+                    connection.getName(), gone / 1000.0, connection.getDetectTime() / 1000.0));
+        }
+        Log.info(Log.Category.IRC, connection.getName() + " connected, " + getStats());
+    }
+
+    /**
+     * Called by the input thread of a connection when it lost the server. The primary is
+     * reconnected by the MessageHandler of the bot, like it always was, the others here.
+     */
+    void disconnected(PircBotConnection connection) {
+        boolean gone;
+        synchronized (this) {
+            gone = disposed || getShard(connection) == null;
+        }
+        if (!gone) connection.dropped();
+        if (connection == getPrimary()) {
+            bot.getMessageHandler().onDisconnect();
+            return;
+        }
+        if (gone) return;
+        Log.warn(Log.Category.IRC, connection.getName() + " lost its connection, "
+                + connection.getLinesRead() + " lines read");
+        reconnect(connection);
+    }
+
+    private static void reconnect(PircBotConnection connection) {
+        if (GUIMain.shutDown || GUIMain.currentSettings == null || GUIMain.currentSettings.accountManager == null) {
+            connection.giveUp();
+            return;
+        }
+        GUIMain.currentSettings.accountManager.createReconnectThread(connection);
+    }
+
+    private Shard getShard(PircBotConnection connection) {
+        for (Shard s : shards) {
+            if (s.connection == connection) return s;
+        }
+        return null;
+    }
+
+    /**
+     * Closes every connection, the pool can't be used after this.
+     */
+    void dispose() {
+        ArrayList<PircBotConnection> toClose = getConnections();
+        synchronized (this) {
+            disposed = true;
+            notifyAll();
+        }
+        toClose.forEach(PircBotConnection::dispose);
+    }
+
+    private void wake() {
+        if (joiner == null) {
+            joiner = new Thread(this::run, "ConnectionPool-" + bot.getNick());
+            joiner.setDaemon(true);
+            joiner.start();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Opens the new connections and sends the JOINs that the limit lets through.
+     */
+    private void run() {
+        ArrayList<PircBotConnection> targets = new ArrayList<>();
+        ArrayList<String> lines = new ArrayList<>();
+        while (true) {
+            PircBotConnection toConnect = null;
+            synchronized (this) {
+                if (disposed) return;
+                for (Shard s : shards) {
+                    if (s.toConnect) {
+                        s.toConnect = false;
+                        toConnect = s.connection;
+                        break;
+                    }
+                }
+                if (toConnect == null) {
+                    long wait = takeJoins(targets, lines);
+                    if (lines.isEmpty()) {
+                        long untilSample = Math.max(1, lastSample + STATS_INTERVAL - System.currentTimeMillis());
+                        long sleep = Math.min(untilSample, CHECK_INTERVAL);
+                        try {
+                            wait(wait < 0 ? sleep : Math.min(sleep, Math.max(1, wait / 1_000_000)));
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            }
+            if (toConnect != null) {
+                //a new connection joins its channels once it's connected, see #connected
+                if (!toConnect.connect()) reconnect(toConnect);
+            }
+            for (int i = 0; i < lines.size(); i++) {
+                targets.get(i).sendRawLine(lines.get(i));
+            }
+            targets.clear();
+            lines.clear();
+            checkAlive();
+            if (System.currentTimeMillis() - lastSample >= STATS_INTERVAL) {
+                sample();
+                if (Log.isEnabled(Log.Category.IRC, Log.Level.DEBUG)) Log.debug(Log.Category.IRC, getStats());
+            }
+        }
+    }
+
+    /**
+     * PINGs the connections that have been quiet for a while, and drops the ones that
+     * didn't answer in time (they're reconnected like any other dropped connection).
+     */
+    private void checkAlive() {
+        long now = System.currentTimeMillis();
+        for (PircBotConnection c : getConnections()) {
+            if (!c.isConnected() || c.isRecovering()) continue;//logging in again, LOGIN_TIMEOUT covers that
+            long pinged = c.getPingSentAt();
+            if (pinged == 0) {
+                if (now - c.getLastReadAt() >= PING_INTERVAL) c.ping(now);
+            } else if (c.getLastReadAt() >= pinged) {
+                c.pingAnswered();
+            } else if (now - pinged >= PONG_TIMEOUT) {
+                Log.warn(Log.Category.IRC, String.format(Locale.US, "%s read nothing for %.1fs and didn't answer a PING, reconnecting",
+                        c.getName(), (now - c.getLastReadAt()) / 1000.0));
+                c.drop();
+            }
+        }
+    }
+
+    /**
+     * Takes as many waiting channels as the JOIN limit allows, a line of them per connection.
+     *
+     * @return The nanoseconds until the next JOIN may go, or -1 if no channel is waiting.
+     */
+    private long takeJoins(ArrayList<PircBotConnection> targets, ArrayList<String> lines) {
+        long now = System.nanoTime();
+        boolean waiting = false;
+        for (Shard s : shards) {
+            if (s.toJoin.isEmpty() || !s.connection.isConnected()) continue;
+            waiting = true;
+            StringBuilder line = new StringBuilder("JOIN ");
+            while (!s.toJoin.isEmpty() && joinBucket.waitTime(now) == 0
+                    && line.length() + s.toJoin.peek().length() + 1 < OutputThread.MAX_LINE_LENGTH - 2) {
+                if (line.length() > 5) line.append(',');
+                line.append(s.toJoin.poll());
+                joinBucket.take(now);
+            }
+            if (line.length() > 5) {
+                targets.add(s.connection);
+                lines.add(line.toString());
+            }
+        }
+        return waiting ? joinBucket.waitTime(now) : -1;
+    }
+
+    private synchronized void sample() {
+        long now = System.currentTimeMillis();
+        double seconds = Math.max(now - lastSample, 1) / 1000.0;
+        for (Shard s : shards) {
+            long read = s.connection.getLinesRead(), sent = s.connection.getLinesSent();
+            s.readRate = (read - s.lastRead) / seconds;
+            s.sentRate = (sent - s.lastSent) / seconds;
+            s.lastRead = read;
+            s.lastSent = sent;
+        }
+        lastSample = now;
+    }
+
+    /**
+     * @return A line per connection: whether it's connected, its channels, how many lines
+     * it read and sent (and how many a second, over the last minute), how many wait to be
+     * sent, its lag, how many it dropped while reconnecting, and how often it dropped (and how long it took to notice and to recover).
+     */
+    public synchronized String getStats() {
+        StringBuilder sb = new StringBuilder(bot.getNick()).append(" has ").append(shards.size())
+                .append(shards.size() == 1 ? " connection:" : " connections:");
+        for (Shard s : shards) {
+            PircBotConnection c = s.connection;
+            sb.append(String.format(Locale.US, "%n  %s: %s, %d channels (%d to join), read %d (%.1f/s), sent %d (%.1f/s), %d queued, lag %s",
+                    c.getName(), c.isConnected() ? "connected" : "disconnected", s.channels.size(), s.toJoin.size(),
+                    c.getLinesRead(), s.readRate, c.getLinesSent(), s.sentRate, c.getOutQueue().size(),
+                    c.getLag() < 0 ? "unknown" : c.getLag() + "ms"));
+            if (c.getLinesDropped() > 0) {
+                sb.append(String.format(Locale.US, ", %d not queued while reconnecting", c.getLinesDropped()));
+            }
+            if (c.getDrops() > 0) {
+                sb.append(String.format(Locale.US, ", dropped %d times (last noticed after %.1fs, back after %s)",
+                        c.getDrops(), c.getDetectTime() / 1000.0,
+                        c.isRecovering() ? "-" : String.format(Locale.US, "%.1fs", c.getRecoverTime() / 1000.0)));
+            }
+        }
+        return sb.toString();
+    }
+}
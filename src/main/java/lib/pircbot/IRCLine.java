@@ -0,0 +1,307 @@
+package lib.pircbot;
+
+/**
+ * A parsed view of one raw IRC line, including IRCv3 tags:
+ * <pre>    [@tags] [:prefix] command [params] [:trailing]</pre>
+ * <p>
+ * The line is parsed in a single pass that only records where every part starts
+ * and ends; no regex, no splitting and no Strings are made until a part is asked for.
+ * Tag values are unescaped (\: \s \\ \r \n) when they are read. One instance is meant
+ * to be reused for every line read by a connection.
+ */
+public class IRCLine {
+
+    private static final int INITIAL_TAGS = 16;
+    private static final int INITIAL_PARAMS = 8;
+
+    private String raw = null;
+
+    private int tagCount = 0;
+    private int[] tagKeyStart = new int[INITIAL_TAGS], tagKeyEnd = new int[INITIAL_TAGS];
+    private int[] tagValueStart = new int[INITIAL_TAGS], tagValueEnd = new int[INITIAL_TAGS];
+
+    private int prefixStart = -1, prefixEnd = -1;
+    private int exclamation = -1, at = -1;
+    private int commandStart = -1, commandEnd = -1;
+    private int argumentsStart = -1;
+
+    private int paramCount = 0;
+    private int[] paramStart = new int[INITIAL_PARAMS], paramEnd = new int[INITIAL_PARAMS];
+    private int trailingStart = -1;
+
+    /**
+     * Parses the given line into this view, replacing whatever was parsed before.
+     *
+     * @param line The raw line, without the CRLF.
+     * @return True if the line has at least a command, else false.
+     */
+    public boolean parse(String line) {
+        raw = line;
+        tagCount = 0;
+        paramCount = 0;
+        prefixStart = prefixEnd = exclamation = at = -1;
+        commandStart = commandEnd = argumentsStart = trailingStart = -1;
+        if (line == null) return false;
+        int length = line.length();
+        int i = skipSpaces(line, 0);
+
+        if (i < length && line.charAt(i) == '@') {
+            i = parseTags(line, i + 1);
+            i = skipSpaces(line, i);
+        }
+
+        if (i < length && line.charAt(i) == ':') {
+            prefixStart = ++i;
+            while (i < length && line.charAt(i) != ' ') {
+                char c = line.charAt(i);
+                if (c == '!' && exclamation == -1) exclamation = i;
+                else if (c == '@' && at == -1) at = i;
+                i++;
+            }
+            prefixEnd = i;
+            i = skipSpaces(line, i);
+        }
+
+        if (i >= length) return false;
+        commandStart = i;
+        while (i < length && line.charAt(i) != ' ') i++;
+        commandEnd = i;
+        i = skipSpaces(line, i);
+        argumentsStart = i;
+
+        while (i < length) {
+            if (line.charAt(i) == ':') {
+                trailingStart = i + 1;
+                break;
+            }
+            int start = i;
+            while (i < length && line.charAt(i) != ' ') i++;
+            addParam(start, i);
+            i = skipSpaces(line, i);
+        }
+        return true;
+    }
+
+    private int parseTags(String line, int i) {
+        int length = line.length();
+        while (i < length && line.charAt(i) != ' ') {
+            int keyStart = i;
+            while (i < length && line.charAt(i) != '=' && line.charAt(i) != ';' && line.charAt(i) != ' ') i++;
+            int keyEnd = i;
+            int valueStart = -1, valueEnd = -1;
+            if (i < length && line.charAt(i) == '=') {
+                valueStart = ++i;
+                while (i < length && line.charAt(i) != ';' && line.charAt(i) != ' ') i++;
+                valueEnd = i;
+            }
+            if (keyEnd > keyStart) addTag(keyStart, keyEnd, valueStart, valueEnd);
+            if (i < length && line.charAt(i) == ';') i++;
+        }
+        return i;
+    }
+
+    private static int skipSpaces(String line, int i) {
+        while (i < line.length() && line.charAt(i) == ' ') i++;
+        return i;
+    }
+
+    private void addTag(int keyStart, int keyEnd, int valueStart, int valueEnd) {
+        if (tagCount == tagKeyStart.length) {
+            int size = tagCount * 2;
+            tagKeyStart = grow(tagKeyStart, size);
+            tagKeyEnd = grow(tagKeyEnd, size);
+            tagValueStart = grow(tagValueStart, size);
+            tagValueEnd = grow(tagValueEnd, size);
+        }
+        tagKeyStart[tagCount] = keyStart;
+        tagKeyEnd[tagCount] = keyEnd;
+        tagValueStart[tagCount] = valueStart;
+        tagValueEnd[tagCount] = valueEnd;
+        tagCount++;
+    }
+
+    private void addParam(int start, int end) {
+        if (paramCount == paramStart.length) {
+            int size = paramCount * 2;
+            paramStart = grow(paramStart, size);
+            paramEnd = grow(paramEnd, size);
+        }
+        paramStart[paramCount] = start;
+        paramEnd[paramCount] = end;
+        paramCount++;
+    }
+
+    private static int[] grow(int[] array, int size) {
+        int[] toReturn = new int[size];
+        System.arraycopy(array, 0, toReturn, 0, array.length);
+        return toReturn;
+    }
+
+    /**
+     * @return The line that was parsed.
+     */
+    public String getRaw() {
+        return raw;
+    }
+
+    public boolean hasTags() {
+        return tagCount > 0;
+    }
+
+    public int getTagCount() {
+        return tagCount;
+    }
+
+    public String getTagKey(int index) {
+        return raw.substring(tagKeyStart[index], tagKeyEnd[index]);
+    }
+
+    /**
+     * Compares a tag key without making a String out of it.
+     *
+     * @param index The index of the tag.
+     * @param key   The key to compare to, case insensitive.
+     * @return True if the tag at the index has the given key.
+     */
+    public boolean isTagKey(int index, String key) {
+        int length = tagKeyEnd[index] - tagKeyStart[index];
+        return length == key.length() && raw.regionMatches(true, tagKeyStart[index], key, 0, length);
+    }
+
+    /**
+     * @param index The index of the tag.
+     * @return The unescaped value of the tag, or an empty String if it has none.
+     */
+    public String getTagValue(int index) {
+        if (tagValueStart[index] == -1) return "";
+        return unescape(raw, tagValueStart[index], tagValueEnd[index]);
+    }
+
+    /**
+     * @param key The key of the tag.
+     * @return The unescaped value of the tag, an empty String if it has no value, or null if there is no such tag.
+     */
+    public String getTag(String key) {
+        for (int i = 0; i < tagCount; i++) {
+            if (isTagKey(i, key)) return getTagValue(i);
+        }
+        return null;
+    }
+
+    /**
+     * Unescapes an IRCv3 tag value, as per http://ircv3.net/specs/core/message-tags-3.2.html
+     */
+    static String unescape(String s, int start, int end) {
+        int slash = s.indexOf('\\', start);
+        if (slash == -1 || slash >= end) return s.substring(start, end);
+        StringBuilder sb = new StringBuilder(end - start);
+        sb.append(s, start, slash);
+        for (int i = slash; i < end; i++) {
+            char c = s.charAt(i);
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (++i >= end) break;//a lone backslash at the end is dropped
+            c = s.charAt(i);
+            switch (c) {
+                case ':':
+                    sb.append(';');
+                    break;
+                case 's':
+                    sb.append(' ');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                default://includes "\\"
+                    sb.append(c);
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return The prefix without the colon, or null if the line has none.
+     */
+    public String getPrefix() {
+        return prefixStart == -1 ? null : raw.substring(prefixStart, prefixEnd);
+    }
+
+    /**
+     * @return True if the prefix is in the nick!login@host form.
+     */
+    public boolean hasUserPrefix() {
+        return exclamation > prefixStart && at > exclamation;
+    }
+
+    /**
+     * @return The nick of a nick!login@host prefix, else null.
+     */
+    public String getNick() {
+        return hasUserPrefix() ? raw.substring(prefixStart, exclamation) : null;
+    }
+
+    /**
+     * @return The login of a nick!login@host prefix, else null.
+     */
+    public String getLogin() {
+        return hasUserPrefix() ? raw.substring(exclamation + 1, at) : null;
+    }
+
+    /**
+     * @return The host of a nick!login@host prefix, else null.
+     */
+    public String getHost() {
+        return hasUserPrefix() ? raw.substring(at + 1, prefixEnd) : null;
+    }
+
+    public String getCommand() {
+        return commandStart == -1 ? null : raw.substring(commandStart, commandEnd);
+    }
+
+    /**
+     * Compares the command without making a String out of it.
+     *
+     * @param command The command, case insensitive.
+     * @return True if this line is of the given command.
+     */
+    public boolean isCommand(String command) {
+        int length = commandEnd - commandStart;
+        return commandStart != -1 && length == command.length()
+                && raw.regionMatches(true, commandStart, command, 0, length);
+    }
+
+    /**
+     * @return The amount of parameters before the trailing one.
+     */
+    public int getParamCount() {
+        return paramCount;
+    }
+
+    /**
+     * @param index The index of the parameter.
+     * @return The parameter, or null if there is no such parameter.
+     */
+    public String getParam(int index) {
+        return (index < 0 || index >= paramCount) ? null : raw.substring(paramStart[index], paramEnd[index]);
+    }
+
+    /**
+     * @return The trailing parameter (after " :") or null if there is none.
+     */
+    public String getTrailing() {
+        return trailingStart == -1 ? null : raw.substring(trailingStart);
+    }
+
+    /**
+     * @return Everything after the command, as it was sent.
+     */
+    public String getArguments() {
+        return argumentsStart == -1 ? null : raw.substring(argumentsStart);
+    }
+}
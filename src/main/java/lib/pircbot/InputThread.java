@@ -101,14 +101,7 @@ public class InputThread extends Thread {
                     String line;
                     while (((line = _breader.readLine()) != null) && !GUIMain.shutDown) {
                         try {
-                        	connection.getBot().log(line);
-                        	if (line.startsWith("PING ")) {
-                                // Respond to the ping and return immediately.
-                                sendRawLine("PONG " + line.substring(5));
-                            } else {
-                                line = line.replaceAll("\\s+", " ");
-                                connection.getBot().handleLine(line);
-                            }
+                        	connection.lineIn(line);
 //                            _bot.handleLine(line);
                         } catch (Throwable t) {
                             // Stick the whole stack trace into a String so we can output it nicely.
@@ -152,12 +145,24 @@ public class InputThread extends Thread {
         if (!_disposed) {
         	connection.getBot().log("*** Disconnected.");
             _isConnected = false;
-            connection.getBot().getMessageHandler().onDisconnect();
+            connection.getBot().getConnectionPool().disconnected(connection);
         }
 
     }
 
 
+    /**
+     * Closes the socket of a connection that stopped answering, onDisconnect is
+     * called like when the server closes it.
+     */
+    void drop() {
+        try {
+            _socket.close();
+        } catch (Exception e) {
+            // Do nothing.
+        }
+    }
+
     /**
      * Closes the socket without onDisconnect being called subsequently.
      */
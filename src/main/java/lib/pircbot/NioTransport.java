@@ -0,0 +1,436 @@
+package lib.pircbot;
+
+import gui.forms.GUIMain;
+import util.log.Log;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs every IRC connection that uses it (see Settings#nioTransport) on one thread, over one
+ * Selector, instead of an InputThread and an OutputThread per connection, so a bot sharded
+ * over many connections (see ConnectionPool) doesn't need two threads for each.
+ * <p>
+ * Lines are read into a direct buffer per connection and cut at their '\n' while they're still
+ * bytes (a '\n' is never part of another UTF-8 character), then each is decoded into a char
+ * buffer that's kept around, so the only object made per line is its String. Lines going out
+ * are encoded into direct buffers of their own, and everything waiting is written with one
+ * gathering write. The OutputThread of a connection still decides when its lines may go, but
+ * this thread runs it (see OutputThread#pump).
+ * <p>
+ * Lines are handled on this thread too, so the MessageHandler has to be as quick as it already
+ * needs to be for the InputThread.
+ */
+public final class NioTransport implements Runnable {
+
+    private static final int READ_BUFFER = 16 * 1024;
+    //lines with a lot of tags are long, but never this long
+    private static final int MAX_LINE = 256 * 1024;
+    //a char is at most 3 bytes of UTF-8 (a pair of them is 4), so any line the OutputThread writes fits
+    private static final int WRITE_BUFFER = OutputThread.MAX_LINE_LENGTH * 3;
+    private static final int SPARE_BUFFERS = 8;
+
+    private static NioTransport instance = null;
+
+    /**
+     * @return The transport, started the first time it's needed.
+     * @throws IOException If no Selector could be opened.
+     */
+    public static synchronized NioTransport get() throws IOException {
+        if (instance == null) {
+            instance = new NioTransport();
+            Thread t = new Thread(instance, "NioTransport");
+            t.setDaemon(true);
+            t.start();
+            instance.thread = t;
+        }
+        return instance;
+    }
+
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Link> toRegister = new ConcurrentLinkedQueue<>();
+    private final ArrayList<Link> links = new ArrayList<>();//only touched by the thread
+    private volatile int linkCount = 0;
+    private volatile Thread thread;
+
+    private NioTransport() throws IOException {
+        selector = Selector.open();
+    }
+
+    /**
+     * The socket of one connection, and what's read from and written to it. It's the Writer of
+     * the connection's OutputThread, which writes a line and then "\r\n".
+     */
+    final class Link extends Writer {
+
+        private final PircBotConnection connection;
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private OutputThread output;
+
+        //read by the transport's thread only
+        private ByteBuffer in = ByteBuffer.allocateDirect(READ_BUFFER);
+        private CharBuffer chars = CharBuffer.allocate(READ_BUFFER);
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private boolean skipping = false;//the rest of a line that was too long
+        private long pumpAt = Long.MAX_VALUE;
+
+        //written by whoever holds the lock
+        private final StringBuilder line = new StringBuilder();
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        private final ArrayDeque<ByteBuffer> spare = new ArrayDeque<>();
+        private ByteBuffer[] gather = new ByteBuffer[16];
+
+        private final CountDownLatch login = new CountDownLatch(1);
+        private volatile int loginResult = 0;//1 once logged on, -1 if that failed
+        private volatile boolean open = true, disposed = false, queued = false;
+
+        private Link(PircBotConnection connection, SocketChannel channel) {
+            this.connection = connection;
+            this.channel = channel;
+        }
+
+        void setOutput(OutputThread output) {
+            this.output = output;
+        }
+
+        boolean isOpen() {
+            return open && channel.isOpen();
+        }
+
+        SocketChannel getChannel() {
+            return channel;
+        }
+
+        /**
+         * Waits until the server welcomed the connection, or refused it.
+         *
+         * @return True if the connection is logged on.
+         */
+        boolean awaitLogin() {
+            try {
+                if (!login.await(PircBotConnection.LOGIN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    dispose();
+                    return false;
+                }
+            } catch (InterruptedException e) {
+                dispose();
+                return false;
+            }
+            return loginResult == 1;
+        }
+
+        /**
+         * Tells the transport lines were added to the connection's queue.
+         */
+        void wake() {
+            queued = true;
+            if (Thread.currentThread() != thread) selector.wakeup();
+        }
+
+        /**
+         * Closes the socket of a connection that stopped answering, the connection is told
+         * it lost the server like when the server closes it.
+         */
+        void drop() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            selector.wakeup();
+        }
+
+        /**
+         * Closes the socket without onDisconnect being called.
+         */
+        void dispose() {
+            disposed = true;
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            selector.wakeup();
+        }
+
+        @Override
+        public synchronized void write(char[] cbuf, int off, int len) {
+            line.append(cbuf, off, len);
+            if (len > 0 && cbuf[off + len - 1] == '\n') encodeLine();
+        }
+
+        @Override
+        public synchronized void write(String str, int off, int len) {
+            line.append(str, off, off + len);
+            if (len > 0 && str.charAt(off + len - 1) == '\n') encodeLine();
+        }
+
+        private void encodeLine() {
+            ByteBuffer b;
+            if (line.length() * 3 > WRITE_BUFFER) {
+                b = ByteBuffer.allocate(line.length() * 3);//not kept
+            } else {
+                b = spare.poll();
+                if (b == null) b = ByteBuffer.allocateDirect(WRITE_BUFFER);
+            }
+            encoder.reset();
+            encoder.encode(CharBuffer.wrap(line), b, true);
+            encoder.flush(b);
+            b.flip();
+            out.add(b);
+            line.setLength(0);
+        }
+
+        /**
+         * Has the transport write out the lines written so far.
+         */
+        @Override
+        public void flush() {
+            if (Thread.currentThread() == thread) {
+                writeOut(this);
+            } else {
+                selector.wakeup();
+            }
+        }
+
+        synchronized boolean hasOutput() {
+            return !out.isEmpty();
+        }
+
+        @Override
+        public void close() {
+            dispose();
+        }
+    }
+
+    /**
+     * Connects to the server, and hands the socket to the transport. The caller sends the
+     * login lines through the Link, and then waits for #awaitLogin.
+     */
+    Link open(PircBotConnection connection, String host, int port) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.socket().connect(new InetSocketAddress(host, port), PircBotConnection.CONNECT_TIMEOUT);
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        Link link = new Link(connection, channel);
+        toRegister.add(link);
+        selector.wakeup();
+        return link;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                Link l;
+                while ((l = toRegister.poll()) != null) {
+                    try {
+                        l.key = l.channel.register(selector, SelectionKey.OP_READ, l);
+                        links.add(l);
+                        linkCount = links.size();
+                    } catch (IOException e) {
+                        close(l);
+                    }
+                }
+                long now = System.nanoTime();
+                long next = Long.MAX_VALUE;
+                for (int i = links.size() - 1; i >= 0; i--) {
+                    Link link = links.get(i);
+                    if (!link.channel.isOpen()) {
+                        close(link);
+                        continue;
+                    }
+                    if (link.loginResult == 1 && link.output != null && (link.queued || now - link.pumpAt >= 0)) {
+                        link.queued = false;
+                        long wait = link.output.pump();
+                        link.pumpAt = (wait < 0) ? Long.MAX_VALUE : now + wait;
+                    }
+                    if (link.pumpAt != Long.MAX_VALUE) next = Math.min(next, link.pumpAt);
+                    if (link.hasOutput()) writeOut(link);
+                }
+                long timeout = (next == Long.MAX_VALUE) ? 0 : Math.max(1, (next - now + 999_999) / 1_000_000);
+                selector.select(timeout);
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    Link link = (Link) key.attachment();
+                    if (!key.isValid()) {
+                        close(link);
+                        continue;
+                    }
+                    if (key.isWritable()) writeOut(link);
+                    if (key.isValid() && key.isReadable()) read(link);
+                }
+            } catch (Throwable t) {
+                GUIMain.log(t);
+            }
+        }
+    }
+
+    /**
+     * Writes everything the link has waiting in one gathering write, and waits to be told the
+     * socket can take more if it couldn't take it all.
+     */
+    private void writeOut(Link link) {
+        synchronized (link) {
+            if (link.key == null || !link.open) return;
+            int count = link.out.size();
+            if (count == 0) return;
+            if (link.gather.length < count) link.gather = new ByteBuffer[Math.max(count, link.gather.length * 2)];
+            link.out.toArray(link.gather);
+            try {
+                link.channel.write(link.gather, 0, count);
+            } catch (IOException e) {
+                link.out.clear();
+                count = -1;
+            }
+            while (!link.out.isEmpty() && !link.out.peek().hasRemaining()) {
+                ByteBuffer b = link.out.poll();
+                if (b.isDirect() && link.spare.size() < SPARE_BUFFERS) {
+                    b.clear();
+                    link.spare.add(b);
+                }
+            }
+            for (int i = 0; i < count; i++) link.gather[i] = null;
+            if (count != -1 && link.key.isValid()) {
+                link.key.interestOps(link.out.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+            if (count != -1) return;
+        }
+        //closed outside of the lock, the MessageHandler is told about it
+        close(link);
+    }
+
+    private void read(Link link) {
+        ByteBuffer in = link.in;
+        int read;
+        try {
+            read = link.channel.read(in);
+        } catch (IOException e) {
+            close(link);
+            return;
+        }
+        if (read == -1) {
+            close(link);
+            return;
+        }
+        in.flip();
+        int start = in.position();
+        int limit = in.limit();
+        for (int i = start; i < limit; i++) {
+            if (in.get(i) != '\n') continue;
+            if (link.skipping) {
+                link.skipping = false;
+            } else {
+                int end = (i > start && in.get(i - 1) == '\r') ? i - 1 : i;
+                handle(link, decode(link, start, end));
+                if (!link.isOpen()) return;
+            }
+            start = i + 1;
+        }
+        in.position(start);
+        in.compact();
+        if (!in.hasRemaining()) {
+            if (link.skipping || in.capacity() >= MAX_LINE) {
+                Log.warn(Log.Category.IRC, link.connection.getName() + " got a line longer than "
+                        + MAX_LINE + " bytes, it was dropped");
+                in.clear();
+                link.skipping = true;
+            } else {
+                ByteBuffer bigger = ByteBuffer.allocateDirect(in.capacity() * 2);
+                in.flip();
+                bigger.put(in);
+                link.in = bigger;
+                link.chars = CharBuffer.allocate(bigger.capacity());
+            }
+        }
+    }
+
+    /**
+     * @return The bytes from start to end of the read buffer as a String. UTF-8 never has more
+     * chars than bytes, and the char buffer is as big as the byte buffer, so it always fits.
+     */
+    private static String decode(Link link, int start, int end) {
+        ByteBuffer in = link.in;
+        int limit = in.limit();
+        in.limit(end).position(start);
+        CharBuffer chars = link.chars;
+        chars.clear();
+        link.decoder.reset();
+        link.decoder.decode(in, chars, true);
+        link.decoder.flush(chars);
+        in.limit(limit);
+        return new String(chars.array(), 0, chars.position());
+    }
+
+    private void handle(Link link, String line) {
+        try {
+            if (link.loginResult == 0) {
+                link.connection.getBot().handleLine(line);
+                int result = PircBotConnection.checkLogin(line);
+                if (result != 0) {
+                    link.loginResult = result;
+                    if (result < 0) close(link);
+                    link.login.countDown();
+                }
+            } else {
+                link.connection.lineIn(line);
+            }
+        } catch (Throwable t) {
+            GUIMain.log(t);
+        }
+    }
+
+    /**
+     * Closes the link, if it was logged on (and not disposed of) the connection is told it
+     * lost the server, like when its InputThread stops.
+     */
+    private void close(Link link) {
+        if (!link.open) return;
+        link.open = false;
+        links.remove(link);
+        linkCount = links.size();
+        if (link.key != null) link.key.cancel();
+        try {
+            link.channel.close();
+        } catch (IOException ignored) {
+        }
+        if (link.loginResult == 0) {
+            link.loginResult = -1;
+            link.login.countDown();
+        } else if (link.loginResult == 1 && !link.disposed) {
+            link.connection.getBot().log("*** Disconnected.");
+            link.connection.getBot().getConnectionPool().disconnected(link.connection);
+        }
+    }
+
+    /**
+     * @return How many connections the transport runs.
+     */
+    public int getLinkCount() {
+        return linkCount;
+    }
+}
@@ -14,14 +14,34 @@ found at http://www.jibble.org/licenses/
 
 package lib.pircbot;
 
-import java.io.BufferedWriter;
+import gui.forms.GUIMain;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * A Thread which is responsible for sending messages to the IRC server.
  * Messages are obtained from the outgoing message queue and sent
  * immediately if possible.  If there is a flood of messages, then to
- * avoid getting kicked from a channel, we put a small delay between
- * each one.
+ * avoid getting kicked from a channel (or globally throttled by Twitch),
+ * they are held back by token buckets:
+ * <ul>
+ * <li>every channel gets one line per its message delay, which is shorter
+ * when the bot is a mod or the broadcaster there,</li>
+ * <li>chat of the whole connection is capped like Twitch does: 20 lines
+ * per 30 seconds, or 100 in channels where the bot is a mod,</li>
+ * <li>JOINs and whispers have limits of their own.</li>
+ * </ul>
+ * Lines other than chat (JOIN, PART, CAP...) go before whispers, which go
+ * before chat, and chat of different channels takes turns. Every line that
+ * may go is written before the socket is flushed, once.
  *
  * @author Paul James Mutton,
  *         <a href="http://www.jibble.org/">http://www.jibble.org/</a>
@@ -29,6 +49,15 @@ import java.io.BufferedWriter;
  */
 public class OutputThread extends Thread {
 
+    //Twitch counts these over 30 seconds. A bucket holds half of that and
+    //refills the other half over the 30 seconds, so no window goes over.
+    private static final long CHAT_PERIOD = 30_000;
+    private static final int CHAT_LIMIT = 20, MOD_CHAT_LIMIT = 100;
+    //20 JOINs per 10 seconds, same as above
+    static final long JOIN_PERIOD = 10_000;
+    static final int JOIN_LIMIT = 20;
+    //3 whispers a second and 100 a minute, one every 600ms stays under both
+    private static final long WHISPER_DELAY = 600;
 
     /**
      * Constructs an OutputThread for the underlying PircBot.  All messages
@@ -36,37 +65,46 @@ public class OutputThread extends Thread {
      * the server.  Messages are sent immediately if possible.  If there are
      * multiple messages queued, then there is a delay imposed.
      *
-     * @param bot      The underlying PircBot instance.
-     * @param outQueue The Queue from which we will obtain our messages.
+     * @param connection The connection of the underlying PircBot instance.
+     * @param outQueue   The Queue from which we will obtain our messages.
+     * @param writer     Where the lines are written, flushed once per batch of lines.
      */
-    OutputThread(PircBot bot, Queue<String> outQueue, BufferedWriter bufferedWriter) {
-        _bot = bot;
+    OutputThread(PircBotConnection connection, Queue<String> outQueue, Writer writer) {
+        _connection = connection;
+        _bot = connection.getBot();
         _outQueue = outQueue;
-        bwriter = bufferedWriter;
+        bwriter = writer;
         this.setName(this.getClass() + "-Thread");
     }
 
     public static final int MAX_LINE_LENGTH = 512;
 
     /**
-     * A static method to write a line to a BufferedOutputStream and then pass
-     * the line to the log method of the supplied PircBot instance.
+     * Writes a line to the server right away, ahead of anything in the
+     * outgoing message queue, and then passes the line to the log method
+     * of the supplied PircBot instance.
      *
      * @param line The line to be written. "\r\n" is appended to the end.
      */
     public synchronized void sendRawLine(String line) {
-        if (line.length() > MAX_LINE_LENGTH - 2) {
-            line = line.substring(0, MAX_LINE_LENGTH - 2);
-        }
         try {
-            bwriter.write(line + "\r\n");
+            write(line);
             bwriter.flush();
-            _bot.log(">>>" + line);
         } catch (Exception e) {
             // Silent response - just lose the line.
         }
     }
 
+    private void write(String line) throws IOException {
+        if (line.length() > MAX_LINE_LENGTH - 2) {
+            line = line.substring(0, MAX_LINE_LENGTH - 2);
+        }
+        bwriter.write(line);
+        bwriter.write("\r\n");
+        _connection.lineSent();
+        if (_bot.isLoggingLines()) _bot.log(">>>" + line);
+    }
+
 
     /**
      * This method starts the Thread consuming from the outgoing message
@@ -74,28 +112,197 @@ public class OutputThread extends Thread {
      */
     public void run() {
         try {
-            boolean running = true;
-            while (running) {
-                // Small delay to prevent spamming of the channel
-            	long delay = _bot.getMessageDelay();
-            	Channel c = _bot.getCurrentChannel();
-            	if (c != null) delay = c.getMessageDelay();
-                sleep(delay);
-
-                String line = _outQueue.next();
-                if (line != null) {
-                    sendRawLine(line);
+            while (true) {
+                long wait = sendReady();
+                String line;
+                if (wait < 0) {
+                    //nothing held back, sleep until there is something to send
+                    line = _outQueue.next();
+                    if (line == null) return;
                 } else {
-                    running = false;
+                    line = _outQueue.next(Math.max(1, (wait + 999_999) / 1_000_000));
                 }
+                if (line != null) holdQueued(line);
             }
         } catch (InterruptedException e) {
             // Just let the method return naturally...
         }
     }
 
+    /**
+     * Does what one pass of #run does, for connections whose lines are written by the
+     * NioTransport instead of by this thread (which is then never started).
+     *
+     * @return The nanoseconds until the next held line may go, or -1 if no lines are held.
+     */
+    synchronized long pump() {
+        holdQueued(null);
+        return sendReady();
+    }
+
+    /**
+     * Puts the given line and everything else in the queue in their lanes, under the lock
+     * takeHeld and sendReady change the lanes under.
+     *
+     * @param first A line already taken from the queue, or null.
+     */
+    private synchronized void holdQueued(String first) {
+        if (first != null) hold(first);
+        String line;
+        while ((line = _outQueue.poll()) != null) {
+            hold(line);
+        }
+    }
+
+    /**
+     * Empties the lanes of whispers and chat, for a connection that lost the server and
+     * whose lines go out over the next one. The rest (JOINs and such) is dropped, the
+     * ConnectionPool joins the channels again.
+     *
+     * @return The lines that were held back, in the order they were queued per lane.
+     */
+    synchronized List<String> takeHeld() {
+        ArrayList<String> held = new ArrayList<>(whispers);
+        for (ArrayDeque<String> lane : chat.values()) held.addAll(lane);
+        control.clear();
+        whispers.clear();
+        chat.clear();
+        return held;
+    }
+
+    /**
+     * Puts a line from the queue in its lane. Only called with the lock held.
+     */
+    private void hold(String line) {
+        String target = getChatTarget(line);
+        if (target == null) {
+            control.add(line);
+        } else if ("#jtv".equals(target)) {
+            whispers.add(line);
+        } else {
+            ArrayDeque<String> lane = chat.get(target);
+            if (lane == null) {
+                lane = new ArrayDeque<>();
+                chat.put(target, lane);
+            }
+            lane.add(line);
+        }
+    }
+
+    /**
+     * Writes every held line that the buckets let through, and flushes once.
+     *
+     * @return The nanoseconds until the next held line may go, or -1 if no lines are held.
+     */
+    private synchronized long sendReady() {
+        long now = System.nanoTime();
+        long wait = -1;
+        boolean wrote = false;
+        try {
+            while (!control.isEmpty()) {
+                boolean join = control.peek().startsWith("JOIN ");
+                if (join) {
+                    long w = joinBucket.waitTime(now);
+                    if (w > 0) {
+                        wait = w;
+                        break;
+                    }
+                    joinBucket.take(now);
+                }
+                write(control.poll());
+                wrote = true;
+            }
+            while (!whispers.isEmpty()) {
+                long w = whisperBucket.waitTime(now);
+                if (w > 0) {
+                    wait = earliest(wait, w);
+                    break;
+                }
+                whisperBucket.take(now);
+                write(whispers.poll());
+                wrote = true;
+            }
+            //one line per channel per pass, so busy channels can't starve the others
+            long chatWait = -1;
+            boolean sent = true;
+            while (sent) {
+                sent = false;
+                chatWait = -1;
+                Iterator<Map.Entry<String, ArrayDeque<String>>> it = chat.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<String, ArrayDeque<String>> lane = it.next();
+                    Channel c = getChannel(lane.getKey());
+                    boolean mod = c != null && c.isMod(_bot.getNick());
+                    TokenBucket channelBucket = getChannelBucket(lane.getKey(), c);
+                    long w = Math.max(channelBucket.waitTime(now), chatBucket.waitTime(now));
+                    if (!mod) w = Math.max(w, userChatBucket.waitTime(now));
+                    if (w > 0) {
+                        chatWait = earliest(chatWait, w);
+                        continue;
+                    }
+                    channelBucket.take(now);
+                    chatBucket.take(now);
+                    if (!mod) userChatBucket.take(now);
+                    write(lane.getValue().poll());
+                    wrote = true;
+                    sent = true;
+                    if (lane.getValue().isEmpty()) it.remove();
+                }
+            }
+            wait = earliest(wait, chatWait);
+            if (wrote) bwriter.flush();
+        } catch (Exception e) {
+            // Silent response - just lose the lines.
+        }
+        return wait;
+    }
+
+    private static long earliest(long wait, long other) {
+        if (wait < 0) return other;
+        if (other < 0) return wait;
+        return Math.min(wait, other);
+    }
+
+    /**
+     * @return The lowercase channel a PRIVMSG is for, or null if the line is not a PRIVMSG.
+     */
+    private static String getChatTarget(String line) {
+        if (!line.startsWith("PRIVMSG ")) return null;
+        int end = line.indexOf(' ', 8);
+        return (end == -1 ? line.substring(8) : line.substring(8, end)).toLowerCase();
+    }
+
+    private static Channel getChannel(String name) {
+        if (GUIMain.currentSettings == null || GUIMain.currentSettings.channelManager == null) return null;
+        return GUIMain.currentSettings.channelManager.getChannel(name);
+    }
+
+    private TokenBucket getChannelBucket(String name, Channel c) {
+        long delay = (c != null) ? c.getMessageDelay() : _bot.getMessageDelay();
+        TokenBucket bucket = channelBuckets.get(name);
+        if (bucket == null) {
+            bucket = new TokenBucket(1, delay);
+            channelBuckets.put(name, bucket);
+        } else {
+            bucket.setRate(1, delay);
+        }
+        return bucket;
+    }
+
+    private PircBotConnection _connection = null;
     private PircBot _bot = null;
     private Queue<String> _outQueue = null;
-    private BufferedWriter bwriter = null;
+    private Writer bwriter = null;
+
+    //the lines taken from the queue that are waiting for their turn
+    private final ArrayDeque<String> control = new ArrayDeque<>();
+    private final ArrayDeque<String> whispers = new ArrayDeque<>();
+    private final LinkedHashMap<String, ArrayDeque<String>> chat = new LinkedHashMap<>();
+
+    private final HashMap<String, TokenBucket> channelBuckets = new HashMap<>();
+    private final TokenBucket chatBucket = new TokenBucket(MOD_CHAT_LIMIT / 2, CHAT_PERIOD);
+    private final TokenBucket userChatBucket = new TokenBucket(CHAT_LIMIT / 2, CHAT_PERIOD);
+    private final TokenBucket joinBucket = new TokenBucket(JOIN_LIMIT / 2, JOIN_PERIOD);
+    private final TokenBucket whisperBucket = new TokenBucket(1, WHISPER_DELAY);
 
 }
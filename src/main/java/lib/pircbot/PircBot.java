@@ -16,17 +16,16 @@ package lib.pircbot;
 
 import face.FaceManager;
 import gui.forms.GUIMain;
+import irc.message.EmoteRanges;
 import irc.message.MessageHandler;
 import lib.pircbot.PircBotConnection;
 import util.Constants;
+import util.log.Log;
 
 import java.awt.*;
 import java.io.*;
 import java.net.InetAddress;
 import java.net.Socket;
-import java.util.StringTokenizer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * PircBot is a Java framework for writing IRC bots quickly and easily.
@@ -65,7 +64,7 @@ import java.util.regex.Pattern;
  */
 public class PircBot {
 
-	private PircBotConnection connection;
+	private ConnectionPool pool;
 	
     public ChannelManager getChannelManager() {
         return GUIMain.currentSettings.channelManager;
@@ -84,7 +83,7 @@ public class PircBot {
      */
     public PircBot(MessageHandler messageHandler) {
         handler = messageHandler;
-        connection = new PircBotConnection(this, PircBotConnection.ConnectionType.NORMAL);
+        pool = new ConnectionPool(this);
     }
     
     public PircBot(MessageHandler messageHandler, String nick) {
@@ -99,7 +98,7 @@ public class PircBot {
 
 
     public boolean connect() {
-        if (connection.connect()) {
+        if (getConnection().connect()) {
             getMessageHandler().onConnect();
             return true;
         }
@@ -255,12 +254,14 @@ public class PircBot {
 
 
     /**
-     * Joins a channel.
+     * Joins a channel, on whichever of the bot's connections has room for it.
+     * The JOIN itself is sent as soon as Twitch's JOIN limit allows.
      *
      * @param channel The name of the channel to join (eg "#cs").
+     * @see ConnectionPool
      */
     public final void joinChannel(String channel) {
-        sendRawLine("JOIN " + channel);
+        pool.join(channel);
         getChannelManager().addChannel(new Channel(channel));
     }
 
@@ -271,7 +272,7 @@ public class PircBot {
      * @param channel The name of the channel to leave.
      */
     public final void partChannel(String channel) {
-        sendRawLine("PART " + channel);
+        pool.part(channel);
         getChannelManager().removeChannel(channel);
     }
 
@@ -296,7 +297,7 @@ public class PircBot {
      * @param reason The reason for quitting the server.
      */
     public final void quitServer(String reason) {
-        sendRawLine("QUIT :" + reason);
+        pool.sendToAll("QUIT :" + reason);
     }
 
 
@@ -308,7 +309,7 @@ public class PircBot {
      */
     public final void sendRawLine(String line) {
         if (isConnected()) {
-        	connection.getOutputThread().sendRawLine(line);
+        	getConnection().getOutputThread().sendRawLine(line);
         }
     }
 
@@ -319,14 +320,21 @@ public class PircBot {
      */
     public final void sendRawLineViaQueue(String line) {
         if (line == null) return;
-        if (isConnected()) {
-            _outQueue.add(line);
+        if (canQueue()) {
+            getConnection().queueLine(line);
         }
     }
 
 
+    /**
+     * @return The primary connection of the bot, the one its chat is sent over.
+     */
     public PircBotConnection getConnection() {
-        return connection;
+        return pool.getPrimary();
+    }
+
+    public ConnectionPool getConnectionPool() {
+        return pool;
     }
 
     
@@ -379,8 +387,8 @@ public class PircBot {
     }
     
     public void sendRawWhisper(String raw) {
-        if (isConnected())
-            connection.getOutQueue().add("PRIVMSG #jtv :" + raw);
+        if (canQueue())
+            getConnection().queueLine("PRIVMSG #jtv :" + raw);
         else log("Whisper not connected!");
     }
     
@@ -391,32 +399,33 @@ public class PircBot {
      * @param message The message to send.
      */
     public void sendRawMessage(String channel, String message) {
-    	if (isConnected())
+    	if (canQueue())
 //        _outQueue.add("PRIVMSG " + channel + " :" + message);
-    		connection.getOutQueue().add("PRIVMSG " + channel + " :" + message);
+    		getConnection().queueLine("PRIVMSG " + channel + " :" + message);
     }
 
     /**
-     * Adds a line to the log.  This log is currently output to the standard
-     * output and is in the correct format for use by tools such as pisg, the
-     * Perl IRC Statistics Generator.  You may override this method if you wish
-     * to do something else with log entries.
-     * Each line in the log begins with a number which
-     * represents the logging time (as the number of milliseconds since the
-     * epoch).  This timestamp and the following log entry are separated by
-     * a single space character, " ".  Outgoing messages are distinguishable
-     * by a log entry that has ">>>" immediately following the space character
-     * after the timestamp.  DCC events use "+++" and warnings about unhandled
-     * Exceptions and Errors use "###".
+     * Adds a line to the log, under the IRC category of {@link Log}, with the nick
+     * of this PircBot.  Outgoing lines start with ">>>" and the state of the
+     * connection with "***", the latter are logged at the INFO level and
+     * everything else (the raw lines) at the DEBUG level.
      * <p/>
      * This implementation of the method will only cause log entries to be
      * output if the PircBot has had its verbose mode turned on by calling
      * setVerbose(true);
+     * Logging never blocks, so this is safe to call from the input and output threads.
      *
      * @param line The line to add to the log.
      */
     public void log(String line) {
-        if (_verbose) System.out.println(System.currentTimeMillis() + " " + getNick() + " " + line);
+        if (_verbose) Log.log(line.startsWith("***") ? Log.Level.INFO : Log.Level.DEBUG, Log.Category.IRC, getNick(), line);
+    }
+
+    /**
+     * @return True if raw lines would make it into the log, so they're only built if they do.
+     */
+    public boolean isLoggingLines() {
+        return _verbose && Log.isEnabled(Log.Category.IRC, Log.Level.DEBUG);
     }
 
 
@@ -427,122 +436,94 @@ public class PircBot {
      * <p/>
      * This method may not be overridden!
      *
-     * @param line The raw line of text from the server.
+     * @param raw  The raw line of text from the server.
      */
-    protected void handleLine(String line) {
+    protected void handleLine(String raw) {
+        IRCLine line = parsedLine.get();
+        if (!line.parse(raw)) {
+            onUnknown(raw);
+            return;
+        }
+        String command = line.getCommand().toUpperCase();
+        if ("USERSTATE".equals(command) || "GLOBALUSERSTATE".equals(command)) {
+            parseTags(line, getNick(), line.getParam(0));
+            return;
+        }
+        String trailing = line.getTrailing();
+        String content = (trailing == null) ? "" : trailing;
 
-        // Check for server pings.
-//        if (line.startsWith("PING ")) {
-//            // Respond to the ping and return immediately.
-//            sendRawLine("PONG " + line.substring(5));
-//            return;
-//        }
-//        line = line.replaceAll("\\s+", " ");
+        if (checkCommand(command, line, content)) return;
 
         String sourceNick = "";
         String sourceLogin = "";
         String sourceHostname = "";
-        StringTokenizer tokenizer = new StringTokenizer(line);
-        String tags = null;
-        String content = null;
-        if (line.startsWith("@")) {
-            tags = tokenizer.nextToken();
-            if (line.contains("USERSTATE")) {
-                parseUserstate(line);
-                return;
-            } else {
-                content = line.substring(line.indexOf(" :", line.indexOf(" :") + 2) + 2);
-            }
-        } else {
-            content = line.substring(line.indexOf(" :") + 2);
-        }
-        String senderInfo = tokenizer.nextToken();
-        String command = tokenizer.nextToken();
         String target = null;
-
-        if (checkCommand(command, tags, line, content, tokenizer, senderInfo)) return;
-
-        int exclamation = senderInfo.indexOf("!");
-        int at = senderInfo.indexOf("@");
-        if (senderInfo.startsWith(":")) {
-            if (exclamation > 0 && at > 0 && exclamation < at) {
-                sourceNick = senderInfo.substring(1, exclamation);
-                sourceLogin = senderInfo.substring(exclamation + 1, at);
-                sourceHostname = senderInfo.substring(at + 1);
-            } else {
-                if (tokenizer.hasMoreTokens()) {
-                    int code = -1;
-                    try {
-                        code = Integer.parseInt(command);
-                    } catch (NumberFormatException ignored) {
-                    }
-                    if (code != -1) {
-                        String response = line.substring(line.indexOf(command, senderInfo.length()) + 4, line.length());
-                        processServerResponse(code, response);
-                        // Return from the method.
-                        return;
-                    } else {
-                        // This is not a server response.
-                        // It must be a nick without login and hostname.
-                        // (or maybe a NOTICE or suchlike from the server)
-                        sourceNick = senderInfo;
-                        target = command;
-                    }
-                } else {
-                    // We don't know what this line means.
-                    onUnknown(line);
-                    // Return from the method;
+        if (line.getPrefix() != null) {
+            if (line.hasUserPrefix()) {
+                sourceNick = line.getNick();
+                sourceLogin = line.getLogin();
+                sourceHostname = line.getHost();
+            } else if (line.getParamCount() > 0 || trailing != null) {
+                int code = -1;
+                try {
+                    code = Integer.parseInt(command);
+                } catch (NumberFormatException ignored) {
+                }
+                if (code != -1) {
+                    processServerResponse(code, line.getArguments());
+                    // Return from the method.
                     return;
+                } else {
+                    // This is not a server response.
+                    // It must be a nick without login and hostname.
+                    // (or maybe a NOTICE or suchlike from the server)
+                    sourceNick = line.getPrefix();
+                    target = command;
                 }
+            } else {
+                // We don't know what this line means.
+                onUnknown(raw);
+                // Return from the method;
+                return;
             }
         }
-        if (sourceNick.startsWith(":")) {
-            sourceNick = sourceNick.substring(1);
-        }
-        command = command.toUpperCase();
         if (target == null) {
-            target = tokenizer.nextToken();
+            target = (line.getParamCount() > 0) ? line.getParam(0) : trailing;
         }
-        if (target.startsWith(":")) {
-            target = target.substring(1);
+        if (target == null || target.isEmpty()) {
+            onUnknown(raw);
+            return;
         }
         String _channelPrefixes = "#&+!";
 
-        parseTags(tags, sourceNick, target);
+        parseTags(line, sourceNick, target);
         // Check for CTCP requests.
-        if ("PRIVMSG".equals(command) && line.indexOf(":\u0001") > 0 && line.endsWith("\u0001")) {
-            String request = line.substring(line.indexOf(":\u0001") + 2, line.length() - 1);
+        if ("PRIVMSG".equals(command) && content.length() > 1 && content.charAt(0) == '\u0001'
+                && content.charAt(content.length() - 1) == '\u0001') {
+            String request = content.substring(1, content.length() - 1);
             if (request.startsWith("ACTION ")) {
                 // ACTION request
-                getMessageHandler().onAction(sourceNick, target, request.substring(7));
+                String action = request.substring(7);
+                getMessageHandler().onAction(sourceNick, target, action, EmoteRanges.parse(line.getTag("emotes"), action));
             }
         } else if (command.equals("PRIVMSG") && _channelPrefixes.indexOf(target.charAt(0)) >= 0) {
-//            if (sourceNick.equalsIgnoreCase("jtv")) {
-//                getMessageHandler().onJTVMessage(target.substring(1), content);
-//                //TODO just incase, remove this if block if twitch no longer sends these
-//                return;
-//            }
-
             //catch the subscriber message
             if (sourceNick.equalsIgnoreCase("twitchnotify")) {
-                if (line.contains("resubscribed")) 
-                {
-                	getMessageHandler().onJTVMessage(target, content, null);
-                } else if (line.contains("subscribed")) {
+                if (content.contains("resubscribed")) {
+                    getMessageHandler().onJTVMessage(target, content, null);
+                } else if (content.contains("subscribed")) {
                     //we dont want to get the hosted sub messages, Botnak should be in that chat for that
                     String user = content.split(" ")[0];
                     getChannelManager().handleSubscriber(target, user);
                     getMessageHandler().onNewSubscriber(target, content, user);
                 }
                 return;
-            } else if (tags != null && tags.contains("bits=")){
-            	
             }
             // This is a normal message to a channel.
-            getMessageHandler().onMessage(target, sourceNick, content);
+            getMessageHandler().onMessage(target, sourceNick, content, EmoteRanges.parse(line.getTag("emotes"), content));
         } else if ("PRIVMSG".equals(command)) {
             if (sourceNick.equals("jtv")) {
-                if (line.contains("now hosting you")) {
+                if (content.contains("now hosting you")) {
                     getMessageHandler().onBeingHosted(content);//KEEP THIS
                 }
             }
@@ -551,7 +532,7 @@ public class PircBot {
         } else {
             // If we reach this point, then we've found something that the PircBot
             // Doesn't currently deal with.
-            onUnknown(line);
+            onUnknown(raw);
         }
     }
 
@@ -583,143 +564,129 @@ public class PircBot {
         onServerResponse(code, response);
     }
 
-    private boolean checkCommand(String command, String tags, String line, String content, StringTokenizer tokenizer, String senderInfo) {
-        String target;
+    private boolean checkCommand(String command, IRCLine line, String content) {
+        String target = line.getParam(0);
+        String msgId = line.getTag("msg-id");
         if ("CLEARCHAT".equals(command)) {
-            target = tokenizer.nextToken();
-            getMessageHandler().onClearChat(target, (line.contains(" :")) ? content : null);
+            getMessageHandler().onClearChat(target, line.getTrailing());
             return true;
         } else if ("HOSTTARGET".equals(command)) {
-            target = tokenizer.nextToken();
             String[] split = content.split(" ");
-            getMessageHandler().onHosting(target.substring(1), split[0], split[1]);
+            getMessageHandler().onHosting(target.substring(1), split[0], split.length > 1 ? split[1] : "-");
             return true;
-        } else if ("NOTICE".equals(command)) {
-            if (tags.contains("room_mods")) {
-                target = tokenizer.nextToken();
+        } else if ("NOTICE".equals(command) && msgId != null) {
+            if ("room_mods".equals(msgId)) {
                 buildMods(target, content);
                 return true;
-            } else if (tags.contains("msg_banned")) {
-            	getMessageHandler().onBanned(line);
-            	return true;
-            }else if (!tags.contains("host_on") && !tags.contains("host_off")) {//handled above
-                target = tokenizer.nextToken();
-                getMessageHandler().onJTVMessage(target.substring(1), content, tags);
+            } else if ("msg_banned".equals(msgId)) {
+                getMessageHandler().onBanned(line.getRaw());
+                return true;
+            } else if (!"host_on".equals(msgId) && !"host_off".equals(msgId)) {//handled above
+                getMessageHandler().onJTVMessage(target.substring(1), content, msgId);
                 return true;
-            } 
+            }
         } else if ("ROOMSTATE".equals(command)) {
-            target = tokenizer.nextToken();
-            parseTags(tags, null, target);
+            parseTags(line, null, target);
             return true;
         } else if ("WHISPER".equals(command)) {
-            target = tokenizer.nextToken();
-            String nick = senderInfo.substring(1, senderInfo.indexOf('!'));
-            parseTags(tags, nick, null);
-            getMessageHandler().onWhisper(nick, target, content);
+            String nick = line.hasUserPrefix() ? line.getNick() : line.getPrefix();
+            parseTags(line, nick, null);
+            getMessageHandler().onWhisper(nick, target, content, EmoteRanges.parse(line.getTag("emotes"), content));
             return true;
         }
         return false;
     }
 
-    private void parseUserstate(String line) {
-        String[] parts = line.split(" ");
-        String tags = parts[0];
-        String channel = parts[3];
-        parseTags(tags, getNick(), channel);
+    private void parseTags(IRCLine line, String user, String channel) {
+        try {
+            for (int i = 0; i < line.getTagCount(); i++) {
+                if (line.isTagKey(i, "bits")) {
+                    //this message contains a cheer!
+                    //This is handled by the badges. Don't worry!
+                    continue;
+                }
+                String value = line.getTagValue(i);
+                if (value.isEmpty()) continue;
+                if (line.isTagKey(i, "color")) {
+                    handleColor(value, user);
+                } else if (line.isTagKey(i, "display-name")) {
+                    handleDisplayName(value, user);
+                } else if (line.isTagKey(i, "subscriber")) {
+                    if ("1".equals(value)) {
+                        handleSpecial(channel, "subscriber", user);
+                    }
+                } else if (line.isTagKey(i, "turbo")) {
+                    if ("1".equals(value)) {
+                        handleSpecial(null, "turbo", user);
+                    }
+                } else if (line.isTagKey(i, "user-type")) {
+                    handleSpecial(channel, value, user);
+                } else if (line.isTagKey(i, "r9k")) {
+                    if ("1".equals(value)) {
+                        getMessageHandler().onJTVMessage(channel, "This room is in r9k mode.", "r9k");
+                    }
+                } else if (line.isTagKey(i, "slow")) {
+                    if (!"0".equals(value)) {
+                        getMessageHandler().onJTVMessage(channel,
+                                "This room is in slow mode. You may send messages every " + value + " seconds.", "slow");
+                    }
+                } else if (line.isTagKey(i, "subs-only")) {
+                    if ("1".equals(value)) {
+                        getMessageHandler().onJTVMessage(channel,
+                                "This room is in subscribers-only mode.", "subs-only");
+                    }
+                } else if (line.isTagKey(i, "emote-sets")) {
+                    User u = getChannelManager().getUser(user, false);
+                    if (u != null) {
+                        u.handleEmoteSet(value);
+                    }
+                    FaceManager.handleEmoteSet(value);
+                } else if (line.isTagKey(i, "badges")) {
+                    int bits = getBadgeVersion(value, "bits");
+                    if (bits != -1) {
+                        Channel c = getChannelManager().getChannel(channel);
+                        if (c != null) c.setCheer(user, bits);
+                    }
+                    if (getBadgeVersion(value, "premium") != -1)
+                        getChannelManager().getUser(user, true).setPrime(true);
+                    int months = getBadgeVersion(value, "subscriber");
+                    if (months != -1) {
+                        Channel c = getChannelManager().getChannel(channel);
+                        if (c != null) c.addSubscriber(user, months);
+                    }
+                }
+            }
+        } catch (java.lang.NullPointerException e) {
+            GUIMain.log("Null pointer for: " + line.getRaw() + '\n' + user + '\n' + channel);
+        }
     }
 
-    private void parseTags(String line, String user, String channel) {
-    	try {
-        if (line != null) {
-            line = line.substring(1);
-            String[] parts = line.split(";");
-            for (String part : parts) {
-                String[] tags = part.split("=");
-                String key = tags[0].toLowerCase();
-                if (tags.length <= 1) continue;
-                String value = tags[1];
-                switch (key.toLowerCase()) {
-                    case "color":
-                        handleColor(value, user);
-                        break;
-                    case "display-name":
-                        handleDisplayName(value, user);
-                        break;
-                    case "emotes":
-                        handleEmotes(value, user);
-                        break;
-                    case "subscriber":
-                        if ("1".equals(value)) {
-                            handleSpecial(channel, key, user);
-                        }
-                        break;
-                    case "turbo":
-                        if ("1".equals(value)) {
-                            handleSpecial(null, key, user);
-                        }
-                        break;
-                    case "user-type":
-                        handleSpecial(channel, value, user);
-                        break;
-                    case "native-lang":
-                        //TODO once implemented in IRC (seems to not be yet)
-                        break;
-                    case "r9k":
-                        if ("1".equals(value)) {
-                            getMessageHandler().onJTVMessage(channel, "This room is in r9k mode.", key);
-                        }
-                        break;
-                    case "slow":
-                        if (!"0".equals(value)) {
-                            getMessageHandler().onJTVMessage(channel,
-                                    "This room is in slow mode. You may send messages every " + value + " seconds.", key);
-                        }
-                        break;
-                    case "subs-only":
-                        if ("1".equals(value)) {
-                            getMessageHandler().onJTVMessage(channel,
-                                    "This room is in subscribers-only mode.", key);
-                        }
-                        break;
-                    case "emote-sets":
-                    	User u = getChannelManager().getUser(user, false);
-                    	if (u != null){
-                    		u.handleEmoteSet(value);
-                    	}
-                        FaceManager.handleEmoteSet(value);
-                        break;
-                    case "badges":
-                    	
-                    	if (value.contains("bits")){
-                    		Matcher m = Pattern.compile("bits/(\\d+)").matcher(value);
-                    		if (m.find())
-                    			getChannelManager().getChannel(channel).setCheer(user, Integer.parseInt(m.group(1)));
-                    	}
-                    	
-                    	if (value.contains("premium"))
-                    		getChannelManager().getUser(user, true).setPrime(true);
-                    	
-                    	if (value.contains("subscriber")) {
-                    		Matcher m = Pattern.compile("subscriber/(\\d+)").matcher(value);
-                    		if (m.find()) {
-                    			Channel c = getChannelManager().getChannel(channel);
-                    			if (c != null) c.addSubscriber(user, Integer.parseInt(m.group(1)));
-                    		}
-                    	}
-                    	break;
-                    case "bits":
-                    	//this message contains a cheer!
-                    	//This is handled above. Don't worry!
-                    	break;
-                    default:
-                        break;
+    /**
+     * Finds a badge in a badges tag ("subscriber/12,bits/100") without splitting it.
+     *
+     * @param badges The value of the badges tag.
+     * @param name   The name of the badge.
+     * @return The version of the badge, or -1 if the user does not have it.
+     */
+    static int getBadgeVersion(String badges, String name) {
+        int start = 0;
+        int length = badges.length();
+        while (start < length) {
+            int end = badges.indexOf(',', start);
+            if (end == -1) end = length;
+            int slash = start + name.length();
+            if (slash < end && badges.charAt(slash) == '/' && badges.regionMatches(start, name, 0, name.length())) {
+                int version = 0;
+                for (int i = slash + 1; i < end; i++) {
+                    char c = badges.charAt(i);
+                    if (c < '0' || c > '9') break;
+                    version = version * 10 + (c - '0');
                 }
+                return version;
             }
+            start = end + 1;
         }
-    	} catch (java.lang.NullPointerException e) {
-    		GUIMain.log("Null pointer for: " + line + '\n' + user + '\n' + channel);
-//    		System.out.println("Null pointer for: " + line + '\t' + user + '\t' + channel);
-    	}
+        return -1;
     }
 
     private void buildMods(String channel, String line) {
@@ -849,7 +816,16 @@ public class PircBot {
      * @return True if and only if the PircBot is currently connected to a server.
      */
     public boolean isConnected() {
-    	return connection.isConnected();
+    	return getConnection().isConnected();
+    }
+
+    /**
+     * @return True if lines can be queued: the bot is connected, or its connection dropped
+     * and is being reconnected, and they'll be sent once it's back.
+     */
+    private boolean canQueue() {
+        PircBotConnection c = getConnection();
+        return c.isConnected() || c.isRecovering();
     }
 
 
@@ -892,7 +868,7 @@ public class PircBot {
      * @since PircBot 0.9.9
      */
     public final int getOutgoingQueueSize() {
-        return _outQueue.size();
+        return getConnection().getOutQueue().size();
     }
 
 
@@ -1048,8 +1024,7 @@ public class PircBot {
      * @since 1.2.2
      */
     public void dispose() {
-        if (_outputThread != null) _outputThread.interrupt();
-        if (_inputThread != null) _inputThread.dispose();
+        pool.dispose();
     }
 
     /**
@@ -1099,27 +1074,13 @@ public class PircBot {
 
     public void handleDisplayName(String name, String user) {
         if (name != null) {
-            getChannelManager().getUser(user, true).setDisplayName(name.replaceAll("\\\\s", " ").trim());
+            getChannelManager().getUser(user, true).setDisplayName(name.trim());
         }
     }
 
-    public void handleEmotes(String numbers, String user) {
-        try {
-            String[] parts = numbers.split("/");
-            User u = getChannelManager().getUser(user, true);
-            for (String emote : parts) {
-                String emoteID = emote.split(":")[0];
-                try {
-                    int id = Integer.parseInt(emoteID);
-                    u.addEmote(id);
-                } catch (Exception e) {
-                    GUIMain.log("Cannot parse emote ID given by IRCv3 tags!");
-                }
-            }
-        } catch (Exception ignored) {
-        }
-    }
 
+    // The view every incoming line is parsed into, one per thread calling handleLine.
+    private final ThreadLocal<IRCLine> parsedLine = ThreadLocal.withInitial(IRCLine::new);
 
     // Connection stuff.
     private InputThread _inputThread = null;
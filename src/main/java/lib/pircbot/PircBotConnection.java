@@ -5,7 +5,9 @@ import util.Utils;
 
 import java.io.*;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.util.List;
 
 /**
  * Created by Nick on 9/7/2015.
@@ -17,7 +19,12 @@ public class PircBotConnection {
     private Queue<String> _outQueue = new Queue<>();
     private PircBot bot = null;
     private ConnectionType type;
-    private String _server, name;
+    private int number;
+    private String _server;
+    private String _serverOverride = null;
+    private int _portOverride = -1;
+    private TrafficRecorder recorder = null;
+    private NioTransport.Link _link = null;
 
     public OutputThread getOutputThread() {
         return _outputThread;
@@ -31,8 +38,19 @@ public class PircBotConnection {
         return bot;
     }
 
+    /**
+     * @return The nick of the bot, with the number of this connection after it if it isn't
+     * the bot's first (see ConnectionPool), like "nick-2".
+     */
     public String getName() {
-        return name;
+        return number == 1 ? bot.getNick() : bot.getNick() + "-" + number;
+    }
+
+    /**
+     * @return Which of the bot's connections this is, the first one is 1.
+     */
+    public int getNumber() {
+        return number;
     }
 
     public ConnectionType getType() {
@@ -42,6 +60,21 @@ public class PircBotConnection {
 
     private InetAddress _inetAddress = null;
 
+    //written by the input thread and the output thread respectively
+    private volatile long linesRead = 0, linesSent = 0;
+    private volatile long linesDropped = 0;
+    private volatile long lag = -1;
+
+    //how long to wait for the server to answer a new socket, and for it to welcome us
+    static final int CONNECT_TIMEOUT = 10_000, LOGIN_TIMEOUT = 30_000;
+
+    //liveness, see ConnectionPool#checkAlive
+    private volatile long lastReadAt = System.currentTimeMillis();
+    private volatile long pingSentAt = 0;
+    private volatile long droppedAt = 0;
+    private volatile long detectTime = -1, recoverTime = -1;
+    private volatile int drops = 0;
+
     public enum ConnectionType {
 
     	NORMAL(6667, "irc.chat.twitch.tv");
@@ -56,9 +89,13 @@ public class PircBotConnection {
     }
 
     public PircBotConnection(PircBot bot, ConnectionType type) {
+        this(bot, type, 1);
+    }
+
+    PircBotConnection(PircBot bot, ConnectionType type, int number) {
         this.bot = bot;
         this.type = type;
-        this.name = bot.getNick();
+        this.number = number;
     }
 
     /**
@@ -69,23 +106,299 @@ public class PircBotConnection {
      * @return True if and only if the PircBot is currently connected to a server.
      */
     public boolean isConnected() {
+        NioTransport.Link link = _link;
+        if (link != null) return link.isOpen();
         return _inputThread != null && _inputThread.isConnected();
     }
 
 
+    /**
+     * Makes this connection use the given server instead of the ones of its ConnectionType,
+     * like a local server replaying recorded chat.
+     *
+     * @param host The host of the server, or null to go back to the ConnectionType's.
+     * @param port The port of the server.
+     */
+    public void setServer(String host, int port) {
+        _serverOverride = host;
+        _portOverride = port;
+    }
+
+    /**
+     * Records every line read by this connection into the given file, until #stopRecording.
+     *
+     * @param file The file to append the recording to.
+     */
+    public synchronized void startRecording(File file) {
+        stopRecording();
+        try {
+            recorder = new TrafficRecorder(file, getName());
+        } catch (Exception e) {
+            GUIMain.log(e);
+        }
+    }
+
+    public synchronized void stopRecording() {
+        if (recorder != null) {
+            recorder.close();
+            recorder = null;
+        }
+    }
+
+    void record(String line) {
+        TrafficRecorder r = recorder;
+        if (r != null) r.record(line);
+    }
+
+    /**
+     * Counts a line read by the input thread, and if Twitch said when it sent the line
+     * (the tmi-sent-ts tag), how long it took to get here.
+     */
+    void lineRead(String line) {
+        linesRead++;
+        lastReadAt = System.currentTimeMillis();
+        if (line.isEmpty() || line.charAt(0) != '@') return;
+        int tag = line.indexOf("tmi-sent-ts=");
+        if (tag == -1) return;
+        long sent = 0;
+        for (int i = tag + 12; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') break;
+            sent = sent * 10 + (c - '0');
+        }
+        if (sent == 0) return;
+        //the clocks of Twitch and this computer are never quite the same
+        long took = Math.max(System.currentTimeMillis() - sent, 0);
+        lag = (lag < 0) ? took : (lag * 7 + took) / 8;
+    }
+
+    /**
+     * Handles a line read from the server, by the InputThread or the NioTransport.
+     */
+    void lineIn(String line) {
+        bot.log(line);
+        record(line);
+        lineRead(line);
+        if (line.startsWith("PING ")) {
+            // Respond to the ping and return immediately.
+            sendRawLine("PONG " + line.substring(5));
+        } else {
+            bot.handleLine(line);
+        }
+    }
+
+    /**
+     * Checks a line read while logging on.
+     *
+     * @return 1 if the server welcomed us (004), -1 if it refused us, 0 if it's neither.
+     */
+    static int checkLogin(String line) {
+        if (line.contains("Login unsuccessful")) return -1;
+        int firstSpace = line.indexOf(" ");
+        int secondSpace = line.indexOf(" ", firstSpace + 1);
+        if (secondSpace >= 0) {
+            String code = line.substring(firstSpace + 1, secondSpace);
+            if (code.equals("004")) {
+                return 1;
+            } else if (code.startsWith("5") || code.startsWith("4")) {
+                return -1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Adds a line to the outgoing message queue, it's sent when the limits of the
+     * OutputThread let it. While the connection is being reconnected nothing takes lines
+     * off the queue, so only as many as fit in its ring are kept then, the rest are dropped
+     * (and counted, see #getLinesDropped).
+     */
+    public void queueLine(String line) {
+        if (isRecovering()) {
+            if (!_outQueue.offer(line)) {
+                linesDropped++;
+                return;
+            }
+        } else {
+            _outQueue.add(line);
+        }
+        NioTransport.Link link = _link;
+        if (link != null) link.wake();
+    }
+
+    void lineSent() {
+        linesSent++;
+    }
+
+    /**
+     * @return How many lines were dropped instead of queued, because the queue was full
+     * while the connection was being reconnected.
+     */
+    public long getLinesDropped() {
+        return linesDropped;
+    }
+
+    /**
+     * @return How many lines this connection read from the server.
+     */
+    public long getLinesRead() {
+        return linesRead;
+    }
+
+    /**
+     * @return How many lines this connection wrote to the server.
+     */
+    public long getLinesSent() {
+        return linesSent;
+    }
+
+    /**
+     * @return How long, in milliseconds, lines took from Twitch to this connection lately
+     * (a moving average), or -1 if no line said when it was sent.
+     */
+    public long getLag() {
+        return lag;
+    }
+
+    /**
+     * @return When the last line was read, in milliseconds.
+     */
+    public long getLastReadAt() {
+        return lastReadAt;
+    }
+
+    long getPingSentAt() {
+        return pingSentAt;
+    }
+
+    /**
+     * Sends a PING the server has to answer, see ConnectionPool#checkAlive.
+     */
+    void ping(long now) {
+        pingSentAt = now;
+        sendRawLine("PING :tmi.twitch.tv");
+    }
+
+    void pingAnswered() {
+        pingSentAt = 0;
+    }
+
+    /**
+     * @return True if the connection dropped and hasn't been reconnected yet.
+     */
+    public boolean isRecovering() {
+        return droppedAt != 0;
+    }
+
+    /**
+     * @return How many times the connection dropped.
+     */
+    public int getDrops() {
+        return drops;
+    }
+
+    /**
+     * @return How long, in milliseconds, it took to notice that the connection last dropped:
+     * from the last line it read until it was found dead or closed. -1 if it never dropped.
+     */
+    public long getDetectTime() {
+        return detectTime;
+    }
+
+    /**
+     * @return How long, in milliseconds, the connection was gone the last time it dropped,
+     * until it was logged on again. -1 if it never came back.
+     */
+    public long getRecoverTime() {
+        return recoverTime;
+    }
+
+    /**
+     * Closes the socket of a connection that went silent, so it's handled like any other
+     * disconnection (and reconnected).
+     */
+    void drop() {
+        InputThread input = _inputThread;
+        if (input != null) input.drop();
+        NioTransport.Link link = _link;
+        if (link != null) link.drop();
+    }
+
+    /**
+     * Called when the connection lost the server: notes when, and stops its output so the
+     * chat and whispers it was still holding back go out over the next socket, ahead of
+     * what's still queued.
+     */
+    void dropped() {
+        long now = System.currentTimeMillis();
+        droppedAt = now;
+        detectTime = now - lastReadAt;
+        pingSentAt = 0;
+        drops++;
+        OutputThread output = _outputThread;
+        if (output == null) return;
+        output.interrupt();
+        try {
+            output.join(1000);
+        } catch (InterruptedException ignored) {
+        }
+        List<String> held = output.takeHeld();
+        for (int i = held.size() - 1; i >= 0; i--) {
+            _outQueue.addFront(held.get(i));
+        }
+    }
+
+    /**
+     * Called when the connection dropped and nothing is going to reconnect it (auto-reconnect
+     * is off, or its reconnect was cancelled): it's no longer recovering, so lines aren't
+     * queued for it anymore.
+     */
+    public void giveUp() {
+        droppedAt = 0;
+    }
+
+    /**
+     * Called when the connection logged on.
+     *
+     * @return How long it was gone, in milliseconds, or -1 if this isn't a reconnect.
+     */
+    long recovered() {
+        long now = System.currentTimeMillis();
+        lastReadAt = now;
+        pingSentAt = 0;
+        if (droppedAt == 0) return -1;
+        recoverTime = now - droppedAt;
+        droppedAt = 0;
+        return recoverTime;
+    }
+
+    String getServerOverride() {
+        return _serverOverride;
+    }
+
+    int getPortOverride() {
+        return _portOverride;
+    }
+
     public boolean connect() {
         if (isConnected()) {
             return false;
         }
-        _server = type.hosts[Utils.random(0, type.hosts.length)];
+        _server = (_serverOverride != null) ? _serverOverride : type.hosts[Utils.random(0, type.hosts.length)];
+        if (GUIMain.currentSettings != null && GUIMain.currentSettings.nioTransport) {
+            return connectNio();
+        }
 
         // Connect to the server.
         Socket socket;
         InputStream socketIn;
         OutputStream socketOut;
         try {
-            socket = new Socket(_server, type.port);
             bot.log("*** Trying to connect to " + _server + " on port " + getPort());
+            socket = new Socket();
+            socket.connect(new InetSocketAddress(_server, getPort()), CONNECT_TIMEOUT);
+            //a server that takes our socket but never welcomes us mustn't hold up reconnecting
+            socket.setSoTimeout(LOGIN_TIMEOUT);
             socketIn = socket.getInputStream();
             socketOut = socket.getOutputStream();
         } catch (Exception e) {
@@ -109,7 +422,7 @@ public class PircBotConnection {
         }
         BufferedReader breader = new BufferedReader(inputStreamReader);
         BufferedWriter bwriter = new BufferedWriter(outputStreamWriter);
-        _outputThread = new OutputThread(bot, _outQueue, bwriter);
+        _outputThread = new OutputThread(this, _outQueue, bwriter);
         // Attempt to join the server.
         _outputThread.sendRawLine("CAP REQ :twitch.tv/tags");
         _outputThread.sendRawLine("CAP REQ :twitch.tv/commands");
@@ -123,25 +436,16 @@ public class PircBotConnection {
         try {
             while ((line = breader.readLine()) != null) {
                 bot.handleLine(line);
-                if (line.contains("Login unsuccessful")) {
+                int login = checkLogin(line);
+                if (login == 1) {
+                    // We're connected to the server.
+                    break;
+                } else if (login == -1) {
                     socket.close();
                     _inputThread.dispose();
                     _inputThread = null;
                     return false;
                 }
-                int firstSpace = line.indexOf(" ");
-                int secondSpace = line.indexOf(" ", firstSpace + 1);
-                if (secondSpace >= 0) {
-                    String code = line.substring(firstSpace + 1, secondSpace);
-                    if (code.equals("004")) {
-                        // We're connected to the server.
-                        break;
-                    } else if (code.startsWith("5") || code.startsWith("4")) {
-                        socket.close();
-                        _inputThread = null;
-                        return false;
-                    }
-                }
             }
         } catch (Exception e) {
             try {
@@ -152,7 +456,7 @@ public class PircBotConnection {
             return false;
         }
 
-        bot.log("*** Logged onto server.");
+        loggedOn();
 
         // This makes the socket timeout on read operations after 5 minutes.
         // Maybe in some future version I will let the user change this at runtime.
@@ -170,9 +474,53 @@ public class PircBotConnection {
 
         getOutputThread().sendRawLine("CAP REQ :twitch.tv/tags");
         getOutputThread().sendRawLine("CAP REQ :twitch.tv/commands");
+        bot.getConnectionPool().connected(this);
         return true;
     }
 
+    /**
+     * Connects like #connect, but with the socket run by the NioTransport, which reads and
+     * writes it instead of an InputThread and a running OutputThread.
+     */
+    private boolean connectNio() {
+        NioTransport.Link link;
+        try {
+            bot.log("*** Trying to connect to " + _server + " on port " + getPort());
+            link = NioTransport.get().open(this, _server, getPort());
+            _inetAddress = link.getChannel().socket().getLocalAddress();
+        } catch (Exception e) {
+            GUIMain.log(e);
+            return false;
+        }
+        bot.log("*** Connected to server.");
+        _inputThread = null;
+        _outputThread = new OutputThread(this, _outQueue, link);
+        link.setOutput(_outputThread);
+        _outputThread.sendRawLine("CAP REQ :twitch.tv/tags");
+        _outputThread.sendRawLine("CAP REQ :twitch.tv/commands");
+        _outputThread.sendRawLine("PASS " + bot.getPassword());
+        _outputThread.sendRawLine("NICK " + bot.getNick());
+        if (!link.awaitLogin()) {
+            link.dispose();
+            return false;
+        }
+        _link = link;
+        loggedOn();
+        //lines queued while logging on go now
+        link.wake();
+        bot.getConnectionPool().connected(this);
+        return true;
+    }
+
+    private void loggedOn() {
+        bot.log("*** Logged onto server.");
+
+        if (GUIMain.currentSettings != null && GUIMain.currentSettings.recordTraffic) {
+            startRecording(new File(GUIMain.currentSettings.trafficDir + File.separator
+                    + getName() + "-" + GUIMain.currentSettings.date + ".log"));
+        }
+    }
+
 
     /**
      * Disposes of all thread resources used by this PircBot. This may be
@@ -196,6 +544,9 @@ public class PircBotConnection {
     public void dispose() {
         if (_outputThread != null) _outputThread.interrupt();
         if (_inputThread != null) _inputThread.dispose();
+        if (_link != null) _link.dispose();
+        droppedAt = 0;
+        stopRecording();
     }
 
     /**
@@ -226,7 +577,7 @@ public class PircBotConnection {
      * @since PircBot 0.9.9
      */
     public final int getPort() {
-        return type.port;
+        return (_portOverride != -1) ? _portOverride : type.port;
     }
 
     /**
@@ -245,7 +596,7 @@ public class PircBotConnection {
     public boolean equals(Object obj) {
         return (obj instanceof PircBotConnection) &&
                 (((PircBotConnection) obj).getType() == this.getType()) &&
-                ((PircBotConnection) obj).getName().equals(this.getName()) &&
+                ((PircBotConnection) obj).getNumber() == this.getNumber() &&
                 ((PircBotConnection) obj).getBot().equals(this.getBot());
     }
 
@@ -14,7 +14,14 @@ found at http://www.jibble.org/licenses/
 
 package lib.pircbot;
 
-import java.util.Vector;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Queue is a definition of a data structure that may
@@ -24,11 +31,17 @@ import java.util.Vector;
  * consumer.  The next() method will block until there is data in
  * the queue.
  * <p>
- * This has now been modified so that it is compatible with
- * the earlier JDK1.1 in order to be suitable for running on
- * mobile appliances.  This means replacing the LinkedList with
- * a Vector, which is hardly ideal, but this Queue is typically
- * only polled every second before dispatching messages.
+ * This used to be a synchronized Vector, which shifted the whole
+ * array on every next(). It is now a bounded ring buffer that the
+ * producers claim slots of with a compare-and-set, so adding never
+ * takes a lock, and the one consumer takes from it in O(1).
+ * If the ring is full, add() never waits: the Object goes into an
+ * unbounded overflow behind the ring (and so does everything added
+ * after it, until the consumer has emptied the overflow), so producers
+ * like the GUI or a connection's thread can't be held up by a slow
+ * consumer. offer() fails instead, for producers that would rather drop.
+ * Objects added to the front go on a small stack of their own, which
+ * the consumer empties first.
  *
  * @author Paul James Mutton,
  *         <a href="http://www.jibble.org/">http://www.jibble.org/</a>
@@ -36,29 +49,99 @@ import java.util.Vector;
  */
 public class Queue<T> {
 
-    private Vector<T> _queue;
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final int mask;
+    private final AtomicReferenceArray<T> items;
+    //the sequence of every slot tells whose turn it is: a producer's when it equals the
+    //position to add at, the consumer's when it is one past it
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong(0);
+    private volatile long head = 0;
+
+    private final AtomicReference<Front<T>> front = new AtomicReference<>();
+    private final AtomicLong frontSize = new AtomicLong(0);
+
+    //what was added while the ring was full, taken after the ring
+    private final ConcurrentLinkedQueue<T> overflow = new ConcurrentLinkedQueue<>();
+    private final AtomicLong overflowSize = new AtomicLong(0);
+
+    private volatile Thread waiting = null;
+    private final AtomicLong highWaterMark = new AtomicLong(0);
+
+    private static class Front<T> {
+        final T item;
+        final Front<T> next;
+
+        Front(T item, Front<T> next) {
+            this.item = item;
+            this.next = next;
+        }
+    }
 
     /**
-     * Constructs a Queue object of size 10.
+     * Constructs a Queue that holds up to DEFAULT_CAPACITY Objects.
      */
     public Queue() {
-        _queue = new Vector<>();
+        this(DEFAULT_CAPACITY);
     }
 
+    /**
+     * Constructs a Queue that holds up to the given amount of Objects,
+     * rounded up to a power of two.
+     *
+     * @param capacity The most Objects the ring holds before add() overflows and offer() fails.
+     */
     public Queue(int capacity) {
-        _queue = new Vector<>(capacity);
+        int size = 1;
+        while (size < Math.max(2, capacity)) size <<= 1;
+        mask = size - 1;
+        items = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
     }
 
 
     /**
-     * Adds an Object to the end of the Queue.
+     * Adds an Object to the end of the Queue, without waiting.
      *
      * @param o The Object to be added to the Queue.
      */
     public void add(T o) {
-        synchronized (_queue) {
-            _queue.addElement(o);
-            _queue.notify();
+        if (offer(o)) return;
+        //counted first, so everything added from here on goes behind it
+        overflowSize.incrementAndGet();
+        overflow.add(o);
+        added();
+    }
+
+
+    /**
+     * Adds an Object to the end of the Queue if there is room for it.
+     *
+     * @param o The Object to be added to the Queue.
+     * @return False if the Queue was full.
+     */
+    public boolean offer(T o) {
+        if (overflowSize.get() > 0) return false;//it would go ahead of what overflowed
+        while (true) {
+            long pos = tail.get();
+            int index = (int) pos & mask;
+            long turn = sequences.get(index) - pos;
+            if (turn == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    items.lazySet(index, o);
+                    //a full write, so it can't be reordered past the read of the waiting consumer
+                    sequences.set(index, pos + 1);
+                    added();
+                    return true;
+                }
+            } else if (turn < 0) {
+                return false;//the consumer hasn't taken this slot's last Object yet
+            }
+            //else another producer took the slot first
         }
     }
 
@@ -69,10 +152,22 @@ public class Queue<T> {
      * @param o The Object to be added to the Queue.
      */
     public void addFront(T o) {
-        synchronized (_queue) {
-            _queue.insertElementAt(o, 0);
-            _queue.notify();
+        Front<T> top;
+        do {
+            top = front.get();
+        } while (!front.compareAndSet(top, new Front<>(o, top)));
+        frontSize.incrementAndGet();
+        added();
+    }
+
+    private void added() {
+        long size = size();
+        long high = highWaterMark.get();
+        while (size > high && !highWaterMark.compareAndSet(high, size)) {
+            high = highWaterMark.get();
         }
+        Thread t = waiting;
+        if (t != null) LockSupport.unpark(t);
     }
 
 
@@ -82,32 +177,117 @@ public class Queue<T> {
      * is empty, then this method shall block until there
      * is an Object in the Queue to return.
      *
-     * @return The next item from the front of the queue.
+     * @return The next item from the front of the queue, or
+     * null if the Thread was interrupted while waiting.
      */
     public T next() {
-        T o;
-        // Block if the Queue is empty.
-        synchronized (_queue) {
-            if (_queue.size() == 0) {
-                try {
-                    _queue.wait();
-                } catch (InterruptedException e) {
-                    return null;
+        try {
+            return next(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * Returns the Object at the front of the Queue, waiting at most
+     * the given time for one to be added if the Queue is empty.
+     *
+     * @param timeout The most milliseconds to wait, 0 to not wait at all.
+     * @return The next item from the front of the queue, or null if
+     * there was none in time.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public T next(long timeout) throws InterruptedException {
+        return next(timeout, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * Returns the Object at the front of the Queue, waiting at most
+     * the given time for one to be added if the Queue is empty.
+     *
+     * @param timeout The most time to wait, 0 to not wait at all.
+     * @param unit    The unit of the timeout.
+     * @return The next item from the front of the queue, or null if
+     * there was none in time.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public T next(long timeout, TimeUnit unit) throws InterruptedException {
+        T o = poll();
+        if (o != null || timeout <= 0) return o;
+        long nanos = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + nanos;
+        waiting = Thread.currentThread();
+        try {
+            while (true) {
+                //checked again after saying we're waiting, so an add in between isn't missed
+                o = poll();
+                if (o != null) return o;
+                if (Thread.interrupted()) throw new InterruptedException();
+                if (nanos == Long.MAX_VALUE) {
+                    LockSupport.park(this);
+                } else {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) return null;
+                    LockSupport.parkNanos(this, left);
                 }
             }
+        } finally {
+            waiting = null;
+        }
+    }
 
-            // Return the Object.
-            try {
-                o = _queue.firstElement();
-                _queue.removeElementAt(0);
-            } catch (ArrayIndexOutOfBoundsException e) {
-                return null;
+
+    /**
+     * Returns the Object at the front of the Queue without waiting.
+     * Only the consuming Thread may call this.
+     *
+     * @return The next item from the front of the queue, or null if it is empty.
+     */
+    public T poll() {
+        Front<T> top = front.get();
+        if (top != null) {
+            while (!front.compareAndSet(top, top.next)) {
+                top = front.get();
             }
+            frontSize.decrementAndGet();
+            return top.item;
         }
+        long pos = head;
+        int index = (int) pos & mask;
+        if (sequences.get(index) != pos + 1) {
+            T o = overflow.poll();
+            if (o != null) overflowSize.decrementAndGet();
+            return o;
+        }
+        T o = items.get(index);
+        items.lazySet(index, null);
+        sequences.lazySet(index, pos + mask + 1);
+        head = pos + 1;
         return o;
     }
 
 
+    /**
+     * Moves the Objects in the Queue into the given Collection, without waiting.
+     * Only the consuming Thread may call this.
+     *
+     * @param c   The Collection to add to.
+     * @param max The most Objects to move.
+     * @return How many Objects were moved.
+     */
+    public int drainTo(Collection<? super T> c, int max) {
+        int moved = 0;
+        T o;
+        while (moved < max && (o = poll()) != null) {
+            c.add(o);
+            moved++;
+        }
+        return moved;
+    }
+
+
     /**
      * Returns true if the Queue is not empty.  If another
      * Thread empties the Queue before <b>next()</b> is
@@ -123,21 +303,49 @@ public class Queue<T> {
 
     /**
      * Clears the contents of the Queue.
+     * Only the consuming Thread may call this.
      */
     public void clear() {
-        synchronized (_queue) {
-            _queue.removeAllElements();
+        while (poll() != null) {
+            //discard
         }
     }
 
 
     /**
-     * Returns the size of the Queue.
+     * Returns the size of the Queue. With Objects being added
+     * at the same time, this is only a snapshot.
      *
      * @return The current size of the queue.
      */
     public int size() {
-        return _queue.size();
+        long size = tail.get() - head;
+        return (int) Math.max(0, Math.min(size, getCapacity())) + (int) frontSize.get() + (int) overflowSize.get();
+    }
+
+
+    /**
+     * @return How many Objects the ring holds before add() overflows,
+     * not counting the ones added to the front.
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+
+    /**
+     * @return The most Objects that were ever in the Queue at once.
+     */
+    public int getHighWaterMark() {
+        return (int) highWaterMark.get();
+    }
+
+
+    /**
+     * Starts counting the high water mark over from the current size.
+     */
+    public void resetHighWaterMark() {
+        highWaterMark.set(size());
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,67 @@
+package lib.pircbot;
+
+/**
+ * A token bucket, used by the OutputThread to stay within Twitch's rate limits.
+ * <p>
+ * The bucket holds up to a capacity of tokens and starts full. Every line sent takes a token,
+ * and tokens come back at a steady rate of (capacity) per (period). A full bucket lets a burst
+ * of lines out at once, after which they are spaced out by the rate.
+ * <p>
+ * This class is not thread safe, it is only used by the thread sending the lines.
+ */
+final class TokenBucket {
+
+    private int capacity;
+    private long period;//nanoseconds to refill the whole bucket
+    private double tokens;
+    private long last;
+
+    /**
+     * @param capacity     The most tokens the bucket can hold.
+     * @param periodMillis How many milliseconds it takes for the bucket to refill completely.
+     */
+    TokenBucket(int capacity, long periodMillis) {
+        last = System.nanoTime();
+        setRate(capacity, periodMillis);
+        tokens = this.capacity;
+    }
+
+    /**
+     * Changes the rate, like when the bot is modded in a channel. Tokens already
+     * in the bucket are kept, up to the new capacity.
+     */
+    void setRate(int capacity, long periodMillis) {
+        capacity = Math.max(1, capacity);
+        long period = Math.max(1, periodMillis) * 1_000_000;
+        if (capacity == this.capacity && period == this.period) return;
+        refill(System.nanoTime());
+        this.capacity = capacity;
+        this.period = period;
+        tokens = Math.min(tokens, capacity);
+    }
+
+    /**
+     * @param now The current System.nanoTime().
+     * @return The nanoseconds until a token is available, 0 if one is available now.
+     */
+    long waitTime(long now) {
+        refill(now);
+        if (tokens >= 1) return 0;
+        return (long) Math.ceil((1 - tokens) * period / capacity);
+    }
+
+    /**
+     * Takes a token, callers check #waitTime first.
+     */
+    void take(long now) {
+        refill(now);
+        tokens--;
+    }
+
+    private void refill(long now) {
+        long elapsed = now - last;
+        if (elapsed <= 0) return;
+        tokens = Math.min(capacity, tokens + (double) elapsed * capacity / period);
+        last = now;
+    }
+}
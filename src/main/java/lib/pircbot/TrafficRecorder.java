@@ -0,0 +1,138 @@
+package lib.pircbot;
+
+import gui.forms.GUIMain;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes every raw line a connection reads into an append-only file, so chat can be
+ * replayed later without Twitch (see util.bench.LoadTest, in src/jmh/java).
+ * <p>
+ * The file is UTF-8 text. Every recording starts with a header line:
+ * <pre>    #botnak-traffic [epoch millis] [connection name]</pre>
+ * followed by one line per raw IRC line, prefixed by the milliseconds since the line before it:
+ * <pre>    [delay]\t[raw line]</pre>
+ */
+public class TrafficRecorder {
+
+    public static final String HEADER = "#botnak-traffic";
+
+    //how often the recording is flushed to disk while lines come in
+    private static final long FLUSH_INTERVAL = 1000;
+
+    private final BufferedWriter writer;
+    private long lastLine, lastFlush;
+    private boolean closed = false;
+
+    /**
+     * Opens the file for appending and writes the header of a new recording.
+     *
+     * @param file The file to append to, its folder is made if needed.
+     * @param name The name of the connection being recorded.
+     * @throws IOException If the file can't be opened.
+     */
+    public TrafficRecorder(File file, String name) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null) parent.mkdirs();
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+        lastLine = lastFlush = System.currentTimeMillis();
+        writer.write(HEADER + " " + lastLine + " " + name);
+        writer.newLine();
+    }
+
+    /**
+     * Appends a line to the recording. Called by the InputThread for every line read.
+     *
+     * @param line The raw line, without the CRLF.
+     */
+    public synchronized void record(String line) {
+        if (closed) return;
+        long now = System.currentTimeMillis();
+        try {
+            writer.write(String.valueOf(now - lastLine));
+            writer.write('\t');
+            writer.write(line);
+            writer.newLine();
+            if (now - lastFlush >= FLUSH_INTERVAL) {
+                writer.flush();
+                lastFlush = now;
+            }
+        } catch (IOException e) {
+            GUIMain.log(e);
+            close();
+        }
+        lastLine = now;
+    }
+
+    /**
+     * Flushes and closes the file, any lines after this are ignored.
+     */
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            writer.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * One line of a recording.
+     */
+    public static class Entry {
+        private final long delay;
+        private final String line;
+
+        public Entry(long delay, String line) {
+            this.delay = delay;
+            this.line = line;
+        }
+
+        /**
+         * @return The milliseconds between this line and the one before it.
+         */
+        public long getDelay() {
+            return delay;
+        }
+
+        public String getLine() {
+            return line;
+        }
+    }
+
+    /**
+     * Reads a recording back. Files with plain raw lines (no delays) are read as well,
+     * as lines without any delay between them.
+     *
+     * @param reader The recording.
+     * @return The lines of every recording in the file, in order.
+     * @throws IOException If the recording could not be read.
+     */
+    public static List<Entry> read(BufferedReader reader) throws IOException {
+        ArrayList<Entry> toReturn = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty() || line.startsWith(HEADER)) continue;
+            int tab = line.indexOf('\t');
+            long delay = 0;
+            if (tab > 0) {
+                try {
+                    delay = Long.parseLong(line.substring(0, tab));
+                    line = line.substring(tab + 1);
+                } catch (NumberFormatException ignored) {
+                    //a raw line that happens to have a tab in it
+                }
+            }
+            toReturn.add(new Entry(delay, line));
+        }
+        return toReturn;
+    }
+}
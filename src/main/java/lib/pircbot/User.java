@@ -39,12 +39,15 @@ public class User implements Comparable<User> {
     private boolean staff = false, admin = false, global_mod = false, turbo = false, prime = false;
     private String _nick, _lowerNick, displayName = null;
 
+    //the emotes of the emote sets of our own account, other users' emotes come with each message
     private CopyOnWriteArraySet<Integer> emotes = new CopyOnWriteArraySet<>();
     private HashSet<Integer> emoteSet = new HashSet<Integer>();
 
     private Color color = null;
     private Donor donor = null;
 
+    private volatile long lastSeen = 0;
+
     /**
      * Constructs a User object with a known prefix and nick.
      *
@@ -201,6 +204,17 @@ public class User implements Comparable<User> {
         _lowerNick = _nick.toLowerCase();
     }
 
+    /**
+     * @return When this user was last seen, used to drop idle users.
+     */
+    public long getLastSeen() {
+        return lastSeen;
+    }
+
+    public void setLastSeen(long time) {
+        lastSeen = time;
+    }
+
     public String getDisplayName() {
         return displayName == null ? getLowerNick() : displayName;
     }
@@ -5,6 +5,7 @@ import lib.pircbot.User;
 import util.Response;
 import util.Timer;
 import util.Utils;
+import util.log.Log;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -98,12 +99,14 @@ public class SoundEngine {
             if (soundTimer.period == 0) {//alowing for spam
                 try {
                     player.play(s.getFile(), SoundPlayer.PlayMode.Force);
-                } catch (Exception ignored) {
+                } catch (Exception e) {
+                    Log.warn(Log.Category.SOUND, e);
                 }
             } else {
                 try {
                     player.play(s.getFile(), SoundPlayer.PlayMode.Ignore);
-                } catch (Exception ignored) {
+                } catch (Exception e) {
+                    Log.warn(Log.Category.SOUND, e);
                 }
                 soundTimer.reset();
             }
@@ -117,7 +120,8 @@ public class SoundEngine {
         Sound s = getSpecialSound(isSub);
         try {
             player.play(s.getFile(), SoundPlayer.PlayMode.Force);
-        } catch (Exception ignored) {
+        } catch (Exception e) {
+            Log.warn(Log.Category.SOUND, e);
         }
     }
 
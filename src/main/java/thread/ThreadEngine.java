@@ -2,15 +2,27 @@ package thread;
 
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by Nick on 6/10/2015.
  * <p>
  * Handles tasks that should be Asynchronous.
+ * <p>
+ * Tasks that should happen later, like a poll closing, are scheduled on one shared
+ * timer thread instead of each sleeping on a Thread of their own. The timer thread only
+ * runs them, so they should be quick.
  */
 public class ThreadEngine {
 
     private static ExecutorService pool;
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ThreadEngine-timer");
+        t.setDaemon(true);
+        return t;
+    });
 
     public static void init() {
         pool = Executors.newCachedThreadPool();
@@ -19,4 +31,15 @@ public class ThreadEngine {
     public static void submit(Runnable r) {
         pool.submit(r);
     }
-}
\ No newline at end of file
+
+    /**
+     * Runs the given task once, after the given delay.
+     *
+     * @param r      The task.
+     * @param millis The delay in milliseconds.
+     * @return The future to cancel the task with.
+     */
+    public static ScheduledFuture<?> schedule(Runnable r, long millis) {
+        return timer.schedule(r, millis, TimeUnit.MILLISECONDS);
+    }
+}
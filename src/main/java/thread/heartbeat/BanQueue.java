@@ -10,20 +10,25 @@ import java.util.Iterator;
 
 /**
  * Created by Nick on 8/29/2014.
+ * <p>
+ * The map is only touched while holding the BanQueue class lock, the connection
+ * threads add to it while the heartbeat empties it.
  */
 public class BanQueue implements HeartbeatThread {
 
     private static HashSet<User> banMap;
+    private static BanQueue instance;
     private boolean beating;
 
     public BanQueue() {
         banMap = new HashSet<>();
+        instance = this;
         beating = false;
     }
 
     @Override
     public boolean shouldBeat() {
-        return !beating && !banMap.isEmpty();
+        return !beating && !isEmpty();
     }
 
     @Override
@@ -37,6 +42,16 @@ public class BanQueue implements HeartbeatThread {
         beating = false;
     }
 
+    @Override
+    public long getCheckDelay() {
+        //nothing to check until a ban comes in
+        return isEmpty() ? -1 : 0;
+    }
+
+    private static synchronized boolean isEmpty() {
+        return banMap.isEmpty();
+    }
+
     /**
      * Adds the ban of the given name to the map.
      *
@@ -49,9 +64,10 @@ public class BanQueue implements HeartbeatThread {
         } else {
             banMap.add(new User(channel, name, 1));
         }
+        if (GUIMain.heartbeat != null) GUIMain.heartbeat.wake(instance);
     }
 
-    private synchronized void emptyMap() {
+    private static synchronized void emptyMap() {
         Iterator<User> it = banMap.iterator();
         while (!GUIMain.shutDown && it.hasNext()) {
             User u = it.next();
@@ -36,4 +36,9 @@ public class DonationCheck implements HeartbeatThread {
         beating = false;
         toCheck.reset();
     }
+
+    @Override
+    public long getCheckDelay() {
+        return toCheck.getRemaining();
+    }
 }
\ No newline at end of file
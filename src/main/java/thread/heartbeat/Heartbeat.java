@@ -2,19 +2,39 @@ package thread.heartbeat;
 
 import gui.forms.GUIMain;
 
-import java.util.ArrayList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Created by Nick on 3/12/14.
  * This class will be used to do normal checkups on things.
+ * <p>
+ * Every HeartbeatThread is its own task on a scheduler: it is asked whether it should beat,
+ * beats if so, and is then scheduled again after its check delay (see
+ * {@link HeartbeatThread#getCheckDelay()}), plus a little jitter so the tasks don't all
+ * wake up together. A task never runs twice at once, and a task that waits to be woken
+ * isn't run at all until {@link #wake(HeartbeatThread)} is called.
+ * <p>
+ * Failed beats are logged and counted, and how long every beat took is kept in a
+ * histogram per task, see {@link #getStats()}.
  */
-public class Heartbeat extends Thread {
+public class Heartbeat {
 
-    private ExecutorService executor;
-    private ArrayList<HeartbeatThread> heartbeatThreads;
+    private static final int THREADS = 4;
+
+    private final ScheduledThreadPoolExecutor executor;
+    private final ConcurrentHashMap<HeartbeatThread, Task> tasks;
     private final int delay;
+    private volatile boolean started;
 
     /**
      * Constructs a heartbeat monitor with a delay of half a second between beats.
@@ -26,39 +46,208 @@ public class Heartbeat extends Thread {
     /**
      * Constructs a heartbeat monitor with a specified delay.
      *
-     * @param del The specified delay in milliseconds.
+     * @param del The specified delay in milliseconds, for the threads that don't have their own.
      */
     public Heartbeat(int del) {
-        heartbeatThreads = new ArrayList<>();
-        executor = Executors.newCachedThreadPool();
+        tasks = new ConcurrentHashMap<>();
+        executor = new ScheduledThreadPoolExecutor(THREADS, new ThreadFactory());
+        executor.setRemoveOnCancelPolicy(true);
         delay = del;
+        started = false;
+    }
+
+    /**
+     * Schedules every added thread.
+     */
+    public synchronized void start() {
+        started = true;
+        tasks.values().forEach(t -> t.schedule(0));
+    }
+
+    public synchronized void addHeartbeatThread(HeartbeatThread t) {
+        Task task = new Task(t);
+        tasks.put(t, task);
+        if (started) task.schedule(0);
+    }
+
+    /**
+     * Checks the given thread right away instead of after its delay, like when there
+     * is new work for a thread that waits to be woken.
+     *
+     * @param t The thread to check.
+     */
+    public void wake(HeartbeatThread t) {
+        Task task = tasks.get(t);
+        if (task != null && started) task.wake();
+    }
+
+    /**
+     * @return The stats of every thread, by the thread's class name.
+     */
+    public Map<String, Stats> getStats() {
+        LinkedHashMap<String, Stats> toReturn = new LinkedHashMap<>();
+        tasks.values().forEach(t -> toReturn.put(t.getName(), t.stats));
+        return toReturn;
     }
 
-    @Override
-    public void run() {
-        while (!GUIMain.shutDown) {
-            heartbeatThreads.stream().filter(HeartbeatThread::shouldBeat).forEach(t ->
-                    executor.execute(() -> {
-                        try {
-                            t.beat();
-                            t.afterBeat();
-                        } catch (Exception ignored) {
-                        }
-                    }));
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private class Task {
+        final HeartbeatThread thread;
+        final Stats stats = new Stats();
+        private ScheduledFuture<?> next = null;
+        private long scheduled = 0;//which schedule is the current one, older ones don't run
+        private boolean running = false, woken = false;
+
+        Task(HeartbeatThread thread) {
+            this.thread = thread;
+        }
+
+        synchronized void wake() {
+            if (running) {
+                woken = true;
+            } else {
+                if (next != null) next.cancel(false);
+                schedule(0);
+            }
+        }
+
+        /**
+         * @param millis How long to wait, less than 0 to wait to be woken.
+         */
+        synchronized void schedule(long millis) {
+            long id = ++scheduled;
+            if (millis < 0 || GUIMain.shutDown || executor.isShutdown()) {
+                next = null;
+                return;
+            }
+            next = executor.schedule(() -> run(id), millis, TimeUnit.MILLISECONDS);
+        }
+
+        void run(long id) {
+            synchronized (this) {
+                if (id != scheduled || running) return;
+                running = true;
+                woken = false;
+            }
+            long period = getDelay();
             try {
-                Thread.sleep(delay);
-            } catch (Exception ignored) {
+                if (thread.shouldBeat()) {
+                    long start = System.nanoTime();
+                    try {
+                        thread.beat();
+                    } finally {
+                        thread.afterBeat();
+                        stats.record((System.nanoTime() - start) / 1_000_000, period);
+                    }
+                    period = getDelay();
+                }
+            } catch (Exception e) {
+                stats.errors.incrementAndGet();
+                GUIMain.log("Heartbeat thread " + getName() + " failed: ");
+                GUIMain.log(e);
+            } finally {
+                synchronized (this) {
+                    running = false;
+                    if (woken || period == 0) {
+                        schedule(0);
+                    } else {
+                        schedule(period < 0 ? -1 : period + ThreadLocalRandom.current().nextLong(period / 10 + 1));
+                    }
+                }
             }
         }
+
+        String getName() {
+            String name = thread.getClass().getSimpleName();
+            return name.isEmpty() ? thread.getClass().getName() : name;
+        }
+
+        private long getDelay() {
+            long d = thread.getCheckDelay();
+            return d == 0 ? delay : d;
+        }
     }
 
-    public synchronized void addHeartbeatThread(HeartbeatThread t) {
-        heartbeatThreads.add(t);
+    /**
+     * How often a thread beat, how often it failed or overran, and how long its beats took.
+     */
+    public static class Stats {
+        //bucket i holds the beats that took less than 2^i milliseconds, the last one the rest
+        private static final int BUCKETS = 18;
+
+        private final AtomicLong beats = new AtomicLong(0);
+        private final AtomicLong errors = new AtomicLong(0);
+        private final AtomicLong overruns = new AtomicLong(0);
+        private final AtomicLong longest = new AtomicLong(0);
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        void record(long millis, long period) {
+            beats.incrementAndGet();
+            //the next check was due before this beat was done
+            if (period > 0 && millis > period) overruns.incrementAndGet();
+            histogram.incrementAndGet(Math.min(64 - Long.numberOfLeadingZeros(millis), BUCKETS - 1));
+            long l = longest.get();
+            while (millis > l && !longest.compareAndSet(l, millis)) {
+                l = longest.get();
+            }
+        }
+
+        public long getBeats() {
+            return beats.get();
+        }
+
+        public long getErrors() {
+            return errors.get();
+        }
+
+        /**
+         * @return How many beats took longer than the delay between checks.
+         */
+        public long getOverruns() {
+            return overruns.get();
+        }
+
+        public long getLongest() {
+            return longest.get();
+        }
+
+        /**
+         * @param percent The percentile, like 50 or 99.
+         * @return The most milliseconds the given percent of beats took, rounded up to a
+         * power of two, or -1 if there were no beats.
+         */
+        public long getPercentile(double percent) {
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                total += histogram.get(i);
+            }
+            if (total == 0) return -1;
+            long wanted = (long) Math.ceil(total * percent / 100), seen = 0;
+            for (int i = 0; i < BUCKETS - 1; i++) {
+                seen += histogram.get(i);
+                if (seen >= wanted) return 1L << i;
+            }
+            return getLongest();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d beats, %d errors, %d overruns, p50 %dms, p99 %dms, longest %dms",
+                    getBeats(), getErrors(), getOverruns(), getPercentile(50), getPercentile(99), getLongest());
+        }
     }
 
-    @Override
-    public void interrupt() {
-        executor.shutdown();
-        super.interrupt();
+    private static class ThreadFactory implements java.util.concurrent.ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Heartbeat-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
     }
-}
\ No newline at end of file
+}
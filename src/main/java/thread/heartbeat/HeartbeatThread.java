@@ -21,4 +21,15 @@ public interface HeartbeatThread {
      * What to do after #beat() is called.
      */
     void afterBeat();
+
+    /**
+     * How long the Heartbeat waits before asking #shouldBeat() again, asked after
+     * every check.
+     *
+     * @return The delay in milliseconds, 0 for the Heartbeat's own delay, or less than 0
+     * to not check again until the Heartbeat is told to wake this thread.
+     */
+    default long getCheckDelay() {
+        return 0;
+    }
 }
\ No newline at end of file
@@ -2,33 +2,47 @@ package thread.heartbeat;
 
 import gui.forms.GUIMain;
 import gui.forms.GUIViewerList;
-import lib.JSON.JSONArray;
-import lib.JSON.JSONObject;
+import lib.JSON.JSONStreamReader;
 import lib.pircbot.ChannelManager;
 import lib.pircbot.User;
+import util.HttpClient;
 import util.Timer;
-import util.Utils;
+import util.log.Log;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.net.URL;
+import java.io.Reader;
+import java.util.EnumMap;
 import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
 
 /**
  * Created by Nick on 8/9/2014.
  * <p>
- * Handles assigning the userlist for a channel.
+ * Handles assigning the userlist for a channel. Lists that didn't change since the
+ * last time are skipped, and the viewer lists only get told who joined and left.
+ * <p>
+ * The lists are downloaded one after another on the HttpClient pool, not on the heartbeat,
+ * and the next update is scheduled when the last one is done.
  */
 public class UserManager implements HeartbeatThread {
 
     public static Timer toUpdate;
-    private HashSet<String> collectedUsers;
-    private static boolean beating;
+    private static volatile boolean beating;
+    private static UserManager instance;
 
     public UserManager() {
         toUpdate = new Timer(5000);
-        collectedUsers = new HashSet<>();
         beating = false;
+        instance = this;
+    }
+
+    /**
+     * Updates the viewer lists right away, like when one was just opened.
+     */
+    public static void update() {
+        if (toUpdate != null) toUpdate.setEndIn(0L);
+        if (GUIMain.heartbeat != null && instance != null) GUIMain.heartbeat.wake(instance);
     }
 
     @Override
@@ -40,69 +54,115 @@ public class UserManager implements HeartbeatThread {
     public void beat() {
         beating = true;
         String[] channels = GUIMain.currentSettings.channelManager.getChannelNames();
-        URL url;
+        //one channel at a time, like before, so the lists don't all hit the server at once
+        CompletableFuture<Void> updates = CompletableFuture.completedFuture(null);
         for (String chan : channels) {
             String chanOut = chan.substring(1);
             GUIViewerList list = GUIMain.viewerLists.get(chanOut);
             if (list != null) {
-                try {
-                    url = new URL("http://tmi.twitch.tv/group/user/" + chan.substring(1) + "/chatters");
-
-                    BufferedReader br = new BufferedReader(new InputStreamReader(url.openStream()));
-                    StringBuilder stanSB = new StringBuilder();
-                    Utils.parseBufferedReader(br, stanSB, false);
-                    JSONObject site = new JSONObject(stanSB.toString());
-                    JSONObject chatters = site.getJSONObject("chatters");
-                    JSONArray mods = chatters.getJSONArray("moderators");
-                    for (int i = 0; i < mods.length(); i++) {
-                        collectedUsers.add(mods.getString(i));
-                    }
-                    list.updateCategory(GUIViewerList.ViewerType.MOD, collectedUsers);
-                    collectedUsers.clear();
-                    JSONArray staff = chatters.getJSONArray("staff");
-                    for (int i = 0; i < staff.length(); i++) {
-                        User u = new User(staff.getString(i));
-                        u.setStaff(true);
-                        addUser(u);
-                        collectedUsers.add(staff.getString(i));
-                    }
-                    list.updateCategory(GUIViewerList.ViewerType.STAFF, collectedUsers);
-                    collectedUsers.clear();
-                    JSONArray admins = chatters.getJSONArray("admins");
-                    for (int i = 0; i < admins.length(); i++) {
-                        User u = new User(admins.getString(i));
-                        u.setAdmin(true);
-                        addUser(u);
-                        collectedUsers.add(admins.getString(i));
-                    }
-                    list.updateCategory(GUIViewerList.ViewerType.ADMIN, collectedUsers);
-                    collectedUsers.clear();
-                    JSONArray global_mods = chatters.getJSONArray("global_mods");
-                    for (int i = 0; i < global_mods.length(); i++) {
-                        User u = new User(global_mods.getString(i));
-                        u.setGlobalMod(true);
-                        addUser(u);
-                        collectedUsers.add(global_mods.getString(i));
-                    }
-                    list.updateCategory(GUIViewerList.ViewerType.GLOBAL_MOD, collectedUsers);
-                    collectedUsers.clear();
-                    JSONArray viewers = chatters.getJSONArray("viewers");
-                    for (int i = 0; i < viewers.length(); i++) {
-                        collectedUsers.add(viewers.getString(i));
-                    }
-                    list.updateCategory(GUIViewerList.ViewerType.VIEWER, collectedUsers);
-                    collectedUsers.clear();
-                    Thread.sleep(750);
-                } catch (Exception e) {
-                    e.printStackTrace();
+                updates = updates.thenCompose(done -> HttpClient.streamAsync(
+                        new HttpClient.Request("http://tmi.twitch.tv/group/user/" + chanOut + "/chatters"), this::readChatters)
+                        .thenAccept(categories -> updateList(list, categories))
+                        .exceptionally(e -> {
+                            GUIMain.log(Log.Category.API, "Could not update the viewer list of " + chanOut + ": ");
+                            GUIMain.log(Log.Category.API, (e instanceof CompletionException) ? e.getCause() : e);
+                            return null;
+                        }));
+            }
+        }
+        updates.whenComplete((done, e) -> {
+            toUpdate.reset();
+            beating = false;
+            if (GUIMain.heartbeat != null) GUIMain.heartbeat.wake(this);
+        });
+    }
+
+    private void updateList(GUIViewerList list, EnumMap<GUIViewerList.ViewerType, HashSet<String>> categories) {
+        //nobody joined or left since the last time
+        int count = 0;
+        for (HashSet<String> names : categories.values()) count += names.size();
+        long hash = ((long) categories.hashCode() << 32) | count;
+        if (hash == list.getContentHash()) return;
+        flag(categories.get(GUIViewerList.ViewerType.STAFF), User::setStaff);
+        flag(categories.get(GUIViewerList.ViewerType.ADMIN), User::setAdmin);
+        flag(categories.get(GUIViewerList.ViewerType.GLOBAL_MOD), User::setGlobalMod);
+        for (GUIViewerList.ViewerType type : GUIViewerList.ViewerType.values()) {
+            list.updateCategory(type, categories.get(type));
+        }
+        list.setContentHash(hash);
+    }
+
+    /**
+     * Reads the "chatters" object as it downloads, without keeping the rest of the JSON.
+     *
+     * @return The names of every category, empty for the ones that weren't there.
+     */
+    private EnumMap<GUIViewerList.ViewerType, HashSet<String>> readChatters(Reader in) {
+        EnumMap<GUIViewerList.ViewerType, HashSet<String>> categories = new EnumMap<>(GUIViewerList.ViewerType.class);
+        for (GUIViewerList.ViewerType type : GUIViewerList.ViewerType.values()) {
+            categories.put(type, new HashSet<>());
+        }
+        JSONStreamReader reader = new JSONStreamReader(in);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals("chatters")) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                GUIViewerList.ViewerType type = getType(reader.nextName());
+                if (type == null || reader.peek() != JSONStreamReader.Token.BEGIN_ARRAY) {
+                    reader.skipValue();
+                    continue;
                 }
+                HashSet<String> names = categories.get(type);
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    names.add(reader.nextString());
+                }
+                reader.endArray();
             }
+            reader.endObject();
+        }
+        reader.endObject();
+        return categories;
+    }
+
+    private GUIViewerList.ViewerType getType(String category) {
+        switch (category) {
+            case "moderators":
+                return GUIViewerList.ViewerType.MOD;
+            case "staff":
+                return GUIViewerList.ViewerType.STAFF;
+            case "admins":
+                return GUIViewerList.ViewerType.ADMIN;
+            case "global_mods":
+                return GUIViewerList.ViewerType.GLOBAL_MOD;
+            case "viewers":
+                return GUIViewerList.ViewerType.VIEWER;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @param names The names of a category.
+     * @param flag  What to mark the users of the category as.
+     */
+    private void flag(HashSet<String> names, BiConsumer<User, Boolean> flag) {
+        for (String name : names) {
+            flag.accept(getUser(name), true);
         }
     }
 
-    private void addUser(User u) {
-        if (getChannelManager().getUser(u.getNick(), false) == null)
+    private User getUser(String name) {
+        User u = getChannelManager().getUser(name, false);
+        if (u == null) {
+            u = new User(name);
             getChannelManager().addUser(u);
+        }
+        return u;
     }
 
     private ChannelManager getChannelManager() {
@@ -111,7 +171,13 @@ public class UserManager implements HeartbeatThread {
 
     @Override
     public void afterBeat() {
-        toUpdate.reset();
-        beating = false;
+        //the lists are still downloading, the last one schedules the next update
+    }
+
+    @Override
+    public long getCheckDelay() {
+        //nothing to update until a viewer list is opened, or the update wakes this up when it's done
+        if (beating || GUIMain.viewerLists == null || GUIMain.viewerLists.isEmpty()) return -1;
+        return toUpdate.getRemaining();
     }
 }
\ No newline at end of file
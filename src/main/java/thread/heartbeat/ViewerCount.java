@@ -4,49 +4,122 @@ import gui.ChatPane;
 import gui.forms.GUIMain;
 import util.APIRequests;
 import util.Timer;
+import util.log.Log;
 
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
 
 /**
  * Created by Nick on 7/8/2014.
+ * Polls the stream status of every open channel with one request (per 100 channels),
+ * and shows the viewer counts on the tabs. When nothing changes between polls they
+ * happen less often, up to every MAX_INTERVAL, and a change or a new tab brings
+ * them right back to every MIN_INTERVAL.
+ * <p>
+ * The poll runs on the HttpClient pool, so a slow API doesn't hold up the heartbeat;
+ * the next one is scheduled when it's done.
  */
 public class ViewerCount implements HeartbeatThread {
 
-    private Timer toUpdate;
-    private boolean beating;
+    private static final long MIN_INTERVAL = 3500;
+    private static final long MAX_INTERVAL = 30_000;
+
+    private static volatile long lastPollLatency = -1;
+    private static ViewerCount instance;
+
+    //written by the HttpClient thread that finished the poll
+    private volatile Timer toUpdate;
+    private volatile boolean beating;
+    private long interval = MIN_INTERVAL;
+    private int polledPanes = 0;
+    //polls that failed in a row, only the first one of them is a warning
+    private int failures = 0;
+    private final HashMap<String, Integer> lastCounts = new HashMap<>();
 
     public ViewerCount() {
-        toUpdate = new Timer(3500);
+        toUpdate = new Timer(MIN_INTERVAL);
         beating = false;
+        instance = this;
+    }
+
+    /**
+     * Polls right away, like when a tab was opened or closed.
+     */
+    public static void update() {
+        if (GUIMain.heartbeat != null && instance != null) GUIMain.heartbeat.wake(instance);
+    }
+
+    /**
+     * @return How many milliseconds the last poll took, or -1 if there was none yet.
+     */
+    public static long getLastPollLatency() {
+        return lastPollLatency;
     }
 
     @Override
     public boolean shouldBeat() {
-        return !beating && !toUpdate.isRunning() && GUIMain.chatPanes.size() > 1;
+        if (beating || GUIMain.chatPanes.size() <= 1) return false;
+        //or right away if a tab was opened or closed since the last poll
+        return !toUpdate.isRunning() || GUIMain.chatPanes.size() != polledPanes;
     }
 
     @Override
     public void beat() {
         beating = true;
-        Set<String> keys = GUIMain.chatPanes.keySet();
-        for (String s : keys) {
-            if (s.equalsIgnoreCase("system logs")) continue;
-            ChatPane cp = GUIMain.getChatPane(s);
-            if (cp == null) continue;
-            if (APIRequests.Twitch.isChannelLive(s)) {
-                int count = APIRequests.Twitch.countViewers(s);
-                if (count >= 0) {
-                    cp.setViewerCount(count);
+        polledPanes = GUIMain.chatPanes.size();
+        ArrayList<String> channels = new ArrayList<>();
+        for (String s : GUIMain.chatPanes.keySet()) {
+            if (!s.equalsIgnoreCase("system logs")) channels.add(s);
+        }
+        long start = System.nanoTime();
+        APIRequests.Twitch.pollStreams(channels).whenComplete((statuses, e) -> {
+            if (e != null) {
+                Throwable cause = (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+                if (failures++ == 0) {
+                    Log.warn(Log.Category.API, "Could not poll the viewer counts, trying again less often: " + cause);
+                } else {
+                    Log.debug(Log.Category.API, "Viewer count poll failed again: " + cause);
                 }
+                interval = Math.min(interval * 2, MAX_INTERVAL);
             } else {
-                cp.setViewerCount(-1);
+                if (failures > 0) {
+                    Log.info(Log.Category.API, "Polled the viewer counts again after " + failures + " failed polls.");
+                    failures = 0;
+                }
+                lastPollLatency = (System.nanoTime() - start) / 1_000_000;
+                showCounts(channels, statuses);
             }
+            toUpdate = new Timer(interval);
+            beating = false;
+            update();
+        });
+    }
+
+    private void showCounts(ArrayList<String> channels, Map<String, APIRequests.Twitch.StreamStatus> statuses) {
+        boolean changed = lastCounts.keySet().retainAll(channels);
+        for (String s : channels) {
+            APIRequests.Twitch.StreamStatus status = statuses.get(s.toLowerCase());
+            int count = (status != null && status.isLive()) ? status.getViewers() : -1;
+            Integer before = lastCounts.put(s, count);
+            if (before == null || before != count) changed = true;
+            ChatPane cp = GUIMain.getChatPane(s);
+            if (cp != null) cp.setViewerCount(count);
         }
+        interval = changed ? MIN_INTERVAL : Math.min(interval * 3 / 2, MAX_INTERVAL);
     }
 
     @Override
     public void afterBeat() {
-        toUpdate.reset();
-        beating = false;
+        //the poll is still running, it schedules the next one when it's done
+    }
+
+    @Override
+    public long getCheckDelay() {
+        //only the System Logs are open, nothing to poll until a tab is opened,
+        //or the poll wakes this up when it's done
+        if (beating || GUIMain.chatPanes.size() <= 1) return -1;
+        return toUpdate.getRemaining();
     }
-}
\ No newline at end of file
+}
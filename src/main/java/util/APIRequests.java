@@ -7,20 +7,13 @@ import irc.account.OAuth;
 import lib.JSON.JSONArray;
 import lib.JSON.JSONObject;
 import lib.pircbot.Channel;
+import util.log.Log;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.net.HttpURLConnection;
 import java.net.URL;
-import java.net.URLConnection;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 
-import javax.net.ssl.HttpsURLConnection;
-
 import java.net.URLEncoder;
 //import java.text.DateFormat;
 //import java.text.SimpleDateFormat;
@@ -32,6 +25,13 @@ import java.time.LocalTime;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 //import java.util.Calendar;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -54,17 +54,28 @@ public class APIRequests {
 		public static final String CLIENT_ID = "5xg0sgb6dymmmmbyqwt1zppij5xxpi";
 		public static final String CLIENT_ID_PARAM = "client_id=" + CLIENT_ID;
 
+		//how long answers are reused for, in milliseconds
+		private static final long STREAM_CACHE = 15_000;//live status, viewers, followers
+		private static final long CHANNEL_CACHE = 60_000;//channel info, badges, searches
+		private static final long EMOTE_CACHE = 10 * 60_000;
+		private static final long VIDEO_CACHE = 60 * 60_000;//VODs and clips don't change
+
 		public static String getEmoteSet(String emotes)
 		{
-			return Utils.createAndParseBufferedReader(TWITCH_API + "/chat/emoticon_images?emotesets=" + emotes + "&" + CLIENT_ID_PARAM);
+			return HttpClient.getOrEmpty(TWITCH_API + "/chat/emoticon_images?emotesets=" + emotes + "&" + CLIENT_ID_PARAM, EMOTE_CACHE);
 		}
 
 		/**
-		 * @return The JSON string of every Twitch emote.
+		 * Streams the JSON of every Twitch emote to the given handler. The list is several
+		 * megabytes, so it is parsed as it downloads instead of being read into a String.
+		 *
+		 * @param handler What reads the emotes, usually with a JSONStreamReader.
+		 * @return What the handler returned.
+		 * @throws IOException If the request failed.
 		 */
-		public static String getAllEmotes()
+		public static <T> T getAllEmotes(HttpClient.BodyHandler<T> handler) throws IOException
 		{
-			return Utils.createAndParseBufferedReader(TWITCH_API + "/chat/emoticon_images?" + CLIENT_ID_PARAM);
+			return HttpClient.stream(new HttpClient.Request(TWITCH_API + "/chat/emoticon_images?" + CLIENT_ID_PARAM), handler);
 		}
 
 		/**
@@ -93,15 +104,13 @@ public class APIRequests {
 				//                        }
 				//                    }
 				//                }
-				URL toRead = new URL(TWITCH_API + "/channels/" + channel.replaceAll("#", "") + "?" + CLIENT_ID_PARAM);
-				String line = Utils.createAndParseBufferedReader(toRead.openStream());
+				String line = HttpClient.get(TWITCH_API + "/channels/" + channel.replaceAll("#", "") + "?" + CLIENT_ID_PARAM, CHANNEL_CACHE);
 				if (!line.isEmpty())
 				{
 					JSONObject init = new JSONObject(line);
 					if ( init.has("_id")) {
 						String _id = init.getInt("_id") + "";
-						toRead = new URL("https://badges.twitch.tv/v1/badges/channels/" + _id + "/display");
-						line = Utils.createAndParseBufferedReader(toRead.openStream());
+						line = HttpClient.get("https://badges.twitch.tv/v1/badges/channels/" + _id + "/display", CHANNEL_CACHE);
 						if (!line.isEmpty()) {
 							init = new JSONObject(line);
 							if (init.getJSONObject("badge_sets").has("subscriber")){
@@ -155,10 +164,141 @@ public class APIRequests {
 				}
 			} catch (Exception e)
 			{
-				GUIMain.log(e);
+				GUIMain.log(Log.Category.API, e);
+			}
+			return toReturn;
+
+		}
+
+		/**
+		 * What a channel's stream was doing when it was last polled.
+		 */
+		public static class StreamStatus {
+			private final boolean live, preview;
+			private final int viewers;
+			private final String createdAt, title, game;
+			private final long time;
+
+			StreamStatus(JSONObject stream) {
+				live = true;
+				preview = !stream.isNull("preview");
+				viewers = stream.getInt("viewers");
+				createdAt = stream.getString("created_at");
+				JSONObject channel = stream.getJSONObject("channel");
+				title = channel.isNull("status") ? "" : channel.getString("status");
+				game = channel.isNull("game") ? "" : channel.getString("game");
+				time = System.currentTimeMillis();
+			}
+
+			StreamStatus() {
+				live = preview = false;
+				viewers = -1;
+				createdAt = title = game = null;
+				time = System.currentTimeMillis();
+			}
+
+			public boolean isLive() {
+				return live;
+			}
+
+			/**
+			 * @return True if the stream has a preview, which a stream that was only just
+			 * started (or is ending) is listed without.
+			 */
+			public boolean hasPreview() {
+				return preview;
+			}
+
+			/**
+			 * @return The amount of viewers, or -1 if the stream is offline.
+			 */
+			public int getViewers() {
+				return viewers;
+			}
+
+			public String getCreatedAt() {
+				return createdAt;
+			}
+
+			public String getTitle() {
+				return title;
+			}
+
+			public String getGame() {
+				return game;
+			}
+		}
+
+		//the streams endpoint takes up to 100 channels at once
+		private static final int STREAMS_PER_REQUEST = 100;
+		//how long a poll answers for the other stream requests
+		private static final long SNAPSHOT_TIME = 10_000;
+		private static final ConcurrentHashMap<String, StreamStatus> streamSnapshot = new ConcurrentHashMap<>();
+
+		/**
+		 * Gets the status of the streams of all of the given channels, with one request per
+		 * 100 channels. The answers are kept for a few seconds and used by isChannelLive,
+		 * countViewers, getUptimeString and getStatusOfStream in the meantime.
+		 *
+		 * The requests run on the HttpClient pool, the calling thread doesn't wait for them.
+		 *
+		 * @param channels The channels, with or without the hashtag.
+		 * @return The status of every channel, keyed by lowercase name without the hashtag, or
+		 * an exception (wrapped in a CompletionException) if any of the requests failed.
+		 */
+		public static CompletableFuture<Map<String, StreamStatus>> pollStreams(Collection<String> channels) {
+			ArrayList<String> names = new ArrayList<>();
+			for (String channel : channels) {
+				String name = channel.replace("#", "").toLowerCase();
+				if (!name.isEmpty() && !names.contains(name)) names.add(name);
+			}
+			ArrayList<CompletableFuture<Map<String, StreamStatus>>> polls = new ArrayList<>();
+			for (int i = 0; i < names.size(); i += STREAMS_PER_REQUEST) {
+				List<String> batch = names.subList(i, Math.min(names.size(), i + STREAMS_PER_REQUEST));
+				HttpClient.Request request = new HttpClient.Request(TWITCH_API + "/streams?channel="
+						+ String.join(",", batch) + "&limit=" + STREAMS_PER_REQUEST + "&" + CLIENT_ID_PARAM);
+				polls.add(HttpClient.executeAsync(request).thenApply(result -> readStreams(request, result, batch)));
+			}
+			return CompletableFuture.allOf(polls.toArray(new CompletableFuture[polls.size()])).thenApply(done -> {
+				HashMap<String, StreamStatus> toReturn = new HashMap<>();
+				for (CompletableFuture<Map<String, StreamStatus>> poll : polls) {
+					toReturn.putAll(poll.join());
+				}
+				streamSnapshot.putAll(toReturn);
+				return toReturn;
+			});
+		}
+
+		/**
+		 * @return The status of every channel of the batch, offline for the ones that weren't in the answer.
+		 */
+		private static Map<String, StreamStatus> readStreams(HttpClient.Request request, HttpClient.Result result,
+		                                                     List<String> batch) {
+			if (!result.isSuccessful()) {
+				throw new CompletionException(new IOException("Server returned HTTP response code: "
+						+ result.getCode() + " for URL: " + request.getURL()));
+			}
+			HashMap<String, StreamStatus> toReturn = new HashMap<>();
+			JSONArray streams = new JSONObject(result.getBody()).getJSONArray("streams");
+			for (int j = 0; j < streams.length(); j++) {
+				JSONObject stream = streams.getJSONObject(j);
+				toReturn.put(stream.getJSONObject("channel").getString("name").toLowerCase(), new StreamStatus(stream));
+			}
+			for (String name : batch) {
+				if (!toReturn.containsKey(name)) toReturn.put(name, new StreamStatus());
 			}
 			return toReturn;
+		}
 
+		/**
+		 * @param channel The channel, with or without the hashtag.
+		 * @return The status of the channel's stream from the last poll, or null if it hasn't
+		 * been polled in the last few seconds.
+		 */
+		public static StreamStatus getStreamSnapshot(String channel) {
+			StreamStatus status = streamSnapshot.get(channel.replace("#", "").toLowerCase());
+			if (status == null || System.currentTimeMillis() - status.time > SNAPSHOT_TIME) return null;
+			return status;
 		}
 
 		/**
@@ -170,26 +310,27 @@ public class APIRequests {
 			if (channelName.contains("#")) channelName = channelName.replace("#", "");
 			Response toReturn = new Response();
 			try {
-				URL twitch = new URL(TWITCH_API + "/streams/" + channelName	+ "?" + CLIENT_ID_PARAM);
-				String line = Utils.createAndParseBufferedReader(twitch.openStream());
-				if (line != null){
+				StreamStatus snapshot = getStreamSnapshot(channelName);
+				String createdAt = null;
+				if (snapshot != null) {
+					createdAt = snapshot.isLive() ? snapshot.getCreatedAt() : null;
+				} else {
+					String line = HttpClient.get(TWITCH_API + "/streams/" + channelName	+ "?" + CLIENT_ID_PARAM, STREAM_CACHE);
 					JSONObject jsonObject = new JSONObject(line);
-					if (jsonObject.isNull("stream")) { 
-						toReturn.setResponseText("The stream is not live!");
-					} else {
-						JSONObject stream = jsonObject.getJSONObject("stream");
-						String createdAt = stream.getString("created_at");
-						Instant now = Instant.now();
-						Instant then = Instant.parse(createdAt);
-						long diff = Duration.between(then, now).getSeconds();
-						int hours = (int) diff/3600;
-						int minutes = (int) (diff - (3600 * hours)) / 60;
-						int seconds = (int) diff - (3600 * hours) - (60 * minutes);
-						toReturn.setResponseText("The stream has been live for " + 
-						(hours > 0 ? hours + "h " : "") + minutes + "m " + seconds + "s.");
-					}
+					if (!jsonObject.isNull("stream")) createdAt = jsonObject.getJSONObject("stream").getString("created_at");
+				}
+				if (createdAt == null) {
+					toReturn.setResponseText("The stream is not live!");
+				} else {
+					Instant now = Instant.now();
+					Instant then = Instant.parse(createdAt);
+					long diff = Duration.between(then, now).getSeconds();
+					int hours = (int) diff/3600;
+					int minutes = (int) (diff - (3600 * hours)) / 60;
+					int seconds = (int) diff - (3600 * hours) - (60 * minutes);
+					toReturn.setResponseText("The stream has been live for " + 
+					(hours > 0 ? hours + "h " : "") + minutes + "m " + seconds + "s.");
 				}
-
 			} catch (Exception ignored) {
 				toReturn.setResponseText("Error checking uptime due to Exception!");
 			}
@@ -203,10 +344,11 @@ public class APIRequests {
 		 * @return true if the specified channel is live and streaming, else false.
 		 */
 		public static boolean isChannelLive(String channelName) {
+			StreamStatus snapshot = getStreamSnapshot(channelName);
+			if (snapshot != null) return snapshot.isLive() && snapshot.hasPreview();
 			boolean isLive = false;
 			try {
-				URL twitch = new URL(TWITCH_API + "/streams/" + channelName + "?" + CLIENT_ID_PARAM);
-				String line = Utils.createAndParseBufferedReader(twitch.openStream());
+				String line = HttpClient.get(TWITCH_API + "/streams/" + channelName + "?" + CLIENT_ID_PARAM, STREAM_CACHE);
 				if (line != null) {
 					JSONObject jsonObject = new JSONObject(line);
 					isLive = !jsonObject.isNull("stream") && !jsonObject.getJSONObject("stream").isNull("preview");
@@ -223,10 +365,11 @@ public class APIRequests {
 		 * @return The int amount of viewers watching the given channel.
 		 */
 		public static int countViewers(String channelName) {
+			StreamStatus snapshot = getStreamSnapshot(channelName);
+			if (snapshot != null) return snapshot.isLive() ? snapshot.getViewers() : -1;
 			int count = -1;
 			try {//this could be parsed with JSON, but patterns work, and if it ain't broke...
-				URL twitch = new URL(TWITCH_API + "/streams/" + channelName + "?" + CLIENT_ID_PARAM);
-				String line = Utils.createAndParseBufferedReader(twitch.openStream());
+				String line = HttpClient.get(TWITCH_API + "/streams/" + channelName + "?" + CLIENT_ID_PARAM, STREAM_CACHE);
 				if (line != null) {
 					Matcher m = Constants.viewerTwitchPattern.matcher(line);
 					if (m.find()) {
@@ -252,8 +395,13 @@ public class APIRequests {
 			String[] toRet = new String[2];
 			try {
 				if (channel.contains("#")) channel = channel.replace("#", "");
-				URL twitch = new URL(TWITCH_API + "/channels/" + channel + "?" + CLIENT_ID_PARAM);
-				String line = Utils.createAndParseBufferedReader(twitch.openStream());
+				StreamStatus snapshot = getStreamSnapshot(channel);
+				if (snapshot != null && snapshot.isLive()) {//offline channels aren't in the snapshot's response
+					toRet[0] = snapshot.getTitle();
+					toRet[1] = snapshot.getGame();
+					return toRet;
+				}
+				String line = HttpClient.get(TWITCH_API + "/channels/" + channel + "?" + CLIENT_ID_PARAM, STREAM_CACHE);
 				if (line != null) {
 					JSONObject base = new JSONObject(line);
 					//these are never null, just blank strings at worst
@@ -261,8 +409,8 @@ public class APIRequests {
 					toRet[1] = base.getString("game");
 				}
 			} catch (Exception e) {
-				GUIMain.log("Failed to get status of stream due to Exception: ");
-				GUIMain.log(e);
+				GUIMain.log(Log.Category.API, "Failed to get status of stream due to Exception: ");
+				GUIMain.log(Log.Category.API, e);
 			}
 			return toRet;
 		}
@@ -345,11 +493,12 @@ public class APIRequests {
 						"?channel[status]=" + URLEncoder.encode(title, "UTF-8") +
 						"&channel[game]=" + URLEncoder.encode(game, "UTF-8") +
 						"&oauth_token=" + key.split(":")[1] + "&_method=put&" + CLIENT_ID_PARAM;
-				URL twitch = new URL(request);
-				String line = Utils.createAndParseBufferedReader(twitch.openStream());
+				String line = HttpClient.get(request);
 				if (!line.isEmpty() && line.contains(title) && line.contains(game)) {
 					toReturn.wasSuccessful();
 				}
+				HttpClient.invalidate(TWITCH_API + "/channels/" + channel + "?" + CLIENT_ID_PARAM);
+				streamSnapshot.remove(channel.toLowerCase());
 			} catch (Exception e) {
 				String error = e.getMessage().length() > 20 ? (e.getMessage().substring(0, e.getMessage().length() / 2) + "...") : e.getMessage();
 				toReturn.setResponseText("Failed to update status due to Exception: " + error);
@@ -371,27 +520,13 @@ public class APIRequests {
 				if ((length % 30) != 0 || length < 30 || length > 180) length = 30;//has to be divisible by 30 seconds
 				if (channel.contains("#")) channel = channel.replace("#", "");
 				String request = TWITCH_API + "/channels/" + channel + "/commercial";
-				URL twitch = new URL(request);
-				HttpURLConnection c = (HttpURLConnection) twitch.openConnection();
-				c.setRequestMethod("POST");
-				c.setDoOutput(true);
-				String toWrite = "length=" + length;
-				c.setRequestProperty("Client-ID", CLIENT_ID_PARAM.split("=")[1]);
-				c.setRequestProperty("Authorization", "OAuth " + key.split(":")[1]);
-				c.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-				c.setRequestProperty("Content-Length", String.valueOf(toWrite.length()));
-				OutputStreamWriter op = new OutputStreamWriter(c.getOutputStream());
-				op.write(toWrite);
-				op.close();
-				try {
-					int response = c.getResponseCode();
-					toReturn = (response == 204);
-				} catch (Exception e) {
-					GUIMain.log(e);
-				}
-				c.disconnect();
+				HttpClient.Result result = HttpClient.execute(new HttpClient.Request(request)
+						.header("Client-ID", CLIENT_ID)
+						.header("Authorization", "OAuth " + key.split(":")[1])
+						.body("length=" + length, "application/x-www-form-urlencoded"));
+				toReturn = (result.getCode() == 204);
 			} catch (Exception e) {
-				GUIMain.log(e);
+				GUIMain.log(Log.Category.API, e);
 			}
 			return toReturn;
 		}
@@ -411,8 +546,7 @@ public class APIRequests {
 				if (m.find()) {
 					ID = m.group().split("/")[2];
 				}
-				URL request = new URL(TWITCH_API + "/videos/" + ID + "?" + CLIENT_ID_PARAM);
-				String line = Utils.createAndParseBufferedReader(request.openStream());
+				String line = HttpClient.get(TWITCH_API + "/videos/" + ID + "?" + CLIENT_ID_PARAM, VIDEO_CACHE);
 				if (!line.isEmpty()){
 					JSONObject init = new JSONObject(line);
 					String title = init.getString("title");
@@ -429,7 +563,6 @@ public class APIRequests {
 
 		public static Response getTwitchClipInfo(String URL){
 			Response toReturn = new Response();
-			HttpURLConnection connection;
 			try {
 				String slug = "";
 				Pattern p  = Pattern.compile("clips.twitch.tv/([^&\\?/]+)");
@@ -437,11 +570,8 @@ public class APIRequests {
 				if (m.find()) {
 					slug = m.group().split("/")[1];
 				}
-				URL request = new URL(TWITCH_API + "/clips/" + slug + "?" + CLIENT_ID_PARAM);
-				connection= (HttpURLConnection) request.openConnection();
-				connection.setRequestProperty("Accept", "application/vnd.twitchtv.v5+json");
-				String line = Utils.createAndParseBufferedReader(connection.getInputStream());
-				connection.disconnect();
+				String line = HttpClient.getBody(new HttpClient.Request(TWITCH_API + "/clips/" + slug + "?" + CLIENT_ID_PARAM)
+						.header("Accept", "application/vnd.twitchtv.v5+json").cache(VIDEO_CACHE));
 				if (!line.isEmpty()){
 					JSONObject init = new JSONObject(line);
 					String title = init.getString("title");
@@ -467,13 +597,10 @@ public class APIRequests {
 		public static JSONObject getUserSubs(String oath, int passesCompleted){
 			JSONObject toReturn = null;
 			try {
-				URL request = new URL("http://api.twitch.tv/api/users/palehors68/tickets?limit=20&offset=0&unended=true&on_site=1&oauth_token=" + oath);
-				BufferedReader br = new BufferedReader(new InputStreamReader(request.openStream()));
-				String line = br.readLine();
-				br.close();
+				String line = HttpClient.get("http://api.twitch.tv/api/users/palehors68/tickets?limit=20&offset=0&unended=true&on_site=1&oauth_token=" + oath);
 				toReturn = new JSONObject(line);
 			} catch (Exception e){
-				GUIMain.log(e);
+				GUIMain.log(Log.Category.API, e);
 			}
 
 
@@ -483,13 +610,10 @@ public class APIRequests {
 		public static JSONObject getEmoteXref() {
 			JSONObject toReturn = null;
 			try {
-				URL request = new URL("https://twitchemotes.com/api_cache/v3/sets.json");
-				BufferedReader br = new BufferedReader(new InputStreamReader(request.openStream()));
-				String line = br.readLine();
-				br.close();
+				String line = HttpClient.get("https://twitchemotes.com/api_cache/v3/sets.json", EMOTE_CACHE);
 				toReturn = new JSONObject(line);
 			} catch (Exception e){
-				GUIMain.log(e);
+				GUIMain.log(Log.Category.API, e);
 			}
 
 			return toReturn;
@@ -505,8 +629,7 @@ public class APIRequests {
 			ArrayList<String> toReturn = new ArrayList<>();
 			try
 			{
-				URL request = new URL(TWITCH_API + "/streams/followed?oauth_token=" + key + "&limit=100&" + CLIENT_ID_PARAM);
-				String line = Utils.createAndParseBufferedReader(request.openStream());
+				String line = HttpClient.get(TWITCH_API + "/streams/followed?oauth_token=" + key + "&limit=100&" + CLIENT_ID_PARAM, STREAM_CACHE);
 				if (!line.isEmpty()) {
 					JSONObject init = new JSONObject(line);
 					JSONArray streams = init.getJSONArray("streams");
@@ -518,8 +641,8 @@ public class APIRequests {
 				}
 			} catch (Exception e) {
 				if (!e.getMessage().contains("401") && !e.getMessage().contains("503")) {
-					GUIMain.log("Failed to get live followed channels due to exception:");
-					GUIMain.log(e);
+					GUIMain.log(Log.Category.API, "Failed to get live followed channels due to exception:");
+					GUIMain.log(Log.Category.API, e);
 				}
 			}
 			return toReturn;
@@ -535,8 +658,7 @@ public class APIRequests {
 			ArrayList<String> toReturn = new ArrayList<>();
 			try
 			{
-				URL request = new URL(TWITCH_API + "/search/channels?limit=10&q=" + partial + "&" + CLIENT_ID_PARAM);
-				String line = Utils.createAndParseBufferedReader(request.openStream());
+				String line = HttpClient.get(TWITCH_API + "/search/channels?limit=10&q=" + partial + "&" + CLIENT_ID_PARAM, CHANNEL_CACHE);
 				if (!line.isEmpty()) {
 					JSONObject init = new JSONObject(line);
 					JSONArray channels = init.getJSONArray("channels");
@@ -546,7 +668,7 @@ public class APIRequests {
 					}
 				}
 			} catch (Exception e) {
-				GUIMain.log(e);
+				GUIMain.log(Log.Category.API, e);
 			}
 			return toReturn.toArray(new String[toReturn.size()]);
 		}
@@ -561,8 +683,7 @@ public class APIRequests {
 			ArrayList<String> toReturn = new ArrayList<>();
 			try
 			{
-				URL request = new URL(TWITCH_API + "/channels/" + channel + "/follows?limit=20&" + CLIENT_ID_PARAM);
-				String line = Utils.createAndParseBufferedReader(request.openStream());
+				String line = HttpClient.get(TWITCH_API + "/channels/" + channel + "/follows?limit=20&" + CLIENT_ID_PARAM, STREAM_CACHE);
 				if (!line.isEmpty()) {
 					JSONObject init = new JSONObject(line);
 					JSONArray follows = init.getJSONArray("follows");
@@ -574,22 +695,18 @@ public class APIRequests {
 				}
 
 			} catch (Exception e) {
-				GUIMain.log(e);
+				GUIMain.log(Log.Category.API, e);
 			}
 			return toReturn.toArray(new String[toReturn.size()]);
 		}
 
 		public static Response getFollowAge(String channel, String user){
 			Response toReturn = new Response();
-			HttpURLConnection connection;
 			try{
-				URL request = new URL("https://api.twitch.tv/helix/users/follows?from_id=" 
-						+ getTwitchUserIDByLoginName(user) 
-						+ "&to_id=" + getTwitchUserIDByLoginName(channel));
-				connection = (HttpURLConnection) request.openConnection();
-				connection.setRequestProperty("Client-ID", CLIENT_ID);
-				String line = Utils.createAndParseBufferedReader(connection.getInputStream());
-				connection.disconnect();
+				String line = HttpClient.getBody(new HttpClient.Request("https://api.twitch.tv/helix/users/follows?from_id="
+						+ getTwitchUserIDByLoginName(user)
+						+ "&to_id=" + getTwitchUserIDByLoginName(channel))
+						.header("Client-ID", CLIENT_ID).cache(STREAM_CACHE));
 
 				if (!line.isEmpty()){
 					JSONObject init = new JSONObject(line);
@@ -615,14 +732,11 @@ public class APIRequests {
 
 
 		public static String getTwitchUserIDByLoginName(String login){
-			HttpURLConnection connection;
 			login = login.replace("#", "");
 			try{
-				//				URL request = new URL("https://api.twitch.tv/helix/users?login=" + login);
-				URL request = new URL("https://api.twitch.tv/helix/users?login=" + login);
-				connection = (HttpURLConnection) request.openConnection();
-				connection.setRequestProperty("Client-ID", CLIENT_ID);
-				String line = Utils.createAndParseBufferedReader(connection.getInputStream());
+				//IDs never change, so they can be reused for as long as the cache keeps them
+				String line = HttpClient.getBody(new HttpClient.Request("https://api.twitch.tv/helix/users?login=" + login)
+						.header("Client-ID", CLIENT_ID).cache(VIDEO_CACHE));
 				if (!line.isEmpty()){
 					JSONObject init = new JSONObject(line);
 					if (init.getJSONArray("data").length() > 0){
@@ -631,7 +745,6 @@ public class APIRequests {
 						return null;
 					}
 				}
-				connection.disconnect();
 			} catch (Exception e) {
 				return null;
 			}
@@ -642,6 +755,9 @@ public class APIRequests {
 
 	//Current playing song
 	public static class LastFM {
+
+		private static final long SONG_CACHE = 10_000;
+
 		/**
 		 * Gets the currently playing song from LastFM, assuming the LastFM account was set up correctly.
 		 *
@@ -656,11 +772,8 @@ public class APIRequests {
 			//TODO check the song requests engine to see if that is currently playing
 			String tracks_url = "http://www.last.fm/user/" + GUIMain.currentSettings.lastFMAccount + "/now";
 			try {
-				URL request = new URL("http://ws.audioscrobbler.com/2.0/?method=user.getrecenttracks&user=" +
-						GUIMain.currentSettings.lastFMAccount + "&api_key=e0d3467ebb54bb110787dd3d77705e1a&format=json");
-				BufferedReader br = new BufferedReader(new InputStreamReader(request.openStream()));
-				String line = br.readLine();
-				br.close();
+				String line = HttpClient.get("http://ws.audioscrobbler.com/2.0/?method=user.getrecenttracks&user=" +
+						GUIMain.currentSettings.lastFMAccount + "&api_key=e0d3467ebb54bb110787dd3d77705e1a&format=json", SONG_CACHE);
 				JSONObject outermost = new JSONObject(line);
 				JSONObject recentTracks = outermost.getJSONObject("recenttracks");
 				JSONArray songsArray = recentTracks.getJSONArray("track");
@@ -688,6 +801,9 @@ public class APIRequests {
 
 	//Youtube video data
 	public static class YouTube {
+
+		private static final long VIDEO_CACHE = 60 * 60_000;
+
 		/**
 		 * Fetches the title, author, and duration of a linked YouTube video.
 		 *
@@ -714,13 +830,10 @@ public class APIRequests {
 				if (m.find()) {
 					ID = m.group(1);
 				}
-				URL request = new URL("https://www.googleapis.com/youtube/v3/videos?id=" + ID +
+				String line = HttpClient.get("https://www.googleapis.com/youtube/v3/videos?id=" + ID +
 						"&part=snippet,contentDetails&key=" + GUIMain.currentSettings.youTubeKey +
-						"&fields=items(snippet(title,channelTitle),contentDetails(duration))");
-				BufferedReader br = new BufferedReader(new InputStreamReader(request.openStream()));
-				StringBuilder sb = new StringBuilder();
-				Utils.parseBufferedReader(br, sb, false);
-				JSONObject initial = new JSONObject(sb.toString());
+						"&fields=items(snippet(title,channelTitle),contentDetails(duration))", VIDEO_CACHE);
+				JSONObject initial = new JSONObject(line);
 				JSONArray items = initial.getJSONArray("items");
 				if (items.length() < 1) {
 					toReturn.setResponseText("Failed to parse YouTube video! Perhaps a bad ID?");
@@ -767,29 +880,26 @@ public class APIRequests {
 			toReturn.setResponseText("Failed to un-shorten URL! Click with caution!");
 			try {
 				//                URL request = new URL("https://therealurl.appspot.com/?url=" + shortenedURL);
-				URL request = new URL("http://api.unshorten.it/?shortURL=" + shortenedURL + "&apiKey=" + key);
-				URLConnection connection = request.openConnection();
-				connection.setRequestProperty("User-Agent", "Mozilla/5.0 (Windows NT 6.1; WOW64) AppleWebKit/537.11 (KHTML, like Gecko) Chrome/23.0.1271.95 Safari/537.11");
-				connection.connect();
-				BufferedReader br = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-				String line = br.readLine();
-				br.close();
+				String body = HttpClient.getBody(new HttpClient.Request("http://api.unshorten.it/?shortURL=" + shortenedURL + "&apiKey=" + key)
+						.header("User-Agent", "Mozilla/5.0 (Windows NT 6.1; WOW64) AppleWebKit/537.11 (KHTML, like Gecko) Chrome/23.0.1271.95 Safari/537.11")
+						.cache(60 * 60_000));
+				String line = body.isEmpty() ? null : body.split("\r?\n")[0];
 				if (line != null) {
 					if (line.startsWith("error (")){
 						String error = line.substring(7, 8);
 						switch (error) {
 						case "0":
-							GUIMain.log("unshorten.it API Error: URL passed incorrectly");
+							GUIMain.log(Log.Category.API, "unshorten.it API Error: URL passed incorrectly");
 							break;
 						case "1":
-							GUIMain.log("unshorten.it API Error: invalid responseFormat parameter in API call");
+							GUIMain.log(Log.Category.API, "unshorten.it API Error: invalid responseFormat parameter in API call");
 							break;
 						case "2":
-							GUIMain.log("unshorten.it API Error: invalid return parameter in API call");
+							GUIMain.log(Log.Category.API, "unshorten.it API Error: invalid return parameter in API call");
 							break;
 							// case 3 basically means the service couldn't unshorten the link. we just pass back the default message
 						case "4":
-							GUIMain.log("unshorten.it API Error: Invalid API Key");
+							GUIMain.log(Log.Category.API, "unshorten.it API Error: Invalid API Key");
 							break;
 						}
 						return toReturn;
@@ -803,7 +913,7 @@ public class APIRequests {
 					}
 				}
 			} catch (Exception ignored) {
-				GUIMain.log(ignored.getMessage());
+				GUIMain.log(Log.Category.API, ignored.getMessage());
 			}
 			return toReturn;
 		}
@@ -831,6 +941,7 @@ public class APIRequests {
 		private static final String oathEndpointURL = "https://api.twitter.com/oauth2/token";
 		private static final String tweetEndpointURL = "https://api.twitter.com/1.1/statuses/show.json";
 		private static String bearerToken;
+		private static final long TWEET_CACHE = 10 * 60_000;
 		// https://twitter.com/Jodenstone/status/740016789648605184
 
 
@@ -878,7 +989,7 @@ public class APIRequests {
 				}
 
 			} catch (Exception e){
-				GUIMain.log(e);
+				GUIMain.log(Log.Category.API, e);
 			}
 
 			return toReturn;
@@ -899,26 +1010,13 @@ public class APIRequests {
 		}
 
 		private static String requestBearerToken(String endpointURL) throws IOException{
-			HttpsURLConnection connection = null;
 			String encodedCredentials = encodeKeys(key, secret);
 
 			try{
-				URL url = new URL(endpointURL);
-				connection = (HttpsURLConnection) url.openConnection();
-				connection.setDoOutput(true);
-				connection.setDoInput(true); 
-				connection.setRequestMethod("POST"); 
-				connection.setRequestProperty("Host", "api.twitter.com");
-				connection.setRequestProperty("User-Agent", "palehorsbot");
-				connection.setRequestProperty("Authorization", "Basic " + encodedCredentials);
-				connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded;charset=UTF-8");
-				connection.setRequestProperty("Content-Length", "29");
-				//				connection.setRequestProperty("Accept-Encoding", "gzip");
-				connection.setUseCaches(false);
-
-				writeRequest(connection, "grant_type=client_credentials");
-
-				String s3 = readResponse(connection);
+				String s3 = HttpClient.getBody(new HttpClient.Request(endpointURL)
+						.header("User-Agent", "palehorsbot")
+						.header("Authorization", "Basic " + encodedCredentials)
+						.body("grant_type=client_credentials", "application/x-www-form-urlencoded;charset=UTF-8"));
 
 				JSONObject obj = new JSONObject(s3); 
 
@@ -934,79 +1032,32 @@ public class APIRequests {
 			} catch (Exception e){
 				throw new IOException("Invalid endpoint URL specified.", e);
 			}
-			finally{
-				if (connection != null){
-					connection.disconnect();
-				}
-			}
 		}
 
 		private static String fetchTimelineTweet(String endpointURL) throws IOException {
-			HttpsURLConnection connection = null;
-
-
 			try{
-				URL url = new URL(endpointURL);
 				if (bearerToken == null || "".equals(bearerToken)){
 					bearerToken = requestBearerToken(oathEndpointURL);
 				}
-				connection = (HttpsURLConnection) url.openConnection();
-				connection.setDoOutput(true);
-				connection.setDoInput(true);
-				connection.setRequestMethod("GET");
-				connection.setRequestProperty("Host", "api.twitter.com");
-				connection.setRequestProperty("User-Agent", "palehorsbot");
-				connection.setRequestProperty("Authorization", "Bearer " + bearerToken);
-				connection.setUseCaches(false);
-
-				return readResponse(connection);
-
-				//    			return new String();
+				return HttpClient.getBody(new HttpClient.Request(endpointURL)
+						.header("User-Agent", "palehorsbot")
+						.header("Authorization", "Bearer " + bearerToken)
+						.cache(TWEET_CACHE));
 			} catch (Exception e) {
 				throw new IOException("Invalid endpoint URL specified.", e);
 			}
-			finally {
-				if (connection != null){
-					connection.disconnect();
-				}
-			}
-		}
-
-		private static boolean writeRequest(HttpsURLConnection connection, String textBody) {
-			try {
-				BufferedWriter wr = new BufferedWriter(new OutputStreamWriter(connection.getOutputStream()));
-				wr.write(textBody);
-				wr.flush();
-				wr.close();
-
-				return true;
-			}
-			catch (IOException e) { return false; }
-		}
-
-		private static String readResponse(HttpsURLConnection connection) {
-			try {
-				StringBuilder str = new StringBuilder();
-
-				BufferedReader br = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-				String line = "";
-				while((line = br.readLine()) != null) {
-					str.append(line + System.getProperty("line.separator"));
-				}
-				return str.toString();
-			}
-			catch (IOException e) { return new String(); }
 		}
 
 	}
 
 	public static class SpeedRun{
 
+		//records don't fall that often, and one !wr asks for a lot of these
+		private static final long SPEEDRUN_CACHE = 5 * 60_000;
 
 		private static JSONObject getJSONFromURI(String URI){
 			try{
-				URL url = new URL(URI);
-				String line = Utils.createAndParseBufferedReader(url.openStream());
+				String line = HttpClient.get(URI, SPEEDRUN_CACHE);
 				if (line != null){
 					return new JSONObject(line);
 				}
@@ -1036,13 +1087,12 @@ public class APIRequests {
 				return userName;
 			}
 			try{
-				URL playerURL = new URL(URI);
-				String line = Utils.createAndParseBufferedReader(playerURL.openStream());
+				String line = HttpClient.get(URI, SPEEDRUN_CACHE);
 				JSONObject player = new JSONObject(line);
 				toReturn = player.getJSONObject("data").getJSONObject("names").getString("international");
 			} catch (Exception e) {
-				GUIMain.log("Unable to get WR player from " + URI);
-				GUIMain.log(e);
+				GUIMain.log(Log.Category.API, "Unable to get WR player from " + URI);
+				GUIMain.log(Log.Category.API, e);
 			}
 
 			return toReturn;
@@ -1105,22 +1155,18 @@ public class APIRequests {
 			String apiVars = "categories/%CAT%/variables";
 			String apiLBVarsAppend = "&var-%ID%=%VAR%";
 			try {
-				URL url = new URL(apiBase + apiLB.replace("%GAME%", game).replace("%CAT%", category));
-				BufferedReader br;
+				String line;
 				try{
-					br = new BufferedReader(new InputStreamReader(url.openStream()));
+					line = HttpClient.get(apiBase + apiLB.replace("%GAME%", game).replace("%CAT%", category), SPEEDRUN_CACHE);
 				} catch (Exception e) {
-					url = new URL(apiRecs.replace("%GAME%", game));
-					br = new BufferedReader(new InputStreamReader(url.openStream()));
+					line = HttpClient.get(apiRecs.replace("%GAME%", game), SPEEDRUN_CACHE);
 					multi = true;
 				}
-				StringBuilder sb = new StringBuilder();
-				Utils.parseBufferedReader(br, sb, false);
-				if (sb.toString().equals("{}")) return null;
+				if (line.trim().equals("{}")) return null;
 				if (!multi){
-					toReturn =  getDetailsFromJSONData(new JSONObject(sb.toString()));
+					toReturn =  getDetailsFromJSONData(new JSONObject(line));
 				} else {
-					JSONObject first = new JSONObject(sb.toString());
+					JSONObject first = new JSONObject(line);
 					JSONObject multiJ = first.getJSONObject(first.keys().next());
 					Iterator<?> keys = multiJ.keys();
 					String URI = "";
@@ -1142,7 +1188,7 @@ public class APIRequests {
 					String label = "";
 					toReturn[6] = toReturn[7]= toReturn[8] = "";
 					try{
-						String line = Utils.createAndParseBufferedReader(apiBase + apiVars.replace("%CAT%", toReturn[4]));
+						line = HttpClient.get(apiBase + apiVars.replace("%CAT%", toReturn[4]), SPEEDRUN_CACHE);
 						JSONObject varsJ = new JSONObject(line);
 
 						for (int i = 0; i < varsJ.getJSONArray("data").length(); i++) {
@@ -1170,26 +1216,23 @@ public class APIRequests {
 						if ( !toReturn[6].equals("") && !toReturn[7].equals("")){							
 							try{
 								label = toReturn[8];
-								url = new URL(apiBase + apiLB.replace("%GAME%", toReturn[5]).replace("%CAT%",toReturn[4]) + apiLBVarsAppend.replace("%ID%", toReturn[6]).replace("%VAR%", toReturn[7]));
-								br = new BufferedReader(new InputStreamReader(url.openStream()));
-								sb = new StringBuilder();
-								Utils.parseBufferedReader(br, sb, false);
-								if (sb.toString().equals("{}")) return toReturn;
-								toReturn = getDetailsFromJSONData(new JSONObject(sb.toString()));
+								line = HttpClient.get(apiBase + apiLB.replace("%GAME%", toReturn[5]).replace("%CAT%",toReturn[4]) + apiLBVarsAppend.replace("%ID%", toReturn[6]).replace("%VAR%", toReturn[7]), SPEEDRUN_CACHE);
+								if (line.trim().equals("{}")) return toReturn;
+								toReturn = getDetailsFromJSONData(new JSONObject(line));
 								toReturn[8] = label;
 							} catch (Exception e) {
-								GUIMain.log(e);
+								GUIMain.log(Log.Category.API, e);
 							}
 
 
 						}
 					} catch (Exception e) {
-						GUIMain.log(e);
+						GUIMain.log(Log.Category.API, e);
 					}
 				}
 
 			} catch (Exception e) {
-				GUIMain.log(e);
+				GUIMain.log(Log.Category.API, e);
 			}
 
 			return toReturn;
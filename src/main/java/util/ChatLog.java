@@ -0,0 +1,245 @@
+package util;
+
+import gui.forms.GUIMain;
+import lib.pircbot.Queue;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the chat of every channel to its log file (Logs/channel.txt) as the text is
+ * printed, instead of when it's cleaned out of the pane.
+ * <p>
+ * Text is added to a ring buffer, which one background thread drains: everything that
+ * came in since the last time is written in one go, and each file that was written to is
+ * flushed once (a group commit). Every file stays open until its channel is closed. A log
+ * is rotated to channel-date.txt (channel-date-n.txt if that exists) when the day changes
+ * or it grows over MAX_SIZE.
+ */
+public class ChatLog {
+
+    public static final long MAX_SIZE = 8 * 1024 * 1024;
+
+    private static final int BUFFER = 8192;
+    private static final Queue<Entry> queue = new Queue<>(BUFFER);
+    private static Thread writer = null;
+
+    //only touched by the writer thread
+    private static final HashMap<String, Appender> appenders = new HashMap<>();
+    //channels whose log failed, skipped until they're opened again so the error isn't logged forever
+    private static final HashSet<String> failed = new HashSet<>();
+
+    private enum Type {
+        OPEN, TEXT, CLOSE, CLOSE_ALL
+    }
+
+    private static class Entry {
+        final Type type;
+        final String channel, text;
+        final CountDownLatch done;
+
+        Entry(Type type, String channel, String text, CountDownLatch done) {
+            this.type = type;
+            this.channel = channel;
+            this.text = text;
+            this.done = done;
+        }
+    }
+
+    /**
+     * Starts the log of the given channel, like when it's joined.
+     */
+    public static void open(String channel) {
+        add(new Entry(Type.OPEN, getName(channel), null, null));
+    }
+
+    /**
+     * Logs text printed to the given channel's pane, the whole text of one message
+     * (see MessageWrapper#log). New lines start with '\n'.
+     */
+    public static void append(String channel, String text) {
+        if (text == null || text.isEmpty()) return;
+        add(new Entry(Type.TEXT, getName(channel), text, null));
+    }
+
+    /**
+     * Ends the log of the given channel and closes its file, like when its tab is closed.
+     */
+    public static void close(String channel) {
+        add(new Entry(Type.CLOSE, getName(channel), null, null));
+    }
+
+    /**
+     * Ends and closes every log, waiting (a few seconds at most) for everything logged
+     * before to be written.
+     */
+    public static void shutdown() {
+        if (writer == null) return;
+        CountDownLatch done = new CountDownLatch(1);
+        add(new Entry(Type.CLOSE_ALL, null, null, done));
+        try {
+            done.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private static String getName(String channel) {
+        return channel.startsWith("#") ? channel.substring(1) : channel;
+    }
+
+    private static void add(Entry e) {
+        synchronized (ChatLog.class) {
+            if (writer == null) {
+                writer = new Thread(ChatLog::run, "ChatLog");
+                writer.setDaemon(true);
+                writer.start();
+            }
+        }
+        queue.add(e);
+    }
+
+    private static void run() {
+        ArrayList<Entry> batch = new ArrayList<>();
+        HashSet<Appender> written = new HashSet<>();
+        while (true) {
+            Entry first = queue.next();
+            if (first == null) return;
+            batch.add(first);
+            queue.drainTo(batch, BUFFER);
+            for (Entry e : batch) {
+                try {
+                    handle(e, written);
+                } catch (Exception ex) {
+                    if (e.channel != null) failed.add(e.channel);
+                    GUIMain.log(ex);
+                }
+                if (e.done != null) {
+                    flush(written);
+                    e.done.countDown();
+                }
+            }
+            flush(written);
+            batch.clear();
+        }
+    }
+
+    private static void handle(Entry e, HashSet<Appender> written) throws IOException {
+        switch (e.type) {
+            case OPEN:
+                failed.remove(e.channel);
+                Appender opened = getAppender(e.channel);
+                opened.write("\n====================== " + GUIMain.currentSettings.date + " ======================");
+                written.add(opened);
+                break;
+            case TEXT:
+                if (failed.contains(e.channel)) break;
+                Appender appender = getAppender(e.channel);
+                appender.write(e.text);
+                written.add(appender);
+                break;
+            case CLOSE:
+                Appender a = appenders.remove(e.channel);
+                if (a != null) {
+                    written.remove(a);
+                    a.close();
+                }
+                break;
+            case CLOSE_ALL:
+                for (Appender app : appenders.values()) {
+                    written.remove(app);
+                    try {
+                        app.close();
+                    } catch (IOException ex) {
+                        GUIMain.log(ex);
+                    }
+                }
+                appenders.clear();
+                break;
+        }
+    }
+
+    private static void flush(HashSet<Appender> written) {
+        for (Appender a : written) {
+            try {
+                a.flush();
+            } catch (IOException e) {
+                GUIMain.log(e);
+            }
+        }
+        written.clear();
+    }
+
+    private static Appender getAppender(String channel) throws IOException {
+        Appender a = appenders.get(channel);
+        if (a == null) {
+            a = new Appender(new File(GUIMain.currentSettings.logDir, channel + ".txt"));
+            appenders.put(channel, a);
+        }
+        return a;
+    }
+
+    /**
+     * One open log file.
+     */
+    private static class Appender {
+        private final File file;
+        private BufferedWriter out;
+        private LocalDate day;
+        private long size;
+
+        Appender(File file) throws IOException {
+            this.file = file;
+            open();
+        }
+
+        private void open() throws IOException {
+            out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            size = file.length();
+            day = (size > 0) ? Instant.ofEpochMilli(file.lastModified()).atZone(ZoneId.systemDefault()).toLocalDate()
+                    : LocalDate.now();
+        }
+
+        void write(String text) throws IOException {
+            if (text.indexOf('\n') != -1 && (!day.equals(LocalDate.now()) || size > MAX_SIZE)) rotate();
+            out.write(text);
+            size += text.length();
+        }
+
+        void flush() throws IOException {
+            out.flush();
+        }
+
+        /**
+         * Moves the log aside under the day it's from, and starts a new one.
+         */
+        private void rotate() throws IOException {
+            out.close();
+            String name = file.getName().substring(0, file.getName().length() - 4) + "-" + day;
+            File moved = new File(file.getParentFile(), name + ".txt");
+            for (int i = 2; moved.exists(); i++) {
+                moved = new File(file.getParentFile(), name + "-" + i + ".txt");
+            }
+            Files.move(file.toPath(), moved.toPath());
+            open();
+        }
+
+        void close() throws IOException {
+            out.write("\n====================== End of " + GUIMain.currentSettings.date
+                    + " ======================");
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,504 @@
+package util;
+
+import gui.forms.GUIMain;
+import util.log.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The one place Botnak talks HTTP through, used by the APIRequests.
+ * <p>
+ * Every request has connect and read timeouts, and no more than MAX_PER_HOST requests
+ * go to the same host at once. Bodies are always read to the end, so the JVM keeps the
+ * connection alive for the next request to that host. GETs can be cached for a while:
+ * fresh entries are answered from memory, and stale ones are checked with the server
+ * (If-None-Match / If-Modified-Since) before being downloaded again.
+ * <p>
+ * Requests run on the calling thread, or on a small pool with {@link #executeAsync(Request)}
+ * and {@link #streamAsync(Request, BodyHandler)}.
+ * Hosts can be pointed somewhere else with {@link #setOverride(String, String)}, like a
+ * local stub server.
+ */
+public class HttpClient {
+
+    public static final int CONNECT_TIMEOUT = 5000;
+    public static final int READ_TIMEOUT = 10000;
+    public static final int MAX_PER_HOST = 4;
+    public static final int CACHE_SIZE = 128;
+
+    private static final ExecutorService pool = Executors.newFixedThreadPool(MAX_PER_HOST * 2, new ThreadFactory());
+    private static final ConcurrentHashMap<String, Semaphore> hostLimits = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, String> overrides = new ConcurrentHashMap<>();
+
+    //request headers that change what the server answers, they're part of the cache key
+    private static final String[] KEY_HEADERS = {"Accept", "Accept-Language", "Client-ID", "Authorization"};
+
+    //keyed by URL and KEY_HEADERS, least recently used entries are dropped first
+    private static final Map<String, CacheEntry> cache =
+            new LinkedHashMap<String, CacheEntry>(32, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            };
+
+    private static final AtomicLong requests = new AtomicLong(0);
+    private static final AtomicLong cacheHits = new AtomicLong(0);
+    private static final AtomicLong notModified = new AtomicLong(0);
+
+    static {
+        //idle keep-alive connections kept per host, the JVM's default is 5
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(MAX_PER_HOST));
+        }
+    }
+
+    /**
+     * An HTTP request. Without a method or body set it is a GET.
+     */
+    public static class Request {
+        private final String url;
+        private String method = "GET";
+        private String body = null;
+        private long cacheTime = 0;
+        private int readTimeout = READ_TIMEOUT;
+        private final LinkedHashMap<String, String> headers = new LinkedHashMap<>();
+
+        public Request(String url) {
+            this.url = url;
+        }
+
+        public Request header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        /**
+         * Makes this request send the given body, as a POST unless another method is set.
+         */
+        public Request body(String body, String contentType) {
+            this.body = body;
+            if ("GET".equals(method)) method = "POST";
+            return header("Content-Type", contentType);
+        }
+
+        public Request method(String method) {
+            this.method = method;
+            return this;
+        }
+
+        /**
+         * Caches a successful GET for the given milliseconds, 0 (the default) to not cache it.
+         */
+        public Request cache(long millis) {
+            this.cacheTime = millis;
+            return this;
+        }
+
+        /**
+         * Gives up on the response after the given milliseconds without data, READ_TIMEOUT by default.
+         */
+        public Request timeout(int millis) {
+            this.readTimeout = millis;
+            return this;
+        }
+
+        public String getURL() {
+            return url;
+        }
+
+        private boolean isCacheable() {
+            return cacheTime > 0 && "GET".equals(method) && body == null;
+        }
+
+        /**
+         * @return The URL, and the KEY_HEADERS this request sends, one per line.
+         */
+        private String getCacheKey() {
+            StringBuilder key = new StringBuilder(url);
+            for (String name : KEY_HEADERS) {
+                for (Map.Entry<String, String> header : headers.entrySet()) {
+                    if (header.getKey().equalsIgnoreCase(name)) {
+                        key.append('\n').append(name).append(": ").append(header.getValue());
+                    }
+                }
+            }
+            return key.toString();
+        }
+    }
+
+    /**
+     * What the server answered.
+     */
+    public static class Result {
+        private final int code;
+        private final String body;
+        private final boolean cached;
+
+        Result(int code, String body, boolean cached) {
+            this.code = code;
+            this.body = body;
+            this.cached = cached;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        /**
+         * @return The body, or the error body if the request didn't succeed. Never null.
+         */
+        public String getBody() {
+            return body;
+        }
+
+        public boolean isSuccessful() {
+            return code >= 200 && code < 300;
+        }
+
+        /**
+         * @return True if the body came from the cache, with or without checking with the server.
+         */
+        public boolean isCached() {
+            return cached;
+        }
+    }
+
+    private static class CacheEntry {
+        final String body, eTag, lastModified;
+        volatile long expires;
+
+        CacheEntry(String body, String eTag, String lastModified, long expires) {
+            this.body = body;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * Gets the body of the given URL, like URL#openStream would.
+     *
+     * @param url The URL to get.
+     * @return The body.
+     * @throws IOException If the request failed or the server answered with an error.
+     */
+    public static String get(String url) throws IOException {
+        return get(url, 0);
+    }
+
+    /**
+     * Gets the body of the given URL, cached for the given milliseconds.
+     *
+     * @param url       The URL to get.
+     * @param cacheTime How long the body may be reused for.
+     * @return The body.
+     * @throws IOException If the request failed or the server answered with an error.
+     */
+    public static String get(String url, long cacheTime) throws IOException {
+        return getBody(new Request(url).cache(cacheTime));
+    }
+
+    /**
+     * Gets the body of the given URL, cached for the given milliseconds, and logs
+     * the exception if the request failed.
+     *
+     * @return The body, or an empty String if the request failed.
+     */
+    public static String getOrEmpty(String url, long cacheTime) {
+        try {
+            return get(url, cacheTime);
+        } catch (Exception e) {
+            GUIMain.log(Log.Category.API, "Could not read " + url + " due to exception: ");
+            GUIMain.log(Log.Category.API, e);
+            return "";
+        }
+    }
+
+    /**
+     * @return The body of the request.
+     * @throws IOException If the request failed or the server answered with an error.
+     */
+    public static String getBody(Request request) throws IOException {
+        Result result = execute(request);
+        if (!result.isSuccessful()) {
+            throw new IOException("Server returned HTTP response code: " + result.getCode() + " for URL: " + request.url);
+        }
+        return result.getBody();
+    }
+
+    /**
+     * Runs the request on the calling thread.
+     *
+     * @param request The request.
+     * @return What the server answered, errors included.
+     * @throws IOException If the server could not be reached.
+     */
+    public static Result execute(Request request) throws IOException {
+        CacheEntry entry = null;
+        String key = request.isCacheable() ? request.getCacheKey() : null;
+        if (key != null) {
+            synchronized (cache) {
+                entry = cache.get(key);
+            }
+            if (entry != null && entry.expires > System.currentTimeMillis()) {
+                cacheHits.incrementAndGet();
+                return new Result(200, entry.body, true);
+            }
+        }
+        URL url = new URL(rewrite(request.url));
+        Semaphore limit = acquire(url);
+        try {
+            HttpURLConnection c = open(url, request, entry);
+            int code = c.getResponseCode();
+            String body = read(c, code);
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && entry != null) {
+                notModified.incrementAndGet();
+                entry.expires = System.currentTimeMillis() + request.cacheTime;
+                return new Result(200, entry.body, true);
+            }
+            if (code == HttpURLConnection.HTTP_OK && key != null) {
+                synchronized (cache) {
+                    cache.put(key, new CacheEntry(body, c.getHeaderField("ETag"),
+                            c.getHeaderField("Last-Modified"), System.currentTimeMillis() + request.cacheTime));
+                }
+            }
+            return new Result(code, body, false);
+        } finally {
+            limit.release();
+        }
+    }
+
+    /**
+     * Runs the request on the HTTP pool.
+     *
+     * @param request The request.
+     * @return What the server answered, or an exception (wrapped in a CompletionException)
+     * if it could not be reached.
+     */
+    public static CompletableFuture<Result> executeAsync(Request request) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return execute(request);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, pool);
+    }
+
+    /**
+     * Runs the request on the calling thread and hands the body to the handler as it arrives,
+     * instead of reading it into a String first. Meant for big bodies that are parsed with a
+     * JSONStreamReader; they are never cached.
+     *
+     * @param request The request.
+     * @param handler What reads the body.
+     * @return What the handler returned.
+     * @throws IOException If the request failed or the server answered with an error.
+     */
+    public static <T> T stream(Request request, BodyHandler<T> handler) throws IOException {
+        URL url = new URL(rewrite(request.url));
+        Semaphore limit = acquire(url);
+        try {
+            HttpURLConnection c = open(url, request, null);
+            int code = c.getResponseCode();
+            if (code < 200 || code >= 300) {
+                read(c, code);
+                throw new IOException("Server returned HTTP response code: " + code + " for URL: " + request.url);
+            }
+            InputStream in = c.getInputStream();
+            if ("gzip".equalsIgnoreCase(c.getContentEncoding())) in = new GZIPInputStream(in);
+            try (Reader reader = new InputStreamReader(in, getCharset(c.getContentType()))) {
+                T result = handler.read(reader);
+                //whatever the handler didn't need is still read, so the connection can be reused
+                char[] buffer = new char[4096];
+                while (reader.read(buffer) != -1) {
+                    //discard
+                }
+                return result;
+            }
+        } finally {
+            limit.release();
+        }
+    }
+
+    /**
+     * Runs {@link #stream(Request, BodyHandler)} on the HTTP pool.
+     *
+     * @return What the handler returned, or an exception (wrapped in a CompletionException)
+     * if the request failed.
+     */
+    public static <T> CompletableFuture<T> streamAsync(Request request, BodyHandler<T> handler) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return stream(request, handler);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, pool);
+    }
+
+    /**
+     * Reads a body for {@link #stream(Request, BodyHandler)}.
+     */
+    public interface BodyHandler<T> {
+        T read(Reader reader) throws IOException;
+    }
+
+    private static Semaphore acquire(URL url) throws IOException {
+        Semaphore limit = hostLimits.computeIfAbsent(url.getHost() + ":" + url.getPort(), h -> new Semaphore(MAX_PER_HOST));
+        try {
+            limit.acquire();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted waiting for " + url.getHost());
+        }
+        return limit;
+    }
+
+    /**
+     * Connects and sends the request, up to the point of asking for the response code.
+     */
+    private static HttpURLConnection open(URL url, Request request, CacheEntry entry) throws IOException {
+        requests.incrementAndGet();
+        HttpURLConnection c = (HttpURLConnection) url.openConnection();
+        c.setConnectTimeout(CONNECT_TIMEOUT);
+        c.setReadTimeout(request.readTimeout);
+        c.setRequestMethod(request.method);
+        c.setRequestProperty("Accept-Encoding", "gzip");
+        for (Map.Entry<String, String> header : request.headers.entrySet()) {
+            c.setRequestProperty(header.getKey(), header.getValue());
+        }
+        if (entry != null) {
+            if (entry.eTag != null) c.setRequestProperty("If-None-Match", entry.eTag);
+            if (entry.lastModified != null) c.setRequestProperty("If-Modified-Since", entry.lastModified);
+        }
+        if (request.body != null) {
+            byte[] body = request.body.getBytes(StandardCharsets.UTF_8);
+            c.setDoOutput(true);
+            c.setFixedLengthStreamingMode(body.length);
+            try (OutputStream out = c.getOutputStream()) {
+                out.write(body);
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Reads the whole body (or error body), which lets the connection be reused.
+     */
+    private static String read(HttpURLConnection c, int code) throws IOException {
+        InputStream in = (code >= 400) ? c.getErrorStream() : c.getInputStream();
+        if (in == null) return "";
+        if ("gzip".equalsIgnoreCase(c.getContentEncoding())) in = new GZIPInputStream(in);
+        StringBuilder sb = new StringBuilder(Math.max(c.getContentLength(), 256));
+        try (InputStreamReader reader = new InputStreamReader(in, getCharset(c.getContentType()))) {
+            char[] buffer = new char[4096];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, read);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static Charset getCharset(String contentType) {
+        if (contentType != null) {
+            int index = contentType.toLowerCase().indexOf("charset=");
+            if (index != -1) {
+                String name = contentType.substring(index + 8).replace("\"", "").split(";")[0].trim();
+                try {
+                    return Charset.forName(name);
+                } catch (Exception ignored) {
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    /**
+     * Sends every request for URLs starting with the given prefix to the replacement instead.
+     *
+     * @param prefix      The start of the URLs to send elsewhere, like "https://api.twitch.tv".
+     * @param replacement What to replace the prefix with, like "http://127.0.0.1:8080", or null to stop.
+     */
+    public static void setOverride(String prefix, String replacement) {
+        if (replacement == null) overrides.remove(prefix);
+        else overrides.put(prefix, replacement);
+    }
+
+    private static String rewrite(String url) {
+        if (overrides.isEmpty()) return url;
+        for (Map.Entry<String, String> e : overrides.entrySet()) {
+            if (url.startsWith(e.getKey())) return e.getValue() + url.substring(e.getKey().length());
+        }
+        return url;
+    }
+
+    /**
+     * Forgets the cached bodies of the given URL, whatever headers they were asked for with,
+     * like after changing what it returns.
+     */
+    public static void invalidate(String url) {
+        synchronized (cache) {
+            cache.keySet().removeIf(key -> key.equals(url) || key.startsWith(url + "\n"));
+        }
+    }
+
+    public static void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * @return How many requests actually went to a server.
+     */
+    public static long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return How many requests were answered from the cache without asking the server.
+     */
+    public static long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    /**
+     * @return How many stale cache entries the server said were still good.
+     */
+    public static long getNotModified() {
+        return notModified.get();
+    }
+
+    private static class ThreadFactory implements java.util.concurrent.ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "HttpClient-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
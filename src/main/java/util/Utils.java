@@ -230,50 +230,6 @@ public class Utils {
 		return i == files.length;
 	}
 
-	/**
-	 * Logs the chat to a file.
-	 *
-	 * @param message
-	 *            The chat separated by newline characters.
-	 * @param channel
-	 *            The channel the chat was in.
-	 * @param type
-	 *            The int that determines what the logger should do. 0 = boot 1
-	 *            = append (clear chat) 2 = shutdown
-	 */
-	public static void logChat(String[] message, String channel, int type) {
-		if (channel.startsWith("#"))
-			channel = channel.substring(1);
-		try {
-			PrintWriter out = new PrintWriter(
-					new BufferedWriter(new FileWriter(new File(
-							GUIMain.currentSettings.logDir.getAbsolutePath()
-									+ File.separator + channel + ".txt"), true)));
-			if (type == 0) {
-				out.println("====================== "
-						+ GUIMain.currentSettings.date
-						+ " ======================");
-			}
-			if (message != null
-					&& !(message.length == 0 || (message.length == 1 && message[0]
-							.equalsIgnoreCase("")))) {
-				for (String s : message) {
-					if (s != null && !s.equals("") && !s.equals("\n")) {
-						out.println(s);
-					}
-				}
-			}
-			if (type == 2) {
-				out.println("====================== End of "
-						+ GUIMain.currentSettings.date
-						+ " ======================");
-			}
-			out.close();
-		} catch (IOException e) {
-			GUIMain.log(e);
-		}
-	}
-
 	/**
 	 * Removes a file extension from a path.
 	 *
@@ -1342,15 +1298,7 @@ public class Utils {
     
     public static String createAndParseBufferedReader(String URL)
     {
-        try
-        {
-            return createAndParseBufferedReader(new URL(URL).openStream());
-        } catch (Exception e)
-        {
-            GUIMain.log("Could not parse buffered reader due to exception: ");
-            GUIMain.log(e);
-        }
-        return "";
+        return HttpClient.getOrEmpty(URL, 0);
     }
     
     public static int fuzzyScore(CharSequence term, CharSequence query) {
@@ -0,0 +1,184 @@
+package util.history;
+
+import gui.forms.GUIMain;
+import irc.message.Message;
+
+import java.io.File;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The chat history of every channel, kept on disk under Logs/history/channel/ while chat
+ * logging is on, so old chat can be looked up by time or by user long after it left the pane.
+ * <p>
+ * Each channel's history is a list of append-only segment files with a sparse time index
+ * and the offsets of every user's messages, see {@link Segment}. That makes
+ * "the last N messages of X" and "the messages between T1 and T2" a lookup and a short
+ * read instead of a scan, even over months of logs.
+ */
+public class ChatHistory {
+
+    private static final ConcurrentHashMap<String, HistoryStore> stores = new ConcurrentHashMap<>();
+
+    /**
+     * One message from the history.
+     */
+    public static class Record {
+        private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
+                .withZone(ZoneId.systemDefault());
+
+        private final long time;
+        private final String channel, sender, tags, content;
+
+        Record(long time, String channel, String sender, String tags, String content) {
+            this.time = time;
+            this.channel = channel;
+            this.sender = sender;
+            this.tags = tags;
+            this.content = content;
+        }
+
+        /**
+         * @return When the message came in, in epoch milliseconds.
+         */
+        public long getTime() {
+            return time;
+        }
+
+        public String getChannel() {
+            return channel;
+        }
+
+        public String getSender() {
+            return sender;
+        }
+
+        /**
+         * @return The IRCv3 tags of the message, empty if it had none.
+         */
+        public String getTags() {
+            return tags;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + FORMAT.format(Instant.ofEpochMilli(time)) + "] " + sender + ": " + content;
+        }
+    }
+
+    /**
+     * Adds a chat message to the history of its channel, if chat logging is on.
+     *
+     * @param m The message, a normal or action one.
+     */
+    public static void record(Message m) {
+        if (!GUIMain.currentSettings.logChat || m.getChannel() == null || m.getSender() == null) return;
+        String content = (m.getType() == Message.MessageType.ACTION_MESSAGE) ? "/me " + m.getContent() : m.getContent();
+        String tags = (m.getEmotes() != null && m.getEmotes().size() > 0) ? "emotes=" + m.getEmotes().getTag() : "";
+        record(m.getChannel(), System.currentTimeMillis(), m.getSender(), tags, content);
+    }
+
+    /**
+     * Adds a chat message to the history of the given channel, like one from an older log.
+     *
+     * @param channel The channel.
+     * @param time    When the message came in, in epoch milliseconds. Messages should be
+     *                added in the order they came in.
+     * @param sender  Who sent it.
+     * @param tags    The IRCv3 tags of the message, or an empty String.
+     * @param content The message.
+     */
+    public static void record(String channel, long time, String sender, String tags, String content) {
+        try {
+            getStore(channel).add(time, sender.toLowerCase(), tags, content);
+        } catch (Exception e) {
+            GUIMain.log(e);
+        }
+    }
+
+    /**
+     * @param channel The channel.
+     * @param user    The user.
+     * @param max     The most messages to return.
+     * @return The newest messages of the user in the channel, oldest first.
+     */
+    public static List<Record> getLastFrom(String channel, String user, int max) {
+        return last(channel, user.toLowerCase(), max);
+    }
+
+    /**
+     * @param channel The channel.
+     * @param max     The most messages to return.
+     * @return The newest messages in the channel, oldest first.
+     */
+    public static List<Record> getLast(String channel, int max) {
+        return last(channel, null, max);
+    }
+
+    /**
+     * @param channel The channel.
+     * @param from    The earliest time, in epoch milliseconds.
+     * @param to      The latest time, in epoch milliseconds.
+     * @return The messages in the channel in the given time, oldest first.
+     */
+    public static List<Record> getBetween(String channel, long from, long to) {
+        try {
+            return getStore(channel).between(from, to);
+        } catch (Exception e) {
+            GUIMain.log(e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * @param channel The channel.
+     * @param time    The time, in epoch milliseconds.
+     * @param max     The most messages to return.
+     * @return The newest messages in the channel from before the given time, oldest first.
+     */
+    public static List<Record> getBefore(String channel, long time, int max) {
+        try {
+            return getStore(channel).before(time, max);
+        } catch (Exception e) {
+            GUIMain.log(e);
+            return Collections.emptyList();
+        }
+    }
+
+    private static List<Record> last(String channel, String user, int max) {
+        try {
+            return getStore(channel).last(user, max);
+        } catch (Exception e) {
+            GUIMain.log(e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Writes out everything that's buffered and closes every history, like on shutdown.
+     */
+    public static void shutdown() {
+        for (HistoryStore store : stores.values()) {
+            try {
+                store.close();
+            } catch (Exception e) {
+                GUIMain.log(e);
+            }
+        }
+        stores.clear();
+    }
+
+    private static HistoryStore getStore(String channel) {
+        String name = (channel.startsWith("#") ? channel.substring(1) : channel).toLowerCase();
+        return stores.computeIfAbsent(name, c -> new HistoryStore(
+                new File(GUIMain.currentSettings.logDir, "history" + File.separator + c), c));
+    }
+}
@@ -0,0 +1,176 @@
+package util.history;
+
+import gui.forms.GUIMain;
+import thread.ThreadEngine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * The history of one channel: a folder of segments, of which only the newest is appended to.
+ * <p>
+ * Records are encoded into a buffer first, and written out in one go when it fills up, a
+ * second after the oldest record in it came in (timed by the ThreadEngine and written on its
+ * pool, so a quiet channel's last messages don't wait for the next one), or when somebody
+ * asks for the history.
+ * <p>
+ * Only the indexes of the MAX_LOADED sealed segments read last are kept in memory, the
+ * others are read back from their index files when they're needed again.
+ */
+class HistoryStore {
+
+    static final long SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long FLUSH_INTERVAL = 1000;
+    private static final int MAX_LOADED = 4;
+
+    private final File dir;
+    private final String channel;
+    //oldest first
+    private final ArrayList<Segment> segments = new ArrayList<>();
+    private Segment active = null;
+    //the sealed segments with their index in memory, least recently read first
+    private final LinkedHashSet<Segment> loaded = new LinkedHashSet<>();
+
+    private ByteBuffer pending = ByteBuffer.allocate(BUFFER_SIZE);
+    private final ArrayList<Long> pendingTimes = new ArrayList<>();
+    private final ArrayList<String> pendingSenders = new ArrayList<>();
+    private boolean flushScheduled = false;
+
+    HistoryStore(File dir, String channel) {
+        this.dir = dir;
+        this.channel = channel;
+        dir.mkdirs();
+        File[] files = dir.listFiles((d, name) -> name.endsWith(Segment.EXTENSION));
+        if (files != null) {
+            for (File f : files) {
+                try {
+                    segments.add(new Segment(f, channel));
+                } catch (NumberFormatException ignored) {
+                    //not one of ours
+                }
+            }
+        }
+        segments.sort((a, b) -> Long.compare(a.start, b.start));
+    }
+
+    synchronized void add(long time, String sender, String tags, String content) throws IOException {
+        pending = Segment.encode(pending, time, sender, tags, content);
+        pendingTimes.add(time);
+        pendingSenders.add(sender);
+        if (pending.position() >= BUFFER_SIZE) {
+            flush();
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            //the timer only hands it to the pool, it's a single thread that others wait on
+            ThreadEngine.schedule(() -> ThreadEngine.submit(this::scheduledFlush), FLUSH_INTERVAL);
+        }
+    }
+
+    private synchronized void scheduledFlush() {
+        flushScheduled = false;
+        try {
+            flush();
+        } catch (IOException e) {
+            GUIMain.log(e);
+        }
+    }
+
+    synchronized void flush() throws IOException {
+        if (pendingTimes.isEmpty()) return;
+        if (active == null || active.size() >= SEGMENT_SIZE) {
+            if (active != null) {
+                active.seal();
+                used(active);
+            }
+            //named after its first record, and never before the last segment
+            long start = pendingTimes.get(0);
+            if (!segments.isEmpty()) start = Math.max(start, segments.get(segments.size() - 1).start + 1);
+            active = Segment.create(dir, channel, start);
+            segments.add(active);
+        }
+        pending.flip();
+        active.append(pending, pendingTimes, pendingSenders);
+        pending.clear();
+        if (pending.capacity() > BUFFER_SIZE * 4) pending = ByteBuffer.allocate(BUFFER_SIZE);
+        pendingTimes.clear();
+        pendingSenders.clear();
+    }
+
+    synchronized void close() throws IOException {
+        flush();
+        if (active != null) active.seal();
+        active = null;
+    }
+
+    /**
+     * Marks the given segment as just read from, and unloads the index of the sealed segment
+     * that was read from the longest ago if there are too many in memory.
+     */
+    private void used(Segment s) {
+        if (s.isWritable()) return;
+        loaded.remove(s);
+        loaded.add(s);
+        if (loaded.size() > MAX_LOADED) {
+            Iterator<Segment> eldest = loaded.iterator();
+            eldest.next().unload();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * @return The records from the given time up to and including the other, oldest first.
+     */
+    synchronized List<ChatHistory.Record> between(long from, long to) throws IOException {
+        flush();
+        ArrayList<ChatHistory.Record> toReturn = new ArrayList<>();
+        for (int i = 0; i < segments.size(); i++) {
+            Segment s = segments.get(i);
+            if (s.start > to) break;
+            //everything in it is older than the next one's start
+            if (i + 1 < segments.size() && segments.get(i + 1).start <= from) continue;
+            toReturn.addAll(s.between(from, to));
+            used(s);
+        }
+        return toReturn;
+    }
+
+    /**
+     * @return The newest records of the given sender (or of anybody if null), oldest first.
+     */
+    synchronized List<ChatHistory.Record> last(String sender, int max) throws IOException {
+        flush();
+        ArrayList<ChatHistory.Record> toReturn = new ArrayList<>();
+        for (int i = segments.size() - 1; i >= 0 && toReturn.size() < max; i--) {
+            Segment s = segments.get(i);
+            toReturn.addAll(sender == null ? s.before(Long.MAX_VALUE, max - toReturn.size())
+                    : s.lastFrom(sender, max - toReturn.size()));
+            used(s);
+        }
+        Collections.reverse(toReturn);
+        return toReturn;
+    }
+
+    /**
+     * @return The newest records from before the given time, oldest first.
+     */
+    synchronized List<ChatHistory.Record> before(long time, int max) throws IOException {
+        flush();
+        ArrayList<ChatHistory.Record> toReturn = new ArrayList<>();
+        for (int i = segments.size() - 1; i >= 0 && toReturn.size() < max; i--) {
+            Segment s = segments.get(i);
+            if (s.start >= time) continue;
+            toReturn.addAll(s.before(time, max - toReturn.size()));
+            used(s);
+        }
+        Collections.reverse(toReturn);
+        return toReturn;
+    }
+}
@@ -0,0 +1,409 @@
+package util.history;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One file of a channel's history: records appended one after another, each being
+ * <pre>
+ * int  length of the rest
+ * long time
+ * short + UTF-8 sender
+ * short + UTF-8 tags
+ * int + UTF-8 content</pre>
+ * The file is named after the time it was started at, so every record in it is from then on.
+ * <p>
+ * Reads go through a memory map of the file. Next to the records a segment keeps a sparse
+ * time index (the time and offset of the first record after every SPARSE_STEP bytes) and
+ * the offsets of every record per sender. A full segment is sealed: its index is written to
+ * a .idx file next to it, so it doesn't have to be rebuilt from the records the next time.
+ * The index of a sealed segment can be unloaded, and is read back from that file when needed.
+ */
+class Segment {
+
+    static final String EXTENSION = ".seg";
+    static final int SPARSE_STEP = 4096;
+
+    private static final int INDEX_VERSION = 2;
+
+    final long start;
+    private final File file;
+    private final String channel;
+
+    private FileChannel writer = null;
+    private long size;
+    private MappedByteBuffer map = null;
+
+    private boolean indexed = false;
+    private long[] sparseTimes = new long[16];
+    private int[] sparseOffsets = new int[16];
+    private int sparseCount = 0;
+    private long nextSparse = 0;
+    private long lastTime = Long.MIN_VALUE;
+    private final HashMap<String, Offsets> postings = new HashMap<>();
+
+    /**
+     * A growing list of record offsets.
+     */
+    private static class Offsets {
+        int[] offsets = new int[4];
+        int size = 0;
+
+        void add(int offset) {
+            if (size == offsets.length) {
+                int[] bigger = new int[size * 2];
+                System.arraycopy(offsets, 0, bigger, 0, size);
+                offsets = bigger;
+            }
+            offsets[size++] = offset;
+        }
+    }
+
+    /**
+     * An existing segment, which is only read from.
+     */
+    Segment(File file, String channel) {
+        this.file = file;
+        this.channel = channel;
+        String name = file.getName();
+        this.start = Long.parseLong(name.substring(0, name.length() - EXTENSION.length()));
+        this.size = file.length();
+    }
+
+    /**
+     * A new segment to append to.
+     */
+    static Segment create(File dir, String channel, long start) throws IOException {
+        File f = new File(dir, String.format("%020d", start) + EXTENSION);
+        Segment s = new Segment(f, channel);
+        s.writer = FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        s.size = s.writer.size();
+        s.buildIndex();
+        return s;
+    }
+
+    long size() {
+        return size;
+    }
+
+    boolean isWritable() {
+        return writer != null;
+    }
+
+    /**
+     * Appends the given encoded records, which all start at the current end of the segment.
+     *
+     * @param records The records, as written by #encode, from position 0.
+     * @param times   The time of each record.
+     * @param senders The sender of each record.
+     */
+    synchronized void append(ByteBuffer records, List<Long> times, List<String> senders) throws IOException {
+        long offset = size;
+        ByteBuffer read = records.duplicate();
+        while (records.hasRemaining()) {
+            writer.write(records);
+        }
+        for (int i = 0; i < times.size(); i++) {
+            index(times.get(i), senders.get(i), (int) offset);
+            offset += 4 + read.getInt((int) (offset - size));
+        }
+        size = offset;
+    }
+
+    static ByteBuffer encode(ByteBuffer buffer, long time, String sender, String tags, String content) {
+        byte[] s = bytes(sender, Short.MAX_VALUE), t = bytes(tags, Short.MAX_VALUE),
+                c = bytes(content, Integer.MAX_VALUE);
+        int length = 8 + 2 + s.length + 2 + t.length + 4 + c.length;
+        if (buffer.remaining() < 4 + length) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + 4 + length));
+            buffer.flip();
+            buffer = bigger.put(buffer);
+        }
+        buffer.putInt(length).putLong(time);
+        buffer.putShort((short) s.length).put(s);
+        buffer.putShort((short) t.length).put(t);
+        buffer.putInt(c.length).put(c);
+        return buffer;
+    }
+
+    private static byte[] bytes(String s, int max) {
+        if (s == null) return new byte[0];
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        if (b.length <= max) return b;
+        byte[] cut = new byte[max];
+        System.arraycopy(b, 0, cut, 0, max);
+        return cut;
+    }
+
+    /**
+     * Stops appending and writes the index out.
+     */
+    synchronized void seal() throws IOException {
+        if (writer == null) return;
+        writer.close();
+        writer = null;
+        map = null;
+        writeIndex();
+    }
+
+    /**
+     * Forgets the index and the memory map of a sealed segment, until it's read from again.
+     */
+    synchronized void unload() {
+        if (writer != null || !indexed) return;
+        indexed = false;
+        sparseTimes = new long[16];
+        sparseOffsets = new int[16];
+        sparseCount = 0;
+        nextSparse = 0;
+        lastTime = Long.MIN_VALUE;
+        postings.clear();
+        map = null;
+    }
+
+    /**
+     * @return The records from the given time up to and including the other, oldest first.
+     */
+    synchronized List<ChatHistory.Record> between(long from, long to) throws IOException {
+        ensureIndexed();
+        ArrayList<ChatHistory.Record> toReturn = new ArrayList<>();
+        if (sparseCount == 0) return toReturn;
+        //the last sparse entry before the start, everything before it is older
+        int lo = 0, hi = sparseCount - 1, first = 0;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sparseTimes[mid] < from) {
+                first = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        ByteBuffer b = map();
+        int offset = sparseOffsets[first];
+        while (offset < size) {
+            long time = b.getLong(offset + 4);
+            if (time > to) break;
+            if (time >= from) toReturn.add(read(b, offset));
+            offset += 4 + b.getInt(offset);
+        }
+        return toReturn;
+    }
+
+    /**
+     * @return The newest records from the given sender, newest first, up to the given amount.
+     */
+    synchronized List<ChatHistory.Record> lastFrom(String sender, int max) throws IOException {
+        ensureIndexed();
+        ArrayList<ChatHistory.Record> toReturn = new ArrayList<>();
+        Offsets o = postings.get(sender);
+        if (o == null) return toReturn;
+        ByteBuffer b = map();
+        for (int i = o.size - 1; i >= 0 && toReturn.size() < max; i--) {
+            toReturn.add(read(b, o.offsets[i]));
+        }
+        return toReturn;
+    }
+
+    /**
+     * @return The newest records from before the given time, newest first, up to the given amount.
+     */
+    synchronized List<ChatHistory.Record> before(long time, int max) throws IOException {
+        ensureIndexed();
+        ArrayList<ChatHistory.Record> toReturn = new ArrayList<>();
+        //the last sparse block that starts before the time, every later one is too new
+        int lo = 0, hi = sparseCount - 1, last = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sparseTimes[mid] < time) {
+                last = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (last == -1) return toReturn;
+        ByteBuffer b = map();
+        //walk the sparse blocks from there back, each one forward
+        for (int i = last; i >= 0 && toReturn.size() < max; i--) {
+            int end = (i == sparseCount - 1) ? (int) size : sparseOffsets[i + 1];
+            ArrayList<ChatHistory.Record> block = new ArrayList<>();
+            for (int offset = sparseOffsets[i]; offset < end; offset += 4 + b.getInt(offset)) {
+                if (b.getLong(offset + 4) < time) block.add(read(b, offset));
+            }
+            for (int j = block.size() - 1; j >= 0 && toReturn.size() < max; j--) {
+                toReturn.add(block.get(j));
+            }
+        }
+        return toReturn;
+    }
+
+    /**
+     * @return The time of the newest record, or Long.MIN_VALUE if there is none.
+     */
+    synchronized long getLastTime() throws IOException {
+        ensureIndexed();
+        return lastTime;
+    }
+
+    private ChatHistory.Record read(ByteBuffer b, int offset) {
+        ByteBuffer r = b.duplicate();
+        r.position(offset + 4);
+        long time = r.getLong();
+        String sender = string(r, r.getShort() & 0xFFFF);
+        String tags = string(r, r.getShort() & 0xFFFF);
+        String content = string(r, r.getInt());
+        return new ChatHistory.Record(time, channel, sender, tags, content);
+    }
+
+    private static String string(ByteBuffer b, int length) {
+        byte[] bytes = new byte[length];
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private ByteBuffer map() throws IOException {
+        if (map == null || map.capacity() != size) {
+            try (FileChannel c = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                map = c.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+        }
+        return map;
+    }
+
+    private void index(long time, String sender, int offset) {
+        if (offset >= nextSparse) {
+            if (sparseCount == sparseTimes.length) {
+                long[] times = new long[sparseCount * 2];
+                int[] offsets = new int[sparseCount * 2];
+                System.arraycopy(sparseTimes, 0, times, 0, sparseCount);
+                System.arraycopy(sparseOffsets, 0, offsets, 0, sparseCount);
+                sparseTimes = times;
+                sparseOffsets = offsets;
+            }
+            sparseTimes[sparseCount] = time;
+            sparseOffsets[sparseCount++] = offset;
+            nextSparse = offset + SPARSE_STEP;
+        }
+        postings.computeIfAbsent(sender, k -> new Offsets()).add(offset);
+        lastTime = Math.max(lastTime, time);
+    }
+
+    private void ensureIndexed() throws IOException {
+        if (indexed) return;
+        if (!readIndex()) {
+            buildIndex();
+            if (writer == null) writeIndex();
+        }
+        indexed = true;
+    }
+
+    /**
+     * Reads the index from the records, dropping a record that was only half written.
+     */
+    private void buildIndex() throws IOException {
+        indexed = true;
+        if (size == 0) return;
+        ByteBuffer b = map();
+        int offset = 0;
+        try {
+            while (offset + 12 <= size) {
+                int length = b.getInt(offset);
+                if (length < 16 || offset + 4L + length > size) break;
+                ByteBuffer r = b.duplicate();
+                r.position(offset + 4);
+                long time = r.getLong();
+                String sender = string(r, r.getShort() & 0xFFFF);
+                index(time, sender, offset);
+                offset += 4 + length;
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException ignored) {
+            //a torn record at the end
+        }
+        size = offset;
+        map = null;
+    }
+
+    private File getIndexFile() {
+        String name = file.getName();
+        return new File(file.getParentFile(), name.substring(0, name.length() - EXTENSION.length()) + ".idx");
+    }
+
+    private void writeIndex() throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(getIndexFile().toPath())))) {
+            out.writeInt(INDEX_VERSION);
+            //the length of the file and of the whole records in it, which is less if the last one is torn
+            out.writeLong(file.length());
+            out.writeLong(size);
+            out.writeLong(lastTime);
+            out.writeInt(sparseCount);
+            for (int i = 0; i < sparseCount; i++) {
+                out.writeLong(sparseTimes[i]);
+                out.writeInt(sparseOffsets[i]);
+            }
+            out.writeInt(postings.size());
+            for (Map.Entry<String, Offsets> e : postings.entrySet()) {
+                out.writeUTF(e.getKey());
+                Offsets o = e.getValue();
+                out.writeInt(o.size);
+                for (int i = 0; i < o.size; i++) {
+                    out.writeInt(o.offsets[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return False if there's no index file for this segment, or it's out of date.
+     */
+    private boolean readIndex() {
+        File f = getIndexFile();
+        if (writer != null || !f.exists()) return false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(f.toPath())))) {
+            if (in.readInt() != INDEX_VERSION || in.readLong() != file.length()) return false;
+            long records = in.readLong();
+            lastTime = in.readLong();
+            sparseCount = in.readInt();
+            sparseTimes = new long[Math.max(sparseCount, 1)];
+            sparseOffsets = new int[Math.max(sparseCount, 1)];
+            for (int i = 0; i < sparseCount; i++) {
+                sparseTimes[i] = in.readLong();
+                sparseOffsets[i] = in.readInt();
+            }
+            int users = in.readInt();
+            for (int u = 0; u < users; u++) {
+                String name = in.readUTF();
+                Offsets o = new Offsets();
+                o.size = in.readInt();
+                o.offsets = new int[Math.max(o.size, 1)];
+                for (int i = 0; i < o.size; i++) {
+                    o.offsets[i] = in.readInt();
+                }
+                postings.put(name, o);
+            }
+            size = records;
+            return true;
+        } catch (IOException e) {
+            sparseCount = 0;
+            lastTime = Long.MIN_VALUE;
+            postings.clear();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package util.log;
+
+import gui.forms.GUIMain;
+import irc.message.Message;
+import irc.message.MessageQueue;
+import lib.pircbot.Queue;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The log of the bot: everything the System Logs pane shows, the raw IRC lines of verbose
+ * connections, and whatever else is logged, written to Logs/botnak.log (see {@link LogFile}).
+ * <p>
+ * Logging never blocks the thread that logs: an entry that is below the level of its category
+ * is dropped right away, the rest are added to a ring buffer (and dropped, and counted, if
+ * it's full, and the count is written to the file and to the pane if any of them were for it). One background thread drains the ring, turns the entries into text (stack
+ * traces too), writes them to the file in one go, and hands the ones meant for the pane to
+ * the MessageQueue. The same exception thrown from the same place is only written
+ * REPEAT_LIMIT times a minute, the rest are counted and mentioned with the next one.
+ */
+public class Log {
+
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR, OFF
+    }
+
+    public enum Category {
+        GENERAL, IRC, API, FACES, SOUND
+    }
+
+    private static final int BUFFER = 8192;
+    private static final int REPEAT_LIMIT = 3;
+    private static final long REPEAT_WINDOW = 60_000;
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS")
+            .withZone(ZoneId.systemDefault());
+
+    private static final Queue<Entry> queue = new Queue<>(BUFFER);
+    private static final AtomicLong dropped = new AtomicLong(0);
+    //the dropped entries that were meant for the pane as well
+    private static final AtomicLong paneDropped = new AtomicLong(0);
+    private static volatile Level[] levels = defaultLevels();
+    private static volatile boolean console = false;
+    private static volatile Thread writer = null;
+
+    //only touched by the writer thread
+    private static LogFile file = null;
+    private static boolean fileFailed = false;
+    private static final HashMap<String, Repeats> repeats = new HashMap<>();
+
+    private static class Entry {
+        final long time;
+        final Level level;
+        final Category category;
+        final String thread, source;
+        final Object message;
+        final boolean pane;
+        final CountDownLatch done;
+
+        Entry(Level level, Category category, String source, Object message, boolean pane, CountDownLatch done) {
+            this.time = System.currentTimeMillis();
+            this.level = level;
+            this.category = category;
+            this.thread = Thread.currentThread().getName();
+            this.source = source;
+            this.message = message;
+            this.pane = pane;
+            this.done = done;
+        }
+    }
+
+    /**
+     * How often an exception was thrown from one place in the current window.
+     */
+    private static class Repeats {
+        long windowStart;
+        int count, suppressed;
+    }
+
+    private static Level[] defaultLevels() {
+        Level[] toReturn = new Level[Category.values().length];
+        for (Category c : Category.values()) {
+            toReturn[c.ordinal()] = Level.INFO;
+        }
+        return toReturn;
+    }
+
+    /**
+     * @return True if entries of the given category and level are logged. Check this before
+     * building an expensive message.
+     */
+    public static boolean isEnabled(Category category, Level level) {
+        return level.ordinal() >= levels[category.ordinal()].ordinal() && level != Level.OFF;
+    }
+
+    public static void debug(Category category, Object message) {
+        log(Level.DEBUG, category, null, message);
+    }
+
+    public static void info(Category category, Object message) {
+        log(Level.INFO, category, null, message);
+    }
+
+    public static void warn(Category category, Object message) {
+        log(Level.WARN, category, null, message);
+    }
+
+    public static void error(Category category, Object message) {
+        log(Level.ERROR, category, null, message);
+    }
+
+    /**
+     * Logs a message, warnings and errors are shown in the System Logs pane as well.
+     *
+     * @param level    The level of the message.
+     * @param category What the message is about.
+     * @param source   Who the message is from, like the nick of a connection, or null.
+     * @param message  The message, a Throwable is logged with its stack trace.
+     */
+    public static void log(Level level, Category category, String source, Object message) {
+        if (message == null || !isEnabled(category, level)) return;
+        add(new Entry(level, category, source, message, level.ordinal() >= Level.WARN.ordinal(), null));
+    }
+
+    /**
+     * Logs a message that is shown in the System Logs pane, whatever its level,
+     * like everything GUIMain#log gets.
+     */
+    public static void logToPane(Category category, Object message) {
+        Level level = (message instanceof Throwable) ? Level.ERROR : Level.INFO;
+        if (message == null || !isEnabled(category, level)) return;
+        add(new Entry(level, category, null, message, true, null));
+    }
+
+    /**
+     * Sets the level of every category from a String like "IRC=DEBUG,FACES=WARN", the
+     * categories it doesn't name are logged from INFO on.
+     */
+    public static void setLevels(String s) {
+        Level[] newLevels = defaultLevels();
+        if (s != null) {
+            for (String part : s.split(",")) {
+                String[] pair = part.trim().split("=");
+                if (pair.length != 2) continue;
+                try {
+                    newLevels[Category.valueOf(pair[0].trim().toUpperCase(Locale.US)).ordinal()] =
+                            Level.valueOf(pair[1].trim().toUpperCase(Locale.US));
+                } catch (IllegalArgumentException ignored) {
+                    //an unknown category or level, keep the default
+                }
+            }
+        }
+        levels = newLevels;
+    }
+
+    /**
+     * @return The level of every category, like "GENERAL=INFO,IRC=DEBUG".
+     */
+    public static String getLevels() {
+        StringBuilder sb = new StringBuilder();
+        Level[] current = levels;
+        for (Category c : Category.values()) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(c.name()).append('=').append(current[c.ordinal()].name());
+        }
+        return sb.toString();
+    }
+
+    public static void setLevel(Category category, Level level) {
+        Level[] newLevels = levels.clone();
+        newLevels[category.ordinal()] = level;
+        levels = newLevels;
+    }
+
+    /**
+     * @param toConsole True to also print everything that's logged to System.out.
+     */
+    public static void setConsole(boolean toConsole) {
+        console = toConsole;
+    }
+
+    public static boolean isConsole() {
+        return console;
+    }
+
+    /**
+     * @return How many entries were dropped because the buffer was full.
+     */
+    public static long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return How many of the dropped entries were meant for the System Logs pane.
+     */
+    public static long getPaneDropped() {
+        return paneDropped.get();
+    }
+
+    /**
+     * Writes everything that was logged and closes the file, waiting a few seconds at most.
+     */
+    public static void shutdown() {
+        if (writer == null) return;
+        CountDownLatch done = new CountDownLatch(1);
+        queue.add(new Entry(Level.OFF, Category.GENERAL, null, "", false, done));
+        try {
+            done.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private static void add(Entry e) {
+        if (writer == null) {
+            synchronized (Log.class) {
+                if (writer == null) {
+                    Thread t = new Thread(Log::run, "Log");
+                    t.setDaemon(true);
+                    t.start();
+                    writer = t;
+                }
+            }
+        }
+        if (!queue.offer(e)) {
+            dropped.incrementAndGet();
+            if (e.pane) paneDropped.incrementAndGet();
+        }
+    }
+
+    private static void run() {
+        ArrayList<Entry> batch = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        long reportedDrops = 0, reportedPaneDrops = 0;
+        while (true) {
+            Entry first = queue.next();
+            if (first == null) return;
+            batch.add(first);
+            queue.drainTo(batch, BUFFER);
+            long drops = dropped.get();
+            if (drops != reportedDrops) {
+                text.append(FORMAT.format(Instant.now())).append(" WARN  GENERAL [Log] ")
+                        .append(drops - reportedDrops).append(" entries were dropped, the log couldn't keep up\n");
+                reportedDrops = drops;
+            }
+            long paneDrops = paneDropped.get();
+            if (paneDrops != reportedPaneDrops) {
+                toPane((paneDrops - reportedPaneDrops) + " log messages were dropped, the log couldn't keep up.");
+                reportedPaneDrops = paneDrops;
+            }
+            for (Entry e : batch) {
+                if (e.done != null) {
+                    write(text);
+                    closeFile();
+                    e.done.countDown();
+                    continue;
+                }
+                try {
+                    String message = render(e);
+                    if (message == null) continue;
+                    format(text, e, message);
+                    if (e.pane) toPane(message);
+                } catch (Exception ex) {
+                    System.err.println("Failed to log " + e.message + ": " + ex);
+                }
+            }
+            write(text);
+            batch.clear();
+        }
+    }
+
+    /**
+     * @return The text of the message, or null if it's an exception that was repeated too often.
+     */
+    private static String render(Entry e) {
+        if (!(e.message instanceof Throwable)) return e.message.toString();
+        Throwable t = (Throwable) e.message;
+        StackTraceElement[] trace = t.getStackTrace();
+        String key = t.getClass().getName() + (trace.length > 0 ? "@" + trace[0] : "");
+        if (repeats.size() > 1000) repeats.clear();
+        Repeats r = repeats.computeIfAbsent(key, k -> new Repeats());
+        String suppressed = "";
+        if (e.time - r.windowStart > REPEAT_WINDOW) {
+            if (r.suppressed > 0) suppressed = "(" + r.suppressed + " more like this were not logged) ";
+            r.windowStart = e.time;
+            r.count = 0;
+            r.suppressed = 0;
+        }
+        if (++r.count > REPEAT_LIMIT) {
+            r.suppressed++;
+            return null;
+        }
+        StringWriter sw = new StringWriter();
+        t.printStackTrace(new PrintWriter(sw));
+        return suppressed + sw.toString();
+    }
+
+    private static void format(StringBuilder text, Entry e, String message) {
+        text.append(FORMAT.format(Instant.ofEpochMilli(e.time))).append(' ');
+        String level = e.level.name();
+        text.append(level);
+        for (int i = level.length(); i < 6; i++) text.append(' ');
+        text.append(e.category.name()).append(" [").append(e.thread).append("] ");
+        if (e.source != null) text.append(e.source).append(' ');
+        text.append(message);
+        if (message.isEmpty() || message.charAt(message.length() - 1) != '\n') text.append('\n');
+    }
+
+    private static void toPane(String message) {
+        if (GUIMain.chatPanes != null && !GUIMain.chatPanes.isEmpty()) {
+            MessageQueue.addMessage(new Message(message, Message.MessageType.LOG_MESSAGE));
+        }
+    }
+
+    private static void write(StringBuilder text) {
+        if (text.length() == 0) return;
+        if (console) System.out.print(text);
+        try {
+            if (file == null && !fileFailed && GUIMain.currentSettings != null) {
+                file = new LogFile(GUIMain.currentSettings.logDir, "botnak");
+            }
+            if (file != null) file.write(text);
+        } catch (Exception e) {
+            //the log can't log its own failure, and mustn't try again for every entry
+            System.err.println("Failed to write the log: " + e);
+            closeFile();
+            fileFailed = true;
+        }
+        text.setLength(0);
+    }
+
+    private static void closeFile() {
+        if (file == null) return;
+        try {
+            file.close();
+        } catch (Exception e) {
+            System.err.println("Failed to close the log: " + e);
+        }
+        file = null;
+    }
+}
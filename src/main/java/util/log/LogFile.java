@@ -0,0 +1,68 @@
+package util.log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A log file that rolls over: once name.log grows over MAX_SIZE it becomes name.1.log, the
+ * one before that name.2.log, and so on, and the oldest is deleted so there are never more
+ * than KEEP files, name.log included.
+ */
+class LogFile {
+
+    static final long MAX_SIZE = 5 * 1024 * 1024;
+    static final int KEEP = 5;
+
+    private final File dir;
+    private final String name;
+    private BufferedWriter out;
+    private long size;
+
+    LogFile(File dir, String name) throws IOException {
+        this.dir = dir;
+        this.name = name;
+        dir.mkdirs();
+        open();
+    }
+
+    private File getFile(int i) {
+        return new File(dir, name + (i == 0 ? "" : "." + i) + ".log");
+    }
+
+    private void open() throws IOException {
+        File f = getFile(0);
+        out = Files.newBufferedWriter(f.toPath(), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        size = f.length();
+    }
+
+    /**
+     * Writes the text and flushes it, rolling the file over first if it's full.
+     */
+    void write(CharSequence text) throws IOException {
+        if (size > MAX_SIZE) roll();
+        out.append(text);
+        out.flush();
+        //close enough, most of the log is ASCII
+        size += text.length();
+    }
+
+    private void roll() throws IOException {
+        out.close();
+        Files.deleteIfExists(getFile(KEEP - 1).toPath());
+        for (int i = KEEP - 2; i >= 0; i--) {
+            File f = getFile(i);
+            if (f.exists()) Files.move(f.toPath(), getFile(i + 1).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        open();
+    }
+
+    void close() throws IOException {
+        out.close();
+    }
+}
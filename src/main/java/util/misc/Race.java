@@ -1,22 +1,30 @@
 package util.misc;
 
 import gui.forms.GUIMain;
-import util.Timer;
+import thread.ThreadEngine;
 import util.Utils;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 
 /**
  * Created by Palehorse68 on 2/22/2016.
  */
-public class Race extends Thread {
+public class Race {
+
+    private static final Pattern GUESS_PATTERN = Pattern.compile("(?:^| )(\\d{2})(?:$| )");
 
     private int time;
-    private Timer raceTime, voteTime;
-    private boolean isDone, votingDone;
+    private final CopyOnWriteArrayList<ScheduledFuture<?>> closers = new CopyOnWriteArrayList<>();
+    private volatile boolean isDone, votingDone;
     private String channel;
 
     public boolean isDone() {
@@ -27,137 +35,88 @@ public class Race extends Thread {
     	return votingDone;
     }
 
-    private ArrayList<Guess> guesses;
+    //by the number guessed
+    private final ConcurrentHashMap<String, Guess> guesses = new ConcurrentHashMap<>();
+    //who guessed what, by lowercase name
+    private final ConcurrentHashMap<String, Guess> guessOf = new ConcurrentHashMap<>();
 
     public Race(String channel, int time) {
         this.channel = channel;
         isDone = votingDone = false;
         this.time = time;
-        this.guesses = new ArrayList<Guess>();
-
     }
 
 
-    public synchronized void addGuess(String user, String message) {
+    /**
+     * Counts the guess in the given message, if it has one, replacing the user's last guess.
+     *
+     * @param user    The user.
+     * @param message The message they sent.
+     */
+    public void addGuess(String user, String message) {
     	String messageGuess = findGuess(message);
-    	if (messageGuess.equals("") || messageGuess == null) return;
-    	
-    	if (userHasVoted(user)){
-    		Guess oldGuess = getUserGuess(user);
-    		oldGuess.decrease(user);
-    	}
-    	
-    	Guess guess = getGuess(messageGuess);
-    	if (guess != null){
-    		//That guess already exists, just add the user
-    		guess.increment(user);
-    	} else {
-    		//This is the first person to guess the number, so create it and add the user
-	    	Guess newGuess = new Guess(messageGuess, Integer.parseInt(messageGuess));
-	    	newGuess.increment(user);
-	    	guesses.add(newGuess);
-    	}
+    	if (messageGuess.isEmpty()) return;
+    	//the first person to guess the number creates it
+    	Guess guess = guesses.computeIfAbsent(messageGuess, g -> new Guess(g, Integer.parseInt(g)));
+    	//atomic per user, so a new guess moves exactly one vote over
+    	guessOf.compute(user.toLowerCase(), (u, oldGuess) -> {
+    		if (oldGuess != guess) {
+    			if (oldGuess != null) {
+    				oldGuess.count.decrementAndGet();
+    				oldGuess.voters.remove(u);
+    			}
+    			guess.count.incrementAndGet();
+    			guess.voters.put(u, user);
+    		}
+    		return guess;
+    	});
     }
 
 
-    @Override
+    /**
+     * Starts the race. Guessing closes after its time, and the race itself after a minute.
+     */
     public synchronized void start() {
-        raceTime = new Timer(Utils.handleInt(60));
-        voteTime = new Timer(Utils.handleInt(time));
         printStart();
-        super.start();
+        closers.add(ThreadEngine.schedule(this::closeVoting, Utils.handleInt(time)));
+        closers.add(ThreadEngine.schedule(() -> isDone = true, Utils.handleInt(60)));
     }
 
-    @Override
-    public void run() {
-    	
-    	while (!GUIMain.shutDown && raceTime.isRunning()) {
-            try {
-                Thread.sleep(20);
-            } catch (Exception ignored) {
-            }
-            if (!voteTime.isRunning() && !votingDone()){
-            	votingDone = true;
-                printVoteOver();
-            }
-        }
-        if (!isDone) {
-            isDone = true;
+    private void closeVoting() {
+        if (!isDone && !votingDone()) {
+            votingDone = true;
+            printVoteOver();
         }
     }
 
-    @Override
-    public void interrupt() {
-        isDone = true;
-        super.interrupt();
-    }
-
     /**
-     * Gets an Option that the user is in, otherwise null.
-     *
-     * @param guess The number to check.
-     * @return The option they voted for, otherwise null.
+     * Stops the race, without closing the voting if it's still open.
      */
-    private synchronized Guess getGuess(String guess) {
-        for (Guess o : guesses) {
-            if (o.name.equals(guess)) return o;
-        }
-        return null;
-    }
-    
-    private synchronized Guess getUserGuess(String user) {
-    	for (Guess o : guesses){
-    		for (String guessUser : o.voters){
-    			if (guessUser.equalsIgnoreCase(user)) return o;
-    		}
-    	}
-    	
-    	return null;
-    }
-    
-    private synchronized boolean userHasVoted(String user){
-    	for (Guess o : guesses) {
-    		for (String voter : o.voters) {
-                if (voter.equalsIgnoreCase(user)) {
-                    return true;
-                }
-            }
-    	}
-    	
-    	return false;
+    public void cancel() {
+        isDone = true;
+        closers.forEach(f -> f.cancel(false));
     }
 
     class Guess implements Comparable<Guess> {
         String name;
-        ArrayList<String> voters;
-        int count = 0;
+        final AtomicInteger count;
         int compare;
+        //the names of who guessed this as they typed them, by lowercase name, in the order they guessed
+        final Map<String, String> voters = Collections.synchronizedMap(new LinkedHashMap<>());
 
         Guess(String name, int compareIndex) {
-            this.name = name;
-            compare = compareIndex;
-            voters = new ArrayList<>();
-        }
-
-        void increment(String name) {
-            count++;
-            voters.add(name);
+            this(name, compareIndex, 0);
         }
 
-        void decrease(String name) {
-            count--;
-            voters.remove(name);
+        Guess(String name, int compareIndex, int count) {
+            this.name = name;
+            compare = compareIndex;
+            this.count = new AtomicInteger(count);
         }
 
         @Override
         public int compareTo(Guess o) {
-            if (o.count > this.count) {
-                return -1;
-            } else if (o.count == this.count) {
-                return 0;
-            } else {
-                return 1;
-            }
+            return Integer.compare(count.get(), o.count.get());
         }
     }
 
@@ -173,7 +132,7 @@ public class Race extends Thread {
     	} else {
 	    	Guess most = results.get(0);
 	    	GUIMain.currentSettings.accountManager.getBot().sendMessage(channel, "/me Voting is now closed! The most common guess was " + 
-	    	most.name + " with " + most.count + (most.count > 1 ? " guesses." : " guess."));
+	    	most.name + " with " + most.count.get() + (most.count.get() > 1 ? " guesses." : " guess."));
     	}
     }
 
@@ -183,31 +142,48 @@ public class Race extends Thread {
     		printVoteOver();
     	}
     	
-    	Guess correctGuess = getGuess(result);
+    	Guess correctGuess = guesses.get(result);
     	String verb = "were", noun = "winners";
     	
-    	if (correctGuess == null || correctGuess.count == 0) {
+    	if (correctGuess == null || correctGuess.count.get() == 0) {
     		GUIMain.currentSettings.accountManager.getBot().sendMessage(channel, "/me The race finished in " + result + " seconds. Nobody guessed correctly. BibleThump");
     	} else {
     		StringBuilder sb = new StringBuilder();
-    		if (correctGuess.count == 1) {
+    		ArrayList<String> winners = getVoters(correctGuess);
+    		if (winners.size() == 1) {
     			verb = "was";
     			noun = "winner";
     		}
-    		sb.append("/me The race finished in " + result + " seconds. There " + verb +" " + correctGuess.count + " " + noun + ". " + correctGuess.voters.toString());
+    		sb.append("/me The race finished in " + result + " seconds. There " + verb +" " + winners.size() + " " + noun + ". " + winners.toString());
     		GUIMain.currentSettings.accountManager.getBot().sendMessage(channel, sb.toString());
     	}
 
     }
 
+    /**
+     * @return A copy of the guesses as they are now, sorted by votes, most first.
+     */
     private ArrayList<Guess> getSortedOptions() {
-        ArrayList<Guess> results = new ArrayList<>();
-        guesses.forEach(results::add);
+        ArrayList<Guess> results = new ArrayList<>(guesses.size());
+        //copied first, so guesses coming in while sorting can't change the order
+        guesses.values().forEach(g -> {
+            int count = g.count.get();
+            if (count > 0) results.add(new Guess(g.name, g.compare, count));
+        });
         Collections.sort(results);//sort into ascending based on votes
         Collections.reverse(results);//make it descending
         return results;
     }
-    
+
+    /**
+     * @return The users whose guess is the given one, in the order they guessed it.
+     */
+    private ArrayList<String> getVoters(Guess guess) {
+        synchronized (guess.voters) {
+            return new ArrayList<>(guess.voters.values());
+        }
+    }
+
     private String findGuess(String message){
     	String toReturn = "";
     	if (message == null || message.isEmpty()) return toReturn;
@@ -215,8 +191,7 @@ public class Race extends Thread {
     	//the end of a line, or surround by space on either side.
     	//Matches: 33, My guess is 33, My guess is 33 and I'm going to win
     	//Fails: 123, 12:45, 33.17, My guess is 33., My guess is 33.75
-    	Pattern p = Pattern.compile("(?:^| )(\\d{2})(?:$| )");
-    	Matcher m = p.matcher(message);
+    	Matcher m = GUESS_PATTERN.matcher(message);
     	if (m.find()){
     		toReturn = m.group();
     	}
@@ -1,16 +1,16 @@
 package util.misc;
 
-import gui.forms.GUIMain;
 import lib.pircbot.PircBot;
-import util.Timer;
+import thread.ThreadEngine;
 import util.Utils;
 
 import java.util.ArrayList;
+import java.util.concurrent.ScheduledFuture;
 
 /**
  * Created by Nick on 7/17/2014.
  */
-public class Raffle extends Thread {
+public class Raffle {
 
     private PircBot bot = null;
     private int time = 0;
@@ -18,7 +18,7 @@ public class Raffle extends Thread {
     private String keyword = null;
     private String winner = null;
     private ArrayList<String> entrants = null;
-    private boolean isDone = false;
+    private volatile boolean isDone = false;
     private String channel;
     private String startMessage;
 
@@ -50,7 +50,7 @@ public class Raffle extends Thread {
         return permission;
     }
 
-    private Timer timer;
+    private ScheduledFuture<?> closer;
 
     public Raffle(PircBot bot, String key, int time, String channel, int permission) {
         this.bot = bot;
@@ -65,21 +65,15 @@ public class Raffle extends Thread {
                 + keyword + "\" to enter!";
     }
 
-    @Override
+    /**
+     * Starts the raffle, which picks its winner after its time is up.
+     */
     public synchronized void start() {
-        timer = new Timer(time);
         entrants = new ArrayList<>();
-        super.start();
+        closer = ThreadEngine.schedule(this::close, time);
     }
 
-    @Override
-    public void run() {
-        while (!GUIMain.shutDown && timer.isRunning()) {
-            try {
-                Thread.sleep(50);
-            } catch (InterruptedException ignored) {
-            }
-        }
+    private void close() {
         //pick the user
         if (!isDone) {
             isDone = true;
@@ -87,6 +81,14 @@ public class Raffle extends Thread {
         }
     }
 
+    /**
+     * Stops the raffle without picking a winner.
+     */
+    public void cancel() {
+        isDone = true;
+        if (closer != null) closer.cancel(false);
+    }
+
     public boolean isDone() {
         return isDone;
     }
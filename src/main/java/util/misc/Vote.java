@@ -1,20 +1,23 @@
 package util.misc;
 
 import gui.forms.GUIMain;
-import util.Timer;
+import thread.ThreadEngine;
 import util.Utils;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by Nick on 8/8/2014.
  */
-public class Vote extends Thread {
+public class Vote {
 
     private int time;
-    private Timer pollTime;
-    private boolean isDone;
+    private ScheduledFuture<?> closer;
+    private volatile boolean isDone;
     private String channel;
 
     public boolean isDone() {
@@ -22,6 +25,8 @@ public class Vote extends Thread {
     }
 
     private ArrayList<Option> options;
+    //who voted for what, by lowercase name
+    private final ConcurrentHashMap<String, Option> votes = new ConcurrentHashMap<>();
 
     public Vote(String channel, int time, String... options) {
         this.channel = channel;
@@ -39,99 +44,67 @@ public class Vote extends Thread {
         return toReturn;
     }
 
-    public synchronized void addVote(String name, int option) {
+    /**
+     * Counts the given user's vote, replacing the one they made before if any.
+     *
+     * @param name   The user.
+     * @param option The option, starting at 1.
+     */
+    public void addVote(String name, int option) {
         if (option > options.size() || option < 1) return;
-        Option vote = getOption(name);
-        if (vote != null) {//they already voted
-            if (vote.compare != option) {//but now it's for a different
-                vote.decrease(name);
-            } else {
-                return;
+        Option newVote = options.get(option - 1);
+        //atomic per user, so a re-vote moves exactly one vote over
+        votes.compute(name.toLowerCase(), (user, vote) -> {
+            if (vote != newVote) {
+                if (vote != null) vote.count.decrementAndGet();//they already voted, but now it's for a different
+                newVote.count.incrementAndGet();
             }
-        }
-        option--;
-        Option newVote = options.get(option);
-        newVote.increment(name);
+            return newVote;
+        });
     }
 
 
-    @Override
+    /**
+     * Starts the poll, which closes and prints its results after its time is up.
+     */
     public synchronized void start() {
-        pollTime = new Timer(Utils.handleInt(time));
         printStart();
-        super.start();
+        closer = ThreadEngine.schedule(this::close, Utils.handleInt(time));
     }
 
-    @Override
-    public void run() {
-        while (!GUIMain.shutDown && pollTime.isRunning()) {
-            try {
-                Thread.sleep(20);
-            } catch (Exception ignored) {
-            }
-        }
+    private void close() {
         if (!isDone) {
             isDone = true;
             printResults();
         }
     }
 
-    @Override
-    public void interrupt() {
-        isDone = true;
-        super.interrupt();
-    }
-
     /**
-     * Gets an Option that the user is in, otherwise null.
-     *
-     * @param user The user to check.
-     * @return The option they voted for, otherwise null.
+     * Stops the poll without printing its results.
      */
-    private synchronized Option getOption(String user) {
-        for (Option o : options) {
-            if (o.count > 0) {
-                for (String voter : o.voters) {
-                    if (voter.equalsIgnoreCase(user)) {
-                        return o;
-                    }
-                }
-            }
-        }
-        return null;
+    public void cancel() {
+        isDone = true;
+        if (closer != null) closer.cancel(false);
     }
 
     class Option implements Comparable<Option> {
         String name;
-        ArrayList<String> voters;
-        int count = 0;
+        final AtomicInteger count;
         int compare;
 
         Option(String name, int compareIndex) {
-            this.name = name;
-            compare = compareIndex;
-            voters = new ArrayList<>();
-        }
-
-        void increment(String name) {
-            count++;
-            voters.add(name);
+            this(name, compareIndex, 0);
         }
 
-        void decrease(String name) {
-            count--;
-            voters.remove(name);
+        Option(String name, int compareIndex, int count) {
+            this.name = name;
+            compare = compareIndex;
+            this.count = new AtomicInteger(count);
         }
 
         @Override
         public int compareTo(Option o) {
-            if (o.count > this.count) {
-                return -1;
-            } else if (o.count == this.count) {
-                return 0;
-            } else {
-                return 1;
-            }
+            return Integer.compare(count.get(), o.count.get());
         }
     }
 
@@ -155,11 +128,11 @@ public class Vote extends Thread {
         ArrayList<Option> results = getSortedOptions();
         int totalVotes = 0;
         for (Option o : results) {
-            totalVotes += o.count;
+            totalVotes += o.count.get();
         }
         if (totalVotes > 0) {
             for (Option o : results) {
-                resultStrings.add(o.name + ": " + o.count + "/" + totalVotes + " (" + (int) (((double) o.count / (double) totalVotes) * 100) + "%)");
+                resultStrings.add(o.name + ": " + o.count.get() + "/" + totalVotes + " (" + (int) (((double) o.count.get() / (double) totalVotes) * 100) + "%)");
             }
         } else {
             resultStrings.add("Nobody voted for anything. BibleThump");
@@ -167,11 +140,15 @@ public class Vote extends Thread {
         return resultStrings.toArray(new String[resultStrings.size()]);
     }
 
+    /**
+     * @return A copy of the options as they are now, sorted by votes, most first.
+     */
     private ArrayList<Option> getSortedOptions() {
-        ArrayList<Option> results = new ArrayList<>();
-        options.forEach(results::add);
+        ArrayList<Option> results = new ArrayList<>(options.size());
+        //copied first, so votes coming in while sorting can't change the order
+        options.forEach(o -> results.add(new Option(o.name, o.compare, o.count.get())));
         Collections.sort(results);//sort into ascending based on votes
         Collections.reverse(results);//make it descending
         return results;
     }
-}
\ No newline at end of file
+}
@@ -11,8 +11,10 @@ import irc.account.Account;
 import irc.account.AccountManager;
 import irc.account.OAuth;
 import irc.account.Task;
+import irc.message.MessageQueue;
 import lib.pircbot.Channel;
 import lib.pircbot.ChannelManager;
+import lib.pircbot.ConnectionPool;
 import sound.Sound;
 import sound.SoundEngine;
 import thread.ThreadEngine;
@@ -20,6 +22,7 @@ import util.Constants;
 import util.Utils;
 import util.comm.Command;
 import util.comm.ConsoleCommand;
+import util.log.Log;
 import util.misc.Donation;
 
 import javax.swing.filechooser.FileSystemView;
@@ -52,6 +55,8 @@ public class Settings {
     public int botReplyType = 0; //0 = none, 1 = botnak user only, 2 = everyone
     public boolean botWhisperMode = false;
     public boolean ffzEmotes = false, subEmotes = false, soundsEnabled = false, autoReconnectAccounts = true;
+    public int channelsPerConnection = ConnectionPool.DEFAULT_CHANNELS_PER_CONNECTION;//0 reads every channel over one connection
+    public boolean nioTransport = false;//run the connections on one NioTransport thread instead of two threads each
     
 
     //donations
@@ -97,6 +102,7 @@ public class Settings {
     public File subSoundDir = new File(defaultDir + File.separator + "SubSounds");
     public File donationSoundDir = new File(defaultDir + File.separator + "DonationSounds");
     public File logDir = new File(defaultDir + File.separator + "Logs");
+    public File trafficDir = new File(defaultDir + File.separator + "Traffic");
     //files
     public File accountsFile = new File(defaultDir + File.separator + "acc.ini");
     public File APIKeysFile = new File(defaultDir + File.separator + "APIKeys.ini");
@@ -119,10 +125,14 @@ public class Settings {
 
     //appearance
     public boolean logChat = false;
+    public boolean recordTraffic = false;//raw IRC lines into the Traffic folder, for replaying
     public int chatMax = 100;
     public boolean cleanupChat = true;
+    public boolean virtualChat = false;//paint channels with a ChatList instead of a text pane
     public static String lookAndFeel = "lib.jtattoo.com.jtattoo.plaf.hifi.HiFiLookAndFeel";
     public int faceMaxHeight = 20;
+    public int messageLaneSize = MessageQueue.DEFAULT_LANE_SIZE;//chat lines a channel can fall behind before the overflow policy kicks in
+    public MessageQueue.OverflowPolicy messageOverflow = MessageQueue.DEFAULT_OVERFLOW_POLICY;
     //Graphite = "lib.jtattoo.com.jtattoo.plaf.graphite.GraphiteLookAndFeel"
 
     public String date;
@@ -365,11 +375,26 @@ public class Settings {
                 }
                 cleanupChat = Boolean.parseBoolean(p.getProperty("ClearChat", "true"));
                 logChat = Boolean.parseBoolean(p.getProperty("LogChat", "false"));
+                recordTraffic = Boolean.parseBoolean(p.getProperty("RecordTraffic", "false"));
                 chatMax = Integer.parseInt(p.getProperty("MaxChat", "100"));
+                virtualChat = Boolean.parseBoolean(p.getProperty("VirtualChat", "false"));
+                Log.setLevels(p.getProperty("LogLevels", Log.getLevels()));
+                Log.setConsole(Boolean.parseBoolean(p.getProperty("LogConsole", "false")));
+                nioTransport = Boolean.parseBoolean(p.getProperty("NioTransport", "false"));
+                channelsPerConnection = Integer.parseInt(p.getProperty("ChannelsPerConnection",
+                        String.valueOf(ConnectionPool.DEFAULT_CHANNELS_PER_CONNECTION)));
                 faceMaxHeight = Integer.parseInt(p.getProperty("FaceMaxHeight", "20"));
+                messageLaneSize = Integer.parseInt(p.getProperty("MessageLaneSize", String.valueOf(MessageQueue.DEFAULT_LANE_SIZE)));
+                try {
+                    messageOverflow = MessageQueue.OverflowPolicy.valueOf(p.getProperty("MessageOverflow",
+                            MessageQueue.DEFAULT_OVERFLOW_POLICY.name()));
+                } catch (Exception e) {
+                    GUIMain.log(e);
+                }
                 font = Utils.stringToFont(p.getProperty("Font").split(","));
                 StyleConstants.setFontFamily(GUIMain.norm, font.getFamily());
                 StyleConstants.setFontSize(GUIMain.norm, font.getSize());
+                Icons.invalidateCache();
                 SoundEngine.getEngine().setPermission(Integer.parseInt(p.getProperty("SoundEnginePerm", "1")));
                 SoundEngine.getEngine().setDelay(Integer.parseInt(p.getProperty("SoundEngineDelay", "10000")));
                 botReplyType = Integer.parseInt(p.getProperty("BotReplyType", "0"));
@@ -442,9 +467,17 @@ public class Settings {
             p.put("UseStaff", String.valueOf(useStaff));
             p.put("CustomStaff", staffIcon.toString());
             p.put("MaxChat", String.valueOf(chatMax));
+            p.put("VirtualChat", String.valueOf(virtualChat));
+            p.put("LogLevels", Log.getLevels());
+            p.put("LogConsole", String.valueOf(Log.isConsole()));
+            p.put("ChannelsPerConnection", String.valueOf(channelsPerConnection));
+            p.put("NioTransport", String.valueOf(nioTransport));
             p.put("FaceMaxHeight", String.valueOf(faceMaxHeight));
+            p.put("MessageLaneSize", String.valueOf(messageLaneSize));
+            p.put("MessageOverflow", messageOverflow.name());
             p.put("ClearChat", String.valueOf(cleanupChat));
             p.put("LogChat", String.valueOf(logChat));
+            p.put("RecordTraffic", String.valueOf(recordTraffic));
             p.put("Font", Utils.fontToString(font));
             p.put("SoundEnginePerm", String.valueOf(SoundEngine.getEngine().getPermission()));
             p.put("SoundEngineDelay", String.valueOf(SoundEngine.getEngine().getDelay()));
@@ -0,0 +1,102 @@
+package gui;
+
+import org.junit.Test;
+
+import javax.swing.text.AttributeSet;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import java.awt.*;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Appending in batches has to give the same paragraphs and runs as appending every piece
+ * with insertString, the chat cleanup and the line styles work per paragraph.
+ */
+public class ChatDocumentTest {
+
+    private static final SimpleAttributeSet RED = new SimpleAttributeSet(), BLUE = new SimpleAttributeSet();
+
+    static {
+        StyleConstants.setForeground(RED, Color.red);
+        StyleConstants.setForeground(BLUE, Color.blue);
+    }
+
+    @Test
+    public void lastLineKeepsTheDocumentsNewLine() throws Exception {
+        check("first line", RED, null, "\nb", BLUE);
+    }
+
+    @Test
+    public void messagesOverSeveralBatches() throws Exception {
+        check("\n[12:00] ", RED, "name", BLUE, ": hi Kappa", RED, null,
+                "\n[12:01] ", RED, "other", BLUE, null, "\nline\nanother line", RED);
+    }
+
+    @Test
+    public void batchesEndingInNewLines() throws Exception {
+        check("a\nb\n", RED, null, "c", BLUE, "\n", RED, "\n", BLUE, null, "x\n", RED);
+    }
+
+    @Test
+    public void randomBatches() throws Exception {
+        String[] pieces = {"a", "\n", "bc\nd", "\n\n", "xyz", "\nq"};
+        AttributeSet[] sets = {RED, BLUE, null, SimpleAttributeSet.EMPTY};
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            int count = random.nextInt(20);
+            Object[] appends = new Object[count * 2];
+            for (int j = 0; j < count; j++) {
+                //a null text flushes the batch first
+                appends[j * 2] = (random.nextInt(4) == 0) ? null : pieces[random.nextInt(pieces.length)];
+                appends[j * 2 + 1] = sets[random.nextInt(sets.length)];
+            }
+            check(appends);
+        }
+    }
+
+    /**
+     * @param appends Text and its style, or null to flush what's batched so far.
+     */
+    private static void check(Object... appends) throws Exception {
+        DefaultStyledDocument expected = new DefaultStyledDocument();
+        ChatDocument actual = new ChatDocument();
+        StringBuilder what = new StringBuilder();
+        for (int i = 0; i < appends.length; i++) {
+            if (appends[i] == null) {
+                actual.flushBatch();
+                what.append("| ");
+                if (i + 1 < appends.length && !(appends[i + 1] instanceof String)) i++;
+                continue;
+            }
+            String text = (String) appends[i];
+            AttributeSet set = (AttributeSet) appends[++i];
+            expected.insertString(expected.getLength(), text, set);
+            actual.appendBatch(text, set);
+            what.append(text.replace("\n", "\\n")).append(' ');
+        }
+        actual.flushBatch();
+        assertEquals(what.toString(), expected.getText(0, expected.getLength()), actual.getText(0, actual.getLength()));
+        assertEquals(what.toString(), describe(expected), describe(actual));
+    }
+
+    private static String describe(Document doc) {
+        StringBuilder sb = new StringBuilder();
+        Element root = doc.getDefaultRootElement();
+        for (int i = 0; i < root.getElementCount(); i++) {
+            Element paragraph = root.getElement(i);
+            sb.append('[').append(paragraph.getStartOffset()).append(',').append(paragraph.getEndOffset()).append(')');
+            for (int j = 0; j < paragraph.getElementCount(); j++) {
+                Element run = paragraph.getElement(j);
+                sb.append(" (").append(run.getStartOffset()).append(',').append(run.getEndOffset()).append(' ')
+                        .append(run.getAttributes().getAttribute(StyleConstants.Foreground)).append(')');
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
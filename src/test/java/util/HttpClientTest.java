@@ -0,0 +1,156 @@
+package util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the HttpClient against a stub server on localhost. Every test uses its own path,
+ * the cache and the counters are shared.
+ */
+public class HttpClientTest {
+
+    private HttpServer server;
+    private String base;
+    //lets the handlers that wait for it answer
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void stop() {
+        release.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    public void freshEntryIsAnsweredFromTheCache() throws Exception {
+        AtomicInteger hits = new AtomicInteger(0);
+        server.createContext("/fresh", ex -> respond(ex, 200, "body " + hits.incrementAndGet(), null));
+        HttpClient.Result first = HttpClient.execute(new HttpClient.Request(base + "/fresh").cache(60_000));
+        long cacheHits = HttpClient.getCacheHits();
+        HttpClient.Result second = HttpClient.execute(new HttpClient.Request(base + "/fresh").cache(60_000));
+        assertFalse(first.isCached());
+        assertTrue(second.isCached());
+        assertEquals("body 1", second.getBody());
+        assertEquals(1, hits.get());
+        assertEquals(cacheHits + 1, HttpClient.getCacheHits());
+    }
+
+    @Test
+    public void staleEntryIsRevalidated() throws Exception {
+        AtomicInteger hits = new AtomicInteger(0);
+        server.createContext("/stale", ex -> {
+            hits.incrementAndGet();
+            if ("\"v1\"".equals(ex.getRequestHeaders().getFirst("If-None-Match"))) respond(ex, 304, null, "\"v1\"");
+            else respond(ex, 200, "versioned", "\"v1\"");
+        });
+        HttpClient.execute(new HttpClient.Request(base + "/stale").cache(1));
+        Thread.sleep(10);
+        long notModified = HttpClient.getNotModified();
+        HttpClient.Result second = HttpClient.execute(new HttpClient.Request(base + "/stale").cache(1));
+        assertEquals(2, hits.get());
+        assertEquals(200, second.getCode());
+        assertEquals("versioned", second.getBody());
+        assertTrue(second.isCached());
+        assertEquals(notModified + 1, HttpClient.getNotModified());
+    }
+
+    @Test
+    public void cacheKeepsBodiesForDifferentHeadersApart() throws Exception {
+        server.createContext("/client", ex -> respond(ex, 200, "for " + ex.getRequestHeaders().getFirst("Client-ID"), null));
+        String a = HttpClient.getBody(new HttpClient.Request(base + "/client").header("Client-ID", "a").cache(60_000));
+        String b = HttpClient.getBody(new HttpClient.Request(base + "/client").header("client-id", "b").cache(60_000));
+        String again = HttpClient.getBody(new HttpClient.Request(base + "/client").header("Client-ID", "a").cache(60_000));
+        assertEquals("for a", a);
+        assertEquals("for b", b);
+        assertEquals("for a", again);
+        HttpClient.invalidate(base + "/client");
+        assertFalse(HttpClient.execute(new HttpClient.Request(base + "/client").header("Client-ID", "b").cache(60_000)).isCached());
+    }
+
+    @Test(timeout = 20_000)
+    public void noMoreThanMaxPerHostAtOnce() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger(0), most = new AtomicInteger(0);
+        server.createContext("/slow", ex -> {
+            most.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+            inFlight.decrementAndGet();
+            respond(ex, 200, "done", null);
+        });
+        ArrayList<CompletableFuture<HttpClient.Result>> results = new ArrayList<>();
+        for (int i = 0; i < HttpClient.MAX_PER_HOST * 2; i++) {
+            results.add(HttpClient.executeAsync(new HttpClient.Request(base + "/slow")));
+        }
+        while (inFlight.get() < HttpClient.MAX_PER_HOST) Thread.sleep(10);
+        //give the rest the chance to get through if the limit didn't hold
+        Thread.sleep(300);
+        assertEquals(HttpClient.MAX_PER_HOST, inFlight.get());
+        release.countDown();
+        for (CompletableFuture<HttpClient.Result> result : results) {
+            assertEquals("done", result.get(10, TimeUnit.SECONDS).getBody());
+        }
+        assertEquals(HttpClient.MAX_PER_HOST, most.get());
+    }
+
+    @Test(timeout = 20_000)
+    public void readTimesOutAndFreesTheHost() throws Exception {
+        server.createContext("/hang", ex -> {
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+            respond(ex, 200, "late", null);
+        });
+        //more than the host allows at once, which only works if every timed out request gave its turn back
+        for (int i = 0; i <= HttpClient.MAX_PER_HOST; i++) {
+            try {
+                HttpClient.execute(new HttpClient.Request(base + "/hang").timeout(200));
+                fail("The request should have timed out");
+            } catch (SocketTimeoutException expected) {
+            }
+        }
+    }
+
+    private static void respond(HttpExchange ex, int code, String body, String eTag) throws IOException {
+        if (eTag != null) ex.getResponseHeaders().set("ETag", eTag);
+        if (body == null) {
+            ex.sendResponseHeaders(code, -1);
+        } else {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            ex.sendResponseHeaders(code, bytes.length);
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+        ex.close();
+    }
+}